@@ -27,12 +27,19 @@ import java.time.Duration;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 
 import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.doppler.DopplerClient;
+import org.cloudfoundry.doppler.Envelope;
+import org.cloudfoundry.doppler.EventType;
+import org.cloudfoundry.doppler.FirehoseRequest;
 import org.cloudfoundry.doppler.LogMessage;
+import org.cloudfoundry.doppler.MessageType;
+import org.cloudfoundry.doppler.StreamRequest;
 import org.cloudfoundry.operations.CloudFoundryOperations;
 import org.cloudfoundry.operations.DefaultCloudFoundryOperations;
-import org.cloudfoundry.operations.applications.LogsRequest;
+import org.cloudfoundry.operations.applications.GetApplicationRequest;
 import org.cloudfoundry.reactor.DefaultConnectionContext;
 import org.cloudfoundry.reactor.ProxyConfiguration;
 import org.cloudfoundry.reactor.client.ReactorCloudFoundryClient;
@@ -46,10 +53,14 @@ import org.eclipse.cft.server.core.internal.CloudServerUtil;
 import org.eclipse.cft.server.core.internal.client.CFClient;
 import org.eclipse.cft.server.core.internal.client.CFCloudCredentials;
 import org.eclipse.cft.server.core.internal.log.AppLogUtil;
+import org.eclipse.cft.server.core.internal.log.ApplicationLogMultiplexer;
+import org.eclipse.cft.server.core.internal.log.ApplicationLogMultiplexer.LogStreamFactory;
 import org.eclipse.cft.server.core.internal.log.CFApplicationLogListener;
+import org.eclipse.cft.server.core.internal.log.CFApplicationLogRecordListener;
 import org.eclipse.cft.server.core.internal.log.CFStreamingLogToken;
 import org.eclipse.cft.server.core.internal.log.CloudLog;
 import org.eclipse.cft.server.core.internal.log.LogContentType;
+import org.eclipse.cft.server.core.internal.log.LogRecord;
 import org.eclipse.core.net.proxy.IProxyData;
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.CoreException;
@@ -60,12 +71,25 @@ import reactor.core.publisher.Flux;
 public class V2Client implements CFClient {
 
 	public static final String HTTP_KEEP_ALIVE_SYSTEM_PROPERTY = "http.keepAlive"; //$NON-NLS-1$
+
+	/**
+	 * Whether application logs are streamed through a single Doppler firehose
+	 * connection for all applications. Requires the doppler.firehose scope,
+	 * so it is disabled by default, in which case one connection is opened
+	 * per application, shared by all its log listeners.
+	 */
+	public static final String LOG_FIREHOSE_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".log.firehose"; //$NON-NLS-1$
+
+	private static final String FIREHOSE_SUBSCRIPTION_PREFIX = "cft-"; //$NON-NLS-1$
+
 	private CFCloudCredentials credentials;
 	private CloudFoundryServer cloudServer;
 	private String orgName;
 	private String spaceName;
 	private CloudFoundryClient v2Client = null;
 	private CloudFoundryOperations v2Operations = null;
+	private DopplerClient dopplerClient = null;
+	private ApplicationLogMultiplexer logMultiplexer = null;
 
 	public V2Client(CloudFoundryServer cloudServer, CFCloudCredentials credentials, String orgName, String spaceName) {
 
@@ -85,13 +109,18 @@ public class V2Client implements CFClient {
 		// clear exist client
 		this.v2Client = null;
 		this.v2Operations = null;
+		this.dopplerClient = null;
 		getV2Operations();
 		return null;
 	}
 
+	/**
+	 * Streams the application's logs through the client's log multiplexer,
+	 * so that all listeners of this client share Doppler connections.
+	 */
 	@Override
 	public CFStreamingLogToken streamLogs(String appName, CFApplicationLogListener listener) throws CoreException {
-		return internalStreamLogs(appName, listener, false);
+		return getLogMultiplexer().subscribe(getApplicationGuid(appName), listener);
 	}
 
 	@Override
@@ -99,13 +128,56 @@ public class V2Client implements CFClient {
 		throw CloudErrorUtil.toCoreException("Get recent logs not supported for v2 client."); //$NON-NLS-1$
 	}
 
-	private CFStreamingLogToken internalStreamLogs(String appName, CFApplicationLogListener listener,
-			boolean recentLogs) throws CoreException {
-		CloudFoundryOperations operations = getV2Operations();
+	protected String getApplicationGuid(String appName) throws CoreException {
+		try {
+			return getV2Operations().applications().get(GetApplicationRequest.builder().name(appName).build())
+					.block().getId();
+		} catch (RuntimeException e) {
+			throw CloudErrorUtil.toCoreException(e);
+		}
+	}
+
+	protected synchronized ApplicationLogMultiplexer getLogMultiplexer() {
+		if (logMultiplexer == null) {
+			CloudFoundryPlugin plugin = CloudFoundryPlugin.getDefault();
+			final boolean firehose = plugin != null && plugin.getPreferences().getBoolean(LOG_FIREHOSE_PREFERENCE, false);
+			logMultiplexer = new ApplicationLogMultiplexer(new LogStreamFactory() {
+
+				@Override
+				public boolean isShared() {
+					return firehose;
+				}
+
+				@Override
+				public CFStreamingLogToken openStream(String appGuid, CFApplicationLogListener listener)
+						throws CoreException {
+					return internalStreamLogs(appGuid, listener);
+				}
+			});
+		}
+		return logMultiplexer;
+	}
+
+	/**
+	 * 
+	 * @param appGuid application whose logs are streamed, or null to stream
+	 * the logs of all applications through the firehose
+	 * @param listener
+	 * @return token that closes the Doppler connection
+	 * @throws CoreException
+	 */
+	private CFStreamingLogToken internalStreamLogs(String appGuid, CFApplicationLogListener listener)
+			throws CoreException {
+		getV2Operations();
+		Flux<Envelope> envelopes = appGuid != null
+				? dopplerClient.stream(StreamRequest.builder().applicationId(appGuid).build())
+				: dopplerClient.firehose(FirehoseRequest.builder()
+						.subscriptionId(FIREHOSE_SUBSCRIPTION_PREFIX + UUID.randomUUID()).build());
 		V2LogListener v2Listener = asV2LogListener(listener);
-		Flux<LogMessage> stream = operations.applications()
-				.logs(LogsRequest.builder().name(appName).recent(recentLogs).build());
-		final Cancellation cancellation = stream.subscribe(v2Listener::onMessage, v2Listener::onError);
+		final Cancellation cancellation = envelopes
+				.filter(envelope -> EventType.LOG_MESSAGE == envelope.getEventType() && envelope.getLogMessage() != null)
+				.map(Envelope::getLogMessage)
+				.subscribe(v2Listener::onMessage, v2Listener::onError, v2Listener::onComplete);
 		return new CFStreamingLogToken() {
 
 			@Override
@@ -166,6 +238,7 @@ public class V2Client implements CFClient {
 
 				ReactorDopplerClient dopplerClient = ReactorDopplerClient.builder().connectionContext(connection)
 						.tokenProvider(tokenProvider).build();
+				this.dopplerClient = dopplerClient;
 
 				this.v2Client = ReactorCloudFoundryClient.builder().connectionContext(connection)
 						.tokenProvider(tokenProvider).build();
@@ -193,16 +266,35 @@ public class V2Client implements CFClient {
 		return Optional.empty();
 	}
 
+	/**
+	 * Adapts a Doppler log listener to the given listener. Logs are passed as
+	 * {@link LogRecord} to listeners that support it, reusing one record for
+	 * all logs of the stream, as Doppler delivers the logs of a stream one at a
+	 * time.
+	 * @param listener
+	 * @return Doppler log listener
+	 */
 	protected V2LogListener asV2LogListener(final CFApplicationLogListener listener) {
 		return new V2LogListener() {
 
+			private final LogRecord record = listener instanceof CFApplicationLogRecordListener ? new LogRecord()
+					: null;
+
 			@Override
 			public void onMessage(LogMessage log) {
-
-				CloudLog cloudLog = new CloudLog(log.getApplicationId(), AppLogUtil.format(log.getMessage()),
-						new Date(log.getTimestamp()), LogContentType.APPLICATION_LOG_STD_OUT, log.getSourceInstance(),
-						log.getSourceType());
-				listener.onMessage(cloudLog);
+				// Doppler timestamps are in epoch nanoseconds
+				long timestamp = log.getTimestamp() != null ? log.getTimestamp() : 0;
+				LogContentType type = MessageType.ERR == log.getMessageType()
+						? LogContentType.APPLICATION_LOG_STS_ERROR : LogContentType.APPLICATION_LOG_STD_OUT;
+				if (record != null) {
+					record.set(log.getApplicationId(), timestamp, type, log.getSourceType(), log.getSourceInstance())
+							.setMessage(log.getMessage());
+					((CFApplicationLogRecordListener) listener).onRecord(record);
+				}
+				else {
+					listener.onMessage(new CloudLog(log.getApplicationId(), AppLogUtil.format(log.getMessage()),
+							new Date(timestamp / 1000000), type, log.getSourceType(), log.getSourceInstance()));
+				}
 			}
 
 			@Override
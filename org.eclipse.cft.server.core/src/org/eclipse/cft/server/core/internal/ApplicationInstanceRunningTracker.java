@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2015, 2016 Pivotal Software, Inc. 
+ * Copyright (c) 2015, 2017 Pivotal Software, Inc. 
  * 
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
@@ -24,6 +24,9 @@ import org.cloudfoundry.client.lib.domain.ApplicationStats;
 import org.cloudfoundry.client.lib.domain.CloudApplication;
 import org.eclipse.cft.server.core.internal.client.CloudFoundryApplicationModule;
 import org.eclipse.cft.server.core.internal.client.CloudFoundryServerBehaviour;
+import org.eclipse.cft.server.core.internal.log.CFApplicationLogListener;
+import org.eclipse.cft.server.core.internal.log.CFStreamingLogToken;
+import org.eclipse.cft.server.core.internal.log.CloudLog;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
@@ -36,6 +39,15 @@ import org.eclipse.wst.server.core.IServer;
  * if it detects that the application is started, stopped, or tracking times
  * out.
  * <p/>
+ * Rather than polling the application at a fixed rate, the tracker listens to
+ * the application log stream, and checks the application state when the
+ * platform logs an event that may change the state of an instance, like a
+ * container being created, becoming healthy or crashing. Since such events may
+ * be missed, the application is still polled, but at an exponentially
+ * increasing interval. If no log stream is available, the application is
+ * polled at an interval that starts at {@link #WAIT_TIME} and increases up to
+ * {@link #MAX_POLL_INTERVAL}.
+ * <p/>
  * This does NOT update the modules in the {@link IServer}. The purpose of the
  * tracker is to resolve up-to-date running state of the application in Cloud
  * Foundry by direct tracking of the application, but not perform any updates on
@@ -45,14 +57,43 @@ import org.eclipse.wst.server.core.IServer;
 public class ApplicationInstanceRunningTracker {
 	public static final long TIMEOUT = 1000 * 60 * 5;
 
+	/**
+	 * Minimum time between two checks of the application state
+	 */
 	public static final long WAIT_TIME = 1000;
 
+	/**
+	 * Maximum polling interval if no log stream is available
+	 */
+	public static final long MAX_POLL_INTERVAL = 1000 * 10;
+
+	/**
+	 * Maximum polling interval while events are received through the log
+	 * stream
+	 */
+	public static final long MAX_STREAMING_POLL_INTERVAL = 1000 * 30;
+
+	/**
+	 * Interval at which cancellation is checked while waiting
+	 */
+	private static final long CANCEL_CHECK_INTERVAL = 200;
+
+	/**
+	 * Log sources of platform components that report instance state changes,
+	 * as opposed to application output or router access logs
+	 */
+	private static final String[] STATE_CHANGE_SOURCES = { "CELL", "DEA", "API", "HEALTH" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
 	private final CloudFoundryServer cloudServer;
 
 	private final CloudFoundryApplicationModule appModule;
 
 	private final long timeout;
 
+	private final Object signal = new Object();
+
+	private boolean stateChangeSignalled;
+
 	public ApplicationInstanceRunningTracker(CloudFoundryApplicationModule appModule, CloudFoundryServer cloudServer) {
 		this.cloudServer = cloudServer;
 		this.appModule = appModule;
@@ -81,42 +122,50 @@ public class ApplicationInstanceRunningTracker {
 
 		int state = IServer.STATE_UNKNOWN;
 
-		while (state != IServer.STATE_STARTED && state != IServer.STATE_STOPPED && currentTime < totalTime) {
+		CFStreamingLogToken logToken = startListening(behaviour, appName, monitor);
+		long maxPollInterval = logToken != null ? MAX_STREAMING_POLL_INTERVAL : MAX_POLL_INTERVAL;
+		long pollInterval = WAIT_TIME;
 
-			// NOTE: app state is NOT the same as the INSTANCE state. Instance
-			// state indicates if app is actually running or not.
-			// App state indicates the desired state of the app. So an app in
-			// STOPPED state will not have instances running. If
-			// app is STARTED, instances may still not be running if the app
-			// instances are still starting, are flapping, or have crashed.
+		try {
+			while (state != IServer.STATE_STARTED && state != IServer.STATE_STOPPED && currentTime < totalTime) {
 
-			if (monitor != null && monitor.isCanceled()) {
-				String error = NLS.bind(Messages.ApplicationInstanceStartingTracker_APPLICATION_CHECK_CANCELED,
-						appName);
-				printlnToConsole(error, appModule);
+				// NOTE: app state is NOT the same as the INSTANCE state.
+				// Instance state indicates if app is actually running or not.
+				// App state indicates the desired state of the app. So an app
+				// in STOPPED state will not have instances running. If
+				// app is STARTED, instances may still not be running if the app
+				// instances are still starting, are flapping, or have crashed.
 
-				throw new OperationCanceledException(error);
-			}
+				checkCanceled(monitor, appName);
 
-			CloudApplication cloudApp = behaviour.getCloudApplication(appName, monitor);
-			ApplicationStats applicationStats = behaviour.getApplicationStats(appName, monitor);
+				// Only events that occur from now on may indicate a change
+				// that this check does not see
+				clearStateChange();
 
-			if (cloudApp == null) {
-				// app may no longer exist
-				String error = NLS.bind(Messages.ApplicationInstanceStartingTracker_APPLICATION_NOT_EXISTS, appName);
-				printlnToConsole(error, appModule);
-				throw CloudErrorUtil.toCoreException(error);
-			}
-			else {
-				state = CloudFoundryApplicationModule.getCloudState(cloudApp, applicationStats);
-				try {
-					Thread.sleep(WAIT_TIME);
-				}
-				catch (InterruptedException e) {
+				CloudApplication cloudApp = behaviour.getCloudApplication(appName, monitor);
+				ApplicationStats applicationStats = behaviour.getApplicationStats(appName, monitor);
 
+				if (cloudApp == null) {
+					// app may no longer exist
+					String error = NLS.bind(Messages.ApplicationInstanceStartingTracker_APPLICATION_NOT_EXISTS,
+							appName);
+					printlnToConsole(error, appModule);
+					throw CloudErrorUtil.toCoreException(error);
 				}
-
-				currentTime = System.currentTimeMillis();
+				else {
+					state = CloudFoundryApplicationModule.getCloudState(cloudApp, applicationStats);
+					if (state != IServer.STATE_STARTED && state != IServer.STATE_STOPPED) {
+						waitForStateChange(Math.min(pollInterval, totalTime - System.currentTimeMillis()), monitor,
+								appName);
+						pollInterval = Math.min(pollInterval * 2, maxPollInterval);
+					}
+					currentTime = System.currentTimeMillis();
+				}
+			}
+		}
+		finally {
+			if (logToken != null) {
+				logToken.cancel();
 			}
 		}
 
@@ -128,6 +177,121 @@ public class ApplicationInstanceRunningTracker {
 		return state;
 	}
 
+	/**
+	 * Waits until either an instance state change is signalled, or the given
+	 * maximum wait time elapses. Never returns earlier than {@link #WAIT_TIME},
+	 * to avoid checking the application state for every event in a burst of
+	 * events.
+	 * @throws OperationCanceledException if the monitor is cancelled, or the
+	 * waiting thread is interrupted
+	 */
+	protected void waitForStateChange(long maxWait, IProgressMonitor monitor, String appName)
+			throws OperationCanceledException {
+		long start = System.currentTimeMillis();
+		long end = start + Math.max(0, maxWait);
+		long earliest = start + Math.min(WAIT_TIME, Math.max(0, maxWait));
+		synchronized (signal) {
+			long now = start;
+			while (now < end && !(stateChangeSignalled && now >= earliest)) {
+				checkCanceled(monitor, appName);
+				long wait = stateChangeSignalled ? earliest - now : end - now;
+				try {
+					signal.wait(Math.max(1, Math.min(wait, CANCEL_CHECK_INTERVAL)));
+				}
+				catch (InterruptedException e) {
+					// Returning would only poll again right away, as every
+					// further wait is interrupted as well
+					Thread.currentThread().interrupt();
+					throw canceled(appName);
+				}
+				now = System.currentTimeMillis();
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @return token to stop listening, or null if no log stream is available
+	 */
+	protected CFStreamingLogToken startListening(CloudFoundryServerBehaviour behaviour, String appName,
+			IProgressMonitor monitor) {
+		try {
+			return behaviour.startAppLogStreaming(appName, new CFApplicationLogListener() {
+
+				public void onMessage(CloudLog log) {
+					if (isStateChange(log)) {
+						signalStateChange();
+					}
+				}
+
+				public void onComplete() {
+					// Nothing. Polling continues
+				}
+
+				public void onError(Throwable exception) {
+					// Nothing. Polling continues
+				}
+			}, monitor);
+		}
+		catch (CoreException e) {
+			// Tracking does not depend on the log stream
+			CloudFoundryPlugin.logError(e);
+			return null;
+		}
+	}
+
+	private void clearStateChange() {
+		synchronized (signal) {
+			stateChangeSignalled = false;
+		}
+	}
+
+	protected void signalStateChange() {
+		synchronized (signal) {
+			stateChangeSignalled = true;
+			signal.notifyAll();
+		}
+	}
+
+	/**
+	 * 
+	 * @param log
+	 * @return true if the log was written by a platform component that reports
+	 * instance state changes
+	 */
+	protected boolean isStateChange(CloudLog log) {
+		return log != null && (isStateChangeSource(log.getSourceName()) || isStateChangeSource(log.getSourceId()));
+	}
+
+	private static boolean isStateChangeSource(String source) {
+		if (source != null) {
+			String upperCaseSource = source.toUpperCase();
+			for (String stateChangeSource : STATE_CHANGE_SOURCES) {
+				if (upperCaseSource.startsWith(stateChangeSource)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void checkCanceled(IProgressMonitor monitor, String appName) throws OperationCanceledException {
+		if (monitor != null && monitor.isCanceled()) {
+			throw canceled(appName);
+		}
+	}
+
+	private OperationCanceledException canceled(String appName) {
+		String error = NLS.bind(Messages.ApplicationInstanceStartingTracker_APPLICATION_CHECK_CANCELED, appName);
+		try {
+			printlnToConsole(error, appModule);
+		}
+		catch (CoreException e) {
+			CloudFoundryPlugin.logError(e);
+		}
+		return new OperationCanceledException(error);
+	}
+
 	protected void printlnToConsole(String message, CloudFoundryApplicationModule appModule) throws CoreException {
 		message += '\n';
 		CloudFoundryPlugin.getCallback().printToConsole(cloudServer, appModule, message, false, false);
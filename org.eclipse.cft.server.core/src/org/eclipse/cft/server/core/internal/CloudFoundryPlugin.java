@@ -23,14 +23,18 @@ package org.eclipse.cft.server.core.internal;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 
 import org.eclipse.cft.server.core.AbstractAppStateTracker;
+import org.eclipse.cft.server.core.internal.application.ArchiveEntryDigester;
 import org.eclipse.cft.server.core.internal.client.CloudFoundryApplicationModule;
 import org.eclipse.cft.server.core.internal.client.CloudFoundryClientFactory;
 import org.eclipse.cft.server.core.internal.client.DeploymentConfiguration;
 import org.eclipse.cft.server.core.internal.client.diego.DiegoTarget;
+import org.eclipse.cft.server.core.internal.log.ApplicationLogArchive;
 import org.eclipse.core.net.proxy.IProxyService;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
@@ -291,7 +295,17 @@ public class CloudFoundryPlugin extends Plugin {
 
 	private static IProxyService proxyService;
 
-	private DeployedResourceCache sha1Cache = new DeployedResourceCache();
+	private static final String DEPLOYED_RESOURCES_STORE_FOLDER = "deployedResources"; //$NON-NLS-1$
+
+	private static final String APPLICATION_LOG_ARCHIVE_FOLDER = "applicationLogs"; //$NON-NLS-1$
+
+	private DeployedResourceCache sha1Cache;
+
+	private final Map<File, ApplicationLogArchive> logArchives = new HashMap<File, ApplicationLogArchive>();
+
+	private FileFingerprintCache fingerprintCache;
+
+	private RemoteResourceCache remoteResourceCache;
 
 	private InstanceScope INSTANCE_SCOPE = new InstanceScope();
 
@@ -373,9 +387,68 @@ public class CloudFoundryPlugin extends Plugin {
 	}
 
 	public synchronized DeployedResourceCache getDeployedResourcesCache() {
+		if (sha1Cache == null) {
+			DeployedResourceStore store = null;
+			try {
+				store = new DeployedResourceStore(
+						getStateLocation().append(DEPLOYED_RESOURCES_STORE_FOLDER).toFile());
+			}
+			catch (IllegalStateException e) {
+				// No state location available (e.g. no workspace). Only cache
+				// sha1 entries in memory
+				logError(e);
+			}
+			sha1Cache = new DeployedResourceCache(store);
+		}
 		return sha1Cache;
 	}
 
+	/**
+	 * 
+	 * @param cloudServer
+	 * @param appName
+	 * @return archive of the logs of the given application, or null if
+	 * application logs are not archived
+	 */
+	public synchronized ApplicationLogArchive getApplicationLogArchive(CloudFoundryServer cloudServer, String appName) {
+		if (cloudServer == null || appName == null
+				|| !getPreferences().getBoolean(ApplicationLogArchive.ENABLED_PREFERENCE,
+						ApplicationLogArchive.DEFAULT_ENABLED)) {
+			return null;
+		}
+		File folder;
+		try {
+			folder = ApplicationLogArchive.getArchiveFolder(
+					getStateLocation().append(APPLICATION_LOG_ARCHIVE_FOLDER).toFile(), cloudServer.getServerId(),
+					appName);
+		}
+		catch (IllegalStateException e) {
+			// No state location available (e.g. no workspace)
+			logError(e);
+			return null;
+		}
+		ApplicationLogArchive archive = logArchives.get(folder);
+		if (archive == null) {
+			archive = ApplicationLogArchive.fromPreferences(folder);
+			logArchives.put(folder, archive);
+		}
+		return archive;
+	}
+
+	public synchronized FileFingerprintCache getFileFingerprintCache() {
+		if (fingerprintCache == null) {
+			fingerprintCache = FileFingerprintCache.fromPreferences();
+		}
+		return fingerprintCache;
+	}
+
+	public synchronized RemoteResourceCache getRemoteResourceCache() {
+		if (remoteResourceCache == null) {
+			remoteResourceCache = RemoteResourceCache.fromPreferences();
+		}
+		return remoteResourceCache;
+	}
+
 	public static synchronized void setCallback(CloudFoundryCallback callback) {
 		CloudFoundryPlugin.callback = callback;
 	}
@@ -456,6 +529,15 @@ public class CloudFoundryPlugin extends Plugin {
 			moduleCache = null;
 		}
 
+		ArchiveEntryDigester.shutdown();
+
+		synchronized (this) {
+			if (sha1Cache != null) {
+				sha1Cache.flush();
+				sha1Cache = null;
+			}
+		}
+
 		plugin = null;
 		super.stop(context);
 	}
@@ -31,6 +31,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import org.cloudfoundry.client.lib.HttpProxyConfiguration;
 import org.cloudfoundry.client.lib.domain.ApplicationStats;
@@ -211,6 +212,20 @@ public class CloudFoundryServer extends ServerDelegate implements IURLProvider {
 		}
 	}
 
+	/**
+	 * Updates the lookup indices of the given module after its Cloud
+	 * application mapping changed. Unlike
+	 * {@link #updateApplicationModule(CloudFoundryApplicationModule)}, the
+	 * local module to deployed application mapping is not persisted.
+	 * @param module
+	 */
+	public void updateApplicationModuleIndex(CloudFoundryApplicationModule module) {
+		ServerData data = getData();
+		if (data != null) {
+			data.index(module);
+		}
+	}
+
 	/** Convenience method to determine if a module is for a non-faceted project */
 	public static boolean isNonfacetedModule(IModule module) {
 		boolean isNonfacetedProjResult = false;
@@ -1422,17 +1437,17 @@ public class CloudFoundryServer extends ServerDelegate implements IURLProvider {
 		if (appName == null) {
 			return null;
 		}
-		CloudFoundryApplicationModule appModule = null;
-		Collection<CloudFoundryApplicationModule> modules = getExistingCloudModules();
-		if (modules != null) {
-			for (CloudFoundryApplicationModule module : modules) {
-				if (appName.equals(module.getDeployedApplicationName())) {
-					appModule = module;
-					break;
-				}
-			}
-		}
-		return appModule;
+		ServerData data = getData();
+		return data != null ? data.getExistingCloudModule(appName) : null;
+	}
+
+	/**
+	 * @return Cloud application module mapped to the Cloud application with
+	 * the given GUID, if it exists. Null otherwise.
+	 */
+	public CloudFoundryApplicationModule getExistingCloudModuleByGuid(UUID guid) {
+		ServerData data = getData();
+		return data != null ? data.getExistingCloudModuleByGuid(guid) : null;
 	}
 
 	/**
@@ -20,6 +20,7 @@
  ********************************************************************************/
 package org.eclipse.cft.server.core.internal;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -108,6 +109,26 @@ public class CloudUtil {
 	 */
 	public static File createWarFile(List<IModuleResource> allResources, IModule module,
 			Set<IModuleResource> filterInResources, IProgressMonitor monitor) throws CoreException {
+		return createWarFile(allResources, module, filterInResources, ZipCompressionPolicy.getDefault(), monitor);
+	}
+
+	/**
+	 * Creates a partial war file containing only the resources listed in the
+	 * list to filter in, using the given policy to determine how each entry is
+	 * compressed. Note that at least one content must be present in the list
+	 * to filter in, otherwise null is returned.
+	 * @param allResources
+	 * @param module
+	 * @param filterInResources
+	 * @param compressionPolicy
+	 * @param monitor
+	 * @return partial war file with resources specified in the filter in list,
+	 * or null if filter list is empty or null
+	 * @throws CoreException
+	 */
+	public static File createWarFile(List<IModuleResource> allResources, IModule module,
+			Set<IModuleResource> filterInResources, ZipCompressionPolicy compressionPolicy, IProgressMonitor monitor)
+			throws CoreException {
 		if (allResources == null || allResources.isEmpty() || filterInResources == null
 				|| filterInResources.isEmpty()) {
 			return null;
@@ -127,7 +148,7 @@ public class CloudUtil {
 				newResources.add(processModuleResource(mr));
 			}
 
-			IStatus[] status = publishZip(allResources, warFile, filterInResources, monitor);
+			IStatus[] status = publishZip(allResources, warFile, filterInResources, compressionPolicy, monitor);
 			merge(result, status);
 			throwException(result, "Publishing of : " + module.getName() + " failed"); //$NON-NLS-1$ //$NON-NLS-2$
 
@@ -256,13 +277,18 @@ public class CloudUtil {
 
 	public static IStatus[] publishZip(List<IModuleResource> allResources, File tempFile,
 			Set<IModuleResource> filterInFiles, IProgressMonitor monitor) {
+		return publishZip(allResources, tempFile, filterInFiles, ZipCompressionPolicy.getDefault(), monitor);
+	}
+
+	public static IStatus[] publishZip(List<IModuleResource> allResources, File tempFile,
+			Set<IModuleResource> filterInFiles, ZipCompressionPolicy compressionPolicy, IProgressMonitor monitor) {
 
 		monitor = ProgressUtil.getMonitorFor(monitor);
 
 		try {
 			BufferedOutputStream bout = new BufferedOutputStream(new FileOutputStream(tempFile));
 			ZipOutputStream zout = new ZipOutputStream(bout);
-			addZipEntries(zout, allResources, filterInFiles);
+			addZipEntries(zout, allResources, filterInFiles, compressionPolicy, new byte[BUFFER]);
 			zout.close();
 
 		}
@@ -283,8 +309,6 @@ public class CloudUtil {
 
 	private static final int BUFFER = 65536;
 
-	private static byte[] buf = new byte[BUFFER];
-
 	public static String getZipRelativeName(IModuleResource resource) {
 		IPath path = resource.getModuleRelativePath().append(resource.getName());
 		String entryPath = path.toPortableString();
@@ -297,7 +321,7 @@ public class CloudUtil {
 	}
 
 	private static void addZipEntries(ZipOutputStream out, List<IModuleResource> allResources,
-			Set<IModuleResource> filterInFiles) throws Exception {
+			Set<IModuleResource> filterInFiles, ZipCompressionPolicy compressionPolicy, byte[] buf) throws Exception {
 		if (allResources == null)
 			return;
 
@@ -323,7 +347,7 @@ public class CloudUtil {
 				out.putNextEntry(zipEntry);
 				out.closeEntry();
 
-				addZipEntries(out, Arrays.asList(folderResources), filterInFiles);
+				addZipEntries(out, Arrays.asList(folderResources), filterInFiles, compressionPolicy, buf);
 				continue;
 			}
 
@@ -354,9 +378,13 @@ public class CloudUtil {
 				zipEntry.setTime(timeStamp);
 			}
 
-			out.putNextEntry(zipEntry);
-
 			try {
+				// Avoid deflating content that is already compressed
+				input = new BufferedInputStream(input, BUFFER);
+				out.setLevel(compressionPolicy.getLevel(entryPath, input));
+
+				out.putNextEntry(zipEntry);
+
 				int n = 0;
 				while (n > -1) {
 					n = input.read(buf);
@@ -20,48 +20,226 @@
  ********************************************************************************/
 package org.eclipse.cft.server.core.internal;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Cache for sha1 hash entries and file sizes for incremental publishing of
  * deployed resources. This avoid recalculating hash entries for resources that
  * have not changed in the server. A server poll may still required to obtain a
  * list of unchanged resources.
+ * <p/>
+ * If a {@link DeployedResourceStore} is set, entries for an application are
+ * loaded from the store the first time they are requested, and written back
+ * when the cache is flushed, so that they survive workspace restarts.
  * 
  */
 public class DeployedResourceCache {
 	private final Map<CachedDeployedApplication, Map<String, DeployedResourceEntry>> cacheMap = new HashMap<CachedDeployedApplication, Map<String, DeployedResourceEntry>>();
 
-	public synchronized void add(CachedDeployedApplication applicationID, DeployedResourceEntry entry) {
-		Map<String, DeployedResourceEntry> appEntries = cacheMap.get(applicationID);
-		if (appEntries == null) {
-			appEntries = new HashMap<String, DeployedResourceCache.DeployedResourceEntry>();
-			cacheMap.put(applicationID, appEntries);
+	private final Set<CachedDeployedApplication> modifiedApplications = new HashSet<CachedDeployedApplication>();
+
+	private final Map<CachedDeployedApplication, Map<String, File>> manifests = new HashMap<CachedDeployedApplication, Map<String, File>>();
+
+	private final DeployedResourceStore store;
+
+	public DeployedResourceCache() {
+		this(null);
+	}
+
+	/**
+	 * 
+	 * @param store persistent store for the cached entries. May be null, in
+	 * which case entries are only kept in memory.
+	 */
+	public DeployedResourceCache(DeployedResourceStore store) {
+		this.store = store;
+	}
+
+	public void add(CachedDeployedApplication applicationID, DeployedResourceEntry entry) {
+		Map<String, DeployedResourceEntry> appEntries = getApplicationEntries(applicationID);
+		synchronized (this) {
+			appEntries.put(entry.getZipRelativeFileName(), entry);
+			modifiedApplications.add(applicationID);
+		}
+	}
+
+	public DeployedResourceEntry getEntry(CachedDeployedApplication applicationID, String zipRelativeFileName) {
+		Map<String, DeployedResourceEntry> appEntries = getApplicationEntries(applicationID);
+		synchronized (this) {
+			return appEntries.get(zipRelativeFileName);
+		}
+	}
+
+	/**
+	 * Records the complete list of archive entries of the application as it was
+	 * last published, in archive order. This allows the next incremental
+	 * publish to apply resource deltas to this manifest instead of walking all
+	 * the application's resources again.
+	 * @param applicationID
+	 * @param manifest map of zip relative names to the local file backing the
+	 * entry. Folder entries, or entries that are not backed by a local file,
+	 * map to null.
+	 */
+	public synchronized void setManifest(CachedDeployedApplication applicationID, Map<String, File> manifest) {
+		manifests.put(applicationID, manifest);
+	}
+
+	/**
+	 * 
+	 * @param applicationID
+	 * @return manifest of archive entries last published for the application,
+	 * or null if none recorded in this session.
+	 */
+	public synchronized Map<String, File> getManifest(CachedDeployedApplication applicationID) {
+		return manifests.get(applicationID);
+	}
+
+	/**
+	 * Writes any entries added for the given application since the last flush
+	 * to the persistent store, if one is set. If writing fails, the entries
+	 * are written again on the next flush.
+	 * @param applicationID
+	 */
+	public void flush(CachedDeployedApplication applicationID) {
+		if (store == null) {
+			return;
+		}
+		// The entries are copied and saved while holding the store lock, so
+		// that concurrent flushes of the same application save them in the
+		// order they were copied. Disk I/O is still done outside the cache
+		// monitor so that publishes of other applications are not blocked.
+		synchronized (store) {
+			List<DeployedResourceEntry> toSave;
+			synchronized (this) {
+				Map<String, DeployedResourceEntry> appEntries = cacheMap.get(applicationID);
+				if (!modifiedApplications.remove(applicationID) || appEntries == null) {
+					return;
+				}
+				toSave = new ArrayList<DeployedResourceEntry>(appEntries.values());
+			}
+			try {
+				store.save(applicationID, toSave);
+			}
+			catch (IOException e) {
+				synchronized (this) {
+					if (cacheMap.containsKey(applicationID)) {
+						modifiedApplications.add(applicationID);
+					}
+				}
+				CloudFoundryPlugin.logError("Failed to persist deployed resource entries for " + applicationID, e); //$NON-NLS-1$
+			}
+		}
+	}
+
+	/**
+	 * Writes entries for all applications that have been modified since the
+	 * last flush to the persistent store, if one is set.
+	 */
+	public void flush() {
+		Set<CachedDeployedApplication> modified;
+		synchronized (this) {
+			modified = new HashSet<CachedDeployedApplication>(modifiedApplications);
+		}
+		for (CachedDeployedApplication applicationID : modified) {
+			flush(applicationID);
+		}
+	}
+
+	/**
+	 * Discards all cached and persisted entries for the given application.
+	 * Should be invoked when the application is deleted, so that a new
+	 * application with the same name does not reuse stale entries.
+	 * @param applicationID
+	 */
+	public void remove(CachedDeployedApplication applicationID) {
+		synchronized (this) {
+			cacheMap.remove(applicationID);
+			modifiedApplications.remove(applicationID);
+			manifests.remove(applicationID);
+		}
+		if (store != null) {
+			synchronized (store) {
+				store.delete(applicationID);
+			}
 		}
-		appEntries.put(entry.getZipRelativeFileName(), entry);
 	}
 
-	public synchronized DeployedResourceEntry getEntry(CachedDeployedApplication applicationID,
-			String zipRelativeFileName) {
-		Map<String, DeployedResourceEntry> appEntries = cacheMap.get(applicationID);
+	protected Map<String, DeployedResourceEntry> getApplicationEntries(CachedDeployedApplication applicationID) {
+		synchronized (this) {
+			Map<String, DeployedResourceEntry> appEntries = cacheMap.get(applicationID);
+			if (appEntries != null) {
+				return appEntries;
+			}
+			if (store == null) {
+				appEntries = new HashMap<String, DeployedResourceCache.DeployedResourceEntry>();
+				cacheMap.put(applicationID, appEntries);
+				return appEntries;
+			}
+		}
 
-		return appEntries != null ? appEntries.get(zipRelativeFileName) : null;
+		// Lazily load persisted entries only when the app is first
+		// accessed. This is done outside the cache monitor, so the first
+		// publish of one application does not block the others.
+		Map<String, DeployedResourceEntry> loaded;
+		synchronized (store) {
+			loaded = store.load(applicationID);
+		}
+
+		synchronized (this) {
+			// Another thread may have loaded or added entries in the meantime
+			Map<String, DeployedResourceEntry> appEntries = cacheMap.get(applicationID);
+			if (appEntries == null) {
+				appEntries = loaded;
+				cacheMap.put(applicationID, appEntries);
+			}
+			return appEntries;
+		}
 	}
 
 	public static class DeployedResourceEntry {
+
+		public static final long UNDEFINED_TIMESTAMP = -1;
+
 		private final byte[] sha1;
 
 		private final long fileSize;
 
+		private final long lastModified;
+
 		private final String zipRelativeFileName;
 
 		public DeployedResourceEntry(byte[] sha1, long fileSize, String zipRelativeFileName) {
+			this(sha1, fileSize, UNDEFINED_TIMESTAMP, zipRelativeFileName);
+		}
+
+		public DeployedResourceEntry(byte[] sha1, long fileSize, long lastModified, String zipRelativeFileName) {
 			this.sha1 = sha1;
 			this.fileSize = fileSize;
+			this.lastModified = lastModified;
 			this.zipRelativeFileName = zipRelativeFileName;
 		}
 
+		/**
+		 * 
+		 * @param fileSize current size of the resource
+		 * @param lastModified current timestamp of the resource
+		 * @return true if the entry was computed for a resource with the same
+		 * size and timestamp, and therefore the sha1 need not be recomputed.
+		 * False otherwise, including if no timestamp was recorded for this
+		 * entry.
+		 */
+		public boolean isUpToDate(long fileSize, long lastModified) {
+			return this.lastModified != UNDEFINED_TIMESTAMP && this.lastModified == lastModified
+					&& this.fileSize == fileSize;
+		}
+
 		public String getZipRelativeFileName() {
 			return zipRelativeFileName;
 		}
@@ -73,6 +251,10 @@ public class DeployedResourceCache {
 		public long getFileSize() {
 			return fileSize;
 		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
 	}
 
 	/**
@@ -82,12 +264,30 @@ public class DeployedResourceCache {
 	 */
 	public static class CachedDeployedApplication {
 
+		private final String serverId;
+
 		private final String appName;
 
 		public CachedDeployedApplication(String appName) {
+			this(null, appName);
+		}
+
+		/**
+		 * 
+		 * @param serverId id of the server the app is deployed to. Apps with
+		 * the same name in different servers (or spaces) are cached
+		 * separately. May be null.
+		 * @param appName
+		 */
+		public CachedDeployedApplication(String serverId, String appName) {
+			this.serverId = serverId;
 			this.appName = appName;
 		}
 
+		public String getServerId() {
+			return serverId;
+		}
+
 		public String getAppName() {
 			return appName;
 		}
@@ -96,6 +296,7 @@ public class DeployedResourceCache {
 			final int prime = 31;
 			int result = 1;
 			result = prime * result + ((appName == null) ? 0 : appName.hashCode());
+			result = prime * result + ((serverId == null) ? 0 : serverId.hashCode());
 			return result;
 		}
 
@@ -119,11 +320,19 @@ public class DeployedResourceCache {
 			else if (!appName.equals(other.appName)) {
 				return false;
 			}
+			if (serverId == null) {
+				if (other.serverId != null) {
+					return false;
+				}
+			}
+			else if (!serverId.equals(other.serverId)) {
+				return false;
+			}
 			return true;
 		}
 
 		public String toString() {
-			return appName.toString();
+			return serverId != null ? serverId + '/' + appName : appName;
 		}
 
 	}
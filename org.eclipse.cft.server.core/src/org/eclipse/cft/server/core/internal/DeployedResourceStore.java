@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.core.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.cft.server.core.internal.DeployedResourceCache.CachedDeployedApplication;
+import org.eclipse.cft.server.core.internal.DeployedResourceCache.DeployedResourceEntry;
+
+/**
+ * On-disk store for the sha1 hash entries and file sizes kept in the
+ * {@link DeployedResourceCache}. Each application has its own index file in
+ * the store folder, keyed by server and application name, containing for
+ * every deployed resource its zip relative name, file size, last modified time
+ * and sha1 hash code.
+ * <p/>
+ * This allows sha1 codes to survive workspace restarts, so that they only need
+ * to be recomputed for resources whose size or timestamp has changed since the
+ * last publish, rather than for every resource in the application on the first
+ * publish after a restart.
+ * <p/>
+ * Index files are only read when entries for an application are first
+ * requested. Corrupt or outdated index files are discarded, in which case sha1
+ * codes are simply recomputed.
+ */
+public class DeployedResourceStore {
+
+	private static final int MAGIC = 0x43465348;
+
+	private static final int STORE_VERSION = 2;
+
+	private static final String INDEX_FILE_EXTENSION = ".idx"; //$NON-NLS-1$
+
+	private final File storeFolder;
+
+	public DeployedResourceStore(File storeFolder) {
+		this.storeFolder = storeFolder;
+	}
+
+	/**
+	 *
+	 * @param appID
+	 * @return non-null map of zip relative file names to deployed resource
+	 * entries that were persisted for the given app. Empty if nothing was
+	 * persisted, or the persisted index could not be read.
+	 */
+	public Map<String, DeployedResourceEntry> load(CachedDeployedApplication appID) {
+		Map<String, DeployedResourceEntry> entries = new HashMap<String, DeployedResourceEntry>();
+		File indexFile = getIndexFile(appID);
+		if (indexFile == null || !indexFile.isFile()) {
+			return entries;
+		}
+
+		boolean discard = false;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+			if (in.readInt() != MAGIC || in.readInt() != STORE_VERSION || !appID.getAppName().equals(in.readUTF())
+					|| !getServerKey(appID).equals(in.readUTF())) {
+				// Written by a different version, or collision in the
+				// file name. Either way the entries cannot be used.
+				return entries;
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String zipRelativeFileName = in.readUTF();
+				long fileSize = in.readLong();
+				long lastModified = in.readLong();
+				byte[] sha1 = new byte[in.readUnsignedByte()];
+				in.readFully(sha1);
+				entries.put(zipRelativeFileName,
+						new DeployedResourceEntry(sha1, fileSize, lastModified, zipRelativeFileName));
+			}
+		}
+		catch (IOException e) {
+			// Partially written or corrupt index. Discard it, as sha1 codes can
+			// always be recomputed
+			entries.clear();
+			CloudFoundryPlugin.logError("Failed to read deployed resource index for " + appID.getAppName() //$NON-NLS-1$
+					+ " - sha1 codes will be recalculated on the next publish", e); //$NON-NLS-1$
+			discard = true;
+		}
+		finally {
+			close(in);
+		}
+		if (discard) {
+			indexFile.delete();
+		}
+		return entries;
+	}
+
+	/**
+	 * Replaces the persisted index for the given app with the given entries.
+	 * The index is first written to a temporary file, so that a failure while
+	 * writing never leaves a partially written index in place.
+	 * @param appID
+	 * @param entries
+	 * @throws IOException if failed to write the index
+	 */
+	public void save(CachedDeployedApplication appID, Collection<DeployedResourceEntry> entries) throws IOException {
+		File indexFile = getIndexFile(appID);
+		if (indexFile == null) {
+			return;
+		}
+		if (!storeFolder.exists() && !storeFolder.mkdirs()) {
+			throw new IOException("Unable to create deployed resource store folder: " + storeFolder); //$NON-NLS-1$
+		}
+
+		File tempFile = new File(storeFolder, indexFile.getName() + ".tmp"); //$NON-NLS-1$
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(STORE_VERSION);
+			out.writeUTF(appID.getAppName());
+			out.writeUTF(getServerKey(appID));
+
+			int count = 0;
+			for (DeployedResourceEntry entry : entries) {
+				if (isPersistable(entry)) {
+					count++;
+				}
+			}
+			out.writeInt(count);
+			for (DeployedResourceEntry entry : entries) {
+				if (isPersistable(entry)) {
+					out.writeUTF(entry.getZipRelativeFileName());
+					out.writeLong(entry.getFileSize());
+					out.writeLong(entry.getLastModified());
+					out.writeByte(entry.getSha1().length);
+					out.write(entry.getSha1());
+				}
+			}
+		}
+		finally {
+			out.close();
+		}
+
+		Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Deletes the persisted index for the given app, if one exists.
+	 * @param appID
+	 */
+	public void delete(CachedDeployedApplication appID) {
+		File indexFile = getIndexFile(appID);
+		if (indexFile != null && indexFile.exists()) {
+			indexFile.delete();
+		}
+	}
+
+	protected boolean isPersistable(DeployedResourceEntry entry) {
+		// Entries without a timestamp cannot be validated after a restart.
+		return entry.getSha1() != null && entry.getSha1().length <= 0xFF
+				&& entry.getLastModified() != DeployedResourceEntry.UNDEFINED_TIMESTAMP;
+	}
+
+	/**
+	 * App names may contain characters that are not valid in file names, so
+	 * the index file name is derived from a hash of the server id and app name
+	 * instead.
+	 */
+	protected File getIndexFile(CachedDeployedApplication appID) {
+		if (appID == null || appID.getAppName() == null) {
+			return null;
+		}
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+			digest.update(getServerKey(appID).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			byte[] hash = digest.digest(appID.getAppName().getBytes(StandardCharsets.UTF_8));
+			StringBuilder name = new StringBuilder();
+			for (byte b : hash) {
+				name.append(String.format("%02x", b)); //$NON-NLS-1$
+			}
+			name.append(INDEX_FILE_EXTENSION);
+			return new File(storeFolder, name.toString());
+		}
+		catch (NoSuchAlgorithmException e) {
+			CloudFoundryPlugin.logError(e);
+			return null;
+		}
+	}
+
+	private static String getServerKey(CachedDeployedApplication appID) {
+		return appID.getServerId() != null ? appID.getServerId() : ""; //$NON-NLS-1$
+	}
+
+	private static void close(DataInputStream in) {
+		if (in != null) {
+			try {
+				in.close();
+			}
+			catch (IOException e) {
+				// Ignore
+			}
+		}
+	}
+}
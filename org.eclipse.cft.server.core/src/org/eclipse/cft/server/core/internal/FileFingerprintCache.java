@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.core.internal;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Content-addressed cache of sha1 hash codes and sizes of local files, shared
+ * by all applications and Cloud servers in the workspace. Whereas the
+ * {@link DeployedResourceCache} maps an application's zip relative resource
+ * names to their sha1 codes, this cache records each distinct file content
+ * once, keyed by its sha1 code, along with the local files known to have that
+ * content. Files shared by several applications, like library jars resolved
+ * from a local repository, or applications pushed to more than one Cloud
+ * server, are therefore only hashed once, and identical copies of a file in
+ * different locations only count once towards the size of the cache.
+ * <p/>
+ * A file is mapped to its content by its size and last modified time, so a
+ * lookup never reads the file. A mapping is only valid as long as both are
+ * unchanged, and as long as the content it refers to is still cached.
+ * <p/>
+ * The cache is bounded by the total size of the distinct content it
+ * describes, and by the number of file locations. The least recently used
+ * content is evicted first, together with all the locations referring to it.
+ * Only hash codes and sizes are kept, not the content itself.
+ */
+public class FileFingerprintCache {
+
+	public static final String MAX_ENTRIES_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID
+			+ ".publish.fingerprint.cache.size"; //$NON-NLS-1$
+
+	public static final String MAX_BYTES_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID
+			+ ".publish.fingerprint.cache.bytes"; //$NON-NLS-1$
+
+	public static final int DEFAULT_MAX_ENTRIES = 50000;
+
+	public static final long DEFAULT_MAX_BYTES = 4L * 1024 * 1024 * 1024;
+
+	private final int maxEntries;
+
+	private final long maxBytes;
+
+	/**
+	 * Distinct content, keyed by sha1, in least recently used order.
+	 */
+	private final LinkedHashMap<String, Fingerprint> contents = new LinkedHashMap<String, Fingerprint>(256, 0.75f,
+			true);
+
+	/**
+	 * Local files, keyed by absolute path, and the content they were last
+	 * known to have.
+	 */
+	private final Map<String, Location> locations = new HashMap<String, Location>();
+
+	private long bytes;
+
+	public FileFingerprintCache(int maxEntries) {
+		this(maxEntries, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * 
+	 * @param maxEntries maximum number of local file locations
+	 * @param maxBytes maximum total size of the distinct content described by
+	 * the cache
+	 */
+	public FileFingerprintCache(int maxEntries, long maxBytes) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+	public static FileFingerprintCache fromPreferences() {
+		int maxEntries = DEFAULT_MAX_ENTRIES;
+		long maxBytes = DEFAULT_MAX_BYTES;
+		CloudFoundryPlugin plugin = CloudFoundryPlugin.getDefault();
+		if (plugin != null && plugin.getPreferences() != null) {
+			maxEntries = plugin.getPreferences().getInt(MAX_ENTRIES_PREFERENCE, DEFAULT_MAX_ENTRIES);
+			maxBytes = plugin.getPreferences().getLong(MAX_BYTES_PREFERENCE, DEFAULT_MAX_BYTES);
+		}
+		return new FileFingerprintCache(maxEntries, maxBytes);
+	}
+
+	/**
+	 * 
+	 * @param file
+	 * @return fingerprint for the current content of the given file, or null
+	 * if not cached, or if the file has changed since it was cached.
+	 */
+	public synchronized Fingerprint get(File file) {
+		String key = getKey(file);
+		Location location = locations.get(key);
+		if (location == null) {
+			return null;
+		}
+		// Also refreshes the content's position in the LRU order
+		Fingerprint fingerprint = contents.get(location.contentKey);
+		if (fingerprint != location.content || !location.isUpToDate(file.length(), file.lastModified())) {
+			removeLocation(key);
+			return null;
+		}
+		return new Fingerprint(fingerprint.getSha1(), location.size, location.lastModified);
+	}
+
+	/**
+	 * 
+	 * @param file
+	 * @param lastModified timestamp of the file when the sha1 code was
+	 * computed. Should be obtained before reading the file.
+	 * @param sha1
+	 * @param size
+	 */
+	public synchronized void put(File file, long lastModified, byte[] sha1, long size) {
+		if (sha1 == null || size < 0) {
+			return;
+		}
+		String key = getKey(file);
+		String contentKey = toHex(sha1);
+		removeLocation(key);
+
+		Fingerprint fingerprint = contents.get(contentKey);
+		if (fingerprint == null) {
+			fingerprint = new Fingerprint(sha1, size, lastModified);
+			contents.put(contentKey, fingerprint);
+			bytes += size;
+		}
+		fingerprint.paths.add(key);
+		locations.put(key, new Location(contentKey, fingerprint, size, lastModified));
+
+		evict(contentKey);
+	}
+
+	/**
+	 * 
+	 * @return number of local file locations in the cache
+	 */
+	public synchronized int size() {
+		return locations.size();
+	}
+
+	/**
+	 * 
+	 * @return number of distinct contents in the cache
+	 */
+	public synchronized int getContentCount() {
+		return contents.size();
+	}
+
+	/**
+	 * 
+	 * @return total size of the distinct content described by the cache
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized void clear() {
+		contents.clear();
+		locations.clear();
+		bytes = 0;
+	}
+
+	protected String getKey(File file) {
+		return file.getAbsolutePath();
+	}
+
+	/**
+	 * Evicts least recently used content until the cache is within its
+	 * bounds. The given content, just added, is only evicted if it exceeds
+	 * the byte bound on its own.
+	 */
+	private void evict(String addedContentKey) {
+		Iterator<Map.Entry<String, Fingerprint>> it = contents.entrySet().iterator();
+		while ((bytes > maxBytes || locations.size() > maxEntries) && it.hasNext()) {
+			Map.Entry<String, Fingerprint> eldest = it.next();
+			if (eldest.getKey().equals(addedContentKey) && bytes <= maxBytes) {
+				continue;
+			}
+			it.remove();
+			bytes -= eldest.getValue().getSize();
+			for (String path : eldest.getValue().paths) {
+				locations.remove(path);
+			}
+		}
+	}
+
+	private void removeLocation(String key) {
+		Location location = locations.remove(key);
+		if (location == null) {
+			return;
+		}
+		Fingerprint fingerprint = location.content;
+		fingerprint.paths.remove(key);
+		if (fingerprint.paths.isEmpty() && contents.remove(location.contentKey) != null) {
+			bytes -= fingerprint.getSize();
+		}
+	}
+
+	private static String toHex(byte[] sha1) {
+		StringBuilder hex = new StringBuilder(sha1.length * 2);
+		for (byte b : sha1) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	private static class Location {
+
+		private final String contentKey;
+
+		private final Fingerprint content;
+
+		private final long size;
+
+		private final long lastModified;
+
+		Location(String contentKey, Fingerprint content, long size, long lastModified) {
+			this.contentKey = contentKey;
+			this.content = content;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		boolean isUpToDate(long size, long lastModified) {
+			return this.size == size && this.lastModified == lastModified;
+		}
+	}
+
+	public static class Fingerprint {
+
+		private final byte[] sha1;
+
+		private final long size;
+
+		private final long lastModified;
+
+		private final Set<String> paths = new HashSet<String>(2);
+
+		public Fingerprint(byte[] sha1, long size, long lastModified) {
+			this.sha1 = sha1;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		public byte[] getSha1() {
+			return sha1;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		public boolean isUpToDate(long size, long lastModified) {
+			return this.size == size && this.lastModified == lastModified;
+		}
+	}
+}
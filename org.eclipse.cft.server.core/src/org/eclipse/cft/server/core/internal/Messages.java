@@ -153,6 +153,10 @@ public class Messages extends NLS {
 	
 	public static String ClientRequestFactory_BUILDPACKS;
 
+	public static String CloudBehaviourOperations_BATCH_APPLICATION_FAILED;
+
+	public static String CloudBehaviourOperations_BATCH_APPLICATION_OPERATION;
+
 	public static String CloudBehaviourOperations_REFRESHING_APPS_AND_SERVICES;
 	
 	public static String CloudBehaviourOperations_UPDATING_INSTANCES;
@@ -332,6 +336,12 @@ public class Messages extends NLS {
 	
 	public static String StartOperation_MANIFEST_PROPERTIES_CHANGED;
 
+	public static String StartOperation_RETRYING_UPLOAD;
+
+	public static String StartOperation_UPLOAD_PROGRESS;
+
+	public static String StartOperation_UPLOADING_APP;
+
 	public static String ERROR_StartOperation_UNSUPPORTED_MODULE_TYPE;
 	
 	public static String PUBLISHING_MODULE;
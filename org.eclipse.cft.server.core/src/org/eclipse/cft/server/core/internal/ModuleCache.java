@@ -22,11 +22,16 @@ package org.eclipse.cft.server.core.internal;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
 
 import org.cloudfoundry.client.lib.domain.CloudApplication;
 import org.eclipse.cft.server.core.internal.client.CloudFoundryApplicationModule;
@@ -46,37 +51,94 @@ import org.osgi.service.prefs.BackingStoreException;
  * disposed every time a working copy is saved. The module cache may be accessed
  * by multiple threads therefore multi-threaded access needs to be taken into
  * account when modifying server data state.
+ * <p/>
+ * Server data is read far more often than it is modified, for example by
+ * concurrent refresh workers and UI threads looking up modules. Reads
+ * therefore never lock: modules, modules being added and modules tagged for
+ * replace are kept in concurrent or copy-on-write collections, and the local
+ * module mapping is kept as an immutable snapshot of the persisted mapping.
+ * Modifications of the module list and of the persisted mapping each use
+ * their own lock, and credentials are simply volatile.
  * @author Steffen Pingel
  */
 public class ModuleCache {
 
 	public static class ServerData {
 
-		private final List<CloudFoundryApplicationModule> cloudModules = new ArrayList<CloudFoundryApplicationModule>();
+		private final List<CloudFoundryApplicationModule> cloudModules = new CopyOnWriteArrayList<CloudFoundryApplicationModule>();
+
+		/**
+		 * Guards additions and removals of cloud modules, so that a module is
+		 * created at most once for a local module.
+		 */
+		private final Object modulesLock = new Object();
+
+		/**
+		 * Guards changes to the persisted local module mapping.
+		 */
+		private final Object mappingLock = new Object();
+
+		/**
+		 * Immutable snapshot of the persisted local module mapping, or null if
+		 * not yet read from the preferences.
+		 */
+		private volatile Map<String, String> mapping;
+
+		/*
+		 * Indices of the cloud modules by deployed application name, Cloud
+		 * application GUID and local module name, which can be read without
+		 * holding a lock, and are updated while holding the modules lock.
+		 * Modules must be indexed again whenever their deployed application
+		 * name or Cloud application changes. If several modules share a key,
+		 * the first one in the list of cloud modules is returned.
+		 */
+		private final ModuleIndex<String> modulesByAppName = new ModuleIndex<String>(
+				CloudFoundryApplicationModule::getDeployedApplicationName);
+
+		private final ModuleIndex<UUID> modulesByGuid = new ModuleIndex<UUID>(ServerData::getGuid);
+
+		private final ModuleIndex<String> modulesByLocalName = new ModuleIndex<String>(
+				CloudFoundryApplicationModule::getName);
+
+		/*
+		 * Position of each indexed module in the list of cloud modules. Modules
+		 * are only ever appended to the list, so positions are increasing
+		 * numbers rather than list indices, and removing a module does not
+		 * change the positions of the others. Guarded by the modules lock.
+		 */
+		private final Map<CloudFoundryApplicationModule, Long> positions = new HashMap<CloudFoundryApplicationModule, Long>();
+
+		private long nextPosition;
 
 		/** Cached password in case secure store fails. */
-		private String password;
+		private volatile String password;
 
 		/** Cached token. */
-		private String token;
+		private volatile String token;
 		
 		private IServer server;
 
 		/**
 		 * Modules actively being added.
 		 */
-		private final List<IModule> modulesBeingAdded = new ArrayList<IModule>();
+		private final List<IModule> modulesBeingAdded = new CopyOnWriteArrayList<IModule>();
 
-		private final Map<String, CloudFoundryApplicationModule> mapProject = new HashMap<String, CloudFoundryApplicationModule>();
+		private final Map<String, CloudFoundryApplicationModule> mapProject = new ConcurrentHashMap<String, CloudFoundryApplicationModule>();
 
-		private int[] applicationMemoryChoices;
+		private volatile int[] applicationMemoryChoices;
 
 		ServerData(IServer server) {
 			this.server = server;
 		}
 
-		public synchronized void clear() {
-			cloudModules.clear();
+		public void clear() {
+			synchronized (modulesLock) {
+				cloudModules.clear();
+				positions.clear();
+				modulesByAppName.clear();
+				modulesByGuid.clear();
+				modulesByLocalName.clear();
+			}
 		}
 
 		/**
@@ -84,10 +146,12 @@ public class ModuleCache {
 		 * @param application
 		 * @return Non-null new {@link CloudFoundryApplicationModule}
 		 */
-		public synchronized CloudFoundryApplicationModule createModule(CloudApplication application) {
+		public CloudFoundryApplicationModule createModule(CloudApplication application) {
 			CloudFoundryApplicationModule appModule = new CloudFoundryApplicationModule(application.getName(), server);
 			appModule.setCloudApplication(application);
-			add(appModule);
+			synchronized (modulesLock) {
+				add(appModule);
+			}
 			return appModule;
 		}
 
@@ -100,78 +164,143 @@ public class ModuleCache {
 		 * @param module whose mapping to a local module needs to be updated and
 		 * persisted.
 		 */
-		public synchronized void updateCloudApplicationModule(CloudFoundryApplicationModule module) {
+		public void updateCloudApplicationModule(CloudFoundryApplicationModule module) {
 			// Update the map of module ID -> Deployed Application name
-			if (module.getLocalModule() != null) {
-				Map<String, String> mapping = getLocalModuleToCloudModuleMapping();
-				mapping.put(module.getLocalModule().getId(), module.getDeployedApplicationName());
-				setLocalModuleToCloudModuleMapping(mapping);
+			IModule localModule = module.getLocalModule();
+			if (localModule != null) {
+				String deployedAppName = module.getDeployedApplicationName();
+				synchronized (mappingLock) {
+					Map<String, String> mapping = new HashMap<String, String>(getLocalModuleToCloudModuleMapping());
+					mapping.put(localModule.getId(), deployedAppName);
+					setLocalModuleToCloudModuleMapping(mapping);
+				}
+			}
+			index(module);
+		}
+
+		/**
+		 * Updates the indices of the given module, if it is in the cache. This
+		 * should be called whenever the deployed application name or the Cloud
+		 * application of the module changes.
+		 * @param module
+		 */
+		public void index(CloudFoundryApplicationModule module) {
+			if (module == null) {
+				return;
+			}
+			synchronized (modulesLock) {
+				// Checked under the lock, so that a module that is removed
+				// concurrently is not indexed again
+				if (!positions.containsKey(module)) {
+					return;
+				}
+				modulesByAppName.add(module, positions);
+				modulesByGuid.add(module, positions);
+				modulesByLocalName.add(module, positions);
+			}
+		}
+
+		/**
+		 * 
+		 * @param appName deployed application name
+		 * @return cloud module for the given deployed application name, or null
+		 * if none exists
+		 */
+		public CloudFoundryApplicationModule getExistingCloudModule(String appName) {
+			if (appName == null) {
+				return null;
 			}
+			return modulesByAppName.get(appName);
+		}
+
+		/**
+		 * 
+		 * @param guid Cloud application GUID
+		 * @return cloud module mapped to the Cloud application with the given
+		 * GUID, or null if none exists
+		 */
+		public CloudFoundryApplicationModule getExistingCloudModuleByGuid(UUID guid) {
+			if (guid == null) {
+				return null;
+			}
+			return modulesByGuid.get(guid);
 		}
 
 		/**
 		 * 
 		 * @return never null. May be empty
 		 */
-		public synchronized Collection<CloudFoundryApplicationModule> getExistingCloudModules() {
+		public Collection<CloudFoundryApplicationModule> getExistingCloudModules() {
 			return new ArrayList<CloudFoundryApplicationModule>(cloudModules);
 		}
 
-		public synchronized String getPassword() {
+		public String getPassword() {
 			return password;
 		}
 			
-		public synchronized String getToken() {
+		public String getToken() {
 			return token;
 		}
 
-		public synchronized boolean isModuleBeingAdded(IModule module) {
+		public boolean isModuleBeingAdded(IModule module) {
 			return modulesBeingAdded.contains(module);
 		}
 
-		public synchronized void remove(CloudFoundryApplicationModule module) {
+		public void remove(CloudFoundryApplicationModule module) {
 			if (module == null) {
 				return;
 			}
-			cloudModules.remove(module);
-			if (module.getLocalModule() != null) {
-				Map<String, String> mapping = getLocalModuleToCloudModuleMapping();
-				mapping.remove(module.getLocalModule().getId());
-				setLocalModuleToCloudModuleMapping(mapping);
+			synchronized (modulesLock) {
+				cloudModules.remove(module);
+				unindex(module);
+			}
+			IModule localModule = module.getLocalModule();
+			if (localModule != null) {
+				synchronized (mappingLock) {
+					Map<String, String> mapping = new HashMap<String, String>(getLocalModuleToCloudModuleMapping());
+					mapping.remove(localModule.getId());
+					setLocalModuleToCloudModuleMapping(mapping);
+				}
 			}
 		}
 
-		public synchronized void removeObsoleteModules(Set<CloudFoundryApplicationModule> allModules) {
+		public void removeObsoleteModules(Set<CloudFoundryApplicationModule> allModules) {
 			HashSet<CloudFoundryApplicationModule> deletedModules = new HashSet<CloudFoundryApplicationModule>(
 					cloudModules);
 			deletedModules.removeAll(allModules);
 			if (deletedModules.size() > 0) {
-				Map<String, String> mapping = getLocalModuleToCloudModuleMapping();
-				boolean mappingModified = false;
+				List<String> deletedModuleIds = new ArrayList<String>();
 				for (CloudFoundryApplicationModule deletedModule : deletedModules) {
 					if (deletedModule.getLocalModule() != null) {
-						mappingModified |= mapping.remove(deletedModule.getLocalModule().getId()) != null;
+						deletedModuleIds.add(deletedModule.getLocalModule().getId());
 					}
 				}
-				if (mappingModified) {
-					setLocalModuleToCloudModuleMapping(mapping);
+				synchronized (mappingLock) {
+					Map<String, String> mapping = new HashMap<String, String>(getLocalModuleToCloudModuleMapping());
+					boolean mappingModified = false;
+					for (String deletedModuleId : deletedModuleIds) {
+						mappingModified |= mapping.remove(deletedModuleId) != null;
+					}
+					if (mappingModified) {
+						setLocalModuleToCloudModuleMapping(mapping);
+					}
 				}
 			}
 		}
 
-		public synchronized void setPassword(String password) {
+		public void setPassword(String password) {
 			this.password = password;
 		}
 
-		public synchronized void setToken(String token) {
+		public void setToken(String token) {
 			this.token = token;
 		}
 
-		public synchronized void moduleAdditionCompleted(IModule module) {
+		public void moduleAdditionCompleted(IModule module) {
 			modulesBeingAdded.remove(module);
 		}
 
-		public synchronized void moduleBeingAdded(IModule module) {
+		public void moduleBeingAdded(IModule module) {
 			modulesBeingAdded.add(module);
 		}
 		
@@ -179,28 +308,46 @@ public class ModuleCache {
 		 * 
 		 * @return copy of the cache of modules being added. Used for testing only
 		 */
-		public synchronized List<IModule> getModulesBeingAdded() {
+		public List<IModule> getModulesBeingAdded() {
 			return new ArrayList<IModule>(modulesBeingAdded);
 		}
 
-		public synchronized void tagForReplace(CloudFoundryApplicationModule appModule) {
+		public void tagForReplace(CloudFoundryApplicationModule appModule) {
 			if (appModule != null) {
 				mapProject.put(appModule.getDeployedApplicationName(), appModule);
 			}
 		}
 
-		public synchronized void untagForReplace(CloudFoundryApplicationModule appModule) {
+		public void untagForReplace(CloudFoundryApplicationModule appModule) {
 			if (appModule != null) {
 				mapProject.remove(appModule.getDeployedApplicationName());
 			}
 		}
 
-		public synchronized CloudFoundryApplicationModule getTaggedForReplace(CloudFoundryApplicationModule appModule) {
+		public CloudFoundryApplicationModule getTaggedForReplace(CloudFoundryApplicationModule appModule) {
 			return appModule != null ? mapProject.get(appModule.getDeployedApplicationName()) : null;
 		}
 
 		private void add(CloudFoundryApplicationModule module) {
 			cloudModules.add(module);
+			positions.put(module, nextPosition++);
+			index(module);
+		}
+
+		/**
+		 * Must be called while holding the modules lock
+		 */
+		private void unindex(CloudFoundryApplicationModule module) {
+			if (positions.remove(module) != null) {
+				modulesByAppName.remove(module);
+				modulesByGuid.remove(module);
+				modulesByLocalName.remove(module);
+			}
+		}
+
+		private static UUID getGuid(CloudFoundryApplicationModule module) {
+			CloudApplication application = module.getApplication();
+			return application != null && application.getMeta() != null ? application.getMeta().getGuid() : null;
 		}
 
 		private String convertMapToString(Map<String, String> map) {
@@ -233,22 +380,27 @@ public class ModuleCache {
 		 * Local modules are mapped to deployed applications, represented by
 		 * cloud modules, by mapping the local module ID (typically, the module
 		 * type + local module name) to the deployed application name.
-		 * @return map containing local module ID (key) to deployed cloud
-		 * application name (value)
+		 * @return unmodifiable map containing local module ID (key) to deployed
+		 * cloud application name (value)
 		 */
 		private Map<String, String> getLocalModuleToCloudModuleMapping() {
-			IEclipsePreferences node = new InstanceScope().getNode(CloudFoundryPlugin.PLUGIN_ID);
-			String string = node.get(KEY_MODULE_MAPPING_LIST + ":" + getServerId(), ""); //$NON-NLS-1$ //$NON-NLS-2$
-			return convertStringToMap(string);
+			Map<String, String> current = mapping;
+			if (current == null) {
+				synchronized (mappingLock) {
+					current = mapping;
+					if (current == null) {
+						IEclipsePreferences node = new InstanceScope().getNode(CloudFoundryPlugin.PLUGIN_ID);
+						String string = node.get(KEY_MODULE_MAPPING_LIST + ":" + getServerId(), ""); //$NON-NLS-1$ //$NON-NLS-2$
+						current = Collections.unmodifiableMap(convertStringToMap(string));
+						mapping = current;
+					}
+				}
+			}
+			return current;
 		}
 
 		private CloudFoundryApplicationModule getCloudModuleByDeployedAppName(String deployedApplicationName) {
-			for (CloudFoundryApplicationModule module : cloudModules) {
-				if (deployedApplicationName.equals(module.getDeployedApplicationName())) {
-					return module;
-				}
-			}
-			return null;
+			return getExistingCloudModule(deployedApplicationName);
 		}
 
 		/**
@@ -265,12 +417,10 @@ public class ModuleCache {
 		 * @return
 		 */
 		private CloudFoundryApplicationModule getCloudModuleToLocalModuleName(String localName) {
-			for (CloudFoundryApplicationModule module : cloudModules) {
-				if (localName.equals(module.getName())) {
-					return module;
-				}
+			if (localName == null) {
+				return null;
 			}
-			return null;
+			return modulesByLocalName.get(localName);
 		}
 
 		private String getServerId() {
@@ -278,7 +428,11 @@ public class ModuleCache {
 			return cfs.getServerId();
 		}
 
+		/**
+		 * Must be called while holding the mapping lock
+		 */
 		private void setLocalModuleToCloudModuleMapping(Map<String, String> list) {
+			mapping = Collections.unmodifiableMap(new HashMap<String, String>(list));
 			String string = convertMapToString(list);
 			IEclipsePreferences node = new InstanceScope().getNode(CloudFoundryPlugin.PLUGIN_ID);
 			CloudFoundryPlugin.trace("Updated mapping: " + string); //$NON-NLS-1$
@@ -295,7 +449,7 @@ public class ModuleCache {
 			}
 		}
 
-		synchronized CloudFoundryApplicationModule getExistingCloudModule(IModule module) {
+		CloudFoundryApplicationModule getExistingCloudModule(IModule module) {
 			if (module == null) {
 				return null;
 			}
@@ -320,7 +474,7 @@ public class ModuleCache {
 			return null;
 		}
 
-		synchronized CloudFoundryApplicationModule getOrCreateCloudModule(IModule module) {
+		CloudFoundryApplicationModule getOrCreateCloudModule(IModule module) {
 
 			// See if the cloud module for the given local IModule has been
 			// created.
@@ -329,7 +483,18 @@ public class ModuleCache {
 				return appModule;
 			}
 
-			// Otherwise check if there is a mapping between the IModule ID and
+			synchronized (modulesLock) {
+				// Check again, in case it was created concurrently
+				appModule = getExistingCloudModule(module);
+				if (appModule != null) {
+					return appModule;
+				}
+				return createCloudModule(module);
+			}
+		}
+
+		private CloudFoundryApplicationModule createCloudModule(IModule module) {
+			// Check if there is a mapping between the IModule ID and
 			// the deployed application name, and
 			// search for a cloud module that matches the deployed application
 			// name
@@ -341,34 +506,141 @@ public class ModuleCache {
 			// no mapping found, create new Cloud Foundry-aware module. Note
 			// that the
 			// deployedAppName and the module name need not be the same.
-			appModule = new CloudFoundryApplicationModule(module, deployedAppName, server);
+			CloudFoundryApplicationModule appModule = new CloudFoundryApplicationModule(module, deployedAppName,
+					server);
 
 			add(appModule);
 			return appModule;
 		}
 
 		void updateServerId(String oldServerId, String newServerId) {
-			IEclipsePreferences node = new InstanceScope().getNode(CloudFoundryPlugin.PLUGIN_ID);
-			String string = node.get(KEY_MODULE_MAPPING_LIST + ":" + oldServerId, ""); //$NON-NLS-1$ //$NON-NLS-2$
-			node.remove(KEY_MODULE_MAPPING_LIST + ":" + oldServerId); //$NON-NLS-1$
-			node.put(KEY_MODULE_MAPPING_LIST + ":" + newServerId, string); //$NON-NLS-1$
+			synchronized (mappingLock) {
+				IEclipsePreferences node = new InstanceScope().getNode(CloudFoundryPlugin.PLUGIN_ID);
+				String string = node.get(KEY_MODULE_MAPPING_LIST + ":" + oldServerId, ""); //$NON-NLS-1$ //$NON-NLS-2$
+				node.remove(KEY_MODULE_MAPPING_LIST + ":" + oldServerId); //$NON-NLS-1$
+				node.put(KEY_MODULE_MAPPING_LIST + ":" + newServerId, string); //$NON-NLS-1$
+				mapping = null;
+			}
 		}
 
-		public synchronized void setApplicationMemoryChoices(int[] applicationMemoryChoices) {
+		public void setApplicationMemoryChoices(int[] applicationMemoryChoices) {
 			this.applicationMemoryChoices = applicationMemoryChoices;
 		}
 
-		public synchronized int[] getApplicationMemoryChoices() {
+		public int[] getApplicationMemoryChoices() {
 			return applicationMemoryChoices;
 		}
 	}
 
+	/**
+	 * Index of cloud modules by a key, which can be read without holding a
+	 * lock. The modules sharing a key are kept as an immutable list, in the
+	 * order of the list of cloud modules, which is replaced whenever a module
+	 * is added or removed, so adding or removing a module only updates the
+	 * modules sharing its key. Must be modified while holding the modules lock
+	 * of the server data.
+	 */
+	private static class ModuleIndex<K> {
+
+		private final Function<CloudFoundryApplicationModule, K> keyOf;
+
+		private final Map<K, List<CloudFoundryApplicationModule>> modulesByKey = new ConcurrentHashMap<K, List<CloudFoundryApplicationModule>>();
+
+		/*
+		 * Key each module was last indexed under, which may differ from its
+		 * current key if it changed since
+		 */
+		private final Map<CloudFoundryApplicationModule, K> keysByModule = new HashMap<CloudFoundryApplicationModule, K>();
+
+		ModuleIndex(Function<CloudFoundryApplicationModule, K> keyOf) {
+			this.keyOf = keyOf;
+		}
+
+		/**
+		 * 
+		 * @param key
+		 * @return first module in the list of cloud modules with the given
+		 * key, or null if there is none
+		 */
+		CloudFoundryApplicationModule get(K key) {
+			List<CloudFoundryApplicationModule> modules = modulesByKey.get(key);
+			if (modules != null) {
+				for (CloudFoundryApplicationModule module : modules) {
+					// The key of a module may have changed since it was
+					// indexed, until it is indexed again
+					if (key.equals(keyOf.apply(module))) {
+						return module;
+					}
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Indexes the module under its current key, and removes it from the
+		 * key it was previously indexed under, if different.
+		 * @param module
+		 * @param positions positions of the indexed modules in the list of
+		 * cloud modules
+		 */
+		void add(CloudFoundryApplicationModule module, Map<CloudFoundryApplicationModule, Long> positions) {
+			K key = keyOf.apply(module);
+			K previousKey = keysByModule.get(module);
+			if (key != null && key.equals(previousKey)) {
+				return;
+			}
+			remove(module);
+			if (key == null) {
+				return;
+			}
+			keysByModule.put(module, key);
+
+			List<CloudFoundryApplicationModule> modules = modulesByKey.get(key);
+			List<CloudFoundryApplicationModule> updated = new ArrayList<CloudFoundryApplicationModule>(
+					modules != null ? modules.size() + 1 : 1);
+			if (modules != null) {
+				updated.addAll(modules);
+			}
+			long position = positions.get(module);
+			int i = updated.size();
+			while (i > 0 && positions.get(updated.get(i - 1)) > position) {
+				i--;
+			}
+			updated.add(i, module);
+			modulesByKey.put(key, Collections.unmodifiableList(updated));
+		}
+
+		void remove(CloudFoundryApplicationModule module) {
+			K key = keysByModule.remove(module);
+			if (key == null) {
+				return;
+			}
+			List<CloudFoundryApplicationModule> modules = modulesByKey.get(key);
+			if (modules == null) {
+				return;
+			}
+			List<CloudFoundryApplicationModule> updated = new ArrayList<CloudFoundryApplicationModule>(modules);
+			updated.remove(module);
+			if (updated.isEmpty()) {
+				modulesByKey.remove(key);
+			}
+			else {
+				modulesByKey.put(key, Collections.unmodifiableList(updated));
+			}
+		}
+
+		void clear() {
+			modulesByKey.clear();
+			keysByModule.clear();
+		}
+	}
+
 	/**
 	 * List of appName, module id pairs.
 	 */
 	static final String KEY_MODULE_MAPPING_LIST = "org.eclipse.cft.moduleMapping"; //$NON-NLS-1$
 
-	private Map<IServer, ServerData> dataByServer;
+	private final Map<IServer, ServerData> dataByServer = new ConcurrentHashMap<IServer, ServerData>();
 
 	private IServerLifecycleListener listener = new IServerLifecycleListener() {
 
@@ -387,7 +659,6 @@ public class ModuleCache {
 	};
 
 	public ModuleCache() {
-		dataByServer = new HashMap<IServer, ServerData>();
 		ServerCore.addServerLifecycleListener(listener);
 	}
 
@@ -395,16 +666,18 @@ public class ModuleCache {
 		ServerCore.removeServerLifecycleListener(listener);
 	}
 
-	public synchronized ServerData getData(IServer server) {
+	public ServerData getData(IServer server) {
+		if (server == null) {
+			return null;
+		}
 		ServerData data = dataByServer.get(server);
-		if (data == null && server != null) {
-			data = new ServerData(server);
-			dataByServer.put(server, data);
+		if (data == null) {
+			data = dataByServer.computeIfAbsent(server, (key) -> new ServerData(key));
 		}
 		return data;
 	}
 
-	protected synchronized void remove(IServer server) {
+	protected void remove(IServer server) {
 		dataByServer.remove(server);
 
 		CloudFoundryServer cfs =  (CloudFoundryServer)server.loadAdapter(CloudFoundryServer.class, null);
@@ -0,0 +1,321 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.core.internal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.cft.server.core.ArchiveEntry;
+
+/**
+ * Cache of application resources that a Cloud Foundry target has confirmed it
+ * already has in its resource cache, either because they were reported as
+ * matching when an application was pushed, or because they were uploaded.
+ * Resources are identified by their sha1 code and size, independently of the
+ * application they belong to, as the resource cache of a Cloud Controller is
+ * shared by all its applications.
+ * <p/>
+ * Cloud Foundry may evict resources from its cache at any time, so a
+ * confirmation is only kept for a limited time, and may only be used to avoid
+ * work that the server would otherwise find unnecessary. It must never be used
+ * to leave out resources that the application needs. Confirmations for a
+ * target are discarded when the server pointing to that target is changed.
+ * <p/>
+ * When pushing, the confirmations are used to predict which resources will
+ * have to be uploaded, so that their content can be read ahead while the
+ * client is still asking the server which resources it has.
+ * <p/>
+ * Only a limited number of targets, and of confirmations per target, are
+ * kept. The least recently used target is discarded first, as are the oldest
+ * confirmations of a target. Expired confirmations are purged whenever new
+ * ones are recorded.
+ * <p/>
+ * The cache is shared by all pushes in the workspace. Sha1 codes of entries
+ * may still be computed when they are passed in, so they are read before the
+ * cache is locked.
+ */
+public class RemoteResourceCache {
+
+	/**
+	 * Time in minutes that a confirmation is kept.
+	 */
+	public static final String TTL_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".publish.remote.resource.ttl"; //$NON-NLS-1$
+
+	public static final int DEFAULT_TTL = 60;
+
+	/**
+	 * Files smaller than this are not added to the resource cache by a
+	 * default Cloud Controller configuration.
+	 */
+	public static final long MIN_CACHED_RESOURCE_SIZE = 64 * 1024;
+
+	static final int MAX_TARGETS = 16;
+
+	static final int MAX_CONFIRMATIONS_PER_TARGET = 100000;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+
+	private final long ttl;
+
+	private final int maxConfirmations;
+
+	private final Map<String, Confirmations> confirmedByTarget = new LinkedHashMap<String, Confirmations>(16, 0.75f,
+			true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Confirmations> eldest) {
+			return size() > MAX_TARGETS;
+		}
+	};
+
+	/**
+	 * 
+	 * @param ttl time in milliseconds that a confirmation is kept
+	 */
+	public RemoteResourceCache(long ttl) {
+		this(ttl, MAX_CONFIRMATIONS_PER_TARGET);
+	}
+
+	/**
+	 * 
+	 * @param ttl time in milliseconds that a confirmation is kept
+	 * @param maxConfirmations maximum number of confirmations kept per target
+	 */
+	public RemoteResourceCache(long ttl, int maxConfirmations) {
+		this.ttl = ttl;
+		this.maxConfirmations = maxConfirmations;
+	}
+
+	public static RemoteResourceCache fromPreferences() {
+		int minutes = DEFAULT_TTL;
+		CloudFoundryPlugin plugin = CloudFoundryPlugin.getDefault();
+		if (plugin != null) {
+			minutes = plugin.getPreferences().getInt(TTL_PREFERENCE, DEFAULT_TTL);
+		}
+		return new RemoteResourceCache(TimeUnit.MINUTES.toMillis(Math.max(0, minutes)));
+	}
+
+	/**
+	 * 
+	 * @param cloudServer
+	 * @return identifier of the Cloud Controller that the server points to.
+	 * Null if the server has no URL.
+	 */
+	public static String getTarget(CloudFoundryServer cloudServer) {
+		String url = cloudServer != null ? cloudServer.getUrl() : null;
+		if (url == null) {
+			return null;
+		}
+		while (url.endsWith("/")) { //$NON-NLS-1$
+			url = url.substring(0, url.length() - 1);
+		}
+		return url.toLowerCase();
+	}
+
+	/**
+	 * Records the given entries as present in the resource cache of the
+	 * target. Directories, entries without a sha1 code, and entries too small
+	 * to be cached by the target are ignored. Once the maximum number of
+	 * confirmations for the target is reached, the oldest ones are discarded.
+	 * @param target
+	 * @param entries
+	 * @param names names of the entries to confirm. If null, all entries are
+	 * confirmed.
+	 */
+	public void confirm(String target, Iterable<ArchiveEntry> entries, Set<String> names) {
+		if (target == null || entries == null || ttl <= 0) {
+			return;
+		}
+		List<String> keys = new ArrayList<String>();
+		for (ArchiveEntry entry : entries) {
+			if (names == null || names.contains(entry.getName())) {
+				String key = getKey(entry);
+				if (key != null) {
+					keys.add(key);
+				}
+			}
+		}
+
+		synchronized (this) {
+			Confirmations confirmed = confirmedByTarget.get(target);
+			if (confirmed == null) {
+				confirmed = new Confirmations(maxConfirmations);
+				confirmedByTarget.put(target, confirmed);
+			}
+			long now = now();
+			confirmed.purgeExpired(now, ttl);
+			for (String key : keys) {
+				// Moves the key to the end, as the most recent confirmation
+				confirmed.remove(key);
+				confirmed.put(key, now);
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @param target
+	 * @param entries
+	 * @return names of the given entries whose content the target recently
+	 * confirmed it has, or null if there are no confirmations for the target
+	 * at all, in which case nothing can be predicted.
+	 */
+	public Set<String> getConfirmedNames(String target, Iterable<ArchiveEntry> entries) {
+		if (target == null || entries == null || !hasConfirmations(target)) {
+			return null;
+		}
+		Map<String, String> keysByName = new LinkedHashMap<String, String>();
+		for (ArchiveEntry entry : entries) {
+			String key = getKey(entry);
+			if (key != null) {
+				keysByName.put(entry.getName(), key);
+			}
+		}
+
+		Set<String> names = new HashSet<String>();
+		synchronized (this) {
+			for (Map.Entry<String, String> nameAndKey : keysByName.entrySet()) {
+				if (isConfirmed(target, nameAndKey.getValue())) {
+					names.add(nameAndKey.getKey());
+				}
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * 
+	 * @param target
+	 * @param entry
+	 * @return true if the target confirmed it has the content of the given
+	 * entry within the time a confirmation is kept.
+	 */
+	public boolean isConfirmed(String target, ArchiveEntry entry) {
+		if (target == null) {
+			return false;
+		}
+		String key = getKey(entry);
+		if (key == null) {
+			return false;
+		}
+		synchronized (this) {
+			return isConfirmed(target, key);
+		}
+	}
+
+	private boolean isConfirmed(String target, String key) {
+		Confirmations confirmed = confirmedByTarget.get(target);
+		if (confirmed == null) {
+			return false;
+		}
+		Long confirmedAt = confirmed.get(key);
+		if (confirmedAt == null) {
+			return false;
+		}
+		if (now() - confirmedAt > ttl) {
+			confirmed.remove(key);
+			return false;
+		}
+		return true;
+	}
+
+	private synchronized boolean hasConfirmations(String target) {
+		return confirmedByTarget.containsKey(target);
+	}
+
+	/**
+	 * Discards all confirmations for the given target.
+	 * @param target
+	 */
+	public synchronized void invalidate(String target) {
+		if (target != null) {
+			confirmedByTarget.remove(target);
+		}
+	}
+
+	public synchronized void clear() {
+		confirmedByTarget.clear();
+	}
+
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+
+	protected boolean isCacheable(ArchiveEntry entry) {
+		return !entry.isDirectory() && entry.getSize() >= MIN_CACHED_RESOURCE_SIZE && entry.getSha1Digest() != null;
+	}
+
+	/**
+	 * 
+	 * @param entry
+	 * @return key identifying the content of the entry, or null if the entry
+	 * cannot be cached by the target. May compute the sha1 code of the entry,
+	 * so must not be invoked while the cache is locked.
+	 */
+	private String getKey(ArchiveEntry entry) {
+		return isCacheable(entry) ? getKey(entry.getSha1Digest(), entry.getSize()) : null;
+	}
+
+	protected String getKey(byte[] sha1, long size) {
+		StringBuilder key = new StringBuilder(sha1.length * 2 + 12);
+		for (byte b : sha1) {
+			key.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+		}
+		return key.append(':').append(size).toString();
+	}
+
+	/**
+	 * Confirmations of a target, by key, in the order they were confirmed.
+	 */
+	private static class Confirmations extends LinkedHashMap<String, Long> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int max;
+
+		Confirmations(int max) {
+			this.max = max;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			return size() > max;
+		}
+
+		void purgeExpired(long now, long ttl) {
+			// Oldest first, so only the expired ones at the start are visited
+			for (Iterator<Long> it = values().iterator(); it.hasNext();) {
+				if (now - it.next() <= ttl) {
+					break;
+				}
+				it.remove();
+			}
+		}
+	}
+}
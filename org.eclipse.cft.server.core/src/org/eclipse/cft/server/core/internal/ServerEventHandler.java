@@ -20,8 +20,18 @@
  ********************************************************************************/
 package org.eclipse.cft.server.core.internal;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.cft.server.core.CFServiceInstance;
 import org.eclipse.cft.server.core.internal.application.ModuleChangeEvent;
@@ -34,29 +44,91 @@ import org.eclipse.wst.server.core.IModule;
 /**
  * Fires server refresh events. Only one handler is active per workbench runtime
  * session.
+ * <p/>
+ * Events are delivered asynchronously, so that firing an event never waits on
+ * listeners, for example UI listeners, while refreshing modules. Each listener
+ * has its own queue, and receives events in the order in which they were
+ * fired, one at a time. A slow listener therefore only delays its own events.
+ * <p/>
+ * Module updated events for the same module that are fired within
+ * {@link #COALESCE_WINDOW} milliseconds of each other, or while a listener
+ * is still busy with earlier events, are delivered to the listener only once,
+ * as listeners read the current state of the module anyway.
+ * <p/>
+ * Once a listener is removed, it receives no further events. Removing a
+ * listener waits for an event that is being delivered to it to be handled,
+ * for at most {@link #REMOVE_TIMEOUT} milliseconds.
  * 
  */
 public class ServerEventHandler {
 
-	private static ServerEventHandler handler;
+	/**
+	 * Time in milliseconds for which module updated events are held back, to
+	 * coalesce duplicates.
+	 */
+	public static final long COALESCE_WINDOW = 50;
+
+	/**
+	 * Time in milliseconds that removing a listener waits for an event that
+	 * is being delivered to the listener.
+	 */
+	public static final long REMOVE_TIMEOUT = 1000;
+
+	private static final ServerEventHandler handler = new ServerEventHandler();
 
 	public static ServerEventHandler getDefault() {
-		if (handler == null) {
-			handler = new ServerEventHandler();
-		}
 		return handler;
 	}
 
-	private final List<CloudServerListener> applicationListeners = new CopyOnWriteArrayList<CloudServerListener>();
+	private final List<ListenerQueue> applicationListeners = new CopyOnWriteArrayList<ListenerQueue>();
+
+	private final ScheduledExecutorService dispatcher;
+
+	protected ServerEventHandler() {
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2, new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable,
+						"Cloud Foundry Server Events - " + count.incrementAndGet()); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.setKeepAliveTime(30, TimeUnit.SECONDS);
+		executor.allowCoreThreadTimeOut(true);
+		this.dispatcher = executor;
+	}
 
 	public synchronized void addServerListener(CloudServerListener listener) {
-		if (listener != null && !applicationListeners.contains(listener)) {
-			applicationListeners.add(listener);
+		if (listener != null && getQueue(listener) == null) {
+			applicationListeners.add(new ListenerQueue(listener));
+		}
+	}
+
+	public void removeServerListener(CloudServerListener listener) {
+		ListenerQueue queue;
+		synchronized (this) {
+			queue = getQueue(listener);
+			if (queue == null) {
+				return;
+			}
+			applicationListeners.remove(queue);
+			queue.dispose();
 		}
+		// Wait outside the lock, as the listener may add or remove listeners
+		// while handling the event
+		queue.awaitDelivery(REMOVE_TIMEOUT);
 	}
 
-	public synchronized void removeServerListener(CloudServerListener listener) {
-		applicationListeners.remove(listener);
+	private ListenerQueue getQueue(CloudServerListener listener) {
+		for (ListenerQueue queue : applicationListeners) {
+			if (queue.listener.equals(listener)) {
+				return queue;
+			}
+		}
+		return null;
 	}
 
 	public void fireServicesUpdated(CloudFoundryServer server, List<CFServiceInstance> services) {
@@ -94,10 +166,158 @@ public class ServerEventHandler {
 				Status.OK_STATUS));
 	}
 
-	public synchronized void fireServerEvent(CloudServerEvent event) {
-		CloudServerListener[] listeners = applicationListeners.toArray(new CloudServerListener[0]);
-		for (CloudServerListener listener : listeners) {
-			listener.serverChanged(event);
+	/**
+	 * Queues the event for each registered listener, and returns without
+	 * waiting for the listeners to be notified.
+	 * @param event
+	 */
+	public void fireServerEvent(CloudServerEvent event) {
+		for (ListenerQueue queue : applicationListeners) {
+			queue.add(event);
+		}
+	}
+
+	/**
+	 * 
+	 * @param event
+	 * @return key identifying duplicate events that may be coalesced, or null
+	 * if the event must always be delivered
+	 */
+	protected Object getCoalesceKey(CloudServerEvent event) {
+		if (event.getType() == CloudServerEvent.EVENT_MODULE_UPDATED && event instanceof ModuleChangeEvent) {
+			return Arrays.asList(event.getServer(), ((ModuleChangeEvent) event).getModule());
+		}
+		return null;
+	}
+
+	/**
+	 * Pending events of a single listener, delivered one at a time on the
+	 * shared dispatcher threads.
+	 */
+	private class ListenerQueue implements Runnable {
+
+		private final CloudServerListener listener;
+
+		private final Queue<PendingEvent> events = new ArrayDeque<PendingEvent>();
+
+		private final Set<Object> pendingKeys = new HashSet<Object>();
+
+		private boolean scheduled;
+
+		private boolean disposed;
+
+		/**
+		 * Thread notifying the listener, or null if no event is being
+		 * delivered
+		 */
+		private Thread delivering;
+
+		ListenerQueue(CloudServerListener listener) {
+			this.listener = listener;
+		}
+
+		synchronized void add(CloudServerEvent event) {
+			if (disposed) {
+				return;
+			}
+			Object key = getCoalesceKey(event);
+			if (key != null && !pendingKeys.add(key)) {
+				// Same event is already waiting to be delivered
+				return;
+			}
+			events.add(new PendingEvent(event, key, System.nanoTime()));
+			if (!scheduled) {
+				schedule(0);
+			}
+		}
+
+		synchronized void dispose() {
+			disposed = true;
+			events.clear();
+			pendingKeys.clear();
+		}
+
+		/**
+		 * Waits for the event that is being delivered, if any, to be handled
+		 * by the listener. Returns right away if called by the listener
+		 * itself while handling the event.
+		 */
+		synchronized void awaitDelivery(long timeout) {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+			while (delivering != null && delivering != Thread.currentThread()) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					CloudFoundryPlugin.trace("Timed out waiting for server event delivery to " + listener); //$NON-NLS-1$
+					return;
+				}
+				try {
+					TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+
+		private void schedule(long delay) {
+			scheduled = true;
+			dispatcher.schedule(this, delay, TimeUnit.NANOSECONDS);
+		}
+
+		public void run() {
+			while (true) {
+				CloudServerEvent event;
+				synchronized (this) {
+					PendingEvent pending = events.peek();
+					if (pending == null || disposed) {
+						scheduled = false;
+						return;
+					}
+					if (pending.key != null) {
+						long remaining = pending.fired + TimeUnit.MILLISECONDS.toNanos(COALESCE_WINDOW)
+								- System.nanoTime();
+						if (remaining > 0) {
+							// Hold back to coalesce duplicates fired shortly
+							// after
+							schedule(remaining);
+							return;
+						}
+						pendingKeys.remove(pending.key);
+					}
+					events.remove();
+					event = pending.event;
+					delivering = Thread.currentThread();
+				}
+
+				try {
+					listener.serverChanged(event);
+				}
+				catch (Throwable t) {
+					CloudFoundryPlugin.logError(t);
+				}
+				finally {
+					synchronized (this) {
+						delivering = null;
+						notifyAll();
+					}
+				}
+			}
+		}
+	}
+
+	private static class PendingEvent {
+
+		final CloudServerEvent event;
+
+		final Object key;
+
+		final long fired;
+
+		PendingEvent(CloudServerEvent event, Object key, long fired) {
+			this.event = event;
+			this.key = key;
+			this.fired = fired;
 		}
 	}
 }
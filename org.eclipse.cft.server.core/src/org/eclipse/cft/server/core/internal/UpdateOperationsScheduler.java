@@ -20,11 +20,21 @@
  ********************************************************************************/
 package org.eclipse.cft.server.core.internal;
 
-import org.eclipse.cft.server.core.internal.client.ModulesOperation;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cloudfoundry.client.lib.domain.CloudApplication;
+import org.eclipse.cft.server.core.internal.UpdateRequestQueue.Batch;
+import org.eclipse.cft.server.core.internal.UpdateRequestQueue.PendingUpdate;
 import org.eclipse.cft.server.core.internal.client.CFOperation;
 import org.eclipse.cft.server.core.internal.client.CloudBehaviourOperations;
+import org.eclipse.cft.server.core.internal.client.CloudFoundryApplicationModule;
+import org.eclipse.cft.server.core.internal.client.CloudFoundryServerBehaviour;
 import org.eclipse.cft.server.core.internal.client.ICloudFoundryOperation;
-import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
@@ -37,9 +47,14 @@ import org.eclipse.wst.server.core.IModule;
  * updating a single modules, or all modules in the associated Cloud server.
  * 
  * <p/>
- * Only ONE refresh job per server instance is run.
- * 
- * 
+ * Only ONE refresh job per server instance is run. Requests are never dropped
+ * while the job is running. Instead they are queued and coalesced into batches
+ * as described in {@link UpdateRequestQueue}. Pending updates of single
+ * modules that are not absorbed by updating all modules are run concurrently
+ * within a batch.
+ * <p/>
+ * Requests that arrive while a batch is running are run in the next batch, as
+ * the running batch may already have fetched stale information.
  */
 public class UpdateOperationsScheduler implements OperationScheduler {
 
@@ -47,7 +62,13 @@ public class UpdateOperationsScheduler implements OperationScheduler {
 
 	private final CloudFoundryServer cloudServer;
 
-	private CFOperation opToRun;
+	private final UpdateRequestQueue queue = UpdateRequestQueue.fromPreferences();
+
+	/**
+	 * Operations that are currently running, in the order they started. Module
+	 * updates of a batch run concurrently.
+	 */
+	private final Set<CFOperation> runningOps = new LinkedHashSet<CFOperation>();
 
 	/**
 	 * 
@@ -69,40 +90,48 @@ public class UpdateOperationsScheduler implements OperationScheduler {
 	 * getCurrentOperation()
 	 */
 	@Override
-	public synchronized CFOperation getCurrentOperation() {
-		return this.opToRun;
+	public CFOperation getCurrentOperation() {
+		synchronized (runningOps) {
+			Iterator<CFOperation> it = runningOps.iterator();
+			return it.hasNext() ? it.next() : null;
+		}
 	}
 
 	/**
-	 * Updates all modules in the server, as well as services
+	 * 
+	 * @return all operations that are currently running, in the order they
+	 * started
 	 */
-	public synchronized void updateAll() {
-		ICloudFoundryOperation op = cloudServer.getBehaviour().operations().updateAll();
-		if (op instanceof CFOperation) {
-			scheduleRefresh((CFOperation) op);
-		}
-		else {
-			CloudFoundryPlugin.logError("Internal Error: refresh operation is not a " //$NON-NLS-1$
-					+ CFOperation.class.getSimpleName() + ". Unable to run."); //$NON-NLS-1$
+	public List<CFOperation> getRunningOperations() {
+		synchronized (runningOps) {
+			return new ArrayList<CFOperation>(runningOps);
 		}
 	}
 
+	/**
+	 * Updates all modules in the server, as well as services
+	 */
+	public void updateAll() {
+		queue.addUpdateAll();
+		schedule();
+	}
+
 	/**
 	 * Schedule an update on a deployed module. If module is not deployed, no
 	 * refresh will occur.
 	 * @see CloudBehaviourOperations#updateDeployedModule(IModule)
 	 * @param module to refresh
 	 */
-	public synchronized void updateDeployedModule(IModule module) {
-		scheduleRefresh(cloudServer.getBehaviour().operations().updateDeployedModule(module));
+	public void updateDeployedModule(IModule module) {
+		scheduleModuleUpdate(module, UpdateRequestQueue.UPDATE_DEPLOYED);
 	}
 
 	/**
 	 * Schedule an update on a module regardless if it is deployed or no.
 	 * @see CloudBehaviourOperations#updateModule(IModule)
 	 */
-	public synchronized void updateModule(IModule module) {
-		scheduleRefresh(cloudServer.getBehaviour().operations().updateModule(module));
+	public void updateModule(IModule module) {
+		scheduleModuleUpdate(module, UpdateRequestQueue.UPDATE_MODULE);
 	}
 
 	/**
@@ -111,21 +140,36 @@ public class UpdateOperationsScheduler implements OperationScheduler {
 	 * {@link #updateDeployedModule(IModule)} specific to publishing
 	 * @param module
 	 */
-	public synchronized void updateModuleAfterPublish(IModule module) {
-		scheduleRefresh(cloudServer.getBehaviour().operations().updateOnPublish(module));
+	public void updateModuleAfterPublish(IModule module) {
+		scheduleModuleUpdate(module, UpdateRequestQueue.UPDATE_AFTER_PUBLISH);
 	}
 
-	private synchronized void scheduleRefresh(CFOperation opToRun) {
-		if (this.opToRun == null) {
-			this.opToRun = opToRun;
-			schedule();
+	/**
+	 * 
+	 * @return number of pending update requests, after coalescing
+	 */
+	public int getQueueDepth() {
+		return queue.getQueueDepth();
+	}
+
+	public UpdateRequestQueue.Statistics getStatistics() {
+		return queue.getStatistics();
+	}
+
+	private void scheduleModuleUpdate(IModule module, int kind) {
+		if (module == null) {
+			return;
 		}
+		queue.addModuleUpdate(module, kind);
+		schedule();
 	}
 
 	private void schedule() {
 		// Must be visible in progress bar as it can be long running op
 		refreshJob.setSystem(false);
 
+		// If the job is already running, it is scheduled to run again once
+		// it completes
 		refreshJob.schedule();
 	}
 
@@ -137,58 +181,123 @@ public class UpdateOperationsScheduler implements OperationScheduler {
 
 		@Override
 		public IStatus run(IProgressMonitor monitor) {
+			// Cloud server must not be null as it's the source of
+			// the event
+			if (cloudServer == null || cloudServer.getBehaviour() == null) {
+				IStatus error = CloudFoundryPlugin.getErrorStatus(
+						NLS.bind(Messages.RefreshModulesHandler_EVENT_CLOUD_SERVER_NULL,
+						UpdateOperationsScheduler.class));
+				CloudFoundryPlugin.log(error);
+				return error;
+			}
 
-			IModule module = null;
-			try {
-				CloudFoundryServer cloudServer = null;
-				module = opToRun instanceof ModulesOperation ? ((ModulesOperation) opToRun).getFirstModule() : null;
+			Batch batch = queue.takeBatch();
+			while (!batch.isEmpty() && !monitor.isCanceled()) {
+				runBatch(batch, cloudServer.getBehaviour(), monitor);
+				batch = queue.takeBatch();
+			}
+			CloudFoundryPlugin.trace("Update requests: " + queue.getStatistics()); //$NON-NLS-1$
 
-				try {
-					cloudServer = opToRun.getBehaviour() != null ? opToRun.getBehaviour().getCloudFoundryServer()
-							: null;
-				}
-				catch (CoreException ce) {
-					CloudFoundryPlugin.logError(ce);
-					return ce.getStatus();
-				}
+			return Status.OK_STATUS;
+		}
 
-				// Cloud server must not be null as it's the source of
-				// the event
-				if (cloudServer == null) {
-					IStatus error = CloudFoundryPlugin.getErrorStatus(
-							NLS.bind(Messages.RefreshModulesHandler_EVENT_CLOUD_SERVER_NULL, opToRun.getClass()));
-					CloudFoundryPlugin.log(error);
-					return error;
+		protected void runBatch(Batch batch, final CloudFoundryServerBehaviour behaviour,
+				final IProgressMonitor monitor) {
+			// First authentication failure in the batch, if any
+			final AtomicReference<Throwable> authFailure = new AtomicReference<Throwable>();
+			try {
+				ServerEventHandler.getDefault().fireUpdateStarting(cloudServer);
+				if (batch.isUpdateAll()) {
+					forceUpdate(batch.getAbsorbedModules(), behaviour);
+					ICloudFoundryOperation op = behaviour.operations().updateAll();
+					if (op instanceof CFOperation) {
+						run((CFOperation) op, monitor, authFailure);
+					}
+					else {
+						CloudFoundryPlugin.logError("Internal Error: refresh operation is not a " //$NON-NLS-1$
+								+ CFOperation.class.getSimpleName() + ". Unable to run."); //$NON-NLS-1$
+					}
 				}
 
-				// At this stage, cloud server is NOT null
-				runOperation(module, cloudServer, monitor);
+				// Updates of different modules are independent of each other
+				behaviour.getRequestExecutor().forEach(batch.getModules(), (pending) -> {
+					for (CFOperation op : getOperations(pending, behaviour.operations())) {
+						run(op, monitor, authFailure);
+					}
+				}, monitor);
+			}
+			catch (Throwable t) {
+				handleError(t, authFailure);
 			}
 			finally {
-				opToRun = null;
+				if (authFailure.get() != null) {
+					// Once for the whole batch, rather than for every failed
+					// module update
+					cloudServer.setAndSaveToken(null);
+				}
+				ServerEventHandler.getDefault().fireUpdateCompleted(cloudServer);
 			}
-
-			return Status.OK_STATUS;
 		}
 
-		/**
-		 * 
-		 * @param monitor
-		 * @param module optionally null if operation is not being performed on
-		 * a single module
-		 * @param cloudServer must NOT be null
-		 */
-		protected void runOperation(IModule module, CloudFoundryServer cloudServer, IProgressMonitor monitor) {
+		private void run(CFOperation op, IProgressMonitor monitor, AtomicReference<Throwable> authFailure) {
+			synchronized (runningOps) {
+				runningOps.add(op);
+			}
 			try {
-				ServerEventHandler.getDefault().fireUpdateStarting(cloudServer);
-				opToRun.run(monitor);
+				op.run(monitor);
 			}
 			catch (Throwable t) {
-				cloudServer.setAndSaveToken(null);
+				handleError(t, authFailure);
 			}
 			finally {
-				ServerEventHandler.getDefault().fireUpdateCompleted(cloudServer);
+				synchronized (runningOps) {
+					runningOps.remove(op);
+				}
+			}
+		}
+
+		/**
+		 * Only authentication failures invalidate the stored token, as other
+		 * failures, like an application that no longer exists, do not affect
+		 * other requests.
+		 */
+		private void handleError(Throwable t, AtomicReference<Throwable> authFailure) {
+			if (CloudErrorUtil.getInvalidCredentialsError(t) != null) {
+				authFailure.compareAndSet(null, t);
+			}
+			else {
+				CloudFoundryPlugin.logError(t);
+			}
+		}
+
+		private List<CFOperation> getOperations(PendingUpdate pending, CloudBehaviourOperations operations) {
+			List<CFOperation> ops = new ArrayList<CFOperation>(2);
+			if (pending.isUpdateModule()) {
+				// Less restrictive than updating a deployed module, so
+				// covers it as well
+				ops.add(operations.updateModule(pending.getModule()));
+			}
+			if (pending.isAfterPublish()) {
+				ops.add(operations.updateOnPublish(pending.getModule()));
+			}
+			else if (ops.isEmpty()) {
+				ops.add(operations.updateDeployedModule(pending.getModule()));
+			}
+			return ops;
+		}
+
+		/**
+		 * Ensures that updating all modules fetches complete information for
+		 * the given modules, even if their applications appear unchanged.
+		 */
+		private void forceUpdate(List<IModule> modules, CloudFoundryServerBehaviour behaviour) {
+			for (IModule module : modules) {
+				CloudFoundryApplicationModule appModule = cloudServer.getExistingCloudModule(module);
+				CloudApplication app = appModule != null ? appModule.getApplication() : null;
+				if (app != null && app.getMeta() != null) {
+					behaviour.getSpaceSnapshot().invalidate(app.getMeta().getGuid());
+				}
 			}
 		}
 	}
-}
\ No newline at end of file
+}
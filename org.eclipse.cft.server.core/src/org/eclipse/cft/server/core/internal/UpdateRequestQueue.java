@@ -0,0 +1,346 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.core.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.wst.server.core.IModule;
+
+/**
+ * Pending update requests of a server, coalesced into batches that are run by
+ * the {@link UpdateOperationsScheduler}:
+ * <ul>
+ * <li>Repeated requests to update the same module are merged into one
+ * update.</li>
+ * <li>A pending request to update all modules absorbs pending requests to
+ * update single modules, except updates after publish, which notify
+ * publish-specific events.</li>
+ * <li>If enough single modules are pending, they are updated together by
+ * updating all modules, which fetches the basic information of all
+ * applications in one request and only fetches complete information for the
+ * pending modules and the applications that changed, instead of every module
+ * resolving its application on its own.</li>
+ * </ul>
+ * <p/>
+ * The queue keeps the number of requests, how many were coalesced, and the
+ * latency between a request and the batch that handles it.
+ */
+public class UpdateRequestQueue {
+
+	/**
+	 * Minimum number of pending single module updates that are run as one
+	 * update of all modules. 0 disables batching of single module updates.
+	 */
+	public static final String BATCH_THRESHOLD_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID
+			+ ".refresh.batch.threshold"; //$NON-NLS-1$
+
+	public static final int DEFAULT_BATCH_THRESHOLD = 3;
+
+	public static final int UPDATE_DEPLOYED = 1;
+
+	public static final int UPDATE_MODULE = 2;
+
+	public static final int UPDATE_AFTER_PUBLISH = 4;
+
+	private final int batchThreshold;
+
+	/**
+	 * Request time in nanoseconds of the pending update of all modules, or -1
+	 * if none is pending
+	 */
+	private long pendingUpdateAll = -1;
+
+	private final Map<IModule, PendingUpdate> pendingModules = new LinkedHashMap<IModule, PendingUpdate>();
+
+	private long requests;
+
+	private long coalescedRequests;
+
+	private long handledRequests;
+
+	private long totalLatency;
+
+	private long maxLatency;
+
+	/**
+	 * 
+	 * @param batchThreshold minimum number of pending single module updates
+	 * that are run as one update of all modules, or 0 to never do so
+	 */
+	public UpdateRequestQueue(int batchThreshold) {
+		this.batchThreshold = batchThreshold;
+	}
+
+	public static UpdateRequestQueue fromPreferences() {
+		int threshold = DEFAULT_BATCH_THRESHOLD;
+		CloudFoundryPlugin plugin = CloudFoundryPlugin.getDefault();
+		if (plugin != null) {
+			threshold = plugin.getPreferences().getInt(BATCH_THRESHOLD_PREFERENCE, DEFAULT_BATCH_THRESHOLD);
+		}
+		return new UpdateRequestQueue(Math.max(0, threshold));
+	}
+
+	public synchronized void addUpdateAll() {
+		requests++;
+		if (pendingUpdateAll < 0) {
+			pendingUpdateAll = System.nanoTime();
+		}
+		else {
+			coalescedRequests++;
+		}
+	}
+
+	/**
+	 * 
+	 * @param module
+	 * @param kind one of {@link #UPDATE_DEPLOYED}, {@link #UPDATE_MODULE} or
+	 * {@link #UPDATE_AFTER_PUBLISH}
+	 */
+	public synchronized void addModuleUpdate(IModule module, int kind) {
+		if (module == null) {
+			return;
+		}
+		requests++;
+		PendingUpdate pending = pendingModules.get(module);
+		if (pending == null) {
+			pendingModules.put(module, new PendingUpdate(module, kind, System.nanoTime()));
+		}
+		else {
+			pending.kinds |= kind;
+			coalescedRequests++;
+		}
+	}
+
+	/**
+	 * Takes the currently pending requests, to be run as one batch
+	 * @return non-null batch. May be empty if nothing is pending.
+	 */
+	public synchronized Batch takeBatch() {
+		Batch batch = new Batch();
+		long now = System.nanoTime();
+		if (pendingUpdateAll >= 0) {
+			batch.updateAll = true;
+			recordLatency(now - pendingUpdateAll);
+			pendingUpdateAll = -1;
+		}
+		else if (batchThreshold > 0 && countAbsorbable() >= batchThreshold) {
+			batch.updateAll = true;
+		}
+		for (PendingUpdate pending : pendingModules.values()) {
+			recordLatency(now - pending.requested);
+			if (batch.updateAll && !pending.isAfterPublish()) {
+				// Updated as part of updating all modules
+				batch.absorbedModules.add(pending.module);
+			}
+			else {
+				batch.modules.add(pending);
+			}
+		}
+		pendingModules.clear();
+		return batch;
+	}
+
+	private int countAbsorbable() {
+		int count = 0;
+		for (PendingUpdate pending : pendingModules.values()) {
+			if (!pending.isAfterPublish()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private void recordLatency(long latency) {
+		handledRequests++;
+		totalLatency += latency;
+		maxLatency = Math.max(maxLatency, latency);
+	}
+
+	/**
+	 * 
+	 * @return number of pending update requests, after coalescing
+	 */
+	public synchronized int getQueueDepth() {
+		return pendingModules.size() + (pendingUpdateAll >= 0 ? 1 : 0);
+	}
+
+	public synchronized Statistics getStatistics() {
+		return new Statistics(requests, coalescedRequests, handledRequests, getQueueDepth(),
+				handledRequests > 0 ? TimeUnit.NANOSECONDS.toMillis(totalLatency / handledRequests) : 0,
+				TimeUnit.NANOSECONDS.toMillis(maxLatency));
+	}
+
+	/**
+	 * Pending update of a single module, which may merge several requests.
+	 */
+	public static class PendingUpdate {
+
+		private final IModule module;
+
+		private final long requested;
+
+		private int kinds;
+
+		PendingUpdate(IModule module, int kinds, long requested) {
+			this.module = module;
+			this.kinds = kinds;
+			this.requested = requested;
+		}
+
+		public IModule getModule() {
+			return module;
+		}
+
+		/**
+		 * 
+		 * @return true if the module is updated regardless of whether it is
+		 * deployed. Such an update covers updating a deployed module as well.
+		 */
+		public boolean isUpdateModule() {
+			return (kinds & UPDATE_MODULE) != 0;
+		}
+
+		public boolean isAfterPublish() {
+			return (kinds & UPDATE_AFTER_PUBLISH) != 0;
+		}
+	}
+
+	/**
+	 * Requests to be run together.
+	 */
+	public static class Batch {
+
+		private boolean updateAll;
+
+		private final List<PendingUpdate> modules = new ArrayList<PendingUpdate>();
+
+		private final List<IModule> absorbedModules = new ArrayList<IModule>();
+
+		public boolean isUpdateAll() {
+			return updateAll;
+		}
+
+		/**
+		 * 
+		 * @return modules that are updated on their own
+		 */
+		public List<PendingUpdate> getModules() {
+			return Collections.unmodifiableList(modules);
+		}
+
+		/**
+		 * 
+		 * @return modules that are updated as part of updating all modules,
+		 * and whose complete information must therefore be fetched even if
+		 * their application appears unchanged
+		 */
+		public List<IModule> getAbsorbedModules() {
+			return Collections.unmodifiableList(absorbedModules);
+		}
+
+		public boolean isEmpty() {
+			return !updateAll && modules.isEmpty();
+		}
+	}
+
+	/**
+	 * Snapshot of the request statistics of a queue.
+	 */
+	public static class Statistics {
+
+		private final long requests;
+
+		private final long coalesced;
+
+		private final long handled;
+
+		private final int pending;
+
+		private final long averageLatency;
+
+		private final long maxLatency;
+
+		Statistics(long requests, long coalesced, long handled, int pending, long averageLatency,
+				long maxLatency) {
+			this.requests = requests;
+			this.coalesced = coalesced;
+			this.handled = handled;
+			this.pending = pending;
+			this.averageLatency = averageLatency;
+			this.maxLatency = maxLatency;
+		}
+
+		public long getRequests() {
+			return requests;
+		}
+
+		/**
+		 * 
+		 * @return number of requests that were merged into another pending
+		 * request
+		 */
+		public long getCoalesced() {
+			return coalesced;
+		}
+
+		/**
+		 * 
+		 * @return number of pending requests, after coalescing, that were
+		 * taken in a batch
+		 */
+		public long getHandled() {
+			return handled;
+		}
+
+		public int getPending() {
+			return pending;
+		}
+
+		/**
+		 * 
+		 * @return average time in milliseconds between an update request and
+		 * the batch that handled it
+		 */
+		public long getAverageLatency() {
+			return averageLatency;
+		}
+
+		/**
+		 * 
+		 * @return maximum time in milliseconds between an update request and
+		 * the batch that handled it
+		 */
+		public long getMaxLatency() {
+			return maxLatency;
+		}
+
+		@Override
+		public String toString() {
+			return "requests=" + requests + ", coalesced=" + coalesced + ", handled=" + handled + ", pending=" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+					+ pending + ", averageLatency=" + averageLatency + "ms, maxLatency=" + maxLatency + "ms"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.core.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Determines the compression level of each entry added to an application
+ * archive. Content that is already compressed, like jars, archives and most
+ * image formats, is detected by its extension or, failing that, by its magic
+ * bytes, and is stored without compression since deflating it again costs CPU
+ * without reducing its size. Text content compresses well even at the fastest
+ * level, and any other content uses the policy's level.
+ * <p/>
+ * Note that compressed content is written with deflate level 0 rather than as
+ * a {@link java.util.zip.ZipEntry#STORED} entry, as the latter requires the CRC
+ * of the content before it is written, and therefore an extra pass over each
+ * file.
+ */
+public class ZipCompressionPolicy {
+
+	public static final String COMPRESSION_LEVEL_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID
+			+ ".publish.compression.level"; //$NON-NLS-1$
+
+	public static final int DEFAULT_COMPRESSION_LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+	private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<String>(Arrays.asList("jar", "war", "ear", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			"zip", "gz", "tgz", "bz2", "xz", "7z", "png", "jpg", "jpeg", "gif", "webp", "ico", "woff", "woff2", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$ //$NON-NLS-11$ //$NON-NLS-12$ //$NON-NLS-13$ //$NON-NLS-14$
+			"mp3", "mp4", "ogg", "pdf")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+	private static final Set<String> TEXT_EXTENSIONS = new HashSet<String>(Arrays.asList("html", "htm", "jsp", "css", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			"js", "json", "map", "xml", "xsd", "txt", "properties", "yml", "yaml", "md", "svg", "csv", "mf", "sql")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$ //$NON-NLS-11$ //$NON-NLS-12$ //$NON-NLS-13$ //$NON-NLS-14$
+
+	private static final byte[][] COMPRESSED_MAGIC_BYTES = new byte[][] {
+			// zip, jar, war
+			{ 'P', 'K', 3, 4 },
+			// gzip
+			{ (byte) 0x1f, (byte) 0x8b },
+			// png
+			{ (byte) 0x89, 'P', 'N', 'G' },
+			// jpeg
+			{ (byte) 0xff, (byte) 0xd8, (byte) 0xff },
+			// gif
+			{ 'G', 'I', 'F', '8' },
+			// bzip2
+			{ 'B', 'Z', 'h' },
+			// xz
+			{ (byte) 0xfd, '7', 'z', 'X', 'Z' },
+			// 7z
+			{ '7', 'z', (byte) 0xbc, (byte) 0xaf } };
+
+	private static final int MAX_MAGIC_LENGTH = 5;
+
+	private final int level;
+
+	/**
+	 * 
+	 * @param level compression level, as defined by {@link Deflater}, for
+	 * content that is neither already compressed nor text.
+	 */
+	public ZipCompressionPolicy(int level) {
+		this.level = level;
+	}
+
+	/**
+	 * 
+	 * @return policy using the compression level set in the plugin
+	 * preferences, or the default level if not set.
+	 */
+	public static ZipCompressionPolicy getDefault() {
+		int level = DEFAULT_COMPRESSION_LEVEL;
+		CloudFoundryPlugin plugin = CloudFoundryPlugin.getDefault();
+		if (plugin != null) {
+			level = plugin.getPreferences().getInt(COMPRESSION_LEVEL_PREFERENCE, DEFAULT_COMPRESSION_LEVEL);
+		}
+		return new ZipCompressionPolicy(level);
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * 
+	 * @param entryName name of the entry in the archive
+	 * @param content content of the entry. If it supports mark and reset, its
+	 * first bytes are checked for known compressed formats when the extension
+	 * is not conclusive. The stream is reset to its original position.
+	 * @return compression level to use for the entry.
+	 * @throws IOException if failed to read the content
+	 */
+	public int getLevel(String entryName, InputStream content) throws IOException {
+		String extension = getExtension(entryName);
+		if (COMPRESSED_EXTENSIONS.contains(extension)) {
+			return Deflater.NO_COMPRESSION;
+		}
+		if (TEXT_EXTENSIONS.contains(extension)) {
+			return Deflater.BEST_SPEED;
+		}
+		if (content != null && content.markSupported() && isCompressed(content)) {
+			return Deflater.NO_COMPRESSION;
+		}
+		return level;
+	}
+
+	protected boolean isCompressed(InputStream content) throws IOException {
+		byte[] header = new byte[MAX_MAGIC_LENGTH];
+		content.mark(MAX_MAGIC_LENGTH);
+		int read = 0;
+		try {
+			int n = 0;
+			while (read < header.length && (n = content.read(header, read, header.length - read)) != -1) {
+				read += n;
+			}
+		}
+		finally {
+			content.reset();
+		}
+
+		for (byte[] magic : COMPRESSED_MAGIC_BYTES) {
+			if (read >= magic.length) {
+				boolean matches = true;
+				for (int i = 0; i < magic.length && matches; i++) {
+					matches = header[i] == magic[i];
+				}
+				if (matches) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	protected String getExtension(String entryName) {
+		int slash = entryName.lastIndexOf('/');
+		int dot = entryName.lastIndexOf('.');
+		if (dot <= slash + 1 || dot == entryName.length() - 1) {
+			return ""; //$NON-NLS-1$
+		}
+		return entryName.substring(dot + 1).toLowerCase(Locale.ENGLISH);
+	}
+}
@@ -52,7 +52,7 @@ public abstract class AbstractArchiveEntry implements ArchiveEntry {
 		this.size = size;
 	}
 
-	public long getSize() {
+	public synchronized long getSize() {
 		if (isDirectory()) {
 			return 0;
 		}
@@ -72,7 +72,13 @@ public abstract class AbstractArchiveEntry implements ArchiveEntry {
 		this.sha1Digest = sha1Digest;
 	}
 
-	public byte[] getSha1Digest() {
+	/**
+	 * Synchronized as the digest may be deduced by a background digester (see
+	 * {@link ArchiveEntryDigester}) at the same time that the entry is
+	 * accessed by the client, in which case the stream should only be read
+	 * once.
+	 */
+	public synchronized byte[] getSha1Digest() {
 		if (isDirectory()) {
 			return null;
 		}
@@ -84,37 +90,44 @@ public abstract class AbstractArchiveEntry implements ArchiveEntry {
 
 	private void deduceMissingData() {
 		try {
-			InputStream inputStream = getInputStream();
-			try {
-				try {
-					MessageDigest digest = (this.sha1Digest == null ? MessageDigest.getInstance("SHA") : null); //$NON-NLS-1$
-					byte[] buffer = new byte[BUFFER_SIZE];
-					int byteCount = 0;
-					int bytesRead = -1;
-					while ((bytesRead = inputStream.read(buffer)) != -1) {
-						byteCount += bytesRead;
-						if (digest != null) {
-							digest.update(buffer, 0, bytesRead);
-						}
-					}
-					if (this.size == UNDEFINED_SIZE) {
-						this.size = byteCount;
-					}
-					if (this.sha1Digest == null && digest != null) {
-						this.sha1Digest = digest.digest();
-					}
-				}
-				catch (Exception e) {
-					throw new IllegalStateException(e);
-				}
-
+			MessageDigest digest = (this.sha1Digest == null ? MessageDigest.getInstance("SHA") : null); //$NON-NLS-1$
+			long byteCount = digest(digest);
+			if (this.size == UNDEFINED_SIZE) {
+				this.size = byteCount;
 			}
-			finally {
-				inputStream.close();
+			if (this.sha1Digest == null && digest != null) {
+				this.sha1Digest = digest.digest();
 			}
 		}
-		catch (IOException e) {
+		catch (Exception e) {
 			throw new IllegalStateException(e);
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Reads the entry content, updating the given digest if it is not null.
+	 * Subclasses that have direct access to the underlying file may override
+	 * this to read it more efficiently.
+	 * @param digest may be null if only the size is needed
+	 * @return number of bytes read
+	 * @throws IOException if failed to read the entry content
+	 */
+	protected long digest(MessageDigest digest) throws IOException {
+		InputStream inputStream = getInputStream();
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			long byteCount = 0;
+			int bytesRead = -1;
+			while ((bytesRead = inputStream.read(buffer)) != -1) {
+				byteCount += bytesRead;
+				if (digest != null) {
+					digest.update(buffer, 0, bytesRead);
+				}
+			}
+			return byteCount;
+		}
+		finally {
+			inputStream.close();
+		}
+	}
+}
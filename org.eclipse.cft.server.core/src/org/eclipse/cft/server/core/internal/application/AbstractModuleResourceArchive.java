@@ -24,11 +24,17 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
 
 import org.eclipse.cft.server.core.ArchiveEntry;
 import org.eclipse.cft.server.core.CFApplicationArchive;
+import org.eclipse.cft.server.core.internal.CloudFoundryPlugin;
+import org.eclipse.cft.server.core.internal.FileFingerprintCache;
+import org.eclipse.cft.server.core.internal.FileFingerprintCache.Fingerprint;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.wst.server.core.IModule;
@@ -74,14 +80,171 @@ public abstract class AbstractModuleResourceArchive implements CFApplicationArch
 		this.resources = resources;
 	}
 
-	public Iterable<ArchiveEntry> getEntries() {
+	private ForkJoinTask<?> digestTask;
+
+	private ArchiveEntryPrefetcher prefetcher;
+
+	private List<ArchiveEntry> collectedEntries;
+
+	private ArchiveEntryPrefetcher speculativePrefetcher;
+
+	private List<ArchiveEntry> speculativeEntries;
+
+	public synchronized Iterable<ArchiveEntry> getEntries() {
 		if (entries == null) {
 			entries = new ArrayList<ArchiveEntry>();
-			collectEntriesPriorToDeployment(entries, resources.toArray(new IModuleResource[0]));
+			collectEntries(entries);
+			collectedEntries = entries;
 		}
 		return entries;
 	}
 
+	/**
+	 * Collects entries for all the archive's resources. By default, this walks
+	 * all module resources. Subclasses may override if they have a more
+	 * efficient way of determining the complete list of entries.
+	 * @param entries
+	 */
+	protected void collectEntries(List<ArchiveEntry> entries) {
+		collectEntriesPriorToDeployment(entries, getModuleResources().toArray(new IModuleResource[0]));
+	}
+
+	/**
+	 * Starts computing sha1 codes and file sizes for all entries in the
+	 * archive in the background, so that they are available by the time the
+	 * client checks which resources need to be uploaded. Returns immediately.
+	 * Entries that are not yet computed when requested are computed by the
+	 * requesting thread.
+	 */
+	public synchronized void computeDigestsAsync() {
+		if (digestTask != null) {
+			return;
+		}
+		List<ArchiveEntry> toDigest = new ArrayList<ArchiveEntry>();
+		for (ArchiveEntry entry : getEntries()) {
+			toDigest.add(entry);
+		}
+		digestTask = ArchiveEntryDigester.digestAsync(toDigest);
+	}
+
+	/**
+	 * Cancels any background digest computation started through
+	 * {@link #computeDigestsAsync()}. Should be invoked when the archive is
+	 * closed.
+	 */
+	protected synchronized void cancelComputeDigests() {
+		if (digestTask != null) {
+			digestTask.cancel(true);
+			digestTask = null;
+		}
+	}
+
+	/**
+	 * Starts reading the content of all entries that are to be uploaded in
+	 * the background, once the client has determined which resources the
+	 * server already has, so that reading files overlaps with the client
+	 * compressing and sending the upload payload. The entries of the archive
+	 * are restricted to those that are uploaded, and return the content read
+	 * ahead. Does nothing if reading ahead is disabled in the preferences.
+	 * @param knownResourceNames names of resources that the server already
+	 * has, and that are therefore not uploaded. May be null if all resources
+	 * are uploaded.
+	 */
+	public synchronized void startUploadPipeline(Set<String> knownResourceNames) {
+		int buffers = ArchiveEntryPrefetcher.getBuffersPreference();
+		if (prefetcher != null || buffers <= 0) {
+			return;
+		}
+
+		List<ArchiveEntry> toUpload = getEntriesToUpload(knownResourceNames);
+
+		if (speculativePrefetcher != null && toUpload.equals(speculativeEntries)) {
+			// The server has exactly the resources that were expected, so
+			// the content read so far can be used as is
+			prefetcher = speculativePrefetcher;
+		}
+		else {
+			cancelSpeculativePrefetch();
+			prefetcher = new ArchiveEntryPrefetcher(toUpload, buffers);
+		}
+		speculativePrefetcher = null;
+		speculativeEntries = null;
+
+		List<ArchiveEntry> pipelinedEntries = new ArrayList<ArchiveEntry>();
+		for (int i = 0; i < toUpload.size(); i++) {
+			pipelinedEntries.add(new PipelinedEntry(toUpload.get(i), prefetcher, i));
+		}
+		entries = pipelinedEntries;
+		prefetcher.start();
+	}
+
+	/**
+	 * Starts reading ahead the content of the entries that are expected to be
+	 * uploaded, while the client is still asking the server which resources
+	 * it already has. The expectation is based on resources that the server
+	 * recently confirmed it has. If the server's answer, passed to
+	 * {@link #startUploadPipeline(Set)}, leads to exactly the same entries
+	 * being uploaded, the content read ahead is used. Otherwise it is
+	 * discarded. Does nothing if reading ahead is disabled in the
+	 * preferences.
+	 * @param expectedKnownResourceNames names of resources that the server is
+	 * expected to already have
+	 */
+	public synchronized void startSpeculativeUploadPipeline(Set<String> expectedKnownResourceNames) {
+		int buffers = ArchiveEntryPrefetcher.getBuffersPreference();
+		if (prefetcher != null || speculativePrefetcher != null || buffers <= 0) {
+			return;
+		}
+		speculativeEntries = getEntriesToUpload(expectedKnownResourceNames);
+		speculativePrefetcher = new ArchiveEntryPrefetcher(speculativeEntries, buffers);
+		speculativePrefetcher.start();
+	}
+
+	protected List<ArchiveEntry> getEntriesToUpload(Set<String> knownResourceNames) {
+		List<ArchiveEntry> toUpload = new ArrayList<ArchiveEntry>();
+		for (ArchiveEntry entry : getEntries()) {
+			if (entry.isDirectory() || knownResourceNames == null || !knownResourceNames.contains(entry.getName())) {
+				toUpload.add(entry);
+			}
+		}
+		return toUpload;
+	}
+
+	private void cancelSpeculativePrefetch() {
+		if (speculativePrefetcher != null) {
+			speculativePrefetcher.cancel();
+			speculativePrefetcher = null;
+			speculativeEntries = null;
+		}
+	}
+
+	/**
+	 * Stops reading ahead content started through
+	 * {@link #startUploadPipeline(Set)} or
+	 * {@link #startSpeculativeUploadPipeline(Set)}. Should be invoked when the
+	 * archive is closed.
+	 */
+	protected synchronized void cancelUploadPipeline() {
+		cancelSpeculativePrefetch();
+		if (prefetcher != null) {
+			prefetcher.cancel();
+			prefetcher = null;
+		}
+	}
+
+	/**
+	 * Restores the entries of all the archive's resources, as they were before
+	 * they were restricted to the resources to upload, and stops reading ahead
+	 * content. Must be invoked before the archive is uploaded again after a
+	 * failed upload, as the server may not have the same resources anymore.
+	 */
+	public synchronized void resetUpload() {
+		cancelUploadPipeline();
+		if (collectedEntries != null) {
+			entries = collectedEntries;
+		}
+	}
+
 	protected List<IModuleResource> getModuleResources() {
 		return resources;
 	}
@@ -165,6 +328,8 @@ public abstract class AbstractModuleResourceArchive implements CFApplicationArch
 
 		protected final File file;
 
+		private boolean fingerprintResolved;
+
 		public ModuleFileEntryAdapter(IModuleFile moduleResource) {
 			super(moduleResource);
 			file = getFile(moduleResource);
@@ -193,6 +358,61 @@ public abstract class AbstractModuleResourceArchive implements CFApplicationArch
 			return file != null && file.exists();
 		}
 
+		@Override
+		public synchronized byte[] getSha1Digest() {
+			resolveFingerprint();
+			return super.getSha1Digest();
+		}
+
+		@Override
+		public synchronized long getSize() {
+			resolveFingerprint();
+			return super.getSize();
+		}
+
+		/**
+		 * 
+		 * @return true if the sha1 code and size for this entry can be
+		 * obtained from the workspace {@link FileFingerprintCache}, which is
+		 * keyed by the local file rather than the application. False if they
+		 * should always be computed from the file content.
+		 */
+		protected boolean useFingerprintCache() {
+			return true;
+		}
+
+		/**
+		 * Looks up the sha1 code and size of the entry's file in the shared
+		 * fingerprint cache, so that files shared between applications or
+		 * servers are only hashed once. If not found, they are computed and
+		 * added to the cache.
+		 */
+		private void resolveFingerprint() {
+			if (fingerprintResolved || !canComputeResourceEntry() || !useFingerprintCache()) {
+				return;
+			}
+			fingerprintResolved = true;
+
+			FileFingerprintCache cache = CloudFoundryPlugin.getDefault().getFileFingerprintCache();
+			Fingerprint fingerprint = cache.get(file);
+			if (fingerprint != null) {
+				setSha1Digest(fingerprint.getSha1());
+				setSize(fingerprint.getSize());
+			}
+			else {
+				long lastModified = file.lastModified();
+				cache.put(file, lastModified, super.getSha1Digest(), super.getSize());
+			}
+		}
+
+		@Override
+		protected long digest(MessageDigest digest) throws IOException {
+			if (canComputeResourceEntry()) {
+				return ArchiveEntryDigester.digest(file, digest);
+			}
+			return super.digest(digest);
+		}
+
 		public InputStream getInputStream() throws IOException {
 
 			if (canComputeResourceEntry()) {
@@ -233,4 +453,42 @@ public abstract class AbstractModuleResourceArchive implements CFApplicationArch
 
 		abstract protected String computeName(IModuleResource resource);
 	}
+
+	/**
+	 * Entry whose content is read ahead by an {@link ArchiveEntryPrefetcher}.
+	 */
+	protected class PipelinedEntry implements ArchiveEntry {
+
+		private final ArchiveEntry entry;
+
+		private final ArchiveEntryPrefetcher entryPrefetcher;
+
+		private final int index;
+
+		public PipelinedEntry(ArchiveEntry entry, ArchiveEntryPrefetcher entryPrefetcher, int index) {
+			this.entry = entry;
+			this.entryPrefetcher = entryPrefetcher;
+			this.index = index;
+		}
+
+		public boolean isDirectory() {
+			return entry.isDirectory();
+		}
+
+		public String getName() {
+			return entry.getName();
+		}
+
+		public long getSize() {
+			return entry.getSize();
+		}
+
+		public byte[] getSha1Digest() {
+			return entry.getSha1Digest();
+		}
+
+		public InputStream getInputStream() throws IOException {
+			return entryPrefetcher.getInputStream(index);
+		}
+	}
 }
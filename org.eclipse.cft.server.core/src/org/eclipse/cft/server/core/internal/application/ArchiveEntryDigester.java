@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.core.internal.application;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.cft.server.core.ArchiveEntry;
+import org.eclipse.cft.server.core.internal.CloudFoundryPlugin;
+
+/**
+ * Computes sha1 codes and sizes of application archive entries in parallel,
+ * ahead of the Cloud Foundry client requesting them when checking which
+ * resources need to be uploaded.
+ * <p/>
+ * Digests are computed in a dedicated, bounded fork-join pool, rather than the
+ * common pool or the thread publishing the application. This allows the
+ * publish thread to continue with other work, like creating or verifying the
+ * application in the Cloud space, while the archive is being fingerprinted.
+ * Entries themselves cache their digest, so any entry not yet processed by the
+ * pool when requested by the client is simply computed by the client thread.
+ * <p/>
+ * Files are read into a heap buffer scoped to each call, so that no buffer
+ * memory remains pinned on pool or client threads once hashing is done.
+ */
+public class ArchiveEntryDigester {
+
+	private static final int MAX_PARALLELISM = 8;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Number of entries below which a task computes digests directly instead
+	 * of splitting further.
+	 */
+	private static final int SPLIT_THRESHOLD = 4;
+
+	private static ForkJoinPool pool;
+
+	protected static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			int parallelism = Math.max(1, Math.min(MAX_PARALLELISM, Runtime.getRuntime().availableProcessors()));
+			pool = new ForkJoinPool(parallelism, new ForkJoinWorkerThreadFactory() {
+
+				public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+					ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+					thread.setName("Cloud Foundry Archive Digester - " + thread.getPoolIndex()); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			}, null, false);
+		}
+		return pool;
+	}
+
+	/**
+	 * Starts computing the sha1 codes and sizes of the given entries in the
+	 * background. Returns immediately.
+	 * @param entries to digest. Directory entries are skipped.
+	 * @return task that can be used to wait for or cancel the computation.
+	 */
+	public static ForkJoinTask<?> digestAsync(List<? extends ArchiveEntry> entries) {
+		return getPool().submit(new DigestTask(entries));
+	}
+
+	/**
+	 * Reads the given file, updating the digest if not null.
+	 * @param file
+	 * @param digest may be null
+	 * @return number of bytes read
+	 * @throws IOException
+	 */
+	public static long digest(File file, MessageDigest digest) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[(int) Math.max(1, Math.min(BUFFER_SIZE, file.length()))];
+			long byteCount = 0;
+			int bytesRead = -1;
+			while ((bytesRead = in.read(buffer)) != -1) {
+				byteCount += bytesRead;
+				if (digest != null) {
+					digest.update(buffer, 0, bytesRead);
+				}
+			}
+			return byteCount;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	public static synchronized void shutdown() {
+		if (pool != null) {
+			pool.shutdownNow();
+			pool = null;
+		}
+	}
+
+	static class DigestTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<? extends ArchiveEntry> entries;
+
+		/**
+		 * Shared by all subtasks, as cancelling the root task does not
+		 * propagate to subtasks that are already forked.
+		 */
+		private final AtomicBoolean canceled;
+
+		DigestTask(List<? extends ArchiveEntry> entries) {
+			this(entries, new AtomicBoolean(false));
+		}
+
+		private DigestTask(List<? extends ArchiveEntry> entries, AtomicBoolean canceled) {
+			this.entries = entries;
+			this.canceled = canceled;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			canceled.set(true);
+			return super.cancel(mayInterruptIfRunning);
+		}
+
+		@Override
+		protected void compute() {
+			if (entries.size() <= SPLIT_THRESHOLD) {
+				for (ArchiveEntry entry : entries) {
+					if (canceled.get()) {
+						return;
+					}
+					digest(entry);
+				}
+			}
+			else {
+				int middle = entries.size() / 2;
+				invokeAll(new DigestTask(entries.subList(0, middle), canceled),
+						new DigestTask(entries.subList(middle, entries.size()), canceled));
+			}
+		}
+
+		protected void digest(ArchiveEntry entry) {
+			if (entry.isDirectory()) {
+				return;
+			}
+			try {
+				entry.getSha1Digest();
+				entry.getSize();
+			}
+			catch (RuntimeException e) {
+				// Do not fail the whole computation. The same error will be
+				// reported when the client requests the digest of this entry.
+				CloudFoundryPlugin.trace("Failed to compute digest for " + entry.getName() + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+	}
+}
@@ -0,0 +1,327 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.core.internal.application;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.cft.server.core.ArchiveEntry;
+import org.eclipse.cft.server.core.internal.CloudFoundryPlugin;
+
+/**
+ * Reads the content of archive entries that are to be uploaded ahead of the
+ * client, in a separate thread, so that reading files from disk overlaps with
+ * compressing and sending entries that were already read. Content is passed
+ * to the client through a bounded queue of chunks, so at most a fixed amount
+ * of content is held in memory regardless of the size of the application.
+ * <p/>
+ * Entries are read in the order in which they are given, which is the order
+ * in which the client writes them into the upload payload. If the client
+ * requests an entry out of order, the content of that entry is read directly
+ * from the entry instead.
+ */
+public class ArchiveEntryPrefetcher {
+
+	public static final String BUFFERS_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".publish.pipeline.buffers"; //$NON-NLS-1$
+
+	/**
+	 * Default number of chunks that may be read ahead of the client. 0
+	 * disables reading ahead.
+	 */
+	public static final int DEFAULT_BUFFERS = 16;
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private static final long POLL_INTERVAL_MS = 200;
+
+	private final List<ArchiveEntry> entries;
+
+	private final BlockingQueue<Chunk> queue;
+
+	private volatile boolean canceled;
+
+	private volatile boolean done;
+
+	private Chunk pending;
+
+	private int lastRequested = -1;
+
+	private Thread reader;
+
+	/**
+	 * 
+	 * @param entries entries whose content is read ahead, in upload order.
+	 * Directories are skipped.
+	 * @param buffers maximum number of chunks read ahead of the client. Must
+	 * be greater than 0.
+	 */
+	public ArchiveEntryPrefetcher(List<ArchiveEntry> entries, int buffers) {
+		this.entries = new ArrayList<ArchiveEntry>(entries);
+		this.queue = new ArrayBlockingQueue<Chunk>(buffers);
+	}
+
+	/**
+	 * 
+	 * @return number of chunks that may be read ahead, as set in the plugin
+	 * preferences. 0 if reading ahead is disabled.
+	 */
+	public static int getBuffersPreference() {
+		CloudFoundryPlugin plugin = CloudFoundryPlugin.getDefault();
+		if (plugin == null) {
+			return DEFAULT_BUFFERS;
+		}
+		return Math.max(0, plugin.getPreferences().getInt(BUFFERS_PREFERENCE, DEFAULT_BUFFERS));
+	}
+
+	public synchronized void start() {
+		if (reader != null) {
+			return;
+		}
+		reader = new Thread("Cloud Foundry Archive Upload Reader") { //$NON-NLS-1$
+			@Override
+			public void run() {
+				try {
+					readEntries();
+				}
+				finally {
+					done = true;
+				}
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Stops reading ahead and releases any content that was read but not
+	 * consumed. Streams that are still being read by the client fail with an
+	 * {@link IOException}.
+	 */
+	public void cancel() {
+		canceled = true;
+		queue.clear();
+	}
+
+	/**
+	 * 
+	 * @param index position of the entry in the list of entries given to
+	 * this prefetcher
+	 * @return stream for the content of the entry. If the entry is requested
+	 * in upload order, this is the content read ahead. Otherwise the content
+	 * is read directly from the entry.
+	 * @throws IOException
+	 */
+	public synchronized InputStream getInputStream(int index) throws IOException {
+		ArchiveEntry entry = entries.get(index);
+		if (entry.isDirectory()) {
+			return entry.getInputStream();
+		}
+		if (canceled || index <= lastRequested) {
+			return entry.getInputStream();
+		}
+		lastRequested = index;
+		return new PrefetchedInputStream(index);
+	}
+
+	protected void readEntries() {
+		for (int i = 0; i < entries.size() && !canceled; i++) {
+			ArchiveEntry entry = entries.get(i);
+			if (entry.isDirectory()) {
+				continue;
+			}
+			InputStream in = null;
+			try {
+				in = entry.getInputStream();
+				if (in != null) {
+					int read = 0;
+					while (read != -1 && !canceled) {
+						byte[] data = new byte[CHUNK_SIZE];
+						int length = 0;
+						while (length < data.length && (read = in.read(data, length, data.length - length)) != -1) {
+							length += read;
+						}
+						if (length > 0 && !put(new Chunk(i, data, length, null))) {
+							return;
+						}
+					}
+				}
+				if (!put(new Chunk(i, null, -1, null))) {
+					return;
+				}
+			}
+			catch (IOException e) {
+				if (!put(new Chunk(i, null, -1, e))) {
+					return;
+				}
+			}
+			finally {
+				if (in != null) {
+					try {
+						in.close();
+					}
+					catch (IOException e) {
+						// Ignore
+					}
+				}
+			}
+		}
+	}
+
+	private boolean put(Chunk chunk) {
+		try {
+			while (!canceled) {
+				if (queue.offer(chunk, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	/**
+	 * 
+	 * @param index
+	 * @return next chunk for the entry at the given index. Chunks of entries
+	 * that precede it, which the client did not fully read, are discarded.
+	 * @throws IOException if reading ahead was canceled or stopped before the
+	 * entry was read
+	 */
+	private synchronized Chunk nextChunk(int index) throws IOException {
+		while (true) {
+			if (pending == null) {
+				pending = takeChunk();
+			}
+			if (pending.index < index) {
+				pending = null;
+				continue;
+			}
+			if (pending.index > index) {
+				// End of the entry was already consumed
+				return null;
+			}
+			Chunk chunk = pending;
+			pending = null;
+			return chunk;
+		}
+	}
+
+	private Chunk takeChunk() throws IOException {
+		try {
+			while (true) {
+				if (canceled) {
+					throw new IOException("Upload of application archive canceled"); //$NON-NLS-1$
+				}
+				// Check before polling, as the reader may add its last chunk
+				// and terminate in between
+				boolean finished = done;
+				Chunk chunk = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+				if (chunk != null) {
+					return chunk;
+				}
+				if (finished) {
+					throw new IOException("Application archive content no longer available"); //$NON-NLS-1$
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+	}
+
+	private static class Chunk {
+
+		final int index;
+
+		final byte[] data;
+
+		final int length;
+
+		final IOException error;
+
+		Chunk(int index, byte[] data, int length, IOException error) {
+			this.index = index;
+			this.data = data;
+			this.length = length;
+			this.error = error;
+		}
+
+		boolean isEnd() {
+			return data == null;
+		}
+	}
+
+	private class PrefetchedInputStream extends InputStream {
+
+		private final int index;
+
+		private Chunk current;
+
+		private int position;
+
+		private boolean ended;
+
+		PrefetchedInputStream(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			int read = read(single, 0, 1);
+			return read == -1 ? -1 : single[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			while (current == null || position >= current.length) {
+				if (ended) {
+					return -1;
+				}
+				current = nextChunk(index);
+				position = 0;
+				if (current == null || current.isEnd()) {
+					ended = true;
+					if (current != null && current.error != null) {
+						throw current.error;
+					}
+					current = null;
+					return -1;
+				}
+			}
+			int read = Math.min(len, current.length - position);
+			System.arraycopy(current.data, position, b, off, read);
+			position += read;
+			return read;
+		}
+	}
+}
@@ -21,12 +21,15 @@
 package org.eclipse.cft.server.core.internal.application;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -37,13 +40,16 @@ import java.util.zip.ZipFile;
 import org.eclipse.cft.server.core.ArchiveEntry;
 import org.eclipse.cft.server.core.internal.CloudFoundryPlugin;
 import org.eclipse.cft.server.core.internal.CloudUtil;
+import org.eclipse.cft.server.core.internal.DeployedResourceCache;
 import org.eclipse.cft.server.core.internal.DeployedResourceCache.CachedDeployedApplication;
 import org.eclipse.cft.server.core.internal.DeployedResourceCache.DeployedResourceEntry;
+import org.eclipse.cft.server.core.internal.ModuleResourceDeltaWrapper;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.wst.server.core.IModule;
 import org.eclipse.wst.server.core.model.IModuleFile;
 import org.eclipse.wst.server.core.model.IModuleFolder;
 import org.eclipse.wst.server.core.model.IModuleResource;
+import org.eclipse.wst.server.core.model.IModuleResourceDelta;
 
 /**
  * Application archive for incremental publishing that optimises sha1 code and
@@ -63,29 +69,108 @@ import org.eclipse.wst.server.core.model.IModuleResource;
  * has changed or not. The reason for this is that the CF client requires all
  * entries in order to determine what has changed on the server side. During
  * this phase, either cached entries are used for resources that have not
- * changed, or entries are recalculated for resources that have changed.
+ * changed, or entries are recalculated for resources that have changed. If the
+ * application was already published in this session, the entries are derived
+ * by applying the resource deltas to the manifest of the previous publish,
+ * rather than by walking all module resources.
  * 
  * <p/>
  * 2) The second phase involves handling the list of resources that the server
  * indicates have not changed. This is done through a callback handler, which
- * then builds the partial war file with only those resources that have changed.
+ * then restricts the archive to only those resources that have changed. Their
+ * content is streamed directly from the workspace where possible, rather than
+ * first building a partial war file.
  * 
  */
 public class CachingApplicationArchive extends AbstractModuleResourceArchive {
 
 	private final Set<String> changedResources;
 
+	private final List<IModuleResource> resourceDeltas;
+
 	private String fileName;
 
 	private final CachedDeployedApplication appID;
 
+	private final ModuleResourceResolver resolver;
+
+	private List<IModuleResource> resolvedResources;
+
 	public CachingApplicationArchive(List<IModuleResource> allResources, List<IModuleResource> changedResources,
 			IModule module, String appName) {
+		this(allResources, changedResources, module, null, appName);
+	}
+
+	/**
+	 * 
+	 * @param allResources
+	 * @param changedResources
+	 * @param module
+	 * @param serverId id of the server the application is deployed to, used
+	 * to scope cached sha1 entries. May be null.
+	 * @param appName
+	 */
+	public CachingApplicationArchive(List<IModuleResource> allResources, List<IModuleResource> changedResources,
+			IModule module, String serverId, String appName) {
+		this(allResources, null, changedResources, module, serverId, appName);
+	}
+
+	/**
+	 * 
+	 * @param resolver resolves all the module resources, only if they are
+	 * needed. When the application was already published in this session,
+	 * entries are derived from the resource deltas instead, and resolving all
+	 * module resources, which walks the entire module, can be avoided.
+	 * @param changedResources
+	 * @param module
+	 * @param serverId id of the server the application is deployed to, used
+	 * to scope cached sha1 entries. May be null.
+	 * @param appName
+	 */
+	public CachingApplicationArchive(ModuleResourceResolver resolver, List<IModuleResource> changedResources,
+			IModule module, String serverId, String appName) {
+		this(null, resolver, changedResources, module, serverId, appName);
+	}
+
+	private CachingApplicationArchive(List<IModuleResource> allResources, ModuleResourceResolver resolver,
+			List<IModuleResource> changedResources, IModule module, String serverId, String appName) {
 		super(module, allResources);
-		this.appID = new CachedDeployedApplication(appName);
+		this.resolver = resolver;
+		this.appID = new CachedDeployedApplication(serverId, appName);
+		this.resourceDeltas = changedResources;
 		this.changedResources = changedResourcesAsZipNames(changedResources);
 	}
 
+	/**
+	 * Resolves all the resources of the module being published.
+	 */
+	public interface ModuleResourceResolver {
+
+		public List<IModuleResource> getResources() throws CoreException;
+
+	}
+
+	@Override
+	protected synchronized List<IModuleResource> getModuleResources() {
+		if (resolvedResources == null) {
+			if (resolver == null) {
+				resolvedResources = super.getModuleResources();
+			}
+			else {
+				try {
+					resolvedResources = resolver.getResources();
+				}
+				catch (CoreException e) {
+					CloudFoundryPlugin.log(e);
+				}
+				if (resolvedResources == null) {
+					resolvedResources = new ArrayList<IModuleResource>();
+				}
+			}
+		}
+		return resolvedResources;
+	}
+
 	protected Set<String> changedResourcesAsZipNames(List<IModuleResource> changedResources) {
 		Set<String> names = new HashSet<String>();
 		for (IModuleResource resource : changedResources) {
@@ -98,6 +183,170 @@ public class CachingApplicationArchive extends AbstractModuleResourceArchive {
 		return fileName;
 	}
 
+	@Override
+	protected void collectEntries(List<ArchiveEntry> entries) {
+		if (!collectEntriesFromManifest(entries)) {
+			entries.clear();
+			super.collectEntries(entries);
+		}
+		recordManifest(entries);
+	}
+
+	/**
+	 * Collects entries by applying the resource deltas to the manifest of
+	 * entries recorded when the application was last published, rather than
+	 * walking all module resources. Only resources that have a delta, or whose
+	 * file has changed outside of a delta, are resolved from the module.
+	 * @param entries
+	 * @return true if entries were collected from the manifest. False if no
+	 * manifest is available, or it cannot be reconciled with the module, in
+	 * which case all module resources need to be walked instead.
+	 */
+	protected boolean collectEntriesFromManifest(List<ArchiveEntry> entries) {
+		DeployedResourceCache cache = CloudFoundryPlugin.getDefault().getDeployedResourcesCache();
+		Map<String, File> manifest = cache.getManifest(appID);
+		if (manifest == null || resourceDeltas == null) {
+			return false;
+		}
+
+		Map<String, IModuleFile> changedFiles = new LinkedHashMap<String, IModuleFile>();
+		Set<String> removedFiles = new HashSet<String>();
+		for (IModuleResource resource : resourceDeltas) {
+			String zipName = CloudUtil.getZipRelativeName(resource);
+			if (resource instanceof ModuleResourceDeltaWrapper) {
+				IModuleResourceDelta delta = ((ModuleResourceDeltaWrapper) resource).getResourceDelta();
+				if (delta.getKind() == IModuleResourceDelta.REMOVED) {
+					removedFiles.add(zipName);
+				}
+				else if (delta.getModuleResource() instanceof IModuleFile) {
+					changedFiles.put(zipName, (IModuleFile) delta.getModuleResource());
+				}
+			}
+			else if (resource instanceof IModuleFile) {
+				changedFiles.put(zipName, (IModuleFile) resource);
+			}
+		}
+
+		Set<String> foldersToVerify = new HashSet<String>();
+		for (Map.Entry<String, File> manifestEntry : manifest.entrySet()) {
+			String zipName = manifestEntry.getKey();
+			File file = manifestEntry.getValue();
+			if (removedFiles.contains(zipName)) {
+				foldersToVerify.addAll(getParentFolderNames(zipName));
+				continue;
+			}
+
+			IModuleFile changedFile = changedFiles.remove(zipName);
+			if (changedFile != null) {
+				entries.add(getFileResourceEntryAdapter(changedFile));
+			}
+			else if (zipName.endsWith("/")) { //$NON-NLS-1$
+				entries.add(new ManifestEntry(zipName, null, null));
+			}
+			else {
+				DeployedResourceEntry cachedEntry = cache.getEntry(appID, zipName);
+				if (file != null && cachedEntry != null && cachedEntry.isUpToDate(file.length(), file.lastModified())) {
+					entries.add(new ManifestEntry(zipName, file, cachedEntry));
+				}
+				else {
+					// Changed outside of a delta, or no longer cached
+					IModuleResource resource = findResource(zipName);
+					if (!(resource instanceof IModuleFile)) {
+						return false;
+					}
+					entries.add(getFileResourceEntryAdapter((IModuleFile) resource));
+				}
+			}
+		}
+
+		// Any remaining changed files were not in the manifest, so they have
+		// been added since the last publish, possibly in new folders
+		for (Map.Entry<String, IModuleFile> added : changedFiles.entrySet()) {
+			for (String folderName : getParentFolderNames(added.getKey())) {
+				if (!manifest.containsKey(folderName) && foldersToVerify.add(folderName)) {
+					IModuleResource folder = findResource(folderName);
+					if (!(folder instanceof IModuleFolder)) {
+						return false;
+					}
+					entries.add(getModuleFolderAdapter((IModuleFolder) folder));
+				}
+			}
+			entries.add(getFileResourceEntryAdapter(added.getValue()));
+		}
+
+		// Folders may have been removed along with their files
+		for (Iterator<ArchiveEntry> it = entries.iterator(); it.hasNext();) {
+			ArchiveEntry entry = it.next();
+			if (entry.isDirectory() && foldersToVerify.contains(entry.getName())
+					&& !(findResource(entry.getName()) instanceof IModuleFolder)) {
+				it.remove();
+			}
+		}
+		return true;
+	}
+
+	protected void recordManifest(List<ArchiveEntry> entries) {
+		Map<String, File> manifest = new LinkedHashMap<String, File>();
+		for (ArchiveEntry entry : entries) {
+			File file = null;
+			if (entry instanceof ModuleFileEntryAdapter) {
+				file = ((ModuleFileEntryAdapter) entry).file;
+			}
+			else if (entry instanceof ManifestEntry) {
+				file = ((ManifestEntry) entry).file;
+			}
+			manifest.put(entry.getName(), file);
+		}
+		CloudFoundryPlugin.getDefault().getDeployedResourcesCache().setManifest(appID, manifest);
+	}
+
+	/**
+	 * 
+	 * @param zipRelativeName
+	 * @return zip relative names of all the folders containing the given
+	 * resource, from the top-most folder down.
+	 */
+	protected List<String> getParentFolderNames(String zipRelativeName) {
+		List<String> folderNames = new ArrayList<String>();
+		int index = zipRelativeName.indexOf('/');
+		while (index >= 0 && index < zipRelativeName.length() - 1) {
+			folderNames.add(zipRelativeName.substring(0, index + 1));
+			index = zipRelativeName.indexOf('/', index + 1);
+		}
+		return folderNames;
+	}
+
+	/**
+	 * Resolves a single module resource by navigating the module folders
+	 * along its zip relative name, without walking unrelated resources.
+	 * @param zipRelativeName
+	 * @return module resource, or null if it no longer exists
+	 */
+	protected IModuleResource findResource(String zipRelativeName) {
+		String[] segments = zipRelativeName.split("/"); //$NON-NLS-1$
+		IModuleResource[] members = getModuleResources().toArray(new IModuleResource[0]);
+		IModuleResource found = null;
+		for (int i = 0; i < segments.length; i++) {
+			found = null;
+			for (IModuleResource member : members) {
+				if (segments[i].equals(member.getName())) {
+					found = member;
+					break;
+				}
+			}
+			if (found == null) {
+				return null;
+			}
+			if (i < segments.length - 1) {
+				if (!(found instanceof IModuleFolder)) {
+					return null;
+				}
+				members = ((IModuleFolder) found).members();
+			}
+		}
+		return found;
+	}
+
 	protected ModuleFolderEntryAdapter getModuleFolderAdapter(IModuleFolder folder) {
 		return new ZipModuleFolderEntryAdapter(folder);
 	}
@@ -108,20 +357,50 @@ public class CachingApplicationArchive extends AbstractModuleResourceArchive {
 		return new ZipModuleFileEntryAdapter(file, appID, changed);
 	}
 
-	public void generatePartialWarFile(Set<String> knownResourceNames) {
+	/**
+	 * Restricts the entries of this archive to only those resources that the
+	 * server indicates are missing or have changed, plus all folders.
+	 * <p/>
+	 * If all such resources are accessible as local files, the entries
+	 * themselves are used for the upload, so that their content is streamed
+	 * directly from the workspace into the upload payload, with sha1 codes
+	 * and sizes taken from the cache. Otherwise, a partial war file is
+	 * generated containing the missing and changed resources.
+	 * <p/>
+	 * Synchronized with {@link #getEntries()}, as the entries of the archive
+	 * are replaced.
+	 * @param knownResourceNames names of resources that the server already
+	 * has
+	 */
+	public synchronized void generatePartialWarFile(Set<String> knownResourceNames) {
 		Iterable<ArchiveEntry> localEntries = getEntries();
-		Map<String, AbstractModuleResourceEntryAdapter> missingChangedEntries = new HashMap<String, AbstractModuleResourceEntryAdapter>();
-		Set<IModuleResource> missingChangedResources = new HashSet<IModuleResource>();
+		Map<String, ArchiveEntry> missingChangedEntries = new LinkedHashMap<String, ArchiveEntry>();
 
 		for (ArchiveEntry entry : localEntries) {
 
 			if (entry.isDirectory() || !knownResourceNames.contains(entry.getName())) {
-				missingChangedEntries.put(entry.getName(), (AbstractModuleResourceEntryAdapter) entry);
-				missingChangedResources.add(((AbstractModuleResourceEntryAdapter) entry).getResource());
+				missingChangedEntries.put(entry.getName(), entry);
+			}
+		}
+
+		if (canStream(missingChangedEntries.values())) {
+			fileName = getModule().getName() + ".war"; //$NON-NLS-1$
+			entries = new ArrayList<ArchiveEntry>(missingChangedEntries.values());
+			return;
+		}
+
+		// Build war file with changed/missing resources. Folders are always
+		// added to the war file, so only file resources are needed.
+		Set<IModuleResource> missingChangedResources = new HashSet<IModuleResource>();
+		for (ArchiveEntry entry : missingChangedEntries.values()) {
+			IModuleResource resource = entry instanceof AbstractModuleResourceEntryAdapter
+					? ((AbstractModuleResourceEntryAdapter) entry).getResource()
+					: entry.isDirectory() ? null : findResource(entry.getName());
+			if (resource != null) {
+				missingChangedResources.add(resource);
 			}
 		}
 
-		// Build war file with changed/missing resources
 		try {
 
 			File partialWar = CloudUtil.createWarFile(getModuleResources(), getModule(), missingChangedResources, null);
@@ -134,10 +413,12 @@ public class CachingApplicationArchive extends AbstractModuleResourceArchive {
 				while (zipEntries.hasMoreElements()) {
 					ZipEntry zipEntry = zipEntries.nextElement();
 
-					AbstractModuleResourceEntryAdapter archiveEntry = missingChangedEntries.get(zipEntry.getName());
+					ArchiveEntry archiveEntry = missingChangedEntries.get(zipEntry.getName());
 					if (archiveEntry != null) {
 						DeployedResourceEntry deployedResourcesEntry = archiveEntry instanceof ZipModuleFileEntryAdapter
-								? ((ZipModuleFileEntryAdapter) archiveEntry).getDeployedResourcesEntry() : null;
+								? ((ZipModuleFileEntryAdapter) archiveEntry).getDeployedResourcesEntry()
+								: archiveEntry instanceof ManifestEntry
+										? ((ManifestEntry) archiveEntry).getDeployedResourceEntry() : null;
 						toDeploy.add(new PartialZipEntryAdapter(deployedResourcesEntry, zipEntry, zipPartialWar));
 
 					}
@@ -160,6 +441,78 @@ public class CachingApplicationArchive extends AbstractModuleResourceArchive {
 		}
 	}
 
+	/**
+	 * 
+	 * @param entriesToUpload
+	 * @return true if the content of all the given file entries can be read
+	 * directly from a local file, without first building a war file.
+	 */
+	protected boolean canStream(Collection<ArchiveEntry> entriesToUpload) {
+		for (ArchiveEntry entry : entriesToUpload) {
+			if (entry.isDirectory()) {
+				continue;
+			}
+			if (entry instanceof ZipModuleFileEntryAdapter) {
+				if (!((ZipModuleFileEntryAdapter) entry).canComputeResourceEntry()) {
+					return false;
+				}
+			}
+			else if (!(entry instanceof ManifestEntry) || ((ManifestEntry) entry).file == null
+					|| !((ManifestEntry) entry).file.exists()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Entry for a resource that has not changed since the application was
+	 * last published, created from the recorded manifest and cached sha1 code
+	 * and size, without resolving the module resource.
+	 */
+	public class ManifestEntry implements ArchiveEntry {
+
+		private final String name;
+
+		private final File file;
+
+		private final DeployedResourceEntry deployedResourceEntry;
+
+		public ManifestEntry(String name, File file, DeployedResourceEntry deployedResourceEntry) {
+			this.name = name;
+			this.file = file;
+			this.deployedResourceEntry = deployedResourceEntry;
+		}
+
+		public boolean isDirectory() {
+			return name.endsWith("/"); //$NON-NLS-1$
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		protected DeployedResourceEntry getDeployedResourceEntry() {
+			return deployedResourceEntry;
+		}
+
+		public long getSize() {
+			return deployedResourceEntry != null ? deployedResourceEntry.getFileSize()
+					: AbstractModuleResourceEntryAdapter.UNDEFINED_SIZE;
+		}
+
+		public byte[] getSha1Digest() {
+			return deployedResourceEntry != null ? deployedResourceEntry.getSha1() : null;
+		}
+
+		public InputStream getInputStream() throws IOException {
+			if (isDirectory() || file == null) {
+				return null;
+			}
+			return new FileInputStream(file);
+		}
+	}
+
 	/**
 	 * Entry to be used to access actual payload files. Sha1 entries should be
 	 * computed prior to creating the entry, ideally without uncompressing the
@@ -257,15 +610,28 @@ public class CachingApplicationArchive extends AbstractModuleResourceArchive {
 			return entry != null ? entry.getFileSize() : UNDEFINED_SIZE;
 		}
 
-		public DeployedResourceEntry getDeployedResourcesEntry() {
+		@Override
+		protected boolean useFingerprintCache() {
+			// Resources with a delta must always be recomputed, as their
+			// timestamp may not have changed if modified in quick
+			// succession
+			return !recalculate;
+		}
+
+		public synchronized DeployedResourceEntry getDeployedResourcesEntry() {
 
 			DeployedResourceEntry deployedResourcesEntry = CloudFoundryPlugin.getDefault().getDeployedResourcesCache()
 					.getEntry(appName, getName());
 
-			if (canComputeResourceEntry() && (recalculate || deployedResourcesEntry == null)) {
+			// Cached entries may have been persisted in a previous session, so
+			// also recalculate if the file has changed since the entry was
+			// computed, even if there is no delta for it.
+			if (canComputeResourceEntry() && (recalculate || deployedResourcesEntry == null
+					|| !deployedResourcesEntry.isUpToDate(file.length(), file.lastModified()))) {
+				long lastModified = file.lastModified();
 				byte[] sha1 = super.getSha1Digest();
 				long fileSize = super.getSize();
-				deployedResourcesEntry = new DeployedResourceEntry(sha1, fileSize, getName());
+				deployedResourcesEntry = new DeployedResourceEntry(sha1, fileSize, lastModified, getName());
 				CloudFoundryPlugin.getDefault().getDeployedResourcesCache().add(appName, deployedResourcesEntry);
 			}
 
@@ -282,8 +648,17 @@ public class CachingApplicationArchive extends AbstractModuleResourceArchive {
 		}
 	}
 
+	@Override
+	public synchronized void resetUpload() {
+		super.resetUpload();
+		// Name of the partial war file, if one was generated
+		fileName = null;
+	}
+
 	@Override
 	public void close() throws CoreException {
-		// nothing
+		cancelUploadPipeline();
+		cancelComputeDigests();
+		CloudFoundryPlugin.getDefault().getDeployedResourcesCache().flush(appID);
 	}
 }
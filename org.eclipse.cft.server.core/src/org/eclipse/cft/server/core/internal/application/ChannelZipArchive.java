@@ -0,0 +1,413 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.core.internal.application;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.eclipse.cft.server.core.ArchiveEntry;
+import org.eclipse.cft.server.core.CFApplicationArchive;
+import org.eclipse.cft.server.core.internal.CloudFoundryPlugin;
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * Application archive for a pre-built archive file, like a packaged jar or
+ * war, that reads the archive through positional reads on a single
+ * {@link FileChannel}, rather than through a {@link ZipFile}.
+ * <p/>
+ * The central directory is parsed once when the archive is opened. The content
+ * of each entry is only located when it is first read. Entries can be read
+ * concurrently, so sha1 codes of all entries can be computed in parallel
+ * ahead of the upload through {@link #computeDigestsAsync()}.
+ * <p/>
+ * The file is not memory mapped, so it is released as soon as the archive is
+ * closed, on all platforms. Streams still being read when the archive is
+ * closed fail with an {@link IOException}.
+ * <p/>
+ * Archives that use ZIP64 extensions are not supported. Use
+ * {@link #open(File)} to fall back to a {@link ZipArchive} for those.
+ */
+public class ChannelZipArchive implements CFApplicationArchive {
+
+	private static final int LOC_SIGNATURE = 0x04034b50;
+
+	private static final int CEN_SIGNATURE = 0x02014b50;
+
+	private static final int END_SIGNATURE = 0x06054b50;
+
+	private static final int LOC_HEADER_SIZE = 30;
+
+	private static final int CEN_HEADER_SIZE = 46;
+
+	private static final int END_HEADER_SIZE = 22;
+
+	private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+	private static final int STORED = 0;
+
+	private static final int DEFLATED = 8;
+
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final String name;
+
+	private final RandomAccessFile file;
+
+	private final FileChannel channel;
+
+	private final long size;
+
+	private final List<ArchiveEntry> entries;
+
+	private ForkJoinTask<?> digestTask;
+
+	/**
+	 * 
+	 * @param file archive file to read
+	 * @throws ZipException if the file is not a zip archive, or uses features
+	 * that are not supported
+	 * @throws IOException if failed to read the file
+	 */
+	public ChannelZipArchive(File file) throws IOException {
+		this.name = file.getName();
+		this.file = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+		boolean opened = false;
+		try {
+			this.channel = this.file.getChannel();
+			this.size = channel.size();
+			this.entries = Collections.unmodifiableList(readCentralDirectory());
+			opened = true;
+		}
+		finally {
+			if (!opened) {
+				this.file.close();
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @param file
+	 * @return an archive reading the given file through a file channel, or
+	 * an archive backed by a {@link ZipFile} if the file uses features that
+	 * are not supported.
+	 * @throws IOException if the file is not a valid archive
+	 */
+	public static CFApplicationArchive open(File file) throws IOException {
+		try {
+			return new ChannelZipArchive(file);
+		}
+		catch (ZipException e) {
+			CloudFoundryPlugin.trace("Unable to read archive " + file + " directly: " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			return new ZipArchive(new ZipFile(file));
+		}
+	}
+
+	public Iterable<ArchiveEntry> getEntries() {
+		return entries;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Starts computing sha1 codes for all entries in the archive in the
+	 * background. Returns immediately.
+	 */
+	public synchronized void computeDigestsAsync() {
+		if (digestTask == null) {
+			digestTask = ArchiveEntryDigester.digestAsync(entries);
+		}
+	}
+
+	public synchronized void close() throws CoreException {
+		if (digestTask != null) {
+			digestTask.cancel(true);
+			digestTask = null;
+		}
+		try {
+			file.close();
+		}
+		catch (IOException e) {
+			throw new CoreException(CloudFoundryPlugin.getErrorStatus(e));
+		}
+	}
+
+	/**
+	 * Reads exactly the given number of bytes at the given position of the
+	 * file.
+	 */
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read < 0) {
+				throw new EOFException("Unexpected end of archive: " + name); //$NON-NLS-1$
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	protected List<ArchiveEntry> readCentralDirectory() throws IOException {
+		int tailLength = (int) Math.min(size, END_HEADER_SIZE + MAX_COMMENT_SIZE);
+		long tailOffset = size - tailLength;
+		ByteBuffer tail = read(tailOffset, tailLength);
+		int end = findEndOfCentralDirectory(tail);
+		int count = getUnsignedShort(tail, end + 10);
+		long cenSize = getUnsignedInt(tail, end + 12);
+		long cenOffset = getUnsignedInt(tail, end + 16);
+		if (count == 0xFFFF || cenSize == ZIP64_MAGIC || cenOffset == ZIP64_MAGIC) {
+			throw new ZipException("ZIP64 archives are not supported"); //$NON-NLS-1$
+		}
+		if (cenOffset + cenSize > tailOffset + end) {
+			throw new ZipException("Invalid central directory offset"); //$NON-NLS-1$
+		}
+
+		ByteBuffer buffer = read(cenOffset, (int) cenSize);
+		List<ArchiveEntry> entries = new ArrayList<ArchiveEntry>(count);
+		int position = 0;
+		for (int i = 0; i < count; i++) {
+			if (position + CEN_HEADER_SIZE > buffer.limit() || buffer.getInt(position) != CEN_SIGNATURE) {
+				throw new ZipException("Invalid central directory header"); //$NON-NLS-1$
+			}
+			int method = getUnsignedShort(buffer, position + 10);
+			long compressedSize = getUnsignedInt(buffer, position + 20);
+			long size = getUnsignedInt(buffer, position + 24);
+			int nameLength = getUnsignedShort(buffer, position + 28);
+			int extraLength = getUnsignedShort(buffer, position + 30);
+			int commentLength = getUnsignedShort(buffer, position + 32);
+			long localHeaderOffset = getUnsignedInt(buffer, position + 42);
+			if (compressedSize == ZIP64_MAGIC || size == ZIP64_MAGIC || localHeaderOffset == ZIP64_MAGIC) {
+				throw new ZipException("ZIP64 archives are not supported"); //$NON-NLS-1$
+			}
+			if (method != STORED && method != DEFLATED) {
+				throw new ZipException("Unsupported compression method: " + method); //$NON-NLS-1$
+			}
+			if (position + CEN_HEADER_SIZE + nameLength > buffer.limit()) {
+				throw new ZipException("Invalid central directory header"); //$NON-NLS-1$
+			}
+
+			byte[] nameBytes = new byte[nameLength];
+			ByteBuffer nameBuffer = buffer.duplicate();
+			nameBuffer.position(position + CEN_HEADER_SIZE);
+			nameBuffer.get(nameBytes);
+			String entryName = new String(nameBytes, StandardCharsets.UTF_8);
+
+			entries.add(new ChannelZipEntry(entryName, method, compressedSize, size, localHeaderOffset));
+			position += CEN_HEADER_SIZE + nameLength + extraLength + commentLength;
+		}
+		return entries;
+	}
+
+	/**
+	 * The end of central directory record is at the end of the file, followed
+	 * only by an optional comment of variable length.
+	 * @param tail the last bytes of the file
+	 */
+	private static int findEndOfCentralDirectory(ByteBuffer tail) throws ZipException {
+		int limit = tail.limit();
+		for (int position = limit - END_HEADER_SIZE; position >= 0; position--) {
+			if (tail.getInt(position) == END_SIGNATURE
+					&& position + END_HEADER_SIZE + getUnsignedShort(tail, position + 20) == limit) {
+				return position;
+			}
+		}
+		throw new ZipException("End of central directory not found"); //$NON-NLS-1$
+	}
+
+	private static int getUnsignedShort(ByteBuffer buffer, int position) {
+		return buffer.getShort(position) & 0xFFFF;
+	}
+
+	private static long getUnsignedInt(ByteBuffer buffer, int position) {
+		return buffer.getInt(position) & 0xFFFFFFFFL;
+	}
+
+	class ChannelZipEntry extends AbstractArchiveEntry {
+
+		private final String entryName;
+
+		private final int method;
+
+		private final long compressedSize;
+
+		private final long localHeaderOffset;
+
+		private long dataOffset = -1;
+
+		ChannelZipEntry(String entryName, int method, long compressedSize, long size, long localHeaderOffset) {
+			this.entryName = entryName;
+			this.method = method;
+			this.compressedSize = compressedSize;
+			this.localHeaderOffset = localHeaderOffset;
+			setSize(size);
+		}
+
+		public boolean isDirectory() {
+			return entryName.endsWith("/"); //$NON-NLS-1$
+		}
+
+		public String getName() {
+			return entryName;
+		}
+
+		public InputStream getInputStream() throws IOException {
+			if (isDirectory()) {
+				return null;
+			}
+			long offset = getDataOffset();
+			if (offset + compressedSize > size) {
+				throw new ZipException("Invalid compressed size for entry: " + entryName); //$NON-NLS-1$
+			}
+			InputStream content = new ChannelInputStream(channel, offset, compressedSize);
+			if (method == STORED) {
+				return content;
+			}
+			return new RawInflaterInputStream(content);
+		}
+
+		/**
+		 * Local headers repeat the name, but may have a different extra field
+		 * than the central directory, so the offset of the content can only
+		 * be determined from the local header.
+		 */
+		private synchronized long getDataOffset() throws IOException {
+			if (dataOffset < 0) {
+				if (localHeaderOffset + LOC_HEADER_SIZE > size) {
+					throw new ZipException("Invalid local header for entry: " + entryName); //$NON-NLS-1$
+				}
+				ByteBuffer header = read(localHeaderOffset, LOC_HEADER_SIZE);
+				if (header.getInt(0) != LOC_SIGNATURE) {
+					throw new ZipException("Invalid local header for entry: " + entryName); //$NON-NLS-1$
+				}
+				dataOffset = localHeaderOffset + LOC_HEADER_SIZE + getUnsignedShort(header, 26)
+						+ getUnsignedShort(header, 28);
+			}
+			return dataOffset;
+		}
+	}
+
+	/**
+	 * Reads a region of a file channel through positional reads, so that
+	 * several streams can read the same channel concurrently.
+	 */
+	static class ChannelInputStream extends InputStream {
+
+		private final FileChannel channel;
+
+		private long position;
+
+		private final long end;
+
+		ChannelInputStream(FileChannel channel, long position, long length) {
+			this.channel = channel;
+			this.position = position;
+			this.end = position + length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (position >= end) {
+				return -1;
+			}
+			int toRead = (int) Math.min(len, end - position);
+			int read = channel.read(ByteBuffer.wrap(b, off, toRead), position);
+			if (read < 0) {
+				throw new EOFException("Unexpected end of zip entry"); //$NON-NLS-1$
+			}
+			position += read;
+			return read;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(Integer.MAX_VALUE, end - position);
+		}
+	}
+
+	/**
+	 * Inflates raw deflate data, as stored in zip entries. Like the streams
+	 * returned by {@link ZipFile}, it supplies an extra dummy byte at the end
+	 * of the input, which the inflater may require in nowrap mode.
+	 */
+	static class RawInflaterInputStream extends InflaterInputStream {
+
+		private boolean eof;
+
+		private boolean closed;
+
+		RawInflaterInputStream(InputStream in) {
+			super(in, new Inflater(true), BUFFER_SIZE);
+		}
+
+		@Override
+		protected void fill() throws IOException {
+			if (eof) {
+				throw new EOFException("Unexpected end of zip entry"); //$NON-NLS-1$
+			}
+			len = in.read(buf, 0, buf.length);
+			if (len == -1) {
+				buf[0] = 0;
+				len = 1;
+				eof = true;
+			}
+			inf.setInput(buf, 0, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				inf.end();
+				super.close();
+			}
+		}
+	}
+}
@@ -119,6 +119,7 @@ public class ModuleResourceApplicationArchive extends AbstractModuleResourceArch
 
 	@Override
 	public void close() throws CoreException {
-		// Nothing
+		cancelUploadPipeline();
+		cancelComputeDigests();
 	}
 }
\ No newline at end of file
@@ -21,7 +21,6 @@
 package org.eclipse.cft.server.core.internal.application;
 
 import java.io.File;
-import java.util.zip.ZipFile;
 
 import org.eclipse.cft.server.core.CFApplicationArchive;
 import org.eclipse.cft.server.core.internal.CloudErrorUtil;
@@ -52,7 +51,7 @@ public class WarApplicationArchiver implements ICloudFoundryArchiver {
 
 				CloudFoundryPlugin.trace("War file " + warFile.getName() + " created"); //$NON-NLS-1$ //$NON-NLS-2$
 
-				return new ZipArchive(new ZipFile(warFile));
+				return ChannelZipArchive.open(warFile);
 			}
 			else {
 				throw CloudErrorUtil.toCoreException("Expected server: " + server.getId() + " to be of type: "
@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.core.internal.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.cloudfoundry.client.lib.archive.ApplicationArchive;
+import org.eclipse.cft.server.core.ArchiveEntry;
+import org.eclipse.cft.server.core.internal.Messages;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Tracks the application content read by the client while it sends the
+ * upload payload, and reports the amount uploaded so far and the current
+ * throughput in a progress monitor.
+ * <p/>
+ * Content is counted as the client reads it from the archive entries, before
+ * it is compressed, so the reported throughput is that of the application's
+ * content rather than of the bytes sent over the network.
+ */
+public class ArchiveUploadProgress {
+
+	private static final long PROGRESS_INTERVAL = 1000;
+
+	private static final long KB = 1024;
+
+	private final String appName;
+
+	private final SubMonitor monitor;
+
+	private long totalBytes;
+
+	private long uploadedBytes;
+
+	private long reportedKB;
+
+	private long start;
+
+	private long lastReport;
+
+	public ArchiveUploadProgress(String appName, IProgressMonitor monitor) {
+		this.appName = appName;
+		this.monitor = SubMonitor.convert(monitor);
+	}
+
+	/**
+	 * Starts tracking the upload, once the client has determined which
+	 * resources the server already has.
+	 * @param entries all entries of the archive
+	 * @param knownResourceNames names of resources that the server already
+	 * has, and that are therefore not uploaded. May be null if all resources
+	 * are uploaded.
+	 */
+	public synchronized void start(Iterable<ArchiveEntry> entries, Set<String> knownResourceNames) {
+		totalBytes = 0;
+		if (entries != null) {
+			for (ArchiveEntry entry : entries) {
+				if (!entry.isDirectory()
+						&& (knownResourceNames == null || !knownResourceNames.contains(entry.getName()))) {
+					totalBytes += entry.getSize();
+				}
+			}
+		}
+		uploadedBytes = 0;
+		reportedKB = 0;
+		start = now();
+		monitor.setWorkRemaining((int) (totalBytes / KB) + 1);
+		report(start);
+	}
+
+	/**
+	 * 
+	 * @param archive archive passed to the client
+	 * @return archive whose entries count their content as it is read by the
+	 * client
+	 */
+	public ApplicationArchive wrap(final ApplicationArchive archive) {
+		return new ApplicationArchive() {
+
+			public String getFilename() {
+				return archive.getFilename();
+			}
+
+			public Iterable<Entry> getEntries() {
+				List<Entry> entries = new ArrayList<Entry>();
+				for (Entry entry : archive.getEntries()) {
+					entries.add(new CountingEntry(entry));
+				}
+				return entries;
+			}
+		};
+	}
+
+	/**
+	 * 
+	 * @return amount of content read by the client so far, in bytes
+	 */
+	public synchronized long getUploadedBytes() {
+		return uploadedBytes;
+	}
+
+	/**
+	 * 
+	 * @return amount of content to upload, in bytes, or 0 if the upload has
+	 * not started yet
+	 */
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	protected synchronized void transferred(long bytes) {
+		uploadedBytes += bytes;
+		long now = now();
+		if (now - lastReport >= PROGRESS_INTERVAL) {
+			report(now);
+		}
+	}
+
+	private void report(long now) {
+		lastReport = now;
+
+		long uploadedKB = uploadedBytes / KB;
+		if (uploadedKB > reportedKB) {
+			monitor.worked((int) (uploadedKB - reportedKB));
+			reportedKB = uploadedKB;
+		}
+
+		long elapsed = Math.max(1, now - start);
+		long throughputKB = uploadedBytes * 1000 / elapsed / KB;
+		monitor.subTask(NLS.bind(Messages.StartOperation_UPLOAD_PROGRESS,
+				new Object[] { appName, uploadedKB, totalBytes / KB, throughputKB }));
+	}
+
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+
+	class CountingEntry implements ApplicationArchive.Entry {
+
+		private final ApplicationArchive.Entry entry;
+
+		CountingEntry(ApplicationArchive.Entry entry) {
+			this.entry = entry;
+		}
+
+		public boolean isDirectory() {
+			return entry.isDirectory();
+		}
+
+		public String getName() {
+			return entry.getName();
+		}
+
+		public long getSize() {
+			return entry.getSize();
+		}
+
+		public byte[] getSha1Digest() {
+			return entry.getSha1Digest();
+		}
+
+		public InputStream getInputStream() throws IOException {
+			InputStream in = entry.getInputStream();
+			if (in == null) {
+				return null;
+			}
+			return new FilterInputStream(in) {
+
+				@Override
+				public int read() throws IOException {
+					int read = super.read();
+					if (read != -1) {
+						transferred(1);
+					}
+					return read;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					int read = super.read(b, off, len);
+					if (read > 0) {
+						transferred(read);
+					}
+					return read;
+				}
+			};
+		}
+	}
+}
@@ -20,9 +20,12 @@
  ********************************************************************************/
 package org.eclipse.cft.server.core.internal.client;
 
+import java.net.URL;
+
 import org.cloudfoundry.client.lib.CloudFoundryOperations;
 import org.eclipse.cft.server.core.internal.CloudErrorUtil;
 import org.eclipse.cft.server.core.internal.Messages;
+import org.eclipse.cft.server.core.internal.client.RequestRetryPolicy.RetryableRequest;
 import org.eclipse.cft.server.core.internal.log.HttpTracer;
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.CoreException;
@@ -113,6 +116,10 @@ public abstract class BaseClientRequest<T> {
 	 * <p/>
 	 * Note that reattempts are only decided based on errors thrown by the
 	 * client invocation, not by results generated by the client invocation.
+	 * <p/>
+	 * The interval is further adjusted by the {@link #getRetryPolicy()},
+	 * which backs off on consecutive errors from an overloaded or unreachable
+	 * target, and may refuse reattempts to a target that keeps failing.
 	 * @param client client whose operations are invoked. Never null.
 	 * @param subProgress
 	 * @return result of operation. Can be null.
@@ -122,51 +129,59 @@ public abstract class BaseClientRequest<T> {
 	 * @throws OperationCanceledException if further attempts are cancelled even
 	 * if time still remains for additional attempts.
 	 */
-	protected T runAndWait(CloudFoundryOperations client, SubMonitor subProgress)
+	protected T runAndWait(final CloudFoundryOperations client, final SubMonitor subProgress)
 			throws CoreException, OperationCanceledException {
-		Throwable error = null;
-
-		boolean reattempt = true;
-		long timeLeft = getTotalTimeWait();
+		return getRetryPolicy().run(getRetryTarget(client), new RetryableRequest<T>() {
 
-		// Either this operation returns a result during the waiting period or
-		// an error occurred, and error
-		// gets thrown
-
-		while (reattempt) {
+			public T attempt() throws CoreException {
+				return doRun(client, subProgress);
+			}
 
-			long interval = -1;
+			public long getRetryInterval(Throwable error) throws CoreException {
+				return waitOnErrorInterval(error, subProgress);
+			}
 
-			try {
-				return doRun(client, subProgress);
+			public long getRetryTimeout() {
+				return getTotalTimeWait();
 			}
-			catch (Throwable e) {
-				error = e;
+
+			public CoreException getErrorOnLastFailedAttempt(Throwable error) {
+				return BaseClientRequest.this.getErrorOnLastFailedAttempt(error);
 			}
 
-			interval = waitOnErrorInterval(error, subProgress);
-			timeLeft -= interval;
-			reattempt = !subProgress.isCanceled() && timeLeft >= 0 && interval > 0;
-			if (reattempt) {
-
-				try {
-					Thread.sleep(interval);
-				}
-				catch (InterruptedException e) {
-					// Ignore, continue with the next iteration
-				}
+			public String getRequestLabel() {
+				return label;
 			}
-		}
+		}, subProgress);
+	}
 
-		if (subProgress.isCanceled()) {
-			// check for cancel here, if specialized requests do not do it
-			throw new OperationCanceledException(Messages.bind(Messages.OPERATION_CANCELED, label));
-		}
-		if (error instanceof OperationCanceledException) {
-			throw (OperationCanceledException) error;
-		}
+	/**
+	 * 
+	 * @return policy deciding on reattempts and how long to wait between
+	 * them. Never null.
+	 */
+	protected RequestRetryPolicy getRetryPolicy() {
+		return RequestRetryPolicy.getDefault();
+	}
 
-		throw getErrorOnLastFailedAttempt(error);
+	/**
+	 * 
+	 * @return identifies the target of the request, for example the URL of
+	 * the Cloud Foundry server, so that reattempts to a failing target can be
+	 * limited across requests. May be null, in which case the Cloud
+	 * controller URL of the client is used.
+	 */
+	protected String getRetryTarget() {
+		return null;
+	}
+
+	private String getRetryTarget(CloudFoundryOperations client) {
+		String target = getRetryTarget();
+		if (target == null) {
+			URL url = client.getCloudControllerUrl();
+			target = url != null ? url.toString() : null;
+		}
+		return target;
 	}
 
 	protected CoreException getErrorOnLastFailedAttempt(Throwable error) {
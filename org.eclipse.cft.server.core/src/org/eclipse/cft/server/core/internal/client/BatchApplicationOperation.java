@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.core.internal.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.cft.server.core.internal.ApplicationAction;
+import org.eclipse.cft.server.core.internal.CloudFoundryPlugin;
+import org.eclipse.cft.server.core.internal.Messages;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.MultiStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.osgi.util.NLS;
+import org.eclipse.wst.server.core.IModule;
+
+/**
+ * Runs the same {@link ApplicationAction}, like start, stop or restart, on
+ * several applications at once. The operation of each application runs
+ * concurrently with the others, up to a maximum parallelism, so that the
+ * whole batch takes about as long as the slowest application rather than the
+ * sum of all of them.
+ * <p/>
+ * All operations share the client of the server behaviour, which is
+ * authenticated once before any operation starts, and report progress to the
+ * same monitor. The operation of one application failing does not stop the
+ * others. The result of each application is available through
+ * {@link #getResults()} once the batch has run.
+ */
+public class BatchApplicationOperation extends CFOperation {
+
+	/**
+	 * Maximum number of applications on which an operation runs concurrently
+	 */
+	public static final String PARALLELISM_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".operations.parallelism"; //$NON-NLS-1$
+
+	public static final int DEFAULT_PARALLELISM = 4;
+
+	private final List<IModule> modules;
+
+	private final ApplicationAction action;
+
+	private final boolean clearConsole;
+
+	private final int parallelism;
+
+	private final Map<IModule, IStatus> results = Collections.synchronizedMap(new LinkedHashMap<IModule, IStatus>());
+
+	/**
+	 * 
+	 * @param behaviour
+	 * @param modules one module for each application
+	 * @param action
+	 * @param clearConsole
+	 * @param parallelism maximum number of applications on which the
+	 * operation runs concurrently
+	 */
+	public BatchApplicationOperation(CloudFoundryServerBehaviour behaviour, IModule[] modules, ApplicationAction action,
+			boolean clearConsole, int parallelism) {
+		super(behaviour);
+		this.modules = new ArrayList<IModule>(Arrays.asList(modules));
+		this.action = action;
+		this.clearConsole = clearConsole;
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	public static int getDefaultParallelism() {
+		CloudFoundryPlugin plugin = CloudFoundryPlugin.getDefault();
+		return plugin != null ? plugin.getPreferences().getInt(PARALLELISM_PREFERENCE, DEFAULT_PARALLELISM)
+				: DEFAULT_PARALLELISM;
+	}
+
+	@Override
+	public String getOperationName() {
+		return NLS.bind(Messages.CloudBehaviourOperations_BATCH_APPLICATION_OPERATION, action.name(),
+				modules.size());
+	}
+
+	@Override
+	public void run(IProgressMonitor monitor) throws CoreException {
+		final SubMonitor subMonitor = SubMonitor.convert(monitor, getOperationName(), modules.size() + 1);
+		results.clear();
+
+		authenticate(subMonitor.newChild(1));
+
+		CloudRequestExecutor executor = new CloudRequestExecutor(getExecutorName(), parallelism, modules.size());
+		try {
+			boolean completed = executor.forEach(modules, (module) -> {
+				IStatus status = runOperation(module, new SharedProgressMonitor(subMonitor));
+				results.put(module, status);
+				synchronized (subMonitor) {
+					subMonitor.worked(1);
+				}
+			}, subMonitor);
+
+			if (!completed) {
+				throw new OperationCanceledException(getOperationName());
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		List<IStatus> errors = new ArrayList<IStatus>();
+		for (IStatus status : getResults().values()) {
+			if (status.getSeverity() == IStatus.ERROR) {
+				errors.add(status);
+			}
+		}
+		if (!errors.isEmpty()) {
+			throw new CoreException(new MultiStatus(CloudFoundryPlugin.PLUGIN_ID, 0,
+					errors.toArray(new IStatus[0]), NLS.bind(Messages.CloudBehaviourOperations_BATCH_APPLICATION_FAILED,
+							new Object[] { action.name(), errors.size(), modules.size() }),
+					null));
+		}
+	}
+
+	/**
+	 * Authenticates the client shared by all operations once, rather than
+	 * letting each concurrent operation race to log in
+	 */
+	protected void authenticate(IProgressMonitor monitor) throws CoreException {
+		getBehaviour().getClient(monitor);
+	}
+
+	protected String getExecutorName() {
+		return "Cloud Foundry Application Operations - " + getBehaviour().getServer().getId(); //$NON-NLS-1$
+	}
+
+	protected IStatus runOperation(IModule module, IProgressMonitor monitor) {
+		try {
+			getBehaviour().operations().applicationDeployment(new IModule[] { module }, action, clearConsole)
+					.run(monitor);
+			return Status.OK_STATUS;
+		}
+		catch (CoreException e) {
+			return e.getStatus();
+		}
+		catch (OperationCanceledException e) {
+			return Status.CANCEL_STATUS;
+		}
+	}
+
+	/**
+	 * 
+	 * @return status of the operation on each application, in the order in
+	 * which the applications were given. Only contains applications whose
+	 * operation completed.
+	 */
+	public Map<IModule, IStatus> getResults() {
+		synchronized (results) {
+			return new LinkedHashMap<IModule, IStatus>(results);
+		}
+	}
+
+	/**
+	 * Monitor given to the operation of a single application. Progress
+	 * messages are reported to the shared batch monitor, and cancelling the
+	 * batch cancels every operation.
+	 */
+	private static class SharedProgressMonitor extends NullProgressMonitor {
+
+		private final IProgressMonitor batchMonitor;
+
+		SharedProgressMonitor(IProgressMonitor batchMonitor) {
+			this.batchMonitor = batchMonitor;
+		}
+
+		@Override
+		public boolean isCanceled() {
+			return super.isCanceled() || batchMonitor.isCanceled();
+		}
+
+		@Override
+		public void subTask(String name) {
+			synchronized (batchMonitor) {
+				batchMonitor.subTask(name);
+			}
+		}
+	}
+}
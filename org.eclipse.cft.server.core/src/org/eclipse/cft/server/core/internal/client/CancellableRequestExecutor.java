@@ -0,0 +1,307 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.core.internal.client;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.cft.server.core.internal.CloudFoundryPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+/**
+ * Runs requests such that if the user cancels the monitor, the calling thread
+ * returns right away with an {@link OperationCanceledException}, rather than
+ * waiting for the request to complete.
+ * <p/>
+ * Requests run on a shared pool of daemon threads that are reused across
+ * requests, or on virtual threads if the Java runtime supports them. The
+ * calling thread blocks on the request's future, and is woken up either when
+ * the request completes or when its monitor is cancelled. Since progress
+ * monitors cannot notify listeners of cancellation, a single watcher thread
+ * checks the monitors of all pending requests, and cancels the futures of
+ * those whose monitors were cancelled. The watcher only runs while there are
+ * pending requests.
+ * <p/>
+ * Note: Since the BaseClientRequest itself does not check the monitor, the
+ * BaseClientRequest may still be running even though the calling thread has
+ * returned. Care should be taken to consider this logic.
+ */
+public class CancellableRequestExecutor {
+
+	/**
+	 * Whether requests run on virtual threads, if the Java runtime supports
+	 * them.
+	 */
+	public static final String VIRTUAL_THREADS_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID
+			+ ".request.virtualthreads"; //$NON-NLS-1$
+
+	/**
+	 * Interval in milliseconds at which the watcher checks the monitors of
+	 * pending requests for cancellation.
+	 */
+	private static final long CANCEL_CHECK_INTERVAL = 250;
+
+	private static CancellableRequestExecutor defaultExecutor;
+
+	private final ExecutorService executor;
+
+	private final ScheduledExecutorService watcher;
+
+	private final Set<PendingRequest<?>> pending = ConcurrentHashMap.newKeySet();
+
+	private final Object watcherLock = new Object();
+
+	private ScheduledFuture<?> watcherTask;
+
+	public CancellableRequestExecutor(ExecutorService executor) {
+		this.executor = executor;
+		ScheduledThreadPoolExecutor watcher = new ScheduledThreadPoolExecutor(1,
+				newThreadFactory("Cloud Foundry Request Cancellation")); //$NON-NLS-1$
+		watcher.setKeepAliveTime(30, TimeUnit.SECONDS);
+		watcher.allowCoreThreadTimeOut(true);
+		watcher.setRemoveOnCancelPolicy(true);
+		this.watcher = watcher;
+	}
+
+	public static synchronized CancellableRequestExecutor getDefault() {
+		if (defaultExecutor == null) {
+			boolean virtualThreads = true;
+			CloudFoundryPlugin plugin = CloudFoundryPlugin.getDefault();
+			if (plugin != null) {
+				virtualThreads = plugin.getPreferences().getBoolean(VIRTUAL_THREADS_PREFERENCE, true);
+			}
+			ExecutorService executor = virtualThreads ? newVirtualThreadExecutor() : null;
+			if (executor == null) {
+				executor = newPooledExecutor();
+			}
+			defaultExecutor = new CancellableRequestExecutor(executor);
+		}
+		return defaultExecutor;
+	}
+
+	/**
+	 * Invokes the request and waits for it to complete or for the monitor to
+	 * be cancelled, using the shared executor.
+	 * @return result of the request
+	 * @throws OperationCanceledException if the monitor was cancelled before
+	 * the request completed
+	 * @throws RuntimeException thrown by the request, or wrapping any checked
+	 * exception it threw
+	 */
+	public static <T> T runAndWaitForCompleteOrCancelled(final BaseClientRequest<T> request,
+			final IProgressMonitor monitor) {
+		return getDefault().run(new Callable<T>() {
+			public T call() throws CoreException {
+				return request.run(monitor);
+			}
+		}, monitor);
+	}
+
+	/**
+	 * Invokes the request and waits for it to complete or for the monitor to
+	 * be cancelled.
+	 * @param request
+	 * @param monitor may be null, in which case the request cannot be
+	 * cancelled
+	 * @return result of the request
+	 * @throws OperationCanceledException if the monitor was cancelled before
+	 * the request completed
+	 * @throws RuntimeException thrown by the request, or wrapping any checked
+	 * exception it threw
+	 */
+	public <T> T run(final Callable<T> request, IProgressMonitor monitor) {
+		if (monitor != null && monitor.isCanceled()) {
+			throw new OperationCanceledException();
+		}
+		CompletableFuture<T> future = CompletableFuture.supplyAsync(() -> {
+			try {
+				return request.call();
+			}
+			catch (RuntimeException e) {
+				throw e;
+			}
+			catch (Exception e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+
+		PendingRequest<T> pendingRequest = null;
+		if (monitor != null) {
+			pendingRequest = new PendingRequest<T>(future, monitor);
+			watch(pendingRequest);
+		}
+		try {
+			return future.get();
+		}
+		catch (CancellationException e) {
+			throw new OperationCanceledException();
+		}
+		catch (InterruptedException e) {
+			future.cancel(false);
+			Thread.currentThread().interrupt();
+			throw new OperationCanceledException();
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof CompletionException && cause.getCause() != null) {
+				cause = cause.getCause();
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			// Convert checked to unchecked exception
+			throw new RuntimeException(cause);
+		}
+		finally {
+			if (pendingRequest != null) {
+				pending.remove(pendingRequest);
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @return number of requests that are waiting for completion or
+	 * cancellation
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	private void watch(PendingRequest<?> request) {
+		pending.add(request);
+		synchronized (watcherLock) {
+			if (watcherTask == null) {
+				watcherTask = watcher.scheduleWithFixedDelay(new Runnable() {
+					public void run() {
+						checkCancelled();
+					}
+				}, CANCEL_CHECK_INTERVAL, CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	private void checkCancelled() {
+		for (PendingRequest<?> request : pending) {
+			if (request.future.isDone()) {
+				pending.remove(request);
+			}
+			else if (request.monitor.isCanceled()) {
+				pending.remove(request);
+				// Wakes up the waiting thread. The request itself keeps
+				// running, as with requests that ignore interrupts
+				request.future.cancel(false);
+			}
+		}
+		synchronized (watcherLock) {
+			// Requests are added before the lock is taken, so any request
+			// added after this check schedules a new watcher task
+			if (pending.isEmpty() && watcherTask != null) {
+				watcherTask.cancel(false);
+				watcherTask = null;
+			}
+		}
+	}
+
+	/**
+	 * Cancels all pending requests and stops the executor. The executor cannot
+	 * be used afterwards.
+	 */
+	public void shutdown() {
+		for (PendingRequest<?> request : pending) {
+			request.future.cancel(false);
+		}
+		pending.clear();
+		watcher.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * 
+	 * @return executor that runs each request in a new virtual thread, or null
+	 * if the Java runtime does not support virtual threads
+	 */
+	protected static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor"); //$NON-NLS-1$
+			return (ExecutorService) factory.invoke(null);
+		}
+		catch (NoSuchMethodException e) {
+			return null;
+		}
+		catch (Exception e) {
+			CloudFoundryPlugin.logError("Unable to create virtual thread executor for Cloud requests", e); //$NON-NLS-1$
+			return null;
+		}
+	}
+
+	/**
+	 * 
+	 * @return executor that reuses idle daemon threads, and only keeps them
+	 * around for a short while once idle
+	 */
+	protected static ExecutorService newPooledExecutor() {
+		return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+				newThreadFactory(CancellableRequestExecutor.class.getName()));
+	}
+
+	private static ThreadFactory newThreadFactory(final String name) {
+		return new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + " - " + count.incrementAndGet()); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	private static class PendingRequest<T> {
+
+		final CompletableFuture<T> future;
+
+		final IProgressMonitor monitor;
+
+		PendingRequest(CompletableFuture<T> future, IProgressMonitor monitor) {
+			this.future = future;
+			this.monitor = monitor;
+		}
+	}
+}
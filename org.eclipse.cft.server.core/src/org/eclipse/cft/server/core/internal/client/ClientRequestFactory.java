@@ -49,6 +49,7 @@ import org.eclipse.cft.server.core.internal.CloudFoundryServer;
 import org.eclipse.cft.server.core.internal.CloudServerEvent;
 import org.eclipse.cft.server.core.internal.CloudServicesUtil;
 import org.eclipse.cft.server.core.internal.CloudUtil;
+import org.eclipse.cft.server.core.internal.DeployedResourceCache.CachedDeployedApplication;
 import org.eclipse.cft.server.core.internal.Messages;
 import org.eclipse.cft.server.core.internal.ServerEventHandler;
 import org.eclipse.core.runtime.CoreException;
@@ -156,6 +157,10 @@ public class ClientRequestFactory {
 			protected Void doRun(CloudFoundryOperations client, SubMonitor progress) throws CoreException {
 				CloudFoundryPlugin.logInfo("ClientRequestFactory.deleteApplication(...): appName:"+appName);
 				client.deleteApplication(appName);
+				// Persisted sha1 entries must not be reused by a new app that
+				// is later created with the same name
+				CloudFoundryPlugin.getDefault().getDeployedResourcesCache()
+						.remove(new CachedDeployedApplication(behaviour.getServer().getId(), appName));
 				return null;
 			}
 		};
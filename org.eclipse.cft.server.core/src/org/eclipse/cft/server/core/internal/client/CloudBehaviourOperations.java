@@ -280,6 +280,30 @@ public class CloudBehaviourOperations {
 		return operation;
 	}
 
+	/**
+	 * Resolves an operation that performs the same start, stop, restart or
+	 * push {@link ApplicationAction} on several applications. Unlike
+	 * {@link #applicationDeployment(IModule[], ApplicationAction, boolean)},
+	 * where the modules are the path to a single module, each given module is
+	 * a separate application. The operations on the applications run
+	 * concurrently, up to the parallelism set in the preferences.
+	 * @param modules one module for each application. Must not be null or
+	 * empty.
+	 * @param action
+	 * @param clearConsole
+	 * @return Non-null batch operation, which reports the result of each
+	 * application once it has run.
+	 * @throws CoreException if no modules are given
+	 */
+	public BatchApplicationOperation batchApplicationDeployment(IModule[] modules, ApplicationAction action,
+			boolean clearConsole) throws CoreException {
+		if (modules == null || modules.length == 0) {
+			throw CloudErrorUtil.toCoreException(INTERNAL_ERROR_NO_WST_MODULE);
+		}
+		return new BatchApplicationOperation(behaviour, modules, action, clearConsole,
+				BatchApplicationOperation.getDefaultParallelism());
+	}
+
 	/**
 	 * Update all modules, services, and the instance info and stats for the
 	 * given optional module.
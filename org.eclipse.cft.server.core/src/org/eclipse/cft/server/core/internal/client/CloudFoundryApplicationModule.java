@@ -591,6 +591,11 @@ public class CloudFoundryApplicationModule extends ExternalModule implements ICl
 				internalSetDeploymentInfo(cloudApplicationInfo);
 			}
 		}
+
+		CloudFoundryServer cloudServer = getCloudFoundryServer();
+		if (cloudServer != null) {
+			cloudServer.updateApplicationModuleIndex(this);
+		}
 	}
 
 	/**
@@ -67,10 +67,12 @@ import org.eclipse.cft.server.core.internal.CloudUtil;
 import org.eclipse.cft.server.core.internal.Messages;
 import org.eclipse.cft.server.core.internal.ModuleResourceDeltaWrapper;
 import org.eclipse.cft.server.core.internal.OperationScheduler;
+import org.eclipse.cft.server.core.internal.RemoteResourceCache;
 import org.eclipse.cft.server.core.internal.ServerEventHandler;
 import org.eclipse.cft.server.core.internal.UpdateOperationsScheduler;
 import org.eclipse.cft.server.core.internal.application.ApplicationRegistry;
 import org.eclipse.cft.server.core.internal.application.CachingApplicationArchive;
+import org.eclipse.cft.server.core.internal.application.CachingApplicationArchive.ModuleResourceResolver;
 import org.eclipse.cft.server.core.internal.debug.ApplicationDebugLauncher;
 import org.eclipse.cft.server.core.internal.jrebel.CFRebelServerIntegration;
 import org.eclipse.cft.server.core.internal.log.AppLogUtil;
@@ -87,7 +89,6 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.MultiStatus;
 import org.eclipse.core.runtime.NullProgressMonitor;
-import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.SubMonitor;
 import org.eclipse.core.runtime.jobs.IJobChangeEvent;
@@ -154,6 +155,10 @@ public class CloudFoundryServerBehaviour extends ServerBehaviourDelegate {
 
 	private ApplicationUrlLookupService applicationUrlLookup;
 
+	private SpaceSnapshot spaceSnapshot;
+
+	private CloudRequestExecutor requestExecutor;
+
 	private CloudBehaviourOperations cloudBehaviourOperations;
 
 	private ClientRequestFactory requestFactory;
@@ -162,6 +167,8 @@ public class CloudFoundryServerBehaviour extends ServerBehaviourDelegate {
 
 	private CloudFoundryTargetManager targetManager = CloudFoundryPlugin.getTargetManager();
 
+	private volatile String remoteResourceTarget;
+
 	private IServerListener serverListener = new IServerListener() {
 
 		public void serverChanged(ServerEvent event) {
@@ -171,6 +178,20 @@ public class CloudFoundryServerBehaviour extends ServerBehaviourDelegate {
 				// right away
 				//
 				internalResetClient();
+
+				// The server may now point to a different target, whose
+				// resource cache is unknown. Confirmations recorded for the
+				// target used before the change are discarded as well.
+				RemoteResourceCache remoteResources = CloudFoundryPlugin.getDefault().getRemoteResourceCache();
+				String previousTarget = remoteResourceTarget;
+				remoteResourceTarget = null;
+				remoteResources.invalidate(previousTarget);
+				try {
+					remoteResources.invalidate(getRemoteResourceTarget());
+				}
+				catch (CoreException e) {
+					CloudFoundryPlugin.logError(e);
+				}
 			}
 		}
 	};
@@ -372,6 +393,48 @@ public class CloudFoundryServerBehaviour extends ServerBehaviourDelegate {
 		return applicationUrlLookup;
 	}
 
+	/**
+	 * 
+	 * @return snapshot of the applications in the space as of their last
+	 * complete refresh. Never null. Discarded when the client is reset.
+	 */
+	public synchronized SpaceSnapshot getSpaceSnapshot() {
+		if (spaceSnapshot == null) {
+			spaceSnapshot = SpaceSnapshot.fromPreferences();
+		}
+		return spaceSnapshot;
+	}
+
+	/**
+	 * 
+	 * @return executor for concurrent, blocking requests to this server.
+	 * Never null.
+	 */
+	public synchronized CloudRequestExecutor getRequestExecutor() {
+		if (requestExecutor == null) {
+			requestExecutor = CloudRequestExecutor.fromPreferences(getServer().getId());
+		}
+		return requestExecutor;
+	}
+
+	/**
+	 * 
+	 * @return identifier of the Cloud Controller target under which resources
+	 * confirmed by the server are recorded in the
+	 * {@link RemoteResourceCache}. The target is remembered, so that its
+	 * confirmations can be discarded if the server is later changed to point
+	 * elsewhere.
+	 * @throws CoreException
+	 */
+	public String getRemoteResourceTarget() throws CoreException {
+		String target = remoteResourceTarget;
+		if (target == null) {
+			target = RemoteResourceCache.getTarget(getCloudFoundryServer());
+			remoteResourceTarget = target;
+		}
+		return target;
+	}
+
 	protected List<IModuleResource> getChangedResources(IModuleResourceDelta[] deltas) {
 		List<IModuleResource> changed = new ArrayList<IModuleResource>();
 		if (deltas != null) {
@@ -460,6 +523,12 @@ public class CloudFoundryServerBehaviour extends ServerBehaviourDelegate {
 	public void dispose() {
 		super.dispose();
 		getServer().removeServerListener(serverListener);
+		synchronized (this) {
+			if (requestExecutor != null) {
+				requestExecutor.shutdown();
+				requestExecutor = null;
+			}
+		}
 	}
 
 	/**
@@ -808,6 +877,7 @@ public class CloudFoundryServerBehaviour extends ServerBehaviourDelegate {
 		client = null;
 		hybridClient = null;
 		applicationUrlLookup = null;
+		spaceSnapshot = null;
 		cloudBehaviourOperations = null;
 		operationsScheduler = null;
 		logStreamWebsocketError = false;
@@ -1546,8 +1616,7 @@ public class CloudFoundryServerBehaviour extends ServerBehaviourDelegate {
 
 		BaseClientRequest<List<CloudRoute>> request = getRequestFactory().getRoutes(domainName);
 
-		CancellableRequestThread<List<CloudRoute>> t = new CancellableRequestThread<List<CloudRoute>>(request, monitor);
-		return t.runAndWaitForCompleteOrCancelled();
+		return CancellableRequestExecutor.runAndWaitForCompleteOrCancelled(request, monitor);
 
 	}
 
@@ -1578,8 +1647,7 @@ public class CloudFoundryServerBehaviour extends ServerBehaviourDelegate {
 
 		BaseClientRequest<Boolean> request = getRequestFactory().reserveRouteIfAvailable(host, domainName);
 
-		CancellableRequestThread<Boolean> t = new CancellableRequestThread<Boolean>(request, monitor);
-		Boolean result = t.runAndWaitForCompleteOrCancelled();
+		Boolean result = CancellableRequestExecutor.runAndWaitForCompleteOrCancelled(request, monitor);
 
 		if (result != null) {
 			return result;
@@ -1898,12 +1966,16 @@ public class CloudFoundryServerBehaviour extends ServerBehaviourDelegate {
 	}
 
 	protected CFApplicationArchive getIncrementalPublishArchive(final ApplicationDeploymentInfo deploymentInfo,
-			IModule[] modules) {
-		IModuleResource[] allResources = getResources(modules);
+			final IModule[] modules) {
 		IModuleResourceDelta[] deltas = getPublishedResourceDelta(modules);
 		List<IModuleResource> changedResources = getChangedResources(deltas);
-		CFApplicationArchive moduleArchive = new CachingApplicationArchive(Arrays.asList(allResources),
-				changedResources, modules[0], deploymentInfo.getDeploymentName());
+		// All module resources are only resolved if the archive entries
+		// cannot be derived from the deltas and the previous publish
+		CFApplicationArchive moduleArchive = new CachingApplicationArchive(new ModuleResourceResolver() {
+			public List<IModuleResource> getResources() {
+				return Arrays.asList(CloudFoundryServerBehaviour.this.getResources(modules));
+			}
+		}, changedResources, modules[0], getServer().getId(), deploymentInfo.getDeploymentName());
 
 		return moduleArchive;
 	}
@@ -2213,138 +2285,3 @@ public class CloudFoundryServerBehaviour extends ServerBehaviourDelegate {
 		return null;
 	}
 }
-
-/**
- * Requests may be wrapped using this class, such that if the user cancels the
- * monitor, the thread will automatically return.
- * 
- * Note: Since the BaseClientRequest itself does not check the monitor, the
- * BaseClientRequest may still be running even though the calling thread has
- * return. Care should be taken to consider this logic.
- */
-class CancellableRequestThread<T> {
-
-	private T result = null;
-
-	private Throwable exceptionThrown = null;
-
-	private boolean threadComplete = false;
-
-	private final Object lock = new Object();
-
-	private final IProgressMonitor monitor;
-
-	private final BaseClientRequest<T> request;
-
-	public CancellableRequestThread(BaseClientRequest<T> request, IProgressMonitor monitor) {
-		this.request = request;
-		this.monitor = monitor;
-	}
-
-	/** This is called by ThreadWrapper.run(...) */
-	private void runInThread() {
-
-		try {
-			result = request.run(monitor);
-		}
-		catch (Exception e) {
-			exceptionThrown = e;
-		}
-		finally {
-			synchronized (lock) {
-				threadComplete = true;
-				lock.notify();
-			}
-		}
-
-	}
-
-	/**
-	 * Starts the thread to invoke the request, and begins waiting for the
-	 * thread to complete or be cancelled.
-	 */
-	public T runAndWaitForCompleteOrCancelled() {
-		try {
-
-			// Start the thread that runs the requst
-			ThreadWrapper tw = new ThreadWrapper();
-			tw.start();
-
-			while (!monitor.isCanceled()) {
-
-				synchronized (lock) {
-					// Check for cancelled every 0.25 seconds.
-					lock.wait(250);
-
-					if (threadComplete) {
-						break;
-					}
-				}
-			}
-
-			Throwable thr = getExceptionThrown();
-			// Throw any caught exceptions
-			if (thr != null) {
-				if (thr instanceof RuntimeException) {
-					// Throw unchecked exception
-					throw (RuntimeException) thr;
-
-				}
-				else {
-					// Convert checked to unchecked exception
-					throw new RuntimeException(thr);
-				}
-
-			}
-
-			// Check for cancelled
-			if (!isThreadComplete() && getResult() == null) {
-				throw new OperationCanceledException();
-			}
-
-			T result = getResult();
-
-			return result;
-
-		}
-		catch (InterruptedException e) {
-			throw new OperationCanceledException();
-		}
-	}
-
-	public Throwable getExceptionThrown() {
-		synchronized (lock) {
-			return exceptionThrown;
-		}
-	}
-
-	public boolean isThreadComplete() {
-		synchronized (lock) {
-			return threadComplete;
-		}
-	}
-
-	public T getResult() {
-		synchronized (lock) {
-			return result;
-		}
-	}
-
-	/**
-	 * Simple thread that calls runInThread(...), to ensure that the
-	 * BaseClientRequest may only be started by calling the
-	 * runAndWaitForCompleteOrCancelled(...) method.
-	 */
-	private class ThreadWrapper extends Thread {
-
-		private ThreadWrapper() {
-			setDaemon(true);
-			setName(CancellableRequestThread.class.getName());
-		}
-
-		@Override
-		public void run() {
-			runInThread();
-		}
-	}
-}
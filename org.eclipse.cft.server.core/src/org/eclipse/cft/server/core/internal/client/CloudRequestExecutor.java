@@ -0,0 +1,364 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.core.internal.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.eclipse.cft.server.core.internal.CloudFoundryPlugin;
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Bounded executor for blocking Cloud requests that are run concurrently for
+ * a server, like fetching complete application information for every
+ * application in a space.
+ * <p/>
+ * Requests run in a dedicated, bounded pool of daemon threads rather than the
+ * JVM-wide common fork-join pool, as the latter is shared by all parallel
+ * streams in the IDE and sized to the number of cores, which is a poor fit for
+ * requests that mostly wait on the network. Pending requests are queued in a
+ * fair, bounded FIFO queue. Once the queue is full, the submitting thread runs
+ * the request itself, which throttles submission rather than failing it.
+ * Requests submitted after the executor was shut down are cancelled instead.
+ * <p/>
+ * The executor keeps basic statistics on the number of requests, and the time
+ * they spent queued and running, which are traced after each batch.
+ */
+public class CloudRequestExecutor {
+
+	/**
+	 * Maximum number of concurrent requests per server.
+	 */
+	public static final String THREADS_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".request.threads"; //$NON-NLS-1$
+
+	/**
+	 * Maximum number of queued requests per server.
+	 */
+	public static final String QUEUE_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".request.queue"; //$NON-NLS-1$
+
+	public static final int DEFAULT_THREADS = 8;
+
+	public static final int DEFAULT_QUEUE = 256;
+
+	/**
+	 * Interval in milliseconds at which a running batch checks the progress
+	 * monitor for cancellation.
+	 */
+	private static final long CANCEL_CHECK_INTERVAL = 200;
+
+	private final ThreadPoolExecutor executor;
+
+	private final AtomicLong submitted = new AtomicLong();
+
+	private final AtomicLong completed = new AtomicLong();
+
+	private final AtomicLong failed = new AtomicLong();
+
+	private final AtomicLong cancelled = new AtomicLong();
+
+	private final AtomicLong queuedNanos = new AtomicLong();
+
+	private final AtomicLong runningNanos = new AtomicLong();
+
+	private final AtomicInteger peakQueueDepth = new AtomicInteger();
+
+	/**
+	 * 
+	 * @param name used to name the executor threads
+	 * @param threads maximum number of concurrent requests
+	 * @param queueCapacity maximum number of queued requests
+	 */
+	public CloudRequestExecutor(final String name, int threads, int queueCapacity) {
+		threads = Math.max(1, threads);
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, queueCapacity), true), new ThreadFactory() {
+
+					private final AtomicInteger count = new AtomicInteger();
+
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, name + " - " + count.incrementAndGet()); //$NON-NLS-1$
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new RejectedExecutionHandler() {
+
+					public void rejectedExecution(Runnable request, ThreadPoolExecutor executor) {
+						if (executor.isShutdown()) {
+							// Do not run requests for a server whose executor
+							// was shut down, but complete their future so that
+							// waiting callers return
+							if (request instanceof Future<?> && ((Future<?>) request).cancel(false)) {
+								cancelled.incrementAndGet();
+							}
+							return;
+						}
+						// Queue is full. Run the request in the submitting
+						// thread, which throttles further submissions
+						request.run();
+					}
+				});
+		// Do not keep idle threads around between refreshes
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	public static CloudRequestExecutor fromPreferences(String serverId) {
+		int threads = DEFAULT_THREADS;
+		int queue = DEFAULT_QUEUE;
+		CloudFoundryPlugin plugin = CloudFoundryPlugin.getDefault();
+		if (plugin != null) {
+			threads = plugin.getPreferences().getInt(THREADS_PREFERENCE, DEFAULT_THREADS);
+			queue = plugin.getPreferences().getInt(QUEUE_PREFERENCE, DEFAULT_QUEUE);
+		}
+		return new CloudRequestExecutor("Cloud Foundry Requests - " + serverId, threads, queue); //$NON-NLS-1$
+	}
+
+	/**
+	 * Runs the given request for each of the given items concurrently, and
+	 * waits for all of them to complete. Errors thrown by a request are logged
+	 * and do not affect the other requests. If the monitor is cancelled, or the
+	 * executor is shut down, requests that have not completed yet are
+	 * cancelled and interrupted, and this method returns without waiting for
+	 * them.
+	 * @param items
+	 * @param request
+	 * @param monitor may be null
+	 * @return true if all requests completed, false if cancelled
+	 */
+	public <T> boolean forEach(Collection<T> items, final Consumer<T> request, IProgressMonitor monitor) {
+		if (items == null || items.isEmpty()) {
+			return true;
+		}
+		long batchStart = System.nanoTime();
+		List<Future<?>> futures = new ArrayList<Future<?>>(items.size());
+		try {
+			for (final T item : items) {
+				if (isCanceled(monitor)) {
+					cancel(futures);
+					return false;
+				}
+				futures.add(submit(new Runnable() {
+					public void run() {
+						request.accept(item);
+					}
+				}));
+			}
+
+			for (Future<?> future : futures) {
+				if (!waitFor(future, monitor)) {
+					cancel(futures);
+					return false;
+				}
+			}
+			return true;
+		}
+		finally {
+			CloudFoundryPlugin.trace("Ran " + futures.size() + " requests in " //$NON-NLS-1$ //$NON-NLS-2$
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batchStart) + " ms. " + getStatistics()); //$NON-NLS-1$
+		}
+	}
+
+	protected Future<?> submit(final Runnable request) {
+		submitted.incrementAndGet();
+		final long queuedAt = System.nanoTime();
+		Future<?> future = executor.submit(new Runnable() {
+			public void run() {
+				long start = System.nanoTime();
+				queuedNanos.addAndGet(start - queuedAt);
+				try {
+					request.run();
+					completed.incrementAndGet();
+				}
+				catch (RuntimeException e) {
+					failed.incrementAndGet();
+					CloudFoundryPlugin.logError(e);
+				}
+				finally {
+					runningNanos.addAndGet(System.nanoTime() - start);
+				}
+			}
+		});
+		int depth = executor.getQueue().size();
+		int peak;
+		while (depth > (peak = peakQueueDepth.get()) && !peakQueueDepth.compareAndSet(peak, depth)) {
+			// retry
+		}
+		return future;
+	}
+
+	/**
+	 * 
+	 * @return false if the monitor or the request was cancelled before the
+	 * request completed
+	 */
+	private boolean waitFor(Future<?> future, IProgressMonitor monitor) {
+		while (true) {
+			if (isCanceled(monitor)) {
+				return false;
+			}
+			try {
+				future.get(CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+				return true;
+			}
+			catch (TimeoutException e) {
+				// Check for cancellation again
+			}
+			catch (CancellationException e) {
+				return false;
+			}
+			catch (ExecutionException e) {
+				// Already handled by the request wrapper
+				return true;
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+	}
+
+	private void cancel(List<Future<?>> futures) {
+		for (Future<?> future : futures) {
+			if (!future.isDone() && future.cancel(true)) {
+				cancelled.incrementAndGet();
+			}
+		}
+	}
+
+	private static boolean isCanceled(IProgressMonitor monitor) {
+		return monitor != null && monitor.isCanceled();
+	}
+
+	public Statistics getStatistics() {
+		return new Statistics(submitted.get(), completed.get(), failed.get(), cancelled.get(),
+				executor.getActiveCount(), executor.getQueue().size(), peakQueueDepth.get(),
+				TimeUnit.NANOSECONDS.toMillis(queuedNanos.get()), TimeUnit.NANOSECONDS.toMillis(runningNanos.get()));
+	}
+
+	/**
+	 * Cancels queued requests and interrupts running ones. The executor cannot
+	 * be used afterwards.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Snapshot of the request statistics of an executor.
+	 */
+	public static class Statistics {
+
+		private final long submitted;
+
+		private final long completed;
+
+		private final long failed;
+
+		private final long cancelled;
+
+		private final int active;
+
+		private final int queued;
+
+		private final int peakQueued;
+
+		private final long queuedTime;
+
+		private final long runningTime;
+
+		Statistics(long submitted, long completed, long failed, long cancelled, int active, int queued,
+				int peakQueued, long queuedTime, long runningTime) {
+			this.submitted = submitted;
+			this.completed = completed;
+			this.failed = failed;
+			this.cancelled = cancelled;
+			this.active = active;
+			this.queued = queued;
+			this.peakQueued = peakQueued;
+			this.queuedTime = queuedTime;
+			this.runningTime = runningTime;
+		}
+
+		public long getSubmitted() {
+			return submitted;
+		}
+
+		public long getCompleted() {
+			return completed;
+		}
+
+		public long getFailed() {
+			return failed;
+		}
+
+		public long getCancelled() {
+			return cancelled;
+		}
+
+		public int getActive() {
+			return active;
+		}
+
+		public int getQueued() {
+			return queued;
+		}
+
+		public int getPeakQueued() {
+			return peakQueued;
+		}
+
+		/**
+		 * 
+		 * @return total time in milliseconds requests spent waiting in the
+		 * queue
+		 */
+		public long getQueuedTime() {
+			return queuedTime;
+		}
+
+		/**
+		 * 
+		 * @return total time in milliseconds requests spent running
+		 */
+		public long getRunningTime() {
+			return runningTime;
+		}
+
+		@Override
+		public String toString() {
+			return "submitted=" + submitted + ", completed=" + completed + ", failed=" + failed + ", cancelled=" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+					+ cancelled + ", active=" + active + ", queued=" + queued + ", peakQueued=" + peakQueued //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					+ ", queuedTime=" + queuedTime + "ms, runningTime=" + runningTime + "ms"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+	}
+}
@@ -25,6 +25,7 @@ import org.eclipse.cft.server.core.internal.CloudErrorUtil;
 import org.eclipse.cft.server.core.internal.CloudFoundryPlugin;
 import org.eclipse.cft.server.core.internal.CloudFoundryServer;
 import org.eclipse.cft.server.core.internal.Messages;
+import org.eclipse.cft.server.core.internal.client.RequestRetryPolicy.RetryableRequest;
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -78,6 +79,10 @@ public abstract class CloudServerRequest<T> {
 	 * <p/>
 	 * Note that reattempts are only decided based on errors thrown by the
 	 * client invocation, not by results generated by the client invocation.
+	 * <p/>
+	 * The interval is further adjusted by the {@link #getRetryPolicy()},
+	 * which backs off on consecutive errors from an overloaded or unreachable
+	 * target, and may refuse reattempts to a target that keeps failing.
 	 * @param client client whose operations are invoked. Never null.
 	 * @param subProgress
 	 * @return result of operation. Can be null.
@@ -87,51 +92,47 @@ public abstract class CloudServerRequest<T> {
 	 * @throws OperationCanceledException if further attempts are cancelled even
 	 * if time still remains for additional attempts.
 	 */
-	protected T runRequestWithReattempts(CFClient client, IProgressMonitor monitor)
+	protected T runRequestWithReattempts(final CFClient client, final IProgressMonitor monitor)
 			throws CoreException, OperationCanceledException {
-		Throwable error = null;
-
-		boolean reattempt = true;
-		long timeLeft = getRetryTimeout();
-
-		// Either this operation returns a result during the waiting period or
-		// an error occurred, and error
-		// gets thrown
+		return getRetryPolicy().run(getRetryTarget(), new RetryableRequest<T>() {
 
-		while (reattempt) {
-
-			long interval = -1;
-
-			try {
+			public T attempt() throws CoreException {
 				return runRequest(client, monitor);
 			}
-			catch (Throwable e) {
-				error = e;
+
+			public long getRetryInterval(Throwable error) throws CoreException {
+				return CloudServerRequest.this.getRetryInterval(error, monitor);
 			}
 
-			interval = getRetryInterval(error, monitor);
-			timeLeft -= interval;
-			reattempt = !monitor.isCanceled() && timeLeft >= 0 && interval > 0;
-			if (reattempt) {
+			public long getRetryTimeout() {
+				return CloudServerRequest.this.getRetryTimeout();
+			}
 
-				try {
-					Thread.sleep(interval);
-				}
-				catch (InterruptedException e) {
-					// Ignore, continue with the next iteration
-				}
+			public CoreException getErrorOnLastFailedAttempt(Throwable error) {
+				return CloudServerRequest.this.getErrorOnLastFailedAttempt(error);
 			}
-		}
 
-		if (monitor.isCanceled()) {
-			// check for cancel here, if specialized requests do not do it
-			throw new OperationCanceledException(Messages.bind(Messages.OPERATION_CANCELED, requestLabel));
-		}
-		if (error instanceof OperationCanceledException) {
-			throw (OperationCanceledException) error;
-		}
+			public String getRequestLabel() {
+				return requestLabel;
+			}
+		}, monitor);
+	}
 
-		throw getErrorOnLastFailedAttempt(error);
+	/**
+	 * 
+	 * @return policy deciding on reattempts and how long to wait between
+	 * them. Never null.
+	 */
+	protected RequestRetryPolicy getRetryPolicy() {
+		return RequestRetryPolicy.getDefault();
+	}
+
+	/**
+	 * 
+	 * @return URL of the Cloud Foundry server the request is sent to
+	 */
+	protected String getRetryTarget() {
+		return cloudServer.getUrl();
 	}
 
 	protected CloudFoundryServer getCloudServer() {
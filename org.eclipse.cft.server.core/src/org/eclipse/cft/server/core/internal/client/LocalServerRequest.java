@@ -133,6 +133,18 @@ public abstract class LocalServerRequest<T> extends ClientRequest<T> {
 		return getCloudServer().getBehaviour().getClient(monitor);
 	}
 
+	@Override
+	protected String getRetryTarget() {
+		try {
+			CloudFoundryServer cloudServer = getCloudServer();
+			return cloudServer != null ? cloudServer.getUrl() : null;
+		}
+		catch (CoreException e) {
+			// The request itself will fail and log the error
+			return null;
+		}
+	}
+
 	/**
 	 * 
 	 * @return non-null Cloud Foundry server instance. If it cannot be resolved,
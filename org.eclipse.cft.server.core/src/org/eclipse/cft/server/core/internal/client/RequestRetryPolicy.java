@@ -0,0 +1,560 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.core.internal.client;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.cft.server.core.internal.CloudFoundryPlugin;
+import org.eclipse.cft.server.core.internal.Messages;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.osgi.util.NLS;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+
+/**
+ * Decides whether, and after how long, a failed Cloud request is attempted
+ * again. Shared by {@link BaseClientRequest} and {@link CloudServerRequest}.
+ * <p/>
+ * Requests still decide which errors are worth another attempt, and the base
+ * interval to wait, through their existing interval and timeout methods. The
+ * policy then:
+ * <ul>
+ * <li>Backs off exponentially from the request's interval on consecutive
+ * attempts that failed because the target is overloaded or unreachable, up
+ * to a maximum interval, with random jitter so that concurrent requests do
+ * not retry in lock step.</li>
+ * <li>Honours the Retry-After header of 429 and 503 responses, by waiting at
+ * least as long as the server asked. Requests that would otherwise not be
+ * attempted again, for example because they are not idempotent, are not
+ * attempted again.</li>
+ * <li>Keeps a circuit breaker per target (typically the Cloud Foundry API
+ * URL). Once a number of consecutive attempts failed because the target is
+ * overloaded or unreachable, further reattempts to that target are refused
+ * for a cooldown period. First attempts of new requests still go through, and
+ * a successful one closes the breaker again.</li>
+ * <li>Keeps a retry budget per target, limiting the number of reattempts per
+ * minute across all requests to that target, so that many requests polling a
+ * struggling target do not add up.</li>
+ * </ul>
+ * Backoff, the circuit breaker and the retry budget only apply after errors
+ * indicating that the target is overloaded or unreachable. Requests that poll
+ * a responsive target, for example while waiting for an application to finish
+ * staging, are attempted again at the interval they asked for, and are only
+ * limited by their own timeout.
+ * Requests without a known target do not share a circuit breaker or retry
+ * budget with other requests.
+ * Statistics on attempts and time spent waiting are available through
+ * {@link #getStatistics()}.
+ */
+public class RequestRetryPolicy {
+
+	/**
+	 * Request whose attempts are managed by a retry policy.
+	 */
+	public interface RetryableRequest<T> {
+
+		/**
+		 * Runs a single attempt of the request.
+		 */
+		T attempt() throws CoreException;
+
+		/**
+		 * 
+		 * @param error thrown by the last attempt
+		 * @return base interval to wait before attempting again. Any value
+		 * less than or equal to 0 means the request should not be attempted
+		 * again.
+		 * @throws CoreException if failed to determine the interval, which
+		 * stops further attempts
+		 */
+		long getRetryInterval(Throwable error) throws CoreException;
+
+		/**
+		 * 
+		 * @return total time in milliseconds the request may spend waiting
+		 * between attempts
+		 */
+		long getRetryTimeout();
+
+		CoreException getErrorOnLastFailedAttempt(Throwable error);
+
+		String getRequestLabel();
+	}
+
+	/**
+	 * Upper bound in milliseconds for the backed-off interval between
+	 * attempts. Intervals requested by a request or by a Retry-After header
+	 * that are longer than this are not shortened.
+	 */
+	public static final String MAX_INTERVAL_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".retry.maxinterval"; //$NON-NLS-1$
+
+	/**
+	 * Maximum number of reattempts per minute to the same target.
+	 */
+	public static final String BUDGET_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".retry.budget"; //$NON-NLS-1$
+
+	/**
+	 * Number of consecutive failed attempts against an overloaded or
+	 * unreachable target after which the circuit breaker opens.
+	 */
+	public static final String BREAKER_THRESHOLD_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID
+			+ ".retry.breaker.threshold"; //$NON-NLS-1$
+
+	/**
+	 * Time in seconds during which an open circuit breaker refuses
+	 * reattempts.
+	 */
+	public static final String BREAKER_COOLDOWN_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID
+			+ ".retry.breaker.cooldown"; //$NON-NLS-1$
+
+	public static final long DEFAULT_MAX_INTERVAL = 10 * 1000;
+
+	public static final int DEFAULT_BUDGET = 120;
+
+	public static final int DEFAULT_BREAKER_THRESHOLD = 5;
+
+	public static final int DEFAULT_BREAKER_COOLDOWN = 30;
+
+	/**
+	 * Longest Retry-After that is honoured, to avoid blocking a request for a
+	 * long time on a misconfigured server.
+	 */
+	private static final long MAX_RETRY_AFTER = 60 * 1000;
+
+	/**
+	 * Slice in which waits between attempts are split, to react to
+	 * cancellation while waiting.
+	 */
+	private static final long CANCEL_CHECK_INTERVAL = 250;
+
+	private static final double JITTER = 0.2;
+
+	private static RequestRetryPolicy defaultPolicy;
+
+	private final long maxInterval;
+
+	private final int budget;
+
+	private final int breakerThreshold;
+
+	private final long breakerCooldown;
+
+	private final ConcurrentHashMap<String, TargetState> targets = new ConcurrentHashMap<String, TargetState>();
+
+	private final AtomicLong attempts = new AtomicLong();
+
+	private final AtomicLong retries = new AtomicLong();
+
+	private final AtomicLong waitTime = new AtomicLong();
+
+	private final AtomicLong refusedByBreaker = new AtomicLong();
+
+	private final AtomicLong refusedByBudget = new AtomicLong();
+
+	private final AtomicLong breakerOpened = new AtomicLong();
+
+	/**
+	 * 
+	 * @param maxInterval in milliseconds
+	 * @param budget reattempts per minute per target
+	 * @param breakerThreshold consecutive failures opening the breaker
+	 * @param breakerCooldown in milliseconds
+	 */
+	public RequestRetryPolicy(long maxInterval, int budget, int breakerThreshold, long breakerCooldown) {
+		this.maxInterval = maxInterval;
+		this.budget = Math.max(1, budget);
+		this.breakerThreshold = Math.max(1, breakerThreshold);
+		this.breakerCooldown = breakerCooldown;
+	}
+
+	public static synchronized RequestRetryPolicy getDefault() {
+		if (defaultPolicy == null) {
+			long maxInterval = DEFAULT_MAX_INTERVAL;
+			int budget = DEFAULT_BUDGET;
+			int threshold = DEFAULT_BREAKER_THRESHOLD;
+			int cooldown = DEFAULT_BREAKER_COOLDOWN;
+			CloudFoundryPlugin plugin = CloudFoundryPlugin.getDefault();
+			if (plugin != null) {
+				maxInterval = plugin.getPreferences().getLong(MAX_INTERVAL_PREFERENCE, DEFAULT_MAX_INTERVAL);
+				budget = plugin.getPreferences().getInt(BUDGET_PREFERENCE, DEFAULT_BUDGET);
+				threshold = plugin.getPreferences().getInt(BREAKER_THRESHOLD_PREFERENCE, DEFAULT_BREAKER_THRESHOLD);
+				cooldown = plugin.getPreferences().getInt(BREAKER_COOLDOWN_PREFERENCE, DEFAULT_BREAKER_COOLDOWN);
+			}
+			defaultPolicy = new RequestRetryPolicy(maxInterval, budget, threshold, TimeUnit.SECONDS.toMillis(cooldown));
+		}
+		return defaultPolicy;
+	}
+
+	/**
+	 * Runs the request, and attempts it again on errors as long as the
+	 * request, the remaining timeout, the target's circuit breaker and retry
+	 * budget allow it.
+	 * @param target identifies the server the request is sent to. May be
+	 * null, in which case the circuit breaker and retry budget only apply to
+	 * this request.
+	 * @param request
+	 * @param monitor
+	 * @return result of the request
+	 * @throws CoreException error of the last attempt, if no further attempts
+	 * are made
+	 * @throws OperationCanceledException if cancelled, even if time still
+	 * remains for additional attempts.
+	 */
+	public <T> T run(String target, RetryableRequest<T> request, IProgressMonitor monitor)
+			throws CoreException, OperationCanceledException {
+		TargetState state = getTargetState(target);
+		Throwable error = null;
+		long timeLeft = request.getRetryTimeout();
+		int attempt = 0;
+
+		while (true) {
+			attempt++;
+			attempts.incrementAndGet();
+			try {
+				T result = request.attempt();
+				state.recordSuccess();
+				return result;
+			}
+			catch (Throwable e) {
+				error = e;
+			}
+
+			if (isOverloaded(error)) {
+				if (state.recordFailure(breakerThreshold, breakerCooldown, currentTimeMillis())) {
+					breakerOpened.incrementAndGet();
+					CloudFoundryPlugin.trace("Circuit breaker opened for " + target + ". " + getStatistics()); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			}
+			else {
+				// The target responded, even if with an error
+				state.recordSuccess();
+			}
+
+			long interval = request.getRetryInterval(error);
+			if (interval > 0) {
+				// Retry-After only lengthens the wait of requests that may be
+				// attempted again. Requests polling a responsive target keep
+				// their interval.
+				long retryAfter = getRetryAfter(error);
+				if (retryAfter > 0) {
+					interval = Math.max(interval, retryAfter);
+				}
+				else if (isOverloaded(error)) {
+					interval = getBackoffInterval(interval, attempt);
+				}
+			}
+
+			timeLeft -= interval;
+			if (monitor.isCanceled() || timeLeft < 0 || interval <= 0) {
+				break;
+			}
+			if (isOverloaded(error)) {
+				if (state.isOpen(currentTimeMillis())) {
+					refusedByBreaker.incrementAndGet();
+					break;
+				}
+				if (!state.acquireRetry(budget, currentTimeMillis())) {
+					refusedByBudget.incrementAndGet();
+					CloudFoundryPlugin.trace("Retry budget exhausted for " + target + ". " + getStatistics()); //$NON-NLS-1$ //$NON-NLS-2$
+					break;
+				}
+			}
+
+			retries.incrementAndGet();
+			long waited = waitBeforeRetry(interval, monitor);
+			waitTime.addAndGet(waited);
+		}
+
+		if (monitor.isCanceled()) {
+			// check for cancel here, if specialized requests do not do it
+			throw new OperationCanceledException(NLS.bind(Messages.OPERATION_CANCELED, request.getRequestLabel()));
+		}
+		if (error instanceof OperationCanceledException) {
+			throw (OperationCanceledException) error;
+		}
+
+		throw request.getErrorOnLastFailedAttempt(error);
+	}
+
+	/**
+	 * 
+	 * @param interval base interval requested by the request
+	 * @param attempt number of attempts made so far, starting at 1
+	 * @return interval doubled for each previous reattempt, capped at the
+	 * maximum interval (or the base interval if longer), with jitter applied
+	 */
+	protected long getBackoffInterval(long interval, int attempt) {
+		long cap = Math.max(interval, maxInterval);
+		long backoff = interval;
+		for (int i = 1; i < attempt && backoff < cap; i++) {
+			backoff *= 2;
+		}
+		backoff = Math.min(backoff, cap);
+		double jitter = 1 + JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+		return Math.max(1, (long) (backoff * jitter));
+	}
+
+	/**
+	 * Waits for the given interval, or until the monitor is cancelled.
+	 * @return time waited in milliseconds
+	 */
+	protected long waitBeforeRetry(long interval, IProgressMonitor monitor) {
+		long start = System.currentTimeMillis();
+		long remaining = interval;
+		while (remaining > 0 && !monitor.isCanceled()) {
+			try {
+				Thread.sleep(Math.min(remaining, CANCEL_CHECK_INTERVAL));
+			}
+			catch (InterruptedException e) {
+				// Ignore, continue with the next iteration
+			}
+			remaining = interval - (System.currentTimeMillis() - start);
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * 
+	 * @param target
+	 * @return true if reattempts to the target are currently refused because
+	 * it has been failing
+	 */
+	public boolean isCircuitOpen(String target) {
+		return target != null && getTargetState(target).isOpen(currentTimeMillis());
+	}
+
+	private TargetState getTargetState(String target) {
+		if (target == null) {
+			// Not shared with other requests
+			return new TargetState(budget, currentTimeMillis());
+		}
+		return targets.computeIfAbsent(target, (key) -> new TargetState(budget, currentTimeMillis()));
+	}
+
+	/**
+	 * 
+	 * @param error
+	 * @return true if the error indicates that the target is overloaded or
+	 * cannot be reached, as opposed to rejecting the particular request
+	 */
+	public static boolean isOverloaded(Throwable error) {
+		HttpStatusCodeException httpError = getHttpError(error);
+		if (httpError != null) {
+			HttpStatus status = httpError.getStatusCode();
+			return status == HttpStatus.TOO_MANY_REQUESTS || status.is5xxServerError();
+		}
+		for (Throwable cause = error; cause != null; cause = getCause(cause)) {
+			if (cause instanceof ResourceAccessException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 
+	 * @param error
+	 * @return time in milliseconds the server asked to wait through the
+	 * Retry-After header of a 429 or 503 response, or -1 if none
+	 */
+	public static long getRetryAfter(Throwable error) {
+		HttpStatusCodeException httpError = getHttpError(error);
+		if (httpError == null || (httpError.getStatusCode() != HttpStatus.TOO_MANY_REQUESTS
+				&& httpError.getStatusCode() != HttpStatus.SERVICE_UNAVAILABLE)) {
+			return -1;
+		}
+		String value = httpError.getResponseHeaders() != null
+				? httpError.getResponseHeaders().getFirst("Retry-After") : null; //$NON-NLS-1$
+		if (value == null) {
+			return -1;
+		}
+		value = value.trim();
+		long delay;
+		try {
+			delay = TimeUnit.SECONDS.toMillis(Long.parseLong(value));
+		}
+		catch (NumberFormatException e) {
+			try {
+				ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+				delay = date.toInstant().toEpochMilli() - System.currentTimeMillis();
+			}
+			catch (DateTimeParseException dtpe) {
+				return -1;
+			}
+		}
+		return delay > 0 ? Math.min(delay, MAX_RETRY_AFTER) : -1;
+	}
+
+	private static HttpStatusCodeException getHttpError(Throwable error) {
+		for (Throwable cause = error; cause != null; cause = getCause(cause)) {
+			if (cause instanceof HttpStatusCodeException) {
+				return (HttpStatusCodeException) cause;
+			}
+		}
+		return null;
+	}
+
+	private static Throwable getCause(Throwable error) {
+		Throwable cause = error.getCause();
+		if (cause == null && error instanceof CoreException) {
+			cause = ((CoreException) error).getStatus().getException();
+		}
+		return cause != error ? cause : null;
+	}
+
+	public Statistics getStatistics() {
+		return new Statistics(attempts.get(), retries.get(), waitTime.get(), refusedByBreaker.get(),
+				refusedByBudget.get(), breakerOpened.get());
+	}
+
+	/**
+	 * Circuit breaker and retry budget of a single target.
+	 */
+	private static class TargetState {
+
+		private int consecutiveFailures;
+
+		private long openUntil;
+
+		private double retryTokens;
+
+		private long lastRefill;
+
+		TargetState(int budget, long now) {
+			this.retryTokens = budget;
+			this.lastRefill = now;
+		}
+
+		synchronized void recordSuccess() {
+			consecutiveFailures = 0;
+			openUntil = 0;
+		}
+
+		/**
+		 * 
+		 * @return true if the failure opened the breaker
+		 */
+		synchronized boolean recordFailure(int threshold, long cooldown, long now) {
+			consecutiveFailures++;
+			if (consecutiveFailures >= threshold && openUntil <= now) {
+				// Also reopens a half-open breaker on the first failure after
+				// the cooldown
+				openUntil = now + cooldown;
+				return true;
+			}
+			return false;
+		}
+
+		synchronized boolean isOpen(long now) {
+			return openUntil > now;
+		}
+
+		synchronized boolean acquireRetry(int budget, long now) {
+			retryTokens = Math.min(budget, retryTokens + (now - lastRefill) * budget / 60000.0);
+			lastRefill = now;
+			if (retryTokens >= 1) {
+				retryTokens--;
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Snapshot of the statistics of a retry policy.
+	 */
+	public static class Statistics {
+
+		private final long attempts;
+
+		private final long retries;
+
+		private final long waitTime;
+
+		private final long refusedByBreaker;
+
+		private final long refusedByBudget;
+
+		private final long breakerOpened;
+
+		Statistics(long attempts, long retries, long waitTime, long refusedByBreaker, long refusedByBudget,
+				long breakerOpened) {
+			this.attempts = attempts;
+			this.retries = retries;
+			this.waitTime = waitTime;
+			this.refusedByBreaker = refusedByBreaker;
+			this.refusedByBudget = refusedByBudget;
+			this.breakerOpened = breakerOpened;
+		}
+
+		/**
+		 * 
+		 * @return total number of attempts, including first attempts
+		 */
+		public long getAttempts() {
+			return attempts;
+		}
+
+		public long getRetries() {
+			return retries;
+		}
+
+		/**
+		 * 
+		 * @return total time in milliseconds spent waiting between attempts
+		 */
+		public long getWaitTime() {
+			return waitTime;
+		}
+
+		public long getRefusedByBreaker() {
+			return refusedByBreaker;
+		}
+
+		public long getRefusedByBudget() {
+			return refusedByBudget;
+		}
+
+		public long getBreakerOpened() {
+			return breakerOpened;
+		}
+
+		@Override
+		public String toString() {
+			return "attempts=" + attempts + ", retries=" + retries + ", waitTime=" + waitTime //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					+ "ms, refusedByBreaker=" + refusedByBreaker + ", refusedByBudget=" + refusedByBudget //$NON-NLS-1$ //$NON-NLS-2$
+					+ ", breakerOpened=" + breakerOpened; //$NON-NLS-1$
+		}
+	}
+}
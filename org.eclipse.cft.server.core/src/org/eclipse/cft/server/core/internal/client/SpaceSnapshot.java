@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.core.internal.client;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.client.lib.domain.ApplicationStats;
+import org.cloudfoundry.client.lib.domain.CloudApplication;
+import org.cloudfoundry.client.lib.domain.CloudApplication.AppState;
+import org.cloudfoundry.client.lib.domain.InstanceState;
+import org.cloudfoundry.client.lib.domain.InstanceStats;
+import org.eclipse.cft.server.core.internal.CloudFoundryPlugin;
+
+/**
+ * Snapshot of the applications in a Cloud space as of their last complete
+ * refresh, used to only fetch complete information, like stats, for
+ * applications that have changed since.
+ * <p/>
+ * An application is considered unchanged if its GUID, last update timestamp,
+ * desired state and number of instances, all of which are included in the
+ * basic list of applications, are the same as when it was last completely
+ * refreshed. Changes in running instances, like an instance crashing, do not
+ * modify the application however. Therefore applications whose instances were
+ * not all running, or that are starting, are always refreshed, and any
+ * application is refreshed completely at least once within the maximum
+ * snapshot age.
+ * <p/>
+ * Service bindings and routes are not part of the basic list of applications,
+ * and binding or unbinding a service, or mapping a route, does not modify the
+ * application either. Such changes made outside of the tools, for example
+ * through the cf CLI, are therefore only shown once the snapshot of the
+ * application expires, which is why the default maximum age is kept close to
+ * the refresh interval. Changes made through the tools update the module of
+ * the application directly and are not affected.
+ */
+public class SpaceSnapshot {
+
+	/**
+	 * Maximum time in seconds after which an unchanged application is
+	 * completely refreshed again. This bounds how long service binding and
+	 * route changes made outside of the tools may remain stale. 0 disables
+	 * incremental refreshes.
+	 */
+	public static final String MAX_AGE_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".refresh.snapshot.maxage"; //$NON-NLS-1$
+
+	public static final int DEFAULT_MAX_AGE = 90;
+
+	private final long maxAge;
+
+	private final Map<UUID, AppSnapshot> snapshots = new ConcurrentHashMap<UUID, AppSnapshot>();
+
+	/**
+	 * 
+	 * @param maxAge maximum time in milliseconds after which an unchanged
+	 * application is refreshed again
+	 */
+	public SpaceSnapshot(long maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	public static SpaceSnapshot fromPreferences() {
+		int seconds = DEFAULT_MAX_AGE;
+		CloudFoundryPlugin plugin = CloudFoundryPlugin.getDefault();
+		if (plugin != null) {
+			seconds = plugin.getPreferences().getInt(MAX_AGE_PREFERENCE, DEFAULT_MAX_AGE);
+		}
+		return new SpaceSnapshot(TimeUnit.SECONDS.toMillis(Math.max(0, seconds)));
+	}
+
+	/**
+	 * 
+	 * @param basicApp application from the basic list of applications
+	 * @return true if the application has not changed since it was last
+	 * completely refreshed, and therefore does not need to be refreshed again.
+	 */
+	public boolean isUpToDate(CloudApplication basicApp) {
+		UUID guid = getGuid(basicApp);
+		if (guid == null || maxAge <= 0) {
+			return false;
+		}
+		AppSnapshot snapshot = snapshots.get(guid);
+		return snapshot != null && snapshot.stable && now() - snapshot.refreshed <= maxAge
+				&& snapshot.matches(basicApp);
+	}
+
+	/**
+	 * Records the complete information of an application that was just
+	 * refreshed.
+	 * @param basicApp application from the basic list of applications
+	 * @param completeApp complete application, including stats if available
+	 */
+	public void record(CloudApplication basicApp, CFV1Application completeApp) {
+		UUID guid = getGuid(basicApp);
+		if (guid == null) {
+			return;
+		}
+		boolean stable = completeApp != null && isStable(completeApp.getApplication(), completeApp.getStats());
+		snapshots.put(guid, new AppSnapshot(basicApp, now(), stable));
+	}
+
+	/**
+	 * Removes snapshots of applications that no longer exist in the space.
+	 * @param basicApps current list of applications in the space
+	 */
+	public void retainAll(Collection<CloudApplication> basicApps) {
+		Set<UUID> existing = new HashSet<UUID>();
+		for (CloudApplication app : basicApps) {
+			UUID guid = getGuid(app);
+			if (guid != null) {
+				existing.add(guid);
+			}
+		}
+		snapshots.keySet().retainAll(existing);
+	}
+
+	/**
+	 * Forces a complete refresh of the given application on the next
+	 * refresh.
+	 * @param guid
+	 */
+	public void invalidate(UUID guid) {
+		if (guid != null) {
+			snapshots.remove(guid);
+		}
+	}
+
+	public void clear() {
+		snapshots.clear();
+	}
+
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * 
+	 * @param app
+	 * @param stats
+	 * @return true if the application is either stopped, or started with all
+	 * its instances running.
+	 */
+	protected boolean isStable(CloudApplication app, ApplicationStats stats) {
+		if (app == null) {
+			return false;
+		}
+		if (app.getState() == AppState.STOPPED) {
+			return true;
+		}
+		if (app.getState() != AppState.STARTED || stats == null || stats.getRecords() == null) {
+			return false;
+		}
+		int running = 0;
+		for (InstanceStats instance : stats.getRecords()) {
+			if (instance != null && instance.getState() == InstanceState.RUNNING) {
+				running++;
+			}
+		}
+		return running == app.getInstances();
+	}
+
+	private static UUID getGuid(CloudApplication app) {
+		return app != null && app.getMeta() != null ? app.getMeta().getGuid() : null;
+	}
+
+	private static Date getLastUpdated(CloudApplication app) {
+		if (app.getMeta() == null) {
+			return null;
+		}
+		return app.getMeta().getUpdated() != null ? app.getMeta().getUpdated() : app.getMeta().getCreated();
+	}
+
+	private static class AppSnapshot {
+
+		final Date updated;
+
+		final AppState state;
+
+		final int instances;
+
+		final long refreshed;
+
+		final boolean stable;
+
+		AppSnapshot(CloudApplication basicApp, long refreshed, boolean stable) {
+			this.updated = getLastUpdated(basicApp);
+			this.state = basicApp.getState();
+			this.instances = basicApp.getInstances();
+			this.refreshed = refreshed;
+			// Without a timestamp, changes cannot be detected
+			this.stable = stable && updated != null;
+		}
+
+		boolean matches(CloudApplication basicApp) {
+			return updated.equals(getLastUpdated(basicApp)) && state == basicApp.getState()
+					&& instances == basicApp.getInstances();
+		}
+	}
+}
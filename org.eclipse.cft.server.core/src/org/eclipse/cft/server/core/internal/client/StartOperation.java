@@ -36,8 +36,11 @@ import org.eclipse.cft.server.core.internal.CloudErrorUtil;
 import org.eclipse.cft.server.core.internal.CloudFoundryPlugin;
 import org.eclipse.cft.server.core.internal.CloudFoundryServer;
 import org.eclipse.cft.server.core.internal.Messages;
+import org.eclipse.cft.server.core.internal.RemoteResourceCache;
+import org.eclipse.cft.server.core.internal.application.AbstractModuleResourceArchive;
 import org.eclipse.cft.server.core.internal.application.ApplicationUtil;
 import org.eclipse.cft.server.core.internal.application.CachingApplicationArchive;
+import org.eclipse.cft.server.core.internal.application.ChannelZipArchive;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
@@ -48,6 +51,8 @@ import org.eclipse.osgi.util.NLS;
 import org.eclipse.wst.server.core.IModule;
 import org.eclipse.wst.server.core.IServer;
 import org.eclipse.wst.server.core.internal.Server;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
 
 /**
  * This action is the primary operation for uploading and starting an
@@ -80,6 +85,17 @@ import org.eclipse.wst.server.core.internal.Server;
 @SuppressWarnings("restriction")
 public class StartOperation extends RestartOperation {
 
+	/**
+	 * Number of times the application archive is uploaded again after an
+	 * upload failed because of a network or server error. 0 disables
+	 * uploading again.
+	 */
+	public static final String UPLOAD_RETRIES_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".publish.upload.retries"; //$NON-NLS-1$
+
+	public static final int DEFAULT_UPLOAD_RETRIES = 3;
+
+	private static final long UPLOAD_RETRY_INTERVAL = 2 * CloudOperationsConstants.ONE_SECOND_INTERVAL;
+
 	/**
 	 * 
 	 */
@@ -152,6 +168,17 @@ public class StartOperation extends RestartOperation {
 						message)); 
 			}
 
+			// Start fingerprinting the archive in the background, so that
+			// sha1 codes are computed while the application is verified or
+			// created in the Cloud space, rather than one file at a time
+			// when the client checks for changed resources
+			if (applicationArchive instanceof AbstractModuleResourceArchive) {
+				((AbstractModuleResourceArchive) applicationArchive).computeDigestsAsync();
+			}
+			else if (applicationArchive instanceof ChannelZipArchive) {
+				((ChannelZipArchive) applicationArchive).computeDigestsAsync();
+			}
+
 			// Tell webtools the module has been published
 			getBehaviour().resetPublishState(getModules());
 
@@ -252,97 +279,192 @@ public class StartOperation extends RestartOperation {
 			}
 		}
 
-		try {
-			// Now push the application content.
-			if (applicationArchive != null) {
-				// Handle the incremental publish case separately as it
-				// requires
-				// a partial war file generation of only the changed
-				// resources
-				// AFTER
-				// the server determines the list of missing file names.
+		// Now push the application content.
+		if (applicationArchive != null) {
+			try {
+				uploadArchive(appModule, applicationArchive, monitor);
+
+				// Check for cancel
+				if (monitor.isCanceled()) {
+					throw new OperationCanceledException(
+							Messages.bind(Messages.OPERATION_CANCELED, getOperationName()));
+				}
+			}
+			finally {
 				try {
-					if (applicationArchive instanceof CachingApplicationArchive) {
-						final CachingApplicationArchive cachingArchive = (CachingApplicationArchive) applicationArchive;
-						ApplicationArchive v1ArchiveWrapper = ApplicationUtil.asV1ApplicationArchive(cachingArchive);
-						client.uploadApplication(appName, v1ArchiveWrapper, new UploadStatusCallback() {
+					applicationArchive.close();
+				}
+				catch (CoreException e) {
+					// Don't let errors in closing the archive stop the
+					// publish operation
+					CloudFoundryPlugin.logError(e);
+				}
+			}
+		}
+		else {
+			throw CloudErrorUtil.toCoreException(
+					"Failed to deploy application " + appModule.getDeploymentInfo().getDeploymentName() + //$NON-NLS-1$
+							" since no deployable war or application archive file was generated."); //$NON-NLS-1$
+		}
+	}
 
-							public void onProcessMatchedResources(int length) {
+	/**
+	 * Uploads the application archive. If the upload fails because of a
+	 * network or server error, the archive is uploaded again, up to the number
+	 * of times set by {@link #UPLOAD_RETRIES_PREFERENCE}.
+	 * <p/>
+	 * Cloud Foundry only accepts the complete application content in a single
+	 * upload, so each attempt uploads the complete archive. Resources that the
+	 * server has by then, for example because it cached them from the failed
+	 * attempt, are not sent again.
+	 * @param appModule
+	 * @param applicationArchive
+	 * @param monitor reports the amount of content uploaded and the current
+	 * throughput
+	 * @throws CoreException if the upload failed after all attempts
+	 */
+	protected void uploadArchive(final CloudFoundryApplicationModule appModule,
+			final CFApplicationArchive applicationArchive, IProgressMonitor monitor) throws CoreException {
+		final String appName = appModule.getDeploymentInfo().getDeploymentName();
+		final int retries = Math.max(0, CloudFoundryPlugin.getDefault().getPreferences()
+				.getInt(UPLOAD_RETRIES_PREFERENCE, DEFAULT_UPLOAD_RETRIES));
+
+		new BehaviourRequest<Void>(NLS.bind(Messages.StartOperation_UPLOADING_APP, appName), getBehaviour()) {
+
+			private int attempts;
+
+			@Override
+			protected Void doRun(CloudFoundryOperations client, SubMonitor progress) throws CoreException {
+				if (attempts > 0 && applicationArchive instanceof AbstractModuleResourceArchive) {
+					// The previous attempt restricted the entries to the
+					// resources the server did not have at the time
+					((AbstractModuleResourceArchive) applicationArchive).resetUpload();
+				}
+				attempts++;
+				try {
+					sendArchive(client, appName, applicationArchive, new ArchiveUploadProgress(appName, progress));
+				}
+				catch (IOException e) {
+					throw new CoreException(CloudFoundryPlugin.getErrorStatus(
+							"Failed to deploy application " + appName + " due to " + e.getMessage(), e)); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+				return null;
+			}
 
-							}
+			@Override
+			protected long waitOnErrorInterval(Throwable exception, SubMonitor progress) throws CoreException {
+				if (attempts > retries || !isTransientUploadError(exception)) {
+					return -1;
+				}
+				getBehaviour().printlnToConsole(appModule,
+						NLS.bind(Messages.StartOperation_RETRYING_UPLOAD, appName, exception.getMessage()));
+				return UPLOAD_RETRY_INTERVAL;
+			}
 
-							public void onMatchedFileNames(Set<String> matchedFileNames) {
-								cachingArchive.generatePartialWarFile(matchedFileNames);
-							}
+		}.run(monitor);
+	}
 
-							public void onCheckResources() {
+	protected void sendArchive(CloudFoundryOperations client, String appName, CFApplicationArchive applicationArchive,
+			final ArchiveUploadProgress uploadProgress) throws IOException, CoreException {
+		final RemoteResourceCache remoteResources = CloudFoundryPlugin.getDefault().getRemoteResourceCache();
+		final String target = getBehaviour().getRemoteResourceTarget();
+
+		if (applicationArchive instanceof AbstractModuleResourceArchive) {
+			// Start reading the content that is expected to be uploaded
+			// while the server is asked which resources it already has
+			Set<String> expectedKnownNames = remoteResources.getConfirmedNames(target,
+					applicationArchive.getEntries());
+			if (expectedKnownNames != null) {
+				((AbstractModuleResourceArchive) applicationArchive)
+						.startSpeculativeUploadPipeline(expectedKnownNames);
+			}
+		}
 
-							}
+		// Handle the incremental publish case separately as it
+		// requires
+		// a partial war file generation of only the changed
+		// resources
+		// AFTER
+		// the server determines the list of missing file names.
+		if (applicationArchive instanceof CachingApplicationArchive) {
+			final CachingApplicationArchive cachingArchive = (CachingApplicationArchive) applicationArchive;
+			ApplicationArchive v1ArchiveWrapper = ApplicationUtil.asV1ApplicationArchive(cachingArchive);
+			client.uploadApplication(appName, uploadProgress.wrap(v1ArchiveWrapper), new UploadStatusCallback() {
 
-							public boolean onProgress(String status) {
-								return false;
-							}
-						});
+				public void onProcessMatchedResources(int length) {
 
-						// Once the application has run, do a clean up of the
-						// sha1
-						// cache for deleted resources
+				}
 
-					}
-					else {
-						ApplicationArchive v1ArchiveWrapper = ApplicationUtil
-								.asV1ApplicationArchive(applicationArchive);
+				public void onMatchedFileNames(Set<String> matchedFileNames) {
+					uploadProgress.start(cachingArchive.getEntries(), matchedFileNames);
+					remoteResources.confirm(target, cachingArchive.getEntries(), matchedFileNames);
+					cachingArchive.generatePartialWarFile(matchedFileNames);
+					cachingArchive.startUploadPipeline(matchedFileNames);
+				}
 
-						client.uploadApplication(appName, v1ArchiveWrapper, new UploadStatusCallback() {
+				public void onCheckResources() {
 
-							public void onProcessMatchedResources(int length) {
+				}
 
-							}
+				public boolean onProgress(String status) {
+					return false;
+				}
+			});
 
-							public void onMatchedFileNames(Set<String> matchedFileNames) {
+			// Once the application has run, do a clean up of the
+			// sha1
+			// cache for deleted resources
 
-							}
+		}
+		else {
+			final CFApplicationArchive archive = applicationArchive;
+			ApplicationArchive v1ArchiveWrapper = ApplicationUtil.asV1ApplicationArchive(applicationArchive);
 
-							public void onCheckResources() {
+			client.uploadApplication(appName, uploadProgress.wrap(v1ArchiveWrapper), new UploadStatusCallback() {
 
-							}
+				public void onProcessMatchedResources(int length) {
 
-							public boolean onProgress(String status) {
-								return false;
-							}
-						});
-					}
-					// Check for cancel
-					if (monitor.isCanceled()) {
-						throw new OperationCanceledException(
-								Messages.bind(Messages.OPERATION_CANCELED, getOperationName()));
-					}
 				}
-				finally {
-					try {
-						applicationArchive.close();
-					}
-					catch (CoreException e) {
-						// Don't let errors in closing the archive stop the
-						// publish operation
-						CloudFoundryPlugin.logError(e);
+
+				public void onMatchedFileNames(Set<String> matchedFileNames) {
+					uploadProgress.start(archive.getEntries(), matchedFileNames);
+					remoteResources.confirm(target, archive.getEntries(), matchedFileNames);
+					if (archive instanceof AbstractModuleResourceArchive) {
+						((AbstractModuleResourceArchive) archive).startUploadPipeline(matchedFileNames);
 					}
 				}
-			}
-			else {
-				throw CloudErrorUtil.toCoreException(
-						"Failed to deploy application " + appModule.getDeploymentInfo().getDeploymentName() + //$NON-NLS-1$
-								" since no deployable war or application archive file was generated."); //$NON-NLS-1$
-			}
+
+				public void onCheckResources() {
+
+				}
+
+				public boolean onProgress(String status) {
+					return false;
+				}
+			});
 		}
-		catch (IOException e) {
-			throw new CoreException(CloudFoundryPlugin.getErrorStatus(
-					"Failed to deploy application " + //$NON-NLS-1$
-							appModule.getDeploymentInfo().getDeploymentName() + " due to " + e.getMessage(), //$NON-NLS-1$
-					e));
+		// All content of the archive is now known to the server, either
+		// because it matched or because it was uploaded
+		remoteResources.confirm(target, applicationArchive.getEntries(), null);
+	}
+
+	/**
+	 * 
+	 * @param error
+	 * @return true if the error may not occur again when the upload is
+	 * attempted again, like network errors and server side errors.
+	 */
+	protected static boolean isTransientUploadError(Throwable error) {
+		while (error != null) {
+			if (error instanceof IOException || error instanceof ResourceAccessException
+					|| error instanceof HttpServerErrorException) {
+				return true;
+			}
+			error = error.getCause() != error ? error.getCause() : null;
 		}
+		return false;
 	}
-	
+
 	protected void updateIfManifestChanged(CloudFoundryOperations client, CloudFoundryApplicationModule appModule,
 			IProgressMonitor monitor)  {
 		// See if the information in the existing Cloud app has changed compared to the info in the appModule
@@ -20,6 +20,7 @@
  ********************************************************************************/
 package org.eclipse.cft.server.core.internal.client;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -122,13 +123,33 @@ public class UpdateAllOperation extends CFOperation {
 		if (applications == null) {
 			return;
 		}
-		applications.parallelStream().forEach((cloudApp) -> {
+		SpaceSnapshot snapshot = getBehaviour().getSpaceSnapshot();
+		snapshot.retainAll(applications);
+
+		subMonitor.setWorkRemaining(applications.size());
+
+		// Only fetch complete information for apps that changed since their
+		// last complete refresh. Skipped apps keep their existing complete
+		// information, but are still notified as updated, like any other app
+		List<CloudApplication> changedApplications = new ArrayList<CloudApplication>();
+		for (CloudApplication cloudApp : applications) {
+			if (!snapshot.isUpToDate(cloudApp) || !isMapped(cloudServer, cloudApp)) {
+				changedApplications.add(cloudApp);
+			}
+			else {
+				fireUnchangedModule(cloudServer, cloudApp);
+				subMonitor.worked(1);
+			}
+		}
+
+		getBehaviour().getRequestExecutor().forEach(changedApplications, (cloudApp) -> {
 			if (isCanceled(subMonitor)) {
 				return;
 			}
 			try {
 				CFV1Application updatedApplication = getBehaviour().getCompleteApplication(cloudApp, subMonitor);
 				if (updatedApplication != null && updatedApplication.getStats() != null) {
+					snapshot.record(cloudApp, updatedApplication);
 					CloudFoundryApplicationModule appModule = cloudServer.updateModule(
 							updatedApplication.getApplication(), updatedApplication.getApplication().getName(),
 							updatedApplication.getStats(), subMonitor);
@@ -142,6 +163,36 @@ public class UpdateAllOperation extends CFOperation {
 				CloudFoundryPlugin.logError(e);
 			}
 			subMonitor.worked(1);
-		});
+		}, subMonitor);
+	}
+
+	protected void fireUnchangedModule(CloudFoundryServer cloudServer, CloudApplication cloudApp) {
+		try {
+			CloudFoundryApplicationModule appModule = cloudServer.getExistingCloudModule(cloudApp.getName());
+			if (appModule != null) {
+				ServerEventHandler.getDefault().fireModuleUpdated(cloudServer, appModule.getLocalModule());
+			}
+		}
+		catch (CoreException e) {
+			CloudFoundryPlugin.logError(e);
+		}
+	}
+
+	/**
+	 * 
+	 * @return true if the existing module for the given app is already mapped
+	 * to the complete Cloud application with the same GUID
+	 */
+	protected boolean isMapped(CloudFoundryServer cloudServer, CloudApplication cloudApp) {
+		try {
+			CloudFoundryApplicationModule appModule = cloudServer.getExistingCloudModule(cloudApp.getName());
+			CloudApplication mappedApp = appModule != null ? appModule.getApplication() : null;
+			return mappedApp != null && appModule.getApplicationStats() != null && mappedApp.getMeta() != null
+					&& cloudApp.getMeta() != null && mappedApp.getMeta().getGuid() != null
+					&& mappedApp.getMeta().getGuid().equals(cloudApp.getMeta().getGuid());
+		}
+		catch (CoreException e) {
+			return false;
+		}
 	}
 }
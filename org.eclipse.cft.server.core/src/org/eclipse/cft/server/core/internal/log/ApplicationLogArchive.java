@@ -0,0 +1,683 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.core.internal.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.cft.server.core.internal.CloudFoundryPlugin;
+
+/**
+ * Local, append-only archive of the logs of one application, so that logs
+ * remain available after a console is cleared or closed, or after loggregator
+ * has discarded them.
+ * <p/>
+ * Logs are stored in segment files of bounded size. Each call to
+ * {@link #append(List)} adds one gzip member to the current segment (a file
+ * of concatenated gzip members is itself a valid gzip file), so that appending
+ * never rewrites existing data. Once the segments of an application exceed
+ * the maximum archive size, the oldest segments are deleted.
+ * <p/>
+ * Each segment has an index file listing, for every member, its position in
+ * the segment, the time range of its logs and the instances that produced
+ * them. Queries use the index to skip members outside the requested time
+ * range or instance, and only ever decompress one member at a time, so
+ * archives are never loaded into memory as a whole.
+ * <p/>
+ * Records are stored as one line per log: timestamp, content type, source
+ * name, source ID and message, separated by tabs, with tabs, line breaks and
+ * backslashes in values escaped.
+ * <p/>
+ * Queries do not block appending. Segments deleted by an append while a query
+ * reads them are skipped.
+ * <p/>
+ * Archiving is disabled by default. The maximum size applies to each
+ * application, and archives are kept after their application or server is
+ * deleted.
+ */
+public class ApplicationLogArchive {
+
+	/**
+	 * Whether application logs are archived.
+	 */
+	public static final String ENABLED_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".log.archive"; //$NON-NLS-1$
+
+	public static final boolean DEFAULT_ENABLED = false;
+
+	/**
+	 * Maximum size in kilobytes of a segment file before a new one is started.
+	 */
+	public static final String SEGMENT_SIZE_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".log.archive.segment"; //$NON-NLS-1$
+
+	/**
+	 * Maximum size in kilobytes of the archive of one application.
+	 */
+	public static final String MAX_SIZE_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".log.archive.max"; //$NON-NLS-1$
+
+	/**
+	 * Number of archived logs shown when an application log console is
+	 * opened. 0 disables replay.
+	 */
+	public static final String REPLAY_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".log.archive.replay"; //$NON-NLS-1$
+
+	public static final int DEFAULT_REPLAY = 200;
+
+	public static final long DEFAULT_SEGMENT_SIZE = 4 * 1024;
+
+	public static final long DEFAULT_MAX_SIZE = 64 * 1024;
+
+	private static final String SEGMENT_EXTENSION = ".log.gz"; //$NON-NLS-1$
+
+	private static final String INDEX_EXTENSION = ".idx"; //$NON-NLS-1$
+
+	/**
+	 * Beyond this number of distinct instances in a member, the member is
+	 * indexed as matching any instance.
+	 */
+	private static final int MAX_INDEXED_INSTANCES = 32;
+
+	private static final Map<String, LogContentType> KNOWN_TYPES = new HashMap<String, LogContentType>();
+
+	static {
+		for (LogContentType type : Arrays.asList(LogContentType.APPLICATION_LOG_STD_OUT,
+				LogContentType.APPLICATION_LOG_STS_ERROR, LogContentType.APPLICATION_LOG_UNKNOWN)) {
+			KNOWN_TYPES.put(type.getId(), type);
+		}
+	}
+
+	private final File folder;
+
+	private final long segmentSize;
+
+	private final long maxSize;
+
+	private File currentSegment;
+
+	private long lastSegmentName;
+
+	/**
+	 * Reused to write timestamps without creating strings
+	 */
+	private final byte[] digits = new byte[20];
+
+	/**
+	 * 
+	 * @param folder holding the segments of the application
+	 * @param segmentSize in bytes
+	 * @param maxSize in bytes
+	 */
+	public ApplicationLogArchive(File folder, long segmentSize, long maxSize) {
+		this.folder = folder;
+		this.segmentSize = Math.max(1, segmentSize);
+		this.maxSize = Math.max(this.segmentSize, maxSize);
+	}
+
+	public static ApplicationLogArchive fromPreferences(File folder) {
+		long segmentSize = DEFAULT_SEGMENT_SIZE;
+		long maxSize = DEFAULT_MAX_SIZE;
+		CloudFoundryPlugin plugin = CloudFoundryPlugin.getDefault();
+		if (plugin != null) {
+			segmentSize = plugin.getPreferences().getLong(SEGMENT_SIZE_PREFERENCE, DEFAULT_SEGMENT_SIZE);
+			maxSize = plugin.getPreferences().getLong(MAX_SIZE_PREFERENCE, DEFAULT_MAX_SIZE);
+		}
+		return new ApplicationLogArchive(folder, segmentSize * 1024, maxSize * 1024);
+	}
+
+	/**
+	 * 
+	 * @return number of archived logs to show when an application log console
+	 * is opened
+	 */
+	public static int getReplayCount() {
+		CloudFoundryPlugin plugin = CloudFoundryPlugin.getDefault();
+		return plugin != null ? plugin.getPreferences().getInt(REPLAY_PREFERENCE, DEFAULT_REPLAY) : DEFAULT_REPLAY;
+	}
+
+	/**
+	 * Server IDs and app names may contain characters that are not valid in
+	 * file names, so the folder name is derived from a hash of both instead.
+	 * @param root
+	 * @param serverId
+	 * @param appName
+	 * @return folder for the archive of the given application
+	 */
+	public static File getArchiveFolder(File root, String serverId, String appName) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+			digest.update(String.valueOf(serverId).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			byte[] hash = digest.digest(appName.getBytes(StandardCharsets.UTF_8));
+			StringBuilder name = new StringBuilder();
+			for (byte b : hash) {
+				name.append(String.format("%02x", b)); //$NON-NLS-1$
+			}
+			return new File(root, name.toString());
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Appends the given logs to the archive. Logs without a timestamp are
+	 * archived with the current time. Records are written from their UTF-8
+	 * payload, without decoding their messages.
+	 * @param records
+	 * @throws IOException if failed to write to the archive
+	 */
+	public synchronized void append(List<LogRecord> records) throws IOException {
+		if (records == null || records.isEmpty()) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long minTime = Long.MAX_VALUE;
+		long maxTime = Long.MIN_VALUE;
+		Set<String> instances = new LinkedHashSet<String>();
+		int count = 0;
+
+		ByteArrayOutputStream member = new ByteArrayOutputStream();
+		OutputStream out = new BufferedOutputStream(new GZIPOutputStream(member));
+		try {
+			for (LogRecord record : records) {
+				if (record == null || record.getLength() == 0) {
+					continue;
+				}
+				long time = record.getTimestampNanos() != 0 ? record.getTimestampNanos() / 1000000 : now;
+				minTime = Math.min(minTime, time);
+				maxTime = Math.max(maxTime, time);
+				if (instances != null) {
+					instances.add(String.valueOf(record.getSourceId()));
+					if (instances.size() > MAX_INDEXED_INSTANCES) {
+						instances = null;
+					}
+				}
+				writeTime(out, time);
+				out.write('\t');
+				writeEscaped(out, record.getLogType().getId());
+				out.write('\t');
+				writeEscaped(out, record.getSourceName());
+				out.write('\t');
+				writeEscaped(out, record.getSourceId());
+				out.write('\t');
+				writeEscaped(out, record.getPayload(), 0, record.getLength());
+				out.write('\n');
+				count++;
+			}
+		}
+		finally {
+			out.close();
+		}
+		if (count == 0) {
+			return;
+		}
+
+		File segment = getCurrentSegment();
+		long offset = segment.length();
+		FileOutputStream segmentOut = new FileOutputStream(segment, true);
+		try {
+			member.writeTo(segmentOut);
+		}
+		finally {
+			segmentOut.close();
+		}
+
+		DataOutputStream index = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(getIndexFile(segment), true)));
+		try {
+			index.writeLong(offset);
+			index.writeInt(member.size());
+			index.writeLong(minTime);
+			index.writeLong(maxTime);
+			index.writeInt(count);
+			if (instances == null) {
+				index.writeShort(-1);
+			}
+			else {
+				index.writeShort(instances.size());
+				for (String instance : instances) {
+					index.writeUTF(instance);
+				}
+			}
+		}
+		finally {
+			index.close();
+		}
+
+		if (segment.length() >= segmentSize) {
+			currentSegment = null;
+		}
+		enforceMaxSize();
+	}
+
+	/**
+	 * Searches the archive.
+	 * @param from earliest timestamp in milliseconds, inclusive
+	 * @param to latest timestamp in milliseconds, inclusive
+	 * @param instance source ID of the instance whose logs are returned, or
+	 * null for all instances
+	 * @param pattern pattern that must be found in the message, or null to
+	 * return all logs. Use {@link Pattern#quote(String)} for substring search.
+	 * @param limit maximum number of logs returned
+	 * @return matching logs in the order in which they were archived, up to
+	 * the limit
+	 * @throws IOException if failed to read the archive
+	 */
+	public List<CloudLog> search(long from, long to, String instance, Pattern pattern, int limit) throws IOException {
+		List<CloudLog> result = new ArrayList<CloudLog>();
+		for (File segment : getSegments()) {
+			for (IndexEntry entry : readIndex(segment)) {
+				if (result.size() >= limit) {
+					return result;
+				}
+				if (entry.maxTime < from || entry.minTime > to
+						|| (instance != null && entry.instances != null && !entry.instances.contains(instance))) {
+					continue;
+				}
+				for (CloudLog log : readMember(segment, entry)) {
+					long time = log.getTimestamp().getTime();
+					if (time >= from && time <= to && (instance == null || instance.equals(log.getSourceId()))
+							&& (pattern == null || pattern.matcher(log.getMessage()).find())) {
+						result.add(log);
+						if (result.size() >= limit) {
+							return result;
+						}
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * @param count
+	 * @return up to the given number of most recently archived logs, oldest
+	 * first
+	 * @throws IOException if failed to read the archive
+	 */
+	public List<CloudLog> tail(int count) throws IOException {
+		List<List<CloudLog>> members = new ArrayList<List<CloudLog>>();
+		int collected = 0;
+		List<File> segments = getSegments();
+		for (int i = segments.size() - 1; i >= 0 && collected < count; i--) {
+			File segment = segments.get(i);
+			List<IndexEntry> entries = readIndex(segment);
+			for (int j = entries.size() - 1; j >= 0 && collected < count; j--) {
+				List<CloudLog> logs = readMember(segment, entries.get(j));
+				members.add(logs);
+				collected += logs.size();
+			}
+		}
+		List<CloudLog> result = new ArrayList<CloudLog>(collected);
+		for (int i = members.size() - 1; i >= 0; i--) {
+			result.addAll(members.get(i));
+		}
+		return result.size() > count ? new ArrayList<CloudLog>(result.subList(result.size() - count, result.size()))
+				: result;
+	}
+
+	/**
+	 * Deletes all archived logs.
+	 */
+	public synchronized void clear() {
+		for (File segment : getSegments()) {
+			delete(segment);
+		}
+		currentSegment = null;
+	}
+
+	/**
+	 * 
+	 * @return total size in bytes of the archive
+	 */
+	public long getSize() {
+		long size = 0;
+		for (File segment : getSegments()) {
+			size += segment.length() + getIndexFile(segment).length();
+		}
+		return size;
+	}
+
+	private File getCurrentSegment() throws IOException {
+		if (currentSegment == null || !currentSegment.exists()) {
+			if (!folder.exists() && !folder.mkdirs()) {
+				throw new IOException("Unable to create application log archive folder: " + folder); //$NON-NLS-1$
+			}
+			List<File> segments = getSegments();
+			File last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+			if (last != null && last.length() < segmentSize) {
+				currentSegment = last;
+			}
+			else {
+				// Segment names are increasing, so that they sort in the
+				// order in which they were created
+				long name = Math.max(System.currentTimeMillis(), lastSegmentName + 1);
+				if (last != null) {
+					name = Math.max(name, getSegmentName(last) + 1);
+				}
+				lastSegmentName = name;
+				currentSegment = new File(folder, String.format("%020d", name) + SEGMENT_EXTENSION); //$NON-NLS-1$
+			}
+		}
+		return currentSegment;
+	}
+
+	private void enforceMaxSize() {
+		List<File> segments = getSegments();
+		long size = 0;
+		for (File segment : segments) {
+			size += segment.length() + getIndexFile(segment).length();
+		}
+		for (int i = 0; size > maxSize && i < segments.size() - 1; i++) {
+			File oldest = segments.get(i);
+			size -= oldest.length() + getIndexFile(oldest).length();
+			delete(oldest);
+		}
+	}
+
+	private void delete(File segment) {
+		segment.delete();
+		getIndexFile(segment).delete();
+	}
+
+	/**
+	 * 
+	 * @return segments, oldest first
+	 */
+	protected List<File> getSegments() {
+		File[] files = folder.listFiles();
+		if (files == null) {
+			return Collections.emptyList();
+		}
+		List<File> segments = new ArrayList<File>();
+		for (File file : files) {
+			if (file.getName().endsWith(SEGMENT_EXTENSION)) {
+				segments.add(file);
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+
+	private static long getSegmentName(File segment) {
+		String name = segment.getName();
+		try {
+			return Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+		}
+		catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static File getIndexFile(File segment) {
+		return new File(segment.getParentFile(), segment.getName() + INDEX_EXTENSION);
+	}
+
+	private static List<IndexEntry> readIndex(File segment) throws IOException {
+		List<IndexEntry> entries = new ArrayList<IndexEntry>();
+		File indexFile = getIndexFile(segment);
+		if (!indexFile.isFile()) {
+			return entries;
+		}
+		long segmentLength = segment.length();
+		DataInputStream in;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+		}
+		catch (FileNotFoundException e) {
+			// Segment deleted since it was listed
+			return entries;
+		}
+		try {
+			while (true) {
+				IndexEntry entry = new IndexEntry();
+				entry.offset = in.readLong();
+				entry.length = in.readInt();
+				entry.minTime = in.readLong();
+				entry.maxTime = in.readLong();
+				entry.count = in.readInt();
+				int instanceCount = in.readShort();
+				if (instanceCount >= 0) {
+					entry.instances = new LinkedHashSet<String>();
+					for (int i = 0; i < instanceCount; i++) {
+						entry.instances.add(in.readUTF());
+					}
+				}
+				// Entries written for members that did not make it to the
+				// segment are ignored
+				if (entry.offset + entry.length <= segmentLength) {
+					entries.add(entry);
+				}
+			}
+		}
+		catch (EOFException e) {
+			// End of index, or partially written last entry
+		}
+		finally {
+			in.close();
+		}
+		return entries;
+	}
+
+	private static List<CloudLog> readMember(File segment, IndexEntry entry) throws IOException {
+		byte[] compressed = new byte[entry.length];
+		RandomAccessFile file;
+		try {
+			file = new RandomAccessFile(segment, "r"); //$NON-NLS-1$
+		}
+		catch (FileNotFoundException e) {
+			// Segment deleted since its index was read
+			return Collections.emptyList();
+		}
+		try {
+			file.seek(entry.offset);
+			file.readFully(compressed);
+		}
+		finally {
+			file.close();
+		}
+
+		List<CloudLog> logs = new ArrayList<CloudLog>(entry.count);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new GZIPInputStream(new ByteArrayInputStream(compressed)), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				CloudLog log = parse(line);
+				if (log != null) {
+					logs.add(log);
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return logs;
+	}
+
+	private static CloudLog parse(String line) {
+		String[] fields = line.split("\t", -1); //$NON-NLS-1$
+		if (fields.length != 5) {
+			return null;
+		}
+		try {
+			long time = Long.parseLong(fields[0]);
+			String typeId = unescape(fields[1]);
+			LogContentType type = typeId == null ? LogContentType.APPLICATION_LOG_UNKNOWN : KNOWN_TYPES.get(typeId);
+			if (type == null) {
+				type = new LogContentType(typeId);
+			}
+			return new CloudLog(null, unescape(fields[4]), new Date(time), type, unescape(fields[2]),
+					unescape(fields[3]));
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private void writeTime(OutputStream out, long time) throws IOException {
+		if (time < 0) {
+			out.write('-');
+			time = -time;
+		}
+		int start = digits.length;
+		do {
+			digits[--start] = (byte) ('0' + time % 10);
+			time /= 10;
+		}
+		while (time > 0);
+		out.write(digits, start, digits.length - start);
+	}
+
+	/**
+	 * Null values are written as a single backslash, which cannot occur in an
+	 * escaped value.
+	 */
+	private static void writeEscaped(OutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.write('\\');
+			return;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) >= 0x80) {
+				byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+				writeEscaped(out, bytes, 0, bytes.length);
+				return;
+			}
+		}
+		for (int i = 0; i < value.length(); i++) {
+			writeEscaped(out, (byte) value.charAt(i));
+		}
+	}
+
+	/**
+	 * Escapes UTF-8 encoded bytes. Bytes of multi-byte characters are never
+	 * in the ASCII range, so escaping bytes is equivalent to escaping chars.
+	 */
+	private static void writeEscaped(OutputStream out, byte[] bytes, int offset, int length) throws IOException {
+		for (int i = offset; i < offset + length; i++) {
+			writeEscaped(out, bytes[i]);
+		}
+	}
+
+	private static void writeEscaped(OutputStream out, byte b) throws IOException {
+		switch (b) {
+		case '\\':
+			out.write('\\');
+			out.write('\\');
+			break;
+		case '\t':
+			out.write('\\');
+			out.write('t');
+			break;
+		case '\n':
+			out.write('\\');
+			out.write('n');
+			break;
+		case '\r':
+			out.write('\\');
+			out.write('r');
+			break;
+		default:
+			out.write(b);
+		}
+	}
+
+	private static String unescape(String value) {
+		if ("\\".equals(value)) { //$NON-NLS-1$
+			return null;
+		}
+		if (value.indexOf('\\') < 0) {
+			return value;
+		}
+		StringBuilder unescaped = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' && i + 1 < value.length()) {
+				char next = value.charAt(++i);
+				switch (next) {
+				case 't':
+					unescaped.append('\t');
+					break;
+				case 'n':
+					unescaped.append('\n');
+					break;
+				case 'r':
+					unescaped.append('\r');
+					break;
+				default:
+					unescaped.append(next);
+				}
+			}
+			else {
+				unescaped.append(c);
+			}
+		}
+		return unescaped.toString();
+	}
+
+	private static class IndexEntry {
+
+		long offset;
+
+		int length;
+
+		long minTime;
+
+		long maxTime;
+
+		int count;
+
+		/**
+		 * Null if the member may contain logs of any instance
+		 */
+		Set<String> instances;
+	}
+}
@@ -0,0 +1,319 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.core.internal.log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.cft.server.core.internal.CloudFoundryPlugin;
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * Shares log stream connections between all listeners of a client.
+ * <p/>
+ * Listeners subscribe to the logs of an application, identified by its GUID.
+ * Subscriptions are reference counted: the first subscription to an
+ * application opens the stream, further subscriptions to the same application
+ * share it, and the stream is closed once the last of them is cancelled.
+ * <p/>
+ * If the {@link LogStreamFactory} supports a shared stream carrying the logs
+ * of all applications, like the Doppler firehose, only one connection is
+ * opened for all subscribed applications, and logs are demultiplexed to the
+ * listeners of each application by the application GUID of the log. The
+ * shared connection is closed once no application is subscribed anymore.
+ * <p/>
+ * Logs received as {@link LogRecord} are passed on as is to listeners that
+ * implement {@link CFApplicationLogRecordListener}, and converted to a
+ * {@link CloudLog} at most once for the other listeners.
+ */
+public class ApplicationLogMultiplexer {
+
+	/**
+	 * Opens log stream connections for a multiplexer.
+	 */
+	public interface LogStreamFactory {
+
+		/**
+		 * 
+		 * @return true if {@link #openStream(String, CFApplicationLogListener)}
+		 * supports opening a single stream for all applications
+		 */
+		boolean isShared();
+
+		/**
+		 * 
+		 * @param appGuid application whose logs are streamed, or null to open
+		 * a shared stream for all applications
+		 * @param listener receiving the streamed logs. Logs of a shared stream
+		 * must have the application GUID as app ID. The listener is a
+		 * {@link CFApplicationLogRecordListener}, so streams may pass logs as
+		 * records.
+		 * @return token that closes the stream
+		 * @throws CoreException if failed to open the stream
+		 */
+		CFStreamingLogToken openStream(String appGuid, CFApplicationLogListener listener) throws CoreException;
+	}
+
+	private final LogStreamFactory factory;
+
+	private final ConcurrentHashMap<String, Subscription> subscriptions = new ConcurrentHashMap<String, Subscription>();
+
+	private CFStreamingLogToken sharedStream;
+
+	private Demultiplexer sharedDemultiplexer;
+
+	public ApplicationLogMultiplexer(LogStreamFactory factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * Subscribes the listener to the logs of the given application, opening
+	 * a stream if none is open for it yet.
+	 * @param appGuid
+	 * @param listener
+	 * @return token that cancels this subscription only
+	 * @throws CoreException if failed to open a stream
+	 */
+	public synchronized CFStreamingLogToken subscribe(final String appGuid, final CFApplicationLogListener listener)
+			throws CoreException {
+		if (factory.isShared() && sharedStream == null) {
+			Demultiplexer demultiplexer = new Demultiplexer();
+			sharedStream = factory.openStream(null, demultiplexer);
+			sharedDemultiplexer = demultiplexer;
+		}
+		Subscription subscription = subscriptions.get(appGuid);
+		if (subscription == null) {
+			// Registered before the stream is opened, so that a stream
+			// ending right away removes the subscription again
+			subscription = new Subscription(appGuid, !factory.isShared());
+			subscriptions.put(appGuid, subscription);
+			subscription.listeners.add(listener);
+			if (subscription.ownsStream) {
+				try {
+					subscription.stream = factory.openStream(appGuid, subscription);
+				}
+				catch (CoreException e) {
+					subscriptions.remove(appGuid, subscription);
+					throw e;
+				}
+			}
+		}
+		else {
+			subscription.listeners.add(listener);
+		}
+
+		final Subscription subscribed = subscription;
+		final AtomicBoolean cancelled = new AtomicBoolean();
+		return new CFStreamingLogToken() {
+
+			public void cancel() {
+				if (cancelled.compareAndSet(false, true)) {
+					unsubscribe(subscribed, listener);
+				}
+			}
+		};
+	}
+
+	private synchronized void unsubscribe(Subscription subscription, CFApplicationLogListener listener) {
+		subscription.listeners.remove(listener);
+		// Subscriptions whose stream ended are no longer registered
+		if (subscription.listeners.isEmpty() && subscriptions.remove(subscription.appGuid, subscription)) {
+			if (subscription.stream != null) {
+				subscription.stream.cancel();
+			}
+			if (subscriptions.isEmpty()) {
+				closeSharedStream();
+			}
+		}
+	}
+
+	private synchronized void closeSharedStream() {
+		if (sharedStream != null) {
+			sharedStream.cancel();
+			sharedStream = null;
+			sharedDemultiplexer = null;
+		}
+	}
+
+	/**
+	 * 
+	 * @return number of open stream connections
+	 */
+	public synchronized int getStreamCount() {
+		if (sharedStream != null) {
+			return 1;
+		}
+		int count = 0;
+		for (Subscription subscription : subscriptions.values()) {
+			if (subscription.stream != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * 
+	 * @return number of applications with at least one listener
+	 */
+	public int getSubscribedApplicationCount() {
+		return subscriptions.size();
+	}
+
+	/**
+	 * Listeners of one application, and the stream opened for them if streams
+	 * are not shared.
+	 */
+	private class Subscription implements CFApplicationLogRecordListener {
+
+		private final String appGuid;
+
+		/**
+		 * True if the subscription has a stream of its own, as opposed to
+		 * receiving logs from the shared stream
+		 */
+		private final boolean ownsStream;
+
+		private final List<CFApplicationLogListener> listeners = new CopyOnWriteArrayList<CFApplicationLogListener>();
+
+		/**
+		 * Set once the stream has been opened. Streams may end before this
+		 * is set.
+		 */
+		private volatile CFStreamingLogToken stream;
+
+		Subscription(String appGuid, boolean ownsStream) {
+			this.appGuid = appGuid;
+			this.ownsStream = ownsStream;
+		}
+
+		public void onMessage(CloudLog log) {
+			for (CFApplicationLogListener listener : listeners) {
+				try {
+					listener.onMessage(log);
+				}
+				catch (RuntimeException e) {
+					CloudFoundryPlugin.logError(e);
+				}
+			}
+		}
+
+		public void onRecord(LogRecord record) {
+			CloudLog log = null;
+			for (CFApplicationLogListener listener : listeners) {
+				try {
+					if (listener instanceof CFApplicationLogRecordListener) {
+						((CFApplicationLogRecordListener) listener).onRecord(record);
+					}
+					else {
+						if (log == null) {
+							log = record.toCloudLog();
+						}
+						listener.onMessage(log);
+					}
+				}
+				catch (RuntimeException e) {
+					CloudFoundryPlugin.logError(e);
+				}
+			}
+		}
+
+		public void onComplete() {
+			streamEnded();
+			for (CFApplicationLogListener listener : listeners) {
+				listener.onComplete();
+			}
+		}
+
+		public void onError(Throwable exception) {
+			streamEnded();
+			for (CFApplicationLogListener listener : listeners) {
+				listener.onError(exception);
+			}
+		}
+
+		private void streamEnded() {
+			if (ownsStream) {
+				synchronized (ApplicationLogMultiplexer.this) {
+					// The next subscription to the application opens a new
+					// stream
+					subscriptions.remove(appGuid, this);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Dispatches logs of the shared stream to the subscriptions of their
+	 * application.
+	 */
+	private class Demultiplexer implements CFApplicationLogRecordListener {
+
+		public void onMessage(CloudLog log) {
+			Subscription subscription = log.getAppId() != null ? subscriptions.get(log.getAppId()) : null;
+			if (subscription != null) {
+				subscription.onMessage(log);
+			}
+		}
+
+		public void onRecord(LogRecord record) {
+			Subscription subscription = record.getAppId() != null ? subscriptions.get(record.getAppId()) : null;
+			if (subscription != null) {
+				subscription.onRecord(record);
+			}
+		}
+
+		public void onComplete() {
+			for (Subscription subscription : streamEnded()) {
+				subscription.onComplete();
+			}
+		}
+
+		public void onError(Throwable exception) {
+			for (Subscription subscription : streamEnded()) {
+				subscription.onError(exception);
+			}
+		}
+
+		/**
+		 * 
+		 * @return subscriptions that received logs from the ended stream
+		 */
+		private List<Subscription> streamEnded() {
+			synchronized (ApplicationLogMultiplexer.this) {
+				if (sharedDemultiplexer != this) {
+					return Collections.emptyList();
+				}
+				// The next subscription opens a new shared stream. Listeners
+				// of the ended stream must subscribe again to receive its logs.
+				sharedStream = null;
+				sharedDemultiplexer = null;
+				List<Subscription> ended = new ArrayList<Subscription>(subscriptions.values());
+				subscriptions.clear();
+				return ended;
+			}
+		}
+	}
+}
@@ -0,0 +1,553 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.core.internal.log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.cloudfoundry.client.lib.RestLogEntry;
+import org.eclipse.cft.server.core.internal.CloudFoundryPlugin;
+
+/**
+ * Receives HTTP trace entries on the thread performing the request, and
+ * processes them asynchronously, so that tracing does not slow down requests.
+ * <p/>
+ * Entries are added to a bounded queue without blocking, and entries received
+ * while the queue is full are discarded and counted. A single daemon thread
+ * drains the queue, redacts credentials and tokens from request URIs and
+ * messages, passes entries on to the trace console through an
+ * {@link ICloudTracer}, and optionally appends them to a rolling trace file
+ * as JSON lines.
+ * <p/>
+ * Requests can be sampled, so that only one out of every
+ * {@link #SAMPLE_RATE_PREFERENCE} requests is traced. Failed requests are
+ * always traced.
+ */
+public class AsyncTraceSink {
+
+	/**
+	 * Maximum number of queued trace entries.
+	 */
+	public static final String QUEUE_SIZE_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".http.tracing.queue"; //$NON-NLS-1$
+
+	/**
+	 * Only one out of this many successful requests is traced.
+	 */
+	public static final String SAMPLE_RATE_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".http.tracing.sample"; //$NON-NLS-1$
+
+	/**
+	 * Whether trace entries are also written to a trace file in the plugin
+	 * state location.
+	 */
+	public static final String FILE_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".http.tracing.file"; //$NON-NLS-1$
+
+	/**
+	 * Maximum size in kilobytes of a trace file before it is rolled over.
+	 */
+	public static final String FILE_SIZE_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".http.tracing.file.size"; //$NON-NLS-1$
+
+	/**
+	 * Number of rolled over trace files that are kept.
+	 */
+	public static final String FILE_COUNT_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".http.tracing.file.count"; //$NON-NLS-1$
+
+	public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+	public static final int DEFAULT_SAMPLE_RATE = 1;
+
+	public static final long DEFAULT_FILE_SIZE = 10 * 1024;
+
+	public static final int DEFAULT_FILE_COUNT = 3;
+
+	private static final String TRACE_FOLDER = "traces"; //$NON-NLS-1$
+
+	private static final String TRACE_FILE_NAME = "http-trace.jsonl"; //$NON-NLS-1$
+
+	private static final String REDACTED = "***"; //$NON-NLS-1$
+
+	/**
+	 * Query parameters, form fields and JSON fields whose values are
+	 * redacted
+	 */
+	private static final String SENSITIVE_NAMES = "access_token|refresh_token|id_token|token|password|passcode|client_secret|code"; //$NON-NLS-1$
+
+	private static final Pattern SENSITIVE_PARAMETER = Pattern
+			.compile("(?i)([?&]|^|\\s)(" + SENSITIVE_NAMES + ")=[^&\\s]*"); //$NON-NLS-1$ //$NON-NLS-2$
+
+	private static final Pattern SENSITIVE_JSON_FIELD = Pattern
+			.compile("(?i)(\"(?:" + SENSITIVE_NAMES + ")\"\\s*:\\s*)\"(?:[^\"\\\\]|\\\\.)*\""); //$NON-NLS-1$ //$NON-NLS-2$
+
+	private static final Pattern AUTHORIZATION = Pattern.compile("(?i)((?:bearer|basic)\\s+)[A-Za-z0-9._~+/=-]+"); //$NON-NLS-1$
+
+	private static AsyncTraceSink defaultSink;
+
+	private final ICloudTracer consoleTracer;
+
+	private final BlockingQueue<QueuedEntry> queue;
+
+	private final int sampleRate;
+
+	private final File traceFile;
+
+	private final long maxFileSize;
+
+	private final int maxFiles;
+
+	private final ThreadPoolExecutor worker;
+
+	private final AtomicBoolean draining = new AtomicBoolean();
+
+	private final AtomicLong requestCount = new AtomicLong();
+
+	private final AtomicLong sampledOut = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final AtomicLong droppedSinceLastDrain = new AtomicLong();
+
+	private final AtomicLong processed = new AtomicLong();
+
+	private final SimpleDateFormat timeFormat;
+
+	private Writer fileWriter;
+
+	private long fileSize;
+
+	private final Runnable drain = new Runnable() {
+		public void run() {
+			drain();
+		}
+	};
+
+	/**
+	 * 
+	 * @param consoleTracer receiving redacted entries, typically to show them
+	 * in the trace console. May be null.
+	 * @param queueSize maximum number of queued entries
+	 * @param sampleRate only one out of this many successful requests is
+	 * traced
+	 * @param traceFile file to which entries are written as JSON lines, or
+	 * null to not write entries to a file
+	 * @param maxFileSize size in bytes at which the trace file is rolled over
+	 * @param maxFiles number of rolled over trace files that are kept
+	 */
+	public AsyncTraceSink(ICloudTracer consoleTracer, int queueSize, int sampleRate, File traceFile, long maxFileSize,
+			int maxFiles) {
+		this.consoleTracer = consoleTracer;
+		this.queue = new ArrayBlockingQueue<QueuedEntry>(Math.max(1, queueSize));
+		this.sampleRate = Math.max(1, sampleRate);
+		this.traceFile = traceFile;
+		this.maxFileSize = Math.max(1, maxFileSize);
+		this.maxFiles = Math.max(0, maxFiles);
+		this.timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'"); //$NON-NLS-1$
+		this.timeFormat.setTimeZone(TimeZone.getTimeZone("UTC")); //$NON-NLS-1$
+
+		this.worker = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "Cloud Foundry HTTP Trace"); //$NON-NLS-1$
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		this.worker.allowCoreThreadTimeOut(true);
+	}
+
+	public static AsyncTraceSink fromPreferences(ICloudTracer consoleTracer) {
+		int queueSize = DEFAULT_QUEUE_SIZE;
+		int sampleRate = DEFAULT_SAMPLE_RATE;
+		File traceFile = null;
+		long maxFileSize = DEFAULT_FILE_SIZE;
+		int maxFiles = DEFAULT_FILE_COUNT;
+		CloudFoundryPlugin plugin = CloudFoundryPlugin.getDefault();
+		if (plugin != null) {
+			queueSize = plugin.getPreferences().getInt(QUEUE_SIZE_PREFERENCE, DEFAULT_QUEUE_SIZE);
+			sampleRate = plugin.getPreferences().getInt(SAMPLE_RATE_PREFERENCE, DEFAULT_SAMPLE_RATE);
+			maxFileSize = plugin.getPreferences().getLong(FILE_SIZE_PREFERENCE, DEFAULT_FILE_SIZE);
+			maxFiles = plugin.getPreferences().getInt(FILE_COUNT_PREFERENCE, DEFAULT_FILE_COUNT);
+			if (plugin.getPreferences().getBoolean(FILE_PREFERENCE, false)) {
+				try {
+					traceFile = new File(plugin.getStateLocation().append(TRACE_FOLDER).toFile(), TRACE_FILE_NAME);
+				}
+				catch (IllegalStateException e) {
+					// No state location available (e.g. no workspace). Only
+					// trace to the console
+					CloudFoundryPlugin.logError(e);
+				}
+			}
+		}
+		return new AsyncTraceSink(consoleTracer, queueSize, sampleRate, traceFile, maxFileSize * 1024, maxFiles);
+	}
+
+	/**
+	 * 
+	 * @return sink used for HTTP tracing of all clients
+	 */
+	public static synchronized AsyncTraceSink getDefault() {
+		if (defaultSink == null) {
+			defaultSink = fromPreferences(CloudTracer.getCurrentCloudTracer());
+		}
+		return defaultSink;
+	}
+
+	/**
+	 * Discards the default sink, for example after trace preferences have
+	 * changed, so that the next call to {@link #getDefault()} creates a new
+	 * one. Entries queued in the discarded sink are still processed.
+	 */
+	public static synchronized void resetDefault() {
+		if (defaultSink != null) {
+			defaultSink.close();
+			defaultSink = null;
+		}
+	}
+
+	/**
+	 * Queues the given entry for tracing, unless it is not sampled or the
+	 * queue is full. Never blocks.
+	 * @param entry
+	 * @return true if the entry was queued
+	 */
+	public boolean offer(RestLogEntry entry) {
+		if (entry == null) {
+			return false;
+		}
+		if (!isFailed(entry) && sampleRate > 1 && (requestCount.getAndIncrement() % sampleRate) != 0) {
+			sampledOut.incrementAndGet();
+			return false;
+		}
+		if (!queue.offer(new QueuedEntry(entry, System.currentTimeMillis()))) {
+			dropped.incrementAndGet();
+			droppedSinceLastDrain.incrementAndGet();
+			return false;
+		}
+		if (draining.compareAndSet(false, true)) {
+			try {
+				worker.execute(drain);
+			}
+			catch (RejectedExecutionException e) {
+				// Sink was closed. The entry is processed when closing, if
+				// the close task has not run yet.
+				draining.set(false);
+			}
+		}
+		return true;
+	}
+
+	private void drain() {
+		while (true) {
+			try {
+				long droppedEntries = droppedSinceLastDrain.getAndSet(0);
+				if (droppedEntries > 0) {
+					writeDropped(droppedEntries);
+				}
+				QueuedEntry queued;
+				while ((queued = queue.poll()) != null) {
+					process(queued);
+				}
+				flushFile();
+			}
+			finally {
+				draining.set(false);
+			}
+			// Entries may have been queued after the queue was found empty,
+			// but before the draining flag was cleared
+			if (queue.isEmpty() || !draining.compareAndSet(false, true)) {
+				return;
+			}
+		}
+	}
+
+	private void process(QueuedEntry queued) {
+		RestLogEntry entry = redact(queued.entry);
+		if (consoleTracer != null) {
+			try {
+				consoleTracer.traceNewLogEntry(entry);
+			}
+			catch (Throwable t) {
+				CloudFoundryPlugin.logError(t);
+			}
+		}
+		if (traceFile != null) {
+			StringBuilder line = new StringBuilder(256);
+			line.append("{\"time\":"); //$NON-NLS-1$
+			appendJson(line, timeFormat.format(new Date(queued.time)));
+			line.append(",\"method\":"); //$NON-NLS-1$
+			appendJson(line, entry.getMethod() != null ? entry.getMethod().name() : null);
+			line.append(",\"uri\":"); //$NON-NLS-1$
+			appendJson(line, entry.getUri() != null ? entry.getUri().toString() : null);
+			line.append(",\"status\":"); //$NON-NLS-1$
+			appendJson(line, entry.getStatus());
+			line.append(",\"httpStatus\":"); //$NON-NLS-1$
+			line.append(entry.getHttpStatus() != null ? Integer.toString(entry.getHttpStatus().value()) : "null"); //$NON-NLS-1$
+			line.append(",\"message\":"); //$NON-NLS-1$
+			appendJson(line, entry.getMessage());
+			line.append("}\n"); //$NON-NLS-1$
+			writeToFile(line.toString());
+		}
+		processed.incrementAndGet();
+	}
+
+	private void writeDropped(long droppedEntries) {
+		if (consoleTracer instanceof CloudTracer) {
+			((CloudTracer) consoleTracer).fireTraceEvent(
+					new CloudLog(droppedEntries + " HTTP trace entries discarded\n", TraceType.HTTP_GENERAL)); //$NON-NLS-1$
+		}
+		if (traceFile != null) {
+			StringBuilder line = new StringBuilder();
+			line.append("{\"time\":"); //$NON-NLS-1$
+			appendJson(line, timeFormat.format(new Date()));
+			line.append(",\"dropped\":").append(droppedEntries).append("}\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			writeToFile(line.toString());
+		}
+	}
+
+	private void writeToFile(String line) {
+		try {
+			if (fileWriter == null) {
+				File folder = traceFile.getParentFile();
+				if (folder != null && !folder.exists() && !folder.mkdirs()) {
+					throw new IOException("Unable to create trace folder: " + folder); //$NON-NLS-1$
+				}
+				fileSize = traceFile.length();
+				fileWriter = new BufferedWriter(
+						new OutputStreamWriter(new FileOutputStream(traceFile, true), StandardCharsets.UTF_8));
+			}
+			fileWriter.write(line);
+			// Close enough for rolling over, as lines are mostly ASCII
+			fileSize += line.length();
+			if (fileSize >= maxFileSize) {
+				closeFile();
+				rollOver();
+			}
+		}
+		catch (IOException e) {
+			CloudFoundryPlugin.logError("Failed to write HTTP trace file " + traceFile, e); //$NON-NLS-1$
+			closeFile();
+		}
+	}
+
+	private void rollOver() {
+		String name = traceFile.getName();
+		File folder = traceFile.getParentFile();
+		if (maxFiles == 0) {
+			traceFile.delete();
+			return;
+		}
+		new File(folder, name + '.' + maxFiles).delete();
+		for (int i = maxFiles - 1; i >= 1; i--) {
+			File file = new File(folder, name + '.' + i);
+			if (file.exists()) {
+				file.renameTo(new File(folder, name + '.' + (i + 1)));
+			}
+		}
+		traceFile.renameTo(new File(folder, name + ".1")); //$NON-NLS-1$
+	}
+
+	private void flushFile() {
+		if (fileWriter != null) {
+			try {
+				fileWriter.flush();
+			}
+			catch (IOException e) {
+				CloudFoundryPlugin.logError("Failed to write HTTP trace file " + traceFile, e); //$NON-NLS-1$
+				closeFile();
+			}
+		}
+	}
+
+	private void closeFile() {
+		if (fileWriter != null) {
+			try {
+				fileWriter.close();
+			}
+			catch (IOException e) {
+				// Ignore
+			}
+			fileWriter = null;
+		}
+	}
+
+	/**
+	 * Processes entries that are still queued, and stops the worker thread.
+	 */
+	public void close() {
+		worker.execute(new Runnable() {
+			public void run() {
+				QueuedEntry queued;
+				while ((queued = queue.poll()) != null) {
+					process(queued);
+				}
+				closeFile();
+			}
+		});
+		worker.shutdown();
+	}
+
+	/**
+	 * Waits until entries queued so far have been processed.
+	 * @param timeout in milliseconds
+	 * @return true if all entries were processed in time
+	 * @throws InterruptedException
+	 */
+	public boolean flush(long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (!queue.isEmpty() || draining.get()) {
+			if (System.currentTimeMillis() >= end) {
+				return false;
+			}
+			Thread.sleep(10);
+		}
+		return true;
+	}
+
+	public long getProcessed() {
+		return processed.get();
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * 
+	 * @return number of requests that were not traced because of sampling
+	 */
+	public long getSampledOut() {
+		return sampledOut.get();
+	}
+
+	protected static boolean isFailed(RestLogEntry entry) {
+		return DefaultCloudTracer.ERROR_STATUS.equals(entry.getStatus())
+				|| (entry.getHttpStatus() != null && entry.getHttpStatus().value() >= 400);
+	}
+
+	/**
+	 * 
+	 * @param entry
+	 * @return entry with credentials and tokens removed from its URI and
+	 * message, or the given entry if there is nothing to redact
+	 */
+	public static RestLogEntry redact(RestLogEntry entry) {
+		URI uri = entry.getUri();
+		String message = entry.getMessage();
+		URI redactedUri = uri;
+		if (uri != null && uri.getRawQuery() != null) {
+			String value = uri.toString();
+			String redactedValue = redact(value);
+			if (!redactedValue.equals(value)) {
+				try {
+					redactedUri = new URI(redactedValue);
+				}
+				catch (URISyntaxException e) {
+					// Drop the query rather than risk tracing credentials
+					redactedUri = URI.create(value.substring(0, value.indexOf('?')));
+				}
+			}
+		}
+		String redactedMessage = message != null ? redact(message) : null;
+		if (redactedUri == uri && (message == null || message.equals(redactedMessage))) {
+			return entry;
+		}
+		return new RestLogEntry(entry.getMethod(), redactedUri, entry.getStatus(), entry.getHttpStatus(),
+				redactedMessage);
+	}
+
+	static String redact(String value) {
+		String redacted = replace(SENSITIVE_PARAMETER, value, "$1$2=" + REDACTED); //$NON-NLS-1$
+		redacted = replace(SENSITIVE_JSON_FIELD, redacted, "$1\"" + REDACTED + "\""); //$NON-NLS-1$ //$NON-NLS-2$
+		return replace(AUTHORIZATION, redacted, "$1" + REDACTED); //$NON-NLS-1$
+	}
+
+	private static String replace(Pattern pattern, String value, String replacement) {
+		Matcher matcher = pattern.matcher(value);
+		return matcher.find() ? matcher.replaceAll(replacement) : value;
+	}
+
+	private static void appendJson(StringBuilder builder, String value) {
+		if (value == null) {
+			builder.append("null"); //$NON-NLS-1$
+			return;
+		}
+		builder.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				builder.append("\\\""); //$NON-NLS-1$
+				break;
+			case '\\':
+				builder.append("\\\\"); //$NON-NLS-1$
+				break;
+			case '\n':
+				builder.append("\\n"); //$NON-NLS-1$
+				break;
+			case '\r':
+				builder.append("\\r"); //$NON-NLS-1$
+				break;
+			case '\t':
+				builder.append("\\t"); //$NON-NLS-1$
+				break;
+			default:
+				if (c < 0x20) {
+					builder.append(String.format("\\u%04x", (int) c)); //$NON-NLS-1$
+				}
+				else {
+					builder.append(c);
+				}
+			}
+		}
+		builder.append('"');
+	}
+
+	private static class QueuedEntry {
+
+		final RestLogEntry entry;
+
+		final long time;
+
+		QueuedEntry(RestLogEntry entry, long time) {
+			this.entry = entry;
+			this.time = time;
+		}
+	}
+}
@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.core.internal.log;
+
+/**
+ * Log listener that can receive logs as reusable {@link LogRecord}, which
+ * avoids creating a {@link CloudLog} for every streamed log. Log streams pass
+ * logs to {@link #onRecord(LogRecord)} instead of
+ * {@link #onMessage(CloudLog)} for listeners implementing this interface.
+ */
+public interface CFApplicationLogRecordListener extends CFApplicationLogListener {
+
+	/**
+	 * 
+	 * @param record only valid during the call, as the caller reuses it for
+	 * the next log
+	 */
+	void onRecord(LogRecord record);
+}
@@ -89,6 +89,9 @@ public class HttpTracer {
 	 */
 	public synchronized void enableTracing(boolean enable) {
 		isEnabled = enable;
+		// Trace sink settings are read when the sink is created, so pick up
+		// any change the next time tracing is used
+		AsyncTraceSink.resetDefault();
 		IEclipsePreferences prefs = CloudFoundryPlugin.getDefault().getPreferences();
 		prefs.putBoolean(PREFERENCE_TRACE, isEnabled);
 		try {
@@ -128,13 +131,19 @@ public class HttpTracer {
 		return isEnabled;
 	}
 
+	/**
+	 * Invoked on the thread performing the request. Entries are handed off to
+	 * the {@link AsyncTraceSink}, so that tracing does not block requests.
+	 */
 	public static class PrintingApplicationLogListener implements RestLogCallback {
 
 		public PrintingApplicationLogListener() {
 		}
 
 		public void onNewLogEntry(RestLogEntry restLogEntry) {
-			CloudTracer.getCurrentCloudTracer().traceNewLogEntry(restLogEntry);
+			if (restLogEntry != null && getCurrent().isEnabled()) {
+				AsyncTraceSink.getDefault().offer(restLogEntry);
+			}
 		}
 	}
 
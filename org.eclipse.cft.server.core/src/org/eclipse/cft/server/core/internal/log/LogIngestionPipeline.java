@@ -0,0 +1,495 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.core.internal.log;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.cft.server.core.internal.CloudFoundryPlugin;
+
+/**
+ * Decouples receiving streamed application logs from writing them, for
+ * example to a console.
+ * <p/>
+ * Logs received through {@link #onMessage(CloudLog)} or
+ * {@link #onRecord(LogRecord)} are copied into a bounded ring buffer of
+ * reusable {@link LogRecord}, without ever blocking the thread that receives
+ * them from the log stream. Buffered records and batches are reused, so that
+ * once the buffer has been filled, receiving and delivering logs no longer
+ * allocates memory per log. The buffer is drained on a shared pool of daemon
+ * threads, and logs are passed on to the {@link LogBatchListener} in batches:
+ * the first log in an empty buffer is held back for a short delay so that logs
+ * received shortly after are delivered with it, and a batch is delivered right
+ * away once enough logs are buffered. A listener can therefore write each
+ * batch with a single write.
+ * <p/>
+ * If logs are received faster than the listener handles them, the buffer
+ * fills up and logs are discarded according to the {@link OverloadPolicy}.
+ * The number of discarded logs is passed on with the next batch, so that the
+ * listener can indicate the gap.
+ * <p/>
+ * Completion and errors of the log stream are passed on to the listener after
+ * the logs that were buffered before them. Logs received afterwards are
+ * ignored.
+ * <p/>
+ * Counters for received, dropped and rendered (delivered) logs are kept for
+ * the lifetime of the pipeline.
+ */
+public class LogIngestionPipeline implements CFApplicationLogRecordListener {
+
+	/**
+	 * Receives batches of logs from a pipeline. Batches of a pipeline are
+	 * delivered one at a time, in the order in which the logs were received.
+	 * Completion or an error of the log stream is delivered once, after the
+	 * last batch.
+	 */
+	public interface LogBatchListener {
+
+		/**
+		 * 
+		 * @param records non-empty batch of logs. The records are reused for
+		 * the next batch, so they are only valid during the call.
+		 * @param dropped number of logs discarded since the previous batch
+		 */
+		void onBatch(List<LogRecord> records, long dropped);
+
+		void onComplete();
+
+		void onError(Throwable exception);
+	}
+
+	/**
+	 * What to do with logs that are received while the buffer is full, or
+	 * close to full.
+	 */
+	public enum OverloadPolicy {
+		/**
+		 * Discard logs received while the buffer is full.
+		 */
+		DROP_NEWEST,
+
+		/**
+		 * Discard the oldest buffered logs to make room for new ones, so that
+		 * the most recent logs are always shown.
+		 */
+		DROP_OLDEST,
+
+		/**
+		 * Once the buffer is three quarters full, only keep one out of every
+		 * {@link LogIngestionPipeline#SAMPLE_RATE_PREFERENCE} logs, and discard
+		 * new logs if it is full.
+		 */
+		SAMPLE
+	}
+
+	public static final String BUFFER_SIZE_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".log.buffer"; //$NON-NLS-1$
+
+	public static final String BATCH_SIZE_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".log.batch.size"; //$NON-NLS-1$
+
+	/**
+	 * Time in milliseconds logs may be held back to batch them.
+	 */
+	public static final String BATCH_DELAY_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".log.batch.delay"; //$NON-NLS-1$
+
+	/**
+	 * Name of the {@link OverloadPolicy}.
+	 */
+	public static final String OVERLOAD_POLICY_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".log.overload.policy"; //$NON-NLS-1$
+
+	public static final String SAMPLE_RATE_PREFERENCE = CloudFoundryPlugin.PLUGIN_ID + ".log.overload.sample"; //$NON-NLS-1$
+
+	public static final int DEFAULT_BUFFER_SIZE = 10000;
+
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	public static final long DEFAULT_BATCH_DELAY = 50;
+
+	/**
+	 * Payload buffers that grew larger than this for an unusually long log are
+	 * not kept for reuse.
+	 */
+	private static final int MAX_RETAINED_PAYLOAD = 64 * 1024;
+
+	public static final OverloadPolicy DEFAULT_OVERLOAD_POLICY = OverloadPolicy.DROP_OLDEST;
+
+	public static final int DEFAULT_SAMPLE_RATE = 10;
+
+	private static ScheduledExecutorService executor;
+
+	private final LogBatchListener listener;
+
+	/**
+	 * Records are created when a slot is first used, and reused afterwards
+	 */
+	private final LogRecord[] buffer;
+
+	/**
+	 * Records of the batch being delivered. Only one batch is delivered at a
+	 * time.
+	 */
+	private final LogRecord[] batch;
+
+	private final int batchSize;
+
+	private final long batchDelay;
+
+	private final OverloadPolicy policy;
+
+	private final int sampleRate;
+
+	private int head;
+
+	private int count;
+
+	private long sampleCount;
+
+	private long droppedSinceLastBatch;
+
+	private long received;
+
+	private long dropped;
+
+	private long rendered;
+
+	private boolean scheduled;
+
+	/**
+	 * True while a drain delivers batches. Cancelling a scheduled drain to
+	 * run it right away also succeeds once the drain has started, so a
+	 * second drain may start while the first one is still running.
+	 */
+	private boolean draining;
+
+	private boolean closed;
+
+	/**
+	 * Set once the log stream completed or failed
+	 */
+	private boolean ended;
+
+	/**
+	 * Error of the log stream, or null if it completed normally
+	 */
+	private Throwable endError;
+
+	private boolean endDelivered;
+
+	private ScheduledFuture<?> pendingFlush;
+
+	private final Runnable drain = new Runnable() {
+		public void run() {
+			drain();
+		}
+	};
+
+	/**
+	 * 
+	 * @param listener receiving batches of logs
+	 * @param bufferSize maximum number of buffered logs
+	 * @param batchSize maximum number of logs in a batch
+	 * @param batchDelay time in milliseconds logs may be held back
+	 * @param policy
+	 * @param sampleRate
+	 */
+	public LogIngestionPipeline(LogBatchListener listener, int bufferSize, int batchSize, long batchDelay,
+			OverloadPolicy policy, int sampleRate) {
+		this.listener = listener;
+		this.buffer = new LogRecord[Math.max(1, bufferSize)];
+		this.batchSize = Math.max(1, batchSize);
+		this.batch = new LogRecord[Math.min(this.batchSize, this.buffer.length)];
+		this.batchDelay = Math.max(0, batchDelay);
+		this.policy = policy != null ? policy : DEFAULT_OVERLOAD_POLICY;
+		this.sampleRate = Math.max(1, sampleRate);
+	}
+
+	public static LogIngestionPipeline fromPreferences(LogBatchListener listener) {
+		int bufferSize = DEFAULT_BUFFER_SIZE;
+		int batchSize = DEFAULT_BATCH_SIZE;
+		long batchDelay = DEFAULT_BATCH_DELAY;
+		OverloadPolicy policy = DEFAULT_OVERLOAD_POLICY;
+		int sampleRate = DEFAULT_SAMPLE_RATE;
+		CloudFoundryPlugin plugin = CloudFoundryPlugin.getDefault();
+		if (plugin != null) {
+			bufferSize = plugin.getPreferences().getInt(BUFFER_SIZE_PREFERENCE, DEFAULT_BUFFER_SIZE);
+			batchSize = plugin.getPreferences().getInt(BATCH_SIZE_PREFERENCE, DEFAULT_BATCH_SIZE);
+			batchDelay = plugin.getPreferences().getLong(BATCH_DELAY_PREFERENCE, DEFAULT_BATCH_DELAY);
+			sampleRate = plugin.getPreferences().getInt(SAMPLE_RATE_PREFERENCE, DEFAULT_SAMPLE_RATE);
+			String policyName = plugin.getPreferences().get(OVERLOAD_POLICY_PREFERENCE, null);
+			if (policyName != null) {
+				try {
+					policy = OverloadPolicy.valueOf(policyName);
+				}
+				catch (IllegalArgumentException e) {
+					CloudFoundryPlugin.logError("Unknown log overload policy: " + policyName, e); //$NON-NLS-1$
+				}
+			}
+		}
+		return new LogIngestionPipeline(listener, bufferSize, batchSize, batchDelay, policy, sampleRate);
+	}
+
+	private static synchronized ScheduledExecutorService getExecutor() {
+		if (executor == null) {
+			ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(4, new ThreadFactory() {
+
+				private final AtomicInteger threadCount = new AtomicInteger();
+
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable,
+							"Cloud Foundry Application Logs - " + threadCount.incrementAndGet()); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			pool.setKeepAliveTime(30, TimeUnit.SECONDS);
+			pool.allowCoreThreadTimeOut(true);
+			pool.setRemoveOnCancelPolicy(true);
+			executor = pool;
+		}
+		return executor;
+	}
+
+	public void onMessage(CloudLog log) {
+		if (log == null) {
+			return;
+		}
+		synchronized (this) {
+			LogRecord slot = nextSlot();
+			if (slot != null) {
+				slot.set(log);
+				scheduleDrain();
+			}
+		}
+	}
+
+	public void onRecord(LogRecord record) {
+		if (record == null) {
+			return;
+		}
+		synchronized (this) {
+			LogRecord slot = nextSlot();
+			if (slot != null) {
+				slot.copyFrom(record);
+				scheduleDrain();
+			}
+		}
+	}
+
+	/**
+	 * Counts a received log and applies the overload policy to it.
+	 * @return buffer slot to copy the log into, or null if the log is
+	 * discarded
+	 */
+	private LogRecord nextSlot() {
+		if (closed || ended) {
+			return null;
+		}
+		received++;
+		if (!accept()) {
+			dropped++;
+			droppedSinceLastBatch++;
+			return null;
+		}
+		int index = (head + count) % buffer.length;
+		if (buffer[index] == null) {
+			buffer[index] = new LogRecord();
+		}
+		count++;
+		return buffer[index];
+	}
+
+	private void scheduleDrain() {
+		if (!scheduled) {
+			scheduled = true;
+			pendingFlush = getExecutor().schedule(drain, batchDelay, TimeUnit.MILLISECONDS);
+		}
+		else if (count >= batchSize && pendingFlush != null && pendingFlush.cancel(false)) {
+			// Enough logs for a full batch. No need to wait any longer.
+			pendingFlush = getExecutor().schedule(drain, 0, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Applies the overload policy to a log that is about to be buffered.
+	 * @return true if the log should be buffered, false if it should be
+	 * discarded
+	 */
+	private boolean accept() {
+		switch (policy) {
+		case DROP_OLDEST:
+			if (count == buffer.length) {
+				head = (head + 1) % buffer.length;
+				count--;
+				dropped++;
+				droppedSinceLastBatch++;
+			}
+			return true;
+		case SAMPLE:
+			if (count >= buffer.length - buffer.length / 4) {
+				return count < buffer.length && (sampleCount++ % sampleRate) == 0;
+			}
+			sampleCount = 0;
+			return true;
+		default:
+			return count < buffer.length;
+		}
+	}
+
+	private void drain() {
+		synchronized (this) {
+			pendingFlush = null;
+			if (draining) {
+				// The running drain delivers the buffered logs
+				return;
+			}
+			draining = true;
+		}
+		while (true) {
+			int size;
+			long batchDropped;
+			Throwable error = null;
+			synchronized (this) {
+				if (closed) {
+					scheduled = false;
+					draining = false;
+					return;
+				}
+				if (count == 0) {
+					scheduled = false;
+					draining = false;
+					if (!ended || endDelivered) {
+						return;
+					}
+					endDelivered = true;
+					error = endError;
+				}
+				size = Math.min(count, batch.length);
+				for (int i = 0; i < size; i++) {
+					if (batch[i] == null) {
+						batch[i] = new LogRecord();
+					}
+					batch[i].copyFrom(buffer[head]);
+					buffer[head].clear(MAX_RETAINED_PAYLOAD);
+					head = (head + 1) % buffer.length;
+				}
+				count -= size;
+				batchDropped = droppedSinceLastBatch;
+				droppedSinceLastBatch = 0;
+			}
+
+			if (size == 0) {
+				// Stream ended, and all buffered logs have been delivered
+				deliverEnd(error);
+				return;
+			}
+
+			try {
+				listener.onBatch(Arrays.asList(batch).subList(0, size), batchDropped);
+			}
+			catch (Throwable t) {
+				CloudFoundryPlugin.logError(t);
+			}
+			synchronized (this) {
+				rendered += size;
+			}
+		}
+	}
+
+	private void deliverEnd(Throwable error) {
+		try {
+			if (error != null) {
+				listener.onError(error);
+			}
+			else {
+				listener.onComplete();
+			}
+		}
+		catch (Throwable t) {
+			CloudFoundryPlugin.logError(t);
+		}
+	}
+
+	public void onComplete() {
+		end(null);
+	}
+
+	public void onError(Throwable exception) {
+		end(exception);
+	}
+
+	/**
+	 * Queues completion or an error of the log stream behind the buffered
+	 * logs, and flushes them without waiting for the batch delay.
+	 */
+	private synchronized void end(Throwable error) {
+		if (closed || ended) {
+			return;
+		}
+		ended = true;
+		endError = error;
+		if (!scheduled) {
+			scheduled = true;
+			pendingFlush = getExecutor().schedule(drain, 0, TimeUnit.MILLISECONDS);
+		}
+		else if (pendingFlush != null && pendingFlush.cancel(false)) {
+			pendingFlush = getExecutor().schedule(drain, 0, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Discards buffered logs. Logs received afterwards are ignored.
+	 */
+	public synchronized void close() {
+		closed = true;
+		// Release the record buffers, as the pipeline cannot be reused
+		Arrays.fill(buffer, null);
+		count = 0;
+		if (pendingFlush != null) {
+			pendingFlush.cancel(false);
+			pendingFlush = null;
+		}
+	}
+
+	public synchronized long getReceived() {
+		return received;
+	}
+
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	public synchronized long getRendered() {
+		return rendered;
+	}
+
+	/**
+	 * 
+	 * @return number of logs currently buffered
+	 */
+	public synchronized int getBuffered() {
+		return count;
+	}
+}
@@ -0,0 +1,306 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.core.internal.log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact, mutable representation of a streamed application log, meant to be
+ * reused for many logs, so that high-volume log streams do not allocate a
+ * {@link CloudLog} and its {@link Date} and message strings for every line.
+ * <p/>
+ * The timestamp is kept as epoch nanoseconds, as received from loggregator,
+ * and the message as UTF-8 bytes in a buffer that is reused and only grows
+ * when a longer message is set. Messages always end with a line break, which
+ * is added when the message is set if it contains none, so the payload can be
+ * written as is. App IDs, source names and source IDs take few distinct values
+ * and are interned, so that the same instances are shared by all records.
+ * <p/>
+ * Records passed to {@link CFApplicationLogRecordListener#onRecord(LogRecord)}
+ * or in a batch of a {@link LogIngestionPipeline} are only valid during the
+ * call, as the caller reuses them afterwards. Use {@link #copyFrom(LogRecord)}
+ * or {@link #toCloudLog()} to keep a log.
+ */
+public class LogRecord {
+
+	/**
+	 * Beyond this number of interned values, values are no longer interned, so
+	 * that unexpected sources cannot grow the pool without bounds.
+	 */
+	private static final int MAX_INTERNED = 4096;
+
+	private static final ConcurrentHashMap<String, String> INTERNED = new ConcurrentHashMap<String, String>();
+
+	private static final int INITIAL_CAPACITY = 128;
+
+	private String appId;
+
+	private long timestampNanos;
+
+	private LogContentType logType = LogContentType.APPLICATION_LOG_UNKNOWN;
+
+	private String sourceName;
+
+	private String sourceId;
+
+	private byte[] payload = new byte[INITIAL_CAPACITY];
+
+	private int length;
+
+	/**
+	 * Sets all fields except the message.
+	 * @param appId
+	 * @param timestampNanos epoch nanoseconds, or 0 if unknown
+	 * @param logType
+	 * @param sourceName
+	 * @param sourceId
+	 * @return this record
+	 */
+	public LogRecord set(String appId, long timestampNanos, LogContentType logType, String sourceName,
+			String sourceId) {
+		this.appId = intern(appId);
+		this.timestampNanos = timestampNanos;
+		this.logType = logType != null ? logType : LogContentType.APPLICATION_LOG_UNKNOWN;
+		this.sourceName = intern(sourceName);
+		this.sourceId = intern(sourceId);
+		return this;
+	}
+
+	/**
+	 * Sets this record to the content of the given log.
+	 * @param log
+	 * @return this record
+	 */
+	public LogRecord set(CloudLog log) {
+		set(log.getAppId(), toNanos(log.getTimestamp()), log.getLogType(), log.getSourceName(), log.getSourceId());
+		return setMessage(log.getMessage());
+	}
+
+	/**
+	 * Encodes the message as UTF-8 into the payload buffer, without creating
+	 * intermediate strings or byte arrays. A line break is appended if the
+	 * message has none.
+	 * @param message
+	 * @return this record
+	 */
+	public LogRecord setMessage(CharSequence message) {
+		length = 0;
+		if (message == null) {
+			return this;
+		}
+		int charCount = message.length();
+		// At most 3 bytes per char, as supplementary characters take 4 bytes
+		// for 2 chars, plus the line break
+		ensureCapacity(charCount * 3 + 1);
+		boolean hasLineBreak = false;
+		for (int i = 0; i < charCount; i++) {
+			char c = message.charAt(i);
+			if (c < 0x80) {
+				payload[length++] = (byte) c;
+				hasLineBreak |= c == '\n' || c == '\r';
+			}
+			else if (c < 0x800) {
+				payload[length++] = (byte) (0xC0 | (c >> 6));
+				payload[length++] = (byte) (0x80 | (c & 0x3F));
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < charCount
+					&& Character.isLowSurrogate(message.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, message.charAt(++i));
+				payload[length++] = (byte) (0xF0 | (codePoint >> 18));
+				payload[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				payload[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				payload[length++] = (byte) (0x80 | (codePoint & 0x3F));
+			}
+			else if (Character.isSurrogate(c)) {
+				// Unpaired surrogate
+				payload[length++] = '?';
+			}
+			else {
+				payload[length++] = (byte) (0xE0 | (c >> 12));
+				payload[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				payload[length++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		if (!hasLineBreak) {
+			payload[length++] = '\n';
+		}
+		return this;
+	}
+
+	/**
+	 * Copies the given UTF-8 encoded message into the payload buffer. A line
+	 * break is appended if the message has none.
+	 * @param bytes
+	 * @param offset
+	 * @param count
+	 * @return this record
+	 */
+	public LogRecord setMessage(byte[] bytes, int offset, int count) {
+		ensureCapacity(count + 1);
+		System.arraycopy(bytes, offset, payload, 0, count);
+		length = count;
+		boolean hasLineBreak = false;
+		for (int i = 0; i < count && !hasLineBreak; i++) {
+			hasLineBreak = payload[i] == '\n' || payload[i] == '\r';
+		}
+		if (!hasLineBreak) {
+			payload[length++] = '\n';
+		}
+		return this;
+	}
+
+	/**
+	 * Copies the content of the given record into this record, reusing this
+	 * record's payload buffer.
+	 * @param record
+	 * @return this record
+	 */
+	public LogRecord copyFrom(LogRecord record) {
+		appId = record.appId;
+		timestampNanos = record.timestampNanos;
+		logType = record.logType;
+		sourceName = record.sourceName;
+		sourceId = record.sourceId;
+		ensureCapacity(record.length);
+		System.arraycopy(record.payload, 0, payload, 0, record.length);
+		length = record.length;
+		return this;
+	}
+
+	/**
+	 * Clears the record. The payload buffer is kept for reuse, unless it grew
+	 * beyond the given capacity for an unusually long message.
+	 * @param maxRetainedCapacity
+	 */
+	public void clear(int maxRetainedCapacity) {
+		appId = null;
+		sourceName = null;
+		sourceId = null;
+		timestampNanos = 0;
+		length = 0;
+		if (payload.length > maxRetainedCapacity) {
+			payload = new byte[INITIAL_CAPACITY];
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (payload.length < capacity) {
+			payload = new byte[Math.max(capacity, payload.length * 2)];
+		}
+	}
+
+	/**
+	 * Writes the UTF-8 encoded message, including its line break.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(payload, 0, length);
+	}
+
+	public String getAppId() {
+		return appId;
+	}
+
+	/**
+	 * 
+	 * @return epoch nanoseconds, or 0 if unknown
+	 */
+	public long getTimestampNanos() {
+		return timestampNanos;
+	}
+
+	public LogContentType getLogType() {
+		return logType;
+	}
+
+	public String getSourceName() {
+		return sourceName;
+	}
+
+	public String getSourceId() {
+		return sourceId;
+	}
+
+	/**
+	 * 
+	 * @return buffer holding the UTF-8 encoded message in its first
+	 * {@link #getLength()} bytes. Only valid until the record is changed.
+	 */
+	public byte[] getPayload() {
+		return payload;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Decodes the message. Prefer {@link #writeTo(OutputStream)} where
+	 * possible, as this creates a new string.
+	 * @return message, including its line break
+	 */
+	public String getMessage() {
+		return new String(payload, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * 
+	 * @return new log with the content of this record, which remains valid
+	 * once the record is reused
+	 */
+	public CloudLog toCloudLog() {
+		return new CloudLog(appId, getMessage(), timestampNanos != 0 ? new Date(timestampNanos / 1000000) : null,
+				logType, sourceName, sourceId);
+	}
+
+	public static long toNanos(Date date) {
+		return date != null ? date.getTime() * 1000000 : 0;
+	}
+
+	/**
+	 * 
+	 * @param value
+	 * @return shared instance equal to the given value
+	 */
+	public static String intern(String value) {
+		if (value == null) {
+			return null;
+		}
+		String interned = INTERNED.get(value);
+		if (interned != null) {
+			return interned;
+		}
+		if (INTERNED.size() >= MAX_INTERNED) {
+			return value;
+		}
+		interned = INTERNED.putIfAbsent(value, value);
+		return interned != null ? interned : value;
+	}
+
+	public String toString() {
+		return logType + " - " + getMessage(); //$NON-NLS-1$
+	}
+}
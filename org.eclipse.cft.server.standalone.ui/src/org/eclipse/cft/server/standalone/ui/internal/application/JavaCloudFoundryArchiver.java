@@ -27,15 +27,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
-import java.util.zip.ZipFile;
 
 import org.eclipse.cft.server.core.CFApplicationArchive;
 import org.eclipse.cft.server.core.internal.CFConsoleHandler;
 import org.eclipse.cft.server.core.internal.CloudFoundryProjectUtil;
 import org.eclipse.cft.server.core.internal.CloudFoundryServer;
 import org.eclipse.cft.server.core.internal.CloudServerUtil;
+import org.eclipse.cft.server.core.internal.application.ChannelZipArchive;
 import org.eclipse.cft.server.core.internal.application.ICloudFoundryArchiver;
-import org.eclipse.cft.server.core.internal.application.ZipArchive;
 import org.eclipse.cft.server.core.internal.client.CloudFoundryApplicationModule;
 import org.eclipse.cft.server.standalone.core.internal.application.DeploymentErrorHandler;
 import org.eclipse.cft.server.standalone.core.internal.application.StandaloneConsole;
@@ -246,7 +245,7 @@ public class JavaCloudFoundryArchiver implements ICloudFoundryArchiver {
 
 		// At this stage a packaged file should have been created or found
 		try {
-			archive = new ZipArchive(new ZipFile(packagedFile));
+			archive = ChannelZipArchive.open(packagedFile);
 		} catch (IOException ioe) {
 			errorHandler.handleApplicationDeploymentFailure(
 					NLS.bind(Messages.JavaCloudFoundryArchiver_ERROR_CREATE_CF_ARCHIVE, ioe.getMessage()));
@@ -20,16 +20,39 @@
  ********************************************************************************/
 package org.eclipse.cft.server.tests;
 
+import org.eclipse.cft.server.tests.core.ApplicationInstanceRunningTrackerTest;
+import org.eclipse.cft.server.tests.core.ApplicationLogArchiveTest;
+import org.eclipse.cft.server.tests.core.ApplicationLogMultiplexerTest;
+import org.eclipse.cft.server.tests.core.ArchiveEntryDigesterTest;
+import org.eclipse.cft.server.tests.core.ArchiveEntryPrefetcherTest;
+import org.eclipse.cft.server.tests.core.ArchiveUploadProgressTest;
+import org.eclipse.cft.server.tests.core.AsyncTraceSinkTest;
+import org.eclipse.cft.server.tests.core.BatchApplicationOperationTest;
 import org.eclipse.cft.server.tests.core.BehaviourOperationsTest;
+import org.eclipse.cft.server.tests.core.CachingApplicationArchiveTest;
+import org.eclipse.cft.server.tests.core.CancellableRequestExecutorTest;
+import org.eclipse.cft.server.tests.core.ChannelZipArchiveTest;
 import org.eclipse.cft.server.tests.core.CloudFoundryClientConnectionTest;
 import org.eclipse.cft.server.tests.core.CloudFoundryProxyTest;
 import org.eclipse.cft.server.tests.core.CloudFoundryServerBehaviourTest;
 import org.eclipse.cft.server.tests.core.CloudFoundryServerTest;
 import org.eclipse.cft.server.tests.core.CloudFoundryServicesTest;
+import org.eclipse.cft.server.tests.core.CloudRequestExecutorTest;
 import org.eclipse.cft.server.tests.core.CloudUtilTest;
+import org.eclipse.cft.server.tests.core.DeployedResourceStoreTest;
 import org.eclipse.cft.server.tests.core.DeploymentURLTest;
+import org.eclipse.cft.server.tests.core.FileFingerprintCacheTest;
+import org.eclipse.cft.server.tests.core.LogIngestionPipelineTest;
+import org.eclipse.cft.server.tests.core.LogRecordTest;
+import org.eclipse.cft.server.tests.core.ModuleCacheTest;
 import org.eclipse.cft.server.tests.core.ModuleRefreshTest;
+import org.eclipse.cft.server.tests.core.RemoteResourceCacheTest;
+import org.eclipse.cft.server.tests.core.RequestRetryPolicyTest;
 import org.eclipse.cft.server.tests.core.ServerCredentialsStoreTest;
+import org.eclipse.cft.server.tests.core.ServerEventHandlerTest;
+import org.eclipse.cft.server.tests.core.SpaceSnapshotTest;
+import org.eclipse.cft.server.tests.core.UpdateRequestQueueTest;
+import org.eclipse.cft.server.tests.core.ZipCompressionPolicyTest;
 import org.eclipse.cft.server.tests.sts.util.ManagedTestSuite;
 
 import junit.framework.Test;
@@ -57,6 +80,29 @@ public class AllCloudFoundryTests {
 		suite.addTestSuite(ServerCredentialsStoreTest.class);
 		suite.addTestSuite(CloudFoundryServerTest.class);
 		suite.addTestSuite(CloudUtilTest.class);
+		suite.addTestSuite(DeployedResourceStoreTest.class);
+		suite.addTestSuite(FileFingerprintCacheTest.class);
+		suite.addTestSuite(CachingApplicationArchiveTest.class);
+		suite.addTestSuite(ZipCompressionPolicyTest.class);
+		suite.addTestSuite(ArchiveEntryPrefetcherTest.class);
+		suite.addTestSuite(ArchiveUploadProgressTest.class);
+		suite.addTestSuite(ArchiveEntryDigesterTest.class);
+		suite.addTestSuite(ChannelZipArchiveTest.class);
+		suite.addTestSuite(RemoteResourceCacheTest.class);
+		suite.addTestSuite(SpaceSnapshotTest.class);
+		suite.addTestSuite(CloudRequestExecutorTest.class);
+		suite.addTestSuite(UpdateRequestQueueTest.class);
+		suite.addTestSuite(ApplicationInstanceRunningTrackerTest.class);
+		suite.addTestSuite(BatchApplicationOperationTest.class);
+		suite.addTestSuite(CancellableRequestExecutorTest.class);
+		suite.addTestSuite(RequestRetryPolicyTest.class);
+		suite.addTestSuite(LogIngestionPipelineTest.class);
+		suite.addTestSuite(ApplicationLogMultiplexerTest.class);
+		suite.addTestSuite(ApplicationLogArchiveTest.class);
+		suite.addTestSuite(LogRecordTest.class);
+		suite.addTestSuite(ModuleCacheTest.class);
+		suite.addTestSuite(ServerEventHandlerTest.class);
+		suite.addTestSuite(AsyncTraceSinkTest.class);
 
 		suite.addTestSuite(DeploymentURLTest.class);
 		suite.addTestSuite(CloudFoundryServicesTest.class);
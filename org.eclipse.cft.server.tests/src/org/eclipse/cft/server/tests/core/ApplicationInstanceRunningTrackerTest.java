@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.util.Date;
+
+import org.eclipse.cft.server.core.internal.ApplicationInstanceRunningTracker;
+import org.eclipse.cft.server.core.internal.client.CloudFoundryApplicationModule;
+import org.eclipse.cft.server.core.internal.log.CloudLog;
+import org.eclipse.cft.server.core.internal.log.LogContentType;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+import junit.framework.TestCase;
+
+public class ApplicationInstanceRunningTrackerTest extends TestCase {
+
+	private static final long MAX_WAIT = 10000;
+
+	private TestTracker tracker;
+
+	@Override
+	protected void setUp() throws Exception {
+		tracker = new TestTracker();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		// Do not leak the interrupt flag into other tests
+		Thread.interrupted();
+	}
+
+	public void testStateChangeSources() throws Exception {
+		assertTrue(tracker.isStateChange(createLog("CELL", "0")));
+		assertTrue(tracker.isStateChange(createLog("cell", null)));
+		assertTrue(tracker.isStateChange(createLog(null, "DEA/1")));
+		assertTrue(tracker.isStateChange(createLog("API", null)));
+		assertTrue(tracker.isStateChange(createLog("HEALTH", null)));
+
+		assertFalse(tracker.isStateChange(createLog("APP/PROC/WEB", "0")));
+		assertFalse(tracker.isStateChange(createLog("RTR", "1")));
+		assertFalse(tracker.isStateChange(createLog(null, null)));
+		assertFalse(tracker.isStateChange(null));
+	}
+
+	public void testWaitEndsEarlyOnSignal() throws Exception {
+		Thread signaller = new Thread(() -> {
+			try {
+				Thread.sleep(100);
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+			tracker.signalStateChange();
+		});
+		signaller.start();
+
+		long start = System.currentTimeMillis();
+		tracker.waitForStateChange(MAX_WAIT, new NullProgressMonitor(), "app");
+		long elapsed = System.currentTimeMillis() - start;
+		signaller.join();
+
+		// Events in a burst are not checked more often than the wait time
+		assertTrue(elapsed >= ApplicationInstanceRunningTracker.WAIT_TIME - 50);
+		assertTrue(elapsed < MAX_WAIT / 2);
+	}
+
+	public void testWaitWithoutSignal() throws Exception {
+		long start = System.currentTimeMillis();
+		tracker.waitForStateChange(300, new NullProgressMonitor(), "app");
+		long elapsed = System.currentTimeMillis() - start;
+
+		assertTrue(elapsed >= 250);
+		assertTrue(elapsed < MAX_WAIT / 2);
+	}
+
+	public void testWaitCancelled() throws Exception {
+		final IProgressMonitor monitor = new NullProgressMonitor();
+		Thread canceller = new Thread(() -> {
+			try {
+				Thread.sleep(100);
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+			monitor.setCanceled(true);
+		});
+		canceller.start();
+
+		long start = System.currentTimeMillis();
+		try {
+			tracker.waitForStateChange(MAX_WAIT, monitor, "app");
+			fail("Expected wait to be cancelled");
+		}
+		catch (OperationCanceledException e) {
+			// Expected
+		}
+		canceller.join();
+		assertTrue(System.currentTimeMillis() - start < MAX_WAIT / 2);
+	}
+
+	public void testInterruptCancelsWait() throws Exception {
+		Thread.currentThread().interrupt();
+		long start = System.currentTimeMillis();
+		try {
+			tracker.waitForStateChange(MAX_WAIT, new NullProgressMonitor(), "app");
+			fail("Expected wait to be cancelled");
+		}
+		catch (OperationCanceledException e) {
+			// Expected
+		}
+		assertTrue(System.currentTimeMillis() - start < MAX_WAIT / 2);
+		// Interrupt is preserved for the caller
+		assertTrue(Thread.interrupted());
+	}
+
+	private static CloudLog createLog(String sourceName, String sourceId) {
+		return new CloudLog("app", "message", new Date(), LogContentType.APPLICATION_LOG_STD_OUT, sourceName,
+				sourceId);
+	}
+
+	private static class TestTracker extends ApplicationInstanceRunningTracker {
+
+		TestTracker() {
+			super(null, null);
+		}
+
+		@Override
+		public boolean isStateChange(CloudLog log) {
+			return super.isStateChange(log);
+		}
+
+		@Override
+		public void signalStateChange() {
+			super.signalStateChange();
+		}
+
+		@Override
+		public void waitForStateChange(long maxWait, IProgressMonitor monitor, String appName) {
+			super.waitForStateChange(maxWait, monitor, appName);
+		}
+
+		@Override
+		protected void printlnToConsole(String message, CloudFoundryApplicationModule appModule) {
+			// No console in tests
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+import org.eclipse.cft.server.core.internal.log.ApplicationLogArchive;
+import org.eclipse.cft.server.core.internal.log.CloudLog;
+import org.eclipse.cft.server.core.internal.log.LogContentType;
+import org.eclipse.cft.server.core.internal.log.LogRecord;
+
+import junit.framework.TestCase;
+
+public class ApplicationLogArchiveTest extends TestCase {
+
+	private File archiveFolder;
+
+	@Override
+	protected void setUp() throws Exception {
+		archiveFolder = File.createTempFile("applicationLogArchive", null);
+		archiveFolder.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		File[] files = archiveFolder.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		archiveFolder.delete();
+	}
+
+	private static LogRecord log(long time, String instance, String message) {
+		return new LogRecord().set("guid", time * 1000000, LogContentType.APPLICATION_LOG_STD_OUT, "APP", instance)
+				.setMessage(message);
+	}
+
+	public void testAppendAndTail() throws Exception {
+		ApplicationLogArchive archive = new ApplicationLogArchive(archiveFolder, 1024 * 1024, 10 * 1024 * 1024);
+		archive.append(Arrays.asList(log(1000, "0", "first\n"), log(2000, "1", "tab\there\\\n")));
+		archive.append(Arrays.asList(new LogRecord().set(new CloudLog("guid", "error\u00e9\n", new Date(3000),
+				LogContentType.APPLICATION_LOG_STS_ERROR, "APP", null))));
+
+		// Reopen, as after a restart
+		List<CloudLog> logs = new ApplicationLogArchive(archiveFolder, 1024 * 1024, 10 * 1024 * 1024).tail(10);
+		assertEquals(3, logs.size());
+		assertEquals("first\n", logs.get(0).getMessage());
+		assertEquals("tab\there\\\n", logs.get(1).getMessage());
+		assertEquals("1", logs.get(1).getSourceId());
+		assertEquals(2000, logs.get(1).getTimestamp().getTime());
+		assertSame(LogContentType.APPLICATION_LOG_STS_ERROR, logs.get(2).getLogType());
+		assertNull(logs.get(2).getSourceId());
+
+		logs = archive.tail(2);
+		assertEquals(2, logs.size());
+		assertEquals("tab\there\\\n", logs.get(0).getMessage());
+		assertEquals("error\u00e9\n", logs.get(1).getMessage());
+	}
+
+	public void testSearch() throws Exception {
+		ApplicationLogArchive archive = new ApplicationLogArchive(archiveFolder, 1024 * 1024, 10 * 1024 * 1024);
+		for (int batch = 0; batch < 10; batch++) {
+			List<LogRecord> logs = new ArrayList<LogRecord>();
+			for (int i = 0; i < 10; i++) {
+				logs.add(log(batch * 1000 + i, String.valueOf(i % 2), "batch " + batch + " log " + i));
+			}
+			archive.append(logs);
+		}
+
+		List<CloudLog> found = archive.search(3000, 4999, null, null, 100);
+		assertEquals(20, found.size());
+		assertEquals("batch 3 log 0\n", found.get(0).getMessage());
+
+		found = archive.search(0, Long.MAX_VALUE, "1", Pattern.compile("log 3$"), 100);
+		assertEquals(10, found.size());
+		for (CloudLog log : found) {
+			assertEquals("1", log.getSourceId());
+		}
+
+		assertEquals(5, archive.search(0, Long.MAX_VALUE, null, null, 5).size());
+		assertTrue(archive.search(0, Long.MAX_VALUE, "2", null, 100).isEmpty());
+	}
+
+	public void testSegmentsRollAndAreTrimmed() throws Exception {
+		ApplicationLogArchive archive = new ApplicationLogArchive(archiveFolder, 512, 4096);
+		StringBuilder message = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			message.append(Integer.toHexString(i * 7919));
+		}
+		for (int i = 0; i < 100; i++) {
+			archive.append(Arrays.asList(log(i, "0", i + " " + message)));
+		}
+
+		assertTrue(archive.getSize() <= 4096 + 1024);
+		List<CloudLog> logs = archive.tail(1000);
+		assertFalse(logs.isEmpty());
+		assertTrue(logs.size() < 100);
+		assertTrue(logs.get(logs.size() - 1).getMessage().startsWith("99 "));
+
+		archive.clear();
+		assertTrue(archive.tail(10).isEmpty());
+	}
+
+	public void testReadWhileSegmentsAreTrimmed() throws Exception {
+		final ApplicationLogArchive archive = new ApplicationLogArchive(archiveFolder, 256, 1024);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		final AtomicBoolean done = new AtomicBoolean();
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while (!done.get()) {
+						archive.tail(100);
+						archive.search(0, Long.MAX_VALUE, null, Pattern.compile("log"), 100);
+					}
+				}
+				catch (Throwable t) {
+					error.set(t);
+				}
+			}
+		};
+		reader.start();
+		try {
+			for (int i = 0; i < 500; i++) {
+				archive.append(Arrays.asList(log(i, "0", "log " + i + " " + Integer.toHexString(i * 7919))));
+			}
+		}
+		finally {
+			done.set(true);
+			reader.join(10000);
+		}
+
+		assertNull(error.get());
+		assertTrue(archive.tail(1).get(0).getMessage().startsWith("log 499 "));
+	}
+
+	public void testArchiveFolder() throws Exception {
+		File folder = ApplicationLogArchive.getArchiveFolder(archiveFolder, "server", "app/with:chars");
+		assertEquals(archiveFolder, folder.getParentFile());
+		assertEquals(folder, ApplicationLogArchive.getArchiveFolder(archiveFolder, "server", "app/with:chars"));
+		assertFalse(folder.equals(ApplicationLogArchive.getArchiveFolder(archiveFolder, "other", "app/with:chars")));
+	}
+}
@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.cft.server.core.internal.log.ApplicationLogMultiplexer;
+import org.eclipse.cft.server.core.internal.log.ApplicationLogMultiplexer.LogStreamFactory;
+import org.eclipse.cft.server.core.internal.log.CFApplicationLogListener;
+import org.eclipse.cft.server.core.internal.log.CFStreamingLogToken;
+import org.eclipse.cft.server.core.internal.log.CloudLog;
+import org.eclipse.cft.server.core.internal.log.LogContentType;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.Status;
+
+import junit.framework.TestCase;
+
+public class ApplicationLogMultiplexerTest extends TestCase {
+
+	/**
+	 * Keeps track of opened streams, keyed by app GUID (null for the shared
+	 * stream).
+	 */
+	private static class TestFactory implements LogStreamFactory {
+
+		final boolean shared;
+
+		final Map<String, CFApplicationLogListener> open = new HashMap<String, CFApplicationLogListener>();
+
+		int opened;
+
+		TestFactory(boolean shared) {
+			this.shared = shared;
+		}
+
+		public boolean isShared() {
+			return shared;
+		}
+
+		public CFStreamingLogToken openStream(final String appGuid, final CFApplicationLogListener listener)
+				throws CoreException {
+			opened++;
+			open.put(appGuid, listener);
+			return new CFStreamingLogToken() {
+				public void cancel() {
+					open.remove(appGuid, listener);
+				}
+			};
+		}
+	}
+
+	private static class CollectingListener implements CFApplicationLogListener {
+
+		final List<String> messages = new ArrayList<String>();
+
+		int errors;
+
+		public void onMessage(CloudLog log) {
+			messages.add(log.getMessage());
+		}
+
+		public void onComplete() {
+		}
+
+		public void onError(Throwable exception) {
+			errors++;
+		}
+	}
+
+	public void testSharesStreamPerApplication() throws Exception {
+		TestFactory factory = new TestFactory(false);
+		ApplicationLogMultiplexer multiplexer = new ApplicationLogMultiplexer(factory);
+		CollectingListener first = new CollectingListener();
+		CollectingListener second = new CollectingListener();
+		CollectingListener other = new CollectingListener();
+
+		CFStreamingLogToken firstToken = multiplexer.subscribe("app1", first);
+		CFStreamingLogToken secondToken = multiplexer.subscribe("app1", second);
+		CFStreamingLogToken otherToken = multiplexer.subscribe("app2", other);
+		assertEquals(2, factory.opened);
+		assertEquals(2, multiplexer.getStreamCount());
+
+		factory.open.get("app1").onMessage(log("app1", "hello"));
+		assertEquals(1, first.messages.size());
+		assertEquals(1, second.messages.size());
+		assertTrue(other.messages.isEmpty());
+
+		firstToken.cancel();
+		firstToken.cancel();
+		assertTrue(factory.open.containsKey("app1"));
+		secondToken.cancel();
+		assertFalse(factory.open.containsKey("app1"));
+		otherToken.cancel();
+		assertTrue(factory.open.isEmpty());
+		assertEquals(0, multiplexer.getSubscribedApplicationCount());
+	}
+
+	public void testDemultiplexesSharedStream() throws Exception {
+		TestFactory factory = new TestFactory(true);
+		ApplicationLogMultiplexer multiplexer = new ApplicationLogMultiplexer(factory);
+		CollectingListener app1 = new CollectingListener();
+		CollectingListener app2 = new CollectingListener();
+
+		CFStreamingLogToken token1 = multiplexer.subscribe("app1", app1);
+		CFStreamingLogToken token2 = multiplexer.subscribe("app2", app2);
+		assertEquals(1, factory.opened);
+		assertEquals(1, multiplexer.getStreamCount());
+
+		CFApplicationLogListener firehose = factory.open.get(null);
+		firehose.onMessage(log("app1", "one"));
+		firehose.onMessage(log("app2", "two"));
+		firehose.onMessage(log("app3", "three"));
+		assertEquals(1, app1.messages.size());
+		assertEquals("two", app2.messages.get(0));
+
+		token1.cancel();
+		assertNotNull(factory.open.get(null));
+		token2.cancel();
+		assertTrue(factory.open.isEmpty());
+		assertEquals(0, multiplexer.getStreamCount());
+	}
+
+	public void testReopensEndedStream() throws Exception {
+		TestFactory factory = new TestFactory(false);
+		ApplicationLogMultiplexer multiplexer = new ApplicationLogMultiplexer(factory);
+		CollectingListener first = new CollectingListener();
+		multiplexer.subscribe("app1", first);
+
+		factory.open.get("app1").onError(new Exception());
+		assertEquals(1, first.errors);
+
+		CollectingListener second = new CollectingListener();
+		multiplexer.subscribe("app1", second);
+		assertEquals(2, factory.opened);
+	}
+
+	public void testResubscribesAfterSharedStreamEnds() throws Exception {
+		TestFactory factory = new TestFactory(true);
+		ApplicationLogMultiplexer multiplexer = new ApplicationLogMultiplexer(factory);
+		CollectingListener first = new CollectingListener();
+		CFStreamingLogToken firstToken = multiplexer.subscribe("app1", first);
+
+		factory.open.get(null).onError(new Exception());
+		assertEquals(1, first.errors);
+		assertEquals(0, multiplexer.getSubscribedApplicationCount());
+		assertEquals(0, multiplexer.getStreamCount());
+
+		CollectingListener second = new CollectingListener();
+		multiplexer.subscribe("app1", second);
+		assertEquals(2, factory.opened);
+
+		// Listeners of the ended stream do not receive logs of the new one
+		factory.open.get(null).onMessage(log("app1", "hello"));
+		assertTrue(first.messages.isEmpty());
+		assertEquals(1, second.messages.size());
+
+		firstToken.cancel();
+		assertNotNull(factory.open.get(null));
+		assertEquals(1, multiplexer.getSubscribedApplicationCount());
+	}
+
+	public void testStreamEndingWhileOpened() throws Exception {
+		TestFactory factory = new TestFactory(false) {
+			@Override
+			public CFStreamingLogToken openStream(String appGuid, CFApplicationLogListener listener)
+					throws CoreException {
+				CFStreamingLogToken token = super.openStream(appGuid, listener);
+				if (opened == 1) {
+					// Stream fails before the token is returned
+					listener.onError(new Exception());
+				}
+				return token;
+			}
+		};
+		ApplicationLogMultiplexer multiplexer = new ApplicationLogMultiplexer(factory);
+		CollectingListener first = new CollectingListener();
+		CFStreamingLogToken firstToken = multiplexer.subscribe("app1", first);
+		assertEquals(1, first.errors);
+		assertEquals(0, multiplexer.getSubscribedApplicationCount());
+
+		CollectingListener second = new CollectingListener();
+		multiplexer.subscribe("app1", second);
+		assertEquals(2, factory.opened);
+
+		// Cancelling the subscription to the ended stream does not affect
+		// the new one
+		firstToken.cancel();
+		assertTrue(factory.open.containsKey("app1"));
+		factory.open.get("app1").onMessage(log("app1", "hello"));
+		assertEquals(1, second.messages.size());
+	}
+
+	public void testFailedOpenNotSubscribed() throws Exception {
+		ApplicationLogMultiplexer multiplexer = new ApplicationLogMultiplexer(new TestFactory(false) {
+			@Override
+			public CFStreamingLogToken openStream(String appGuid, CFApplicationLogListener listener)
+					throws CoreException {
+				throw new CoreException(Status.CANCEL_STATUS);
+			}
+		});
+		try {
+			multiplexer.subscribe("app1", new CollectingListener());
+			fail("Expected error");
+		}
+		catch (CoreException e) {
+			// expected
+		}
+		assertEquals(0, multiplexer.getSubscribedApplicationCount());
+	}
+
+	private static CloudLog log(String appGuid, String message) {
+		return new CloudLog(appGuid, message, null, LogContentType.APPLICATION_LOG_STD_OUT, null, null);
+	}
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.cft.server.core.internal.application.AbstractArchiveEntry;
+import org.eclipse.cft.server.core.internal.application.ArchiveEntryDigester;
+
+import junit.framework.TestCase;
+
+public class ArchiveEntryDigesterTest extends TestCase {
+
+	public void testDigestFile() throws Exception {
+		// Larger than the read buffer, so that the file is read in several
+		// chunks
+		byte[] content = createContent(200 * 1024 + 17);
+		File file = File.createTempFile("archiveEntryDigester", null);
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			out.write(content);
+			out.close();
+
+			MessageDigest digest = MessageDigest.getInstance("SHA");
+			assertEquals(content.length, ArchiveEntryDigester.digest(file, digest));
+			assertTrue(Arrays.equals(MessageDigest.getInstance("SHA").digest(content), digest.digest()));
+
+			// Size only
+			assertEquals(content.length, ArchiveEntryDigester.digest(file, null));
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	public void testDigestEmptyFile() throws Exception {
+		File file = File.createTempFile("archiveEntryDigester", null);
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA");
+			assertEquals(0, ArchiveEntryDigester.digest(file, digest));
+			assertTrue(Arrays.equals(MessageDigest.getInstance("SHA").digest(new byte[0]), digest.digest()));
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	public void testDigestAsync() throws Exception {
+		List<TestEntry> entries = new ArrayList<TestEntry>();
+		for (int i = 0; i < 20; i++) {
+			entries.add(new TestEntry("file" + i, createContent(i * 100)));
+		}
+		entries.add(new TestEntry("folder/", null));
+
+		ArchiveEntryDigester.digestAsync(entries).get(30, TimeUnit.SECONDS);
+
+		for (TestEntry entry : entries) {
+			if (entry.isDirectory()) {
+				assertEquals(0, entry.reads.get());
+				assertNull(entry.getSha1Digest());
+			}
+			else {
+				assertEquals(1, entry.reads.get());
+				assertEquals(entry.content.length, entry.getSize());
+				assertTrue(Arrays.equals(MessageDigest.getInstance("SHA").digest(entry.content),
+						entry.getSha1Digest()));
+				// Cached, not read again
+				assertEquals(1, entry.reads.get());
+			}
+		}
+	}
+
+	public void testConcurrentAccessReadsEntryOnce() throws Exception {
+		final TestEntry entry = new TestEntry("file", createContent(1000));
+		final CountDownLatch start = new CountDownLatch(1);
+		final byte[][] digests = new byte[8][];
+		final long[] sizes = new long[8];
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < digests.length; i++) {
+			final int index = i;
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					}
+					catch (InterruptedException e) {
+						return;
+					}
+					if (index % 2 == 0) {
+						digests[index] = entry.getSha1Digest();
+						sizes[index] = entry.getSize();
+					}
+					else {
+						sizes[index] = entry.getSize();
+						digests[index] = entry.getSha1Digest();
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join(30000);
+		}
+
+		assertEquals(1, entry.reads.get());
+		byte[] expected = MessageDigest.getInstance("SHA").digest(entry.content);
+		for (int i = 0; i < digests.length; i++) {
+			assertTrue(Arrays.equals(expected, digests[i]));
+			assertEquals(entry.content.length, sizes[i]);
+		}
+	}
+
+	private static byte[] createContent(int length) {
+		byte[] content = new byte[length];
+		for (int i = 0; i < length; i++) {
+			content[i] = (byte) (i * 31);
+		}
+		return content;
+	}
+
+	static class TestEntry extends AbstractArchiveEntry {
+
+		final String name;
+
+		final byte[] content;
+
+		final AtomicInteger reads = new AtomicInteger();
+
+		TestEntry(String name, byte[] content) {
+			this.name = name;
+			this.content = content;
+		}
+
+		public boolean isDirectory() {
+			return content == null;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public InputStream getInputStream() throws IOException {
+			reads.incrementAndGet();
+			return new ByteArrayInputStream(content);
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.cft.server.core.ArchiveEntry;
+import org.eclipse.cft.server.core.internal.application.ArchiveEntryPrefetcher;
+
+import junit.framework.TestCase;
+
+public class ArchiveEntryPrefetcherTest extends TestCase {
+
+	private List<ArchiveEntry> entries;
+
+	@Override
+	protected void setUp() throws Exception {
+		entries = new ArrayList<ArchiveEntry>();
+		entries.add(new TestEntry("WEB-INF/", null));
+		entries.add(new TestEntry("WEB-INF/web.xml", content(10, 'a')));
+		entries.add(new TestEntry("WEB-INF/lib/large.jar", content(200 * 1024, 'b')));
+		entries.add(new TestEntry("index.html", content(0, 'c')));
+		entries.add(new TestEntry("WEB-INF/classes/Foo.class", content(70 * 1024, 'd')));
+	}
+
+	public void testEntriesReadInOrder() throws Exception {
+		ArchiveEntryPrefetcher prefetcher = new ArchiveEntryPrefetcher(entries, 2);
+		prefetcher.start();
+		try {
+			for (int i = 0; i < entries.size(); i++) {
+				assertContent(entries.get(i), prefetcher.getInputStream(i));
+			}
+		}
+		finally {
+			prefetcher.cancel();
+		}
+	}
+
+	public void testEntriesSkippedOrPartiallyRead() throws Exception {
+		ArchiveEntryPrefetcher prefetcher = new ArchiveEntryPrefetcher(entries, 2);
+		prefetcher.start();
+		try {
+			// Only read the start of the jar, then skip ahead
+			InputStream jar = prefetcher.getInputStream(2);
+			assertEquals('b', jar.read());
+			jar.close();
+
+			assertContent(entries.get(4), prefetcher.getInputStream(4));
+
+			// Requested out of order, so read directly from the entry
+			assertContent(entries.get(1), prefetcher.getInputStream(1));
+		}
+		finally {
+			prefetcher.cancel();
+		}
+	}
+
+	public void testCancel() throws Exception {
+		ArchiveEntryPrefetcher prefetcher = new ArchiveEntryPrefetcher(entries, 1);
+		prefetcher.start();
+		InputStream jar = prefetcher.getInputStream(2);
+		prefetcher.cancel();
+		try {
+			byte[] buffer = new byte[1024];
+			while (jar.read(buffer) != -1) {
+				// Read until the cancel is detected
+			}
+			fail("Expected read of canceled entry to fail");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+	}
+
+	private static void assertContent(ArchiveEntry entry, InputStream actual) throws IOException {
+		InputStream expected = entry.getInputStream();
+		if (expected == null) {
+			assertNull(actual);
+			return;
+		}
+		assertEquals(entry.getName(), new String(read(expected), "UTF-8"), new String(read(actual), "UTF-8"));
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	private static byte[] content(int size, char c) {
+		byte[] content = new byte[size];
+		for (int i = 0; i < size; i++) {
+			content[i] = (byte) (c + i % 3);
+		}
+		return content;
+	}
+
+	private static class TestEntry implements ArchiveEntry {
+
+		private final String name;
+
+		private final byte[] content;
+
+		TestEntry(String name, byte[] content) {
+			this.name = name;
+			this.content = content;
+		}
+
+		public boolean isDirectory() {
+			return content == null;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getSize() {
+			return content != null ? content.length : -1;
+		}
+
+		public byte[] getSha1Digest() {
+			return null;
+		}
+
+		public InputStream getInputStream() throws IOException {
+			return content != null ? new ByteArrayInputStream(content) : null;
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.cloudfoundry.client.lib.archive.ApplicationArchive;
+import org.cloudfoundry.client.lib.archive.ApplicationArchive.Entry;
+import org.eclipse.cft.server.core.ArchiveEntry;
+import org.eclipse.cft.server.core.internal.application.ApplicationUtil;
+import org.eclipse.cft.server.core.internal.client.ArchiveUploadProgress;
+import org.eclipse.cft.server.core.CFApplicationArchive;
+import org.eclipse.core.runtime.NullProgressMonitor;
+
+import junit.framework.TestCase;
+
+public class ArchiveUploadProgressTest extends TestCase {
+
+	private List<ArchiveEntry> entries;
+
+	private List<String> subTasks;
+
+	private long time;
+
+	private ArchiveUploadProgress progress;
+
+	@Override
+	protected void setUp() throws Exception {
+		entries = new ArrayList<ArchiveEntry>();
+		entries.add(new TestEntry("WEB-INF/", null));
+		entries.add(new TestEntry("WEB-INF/web.xml", new byte[10 * 1024]));
+		entries.add(new TestEntry("WEB-INF/lib/large.jar", new byte[200 * 1024]));
+		subTasks = new ArrayList<String>();
+		progress = new ArchiveUploadProgress("app", new NullProgressMonitor() {
+
+			@Override
+			public void subTask(String name) {
+				subTasks.add(name);
+			}
+		}) {
+
+			@Override
+			protected long now() {
+				return time;
+			}
+		};
+	}
+
+	public void testKnownResourcesNotCounted() throws Exception {
+		progress.start(entries, Collections.singleton("WEB-INF/web.xml"));
+		assertEquals(200 * 1024, progress.getTotalBytes());
+
+		progress.start(entries, null);
+		assertEquals(210 * 1024, progress.getTotalBytes());
+	}
+
+	public void testContentCountedAsRead() throws Exception {
+		ApplicationArchive archive = progress.wrap(ApplicationUtil.asV1ApplicationArchive(new TestArchive()));
+		progress.start(entries, Collections.singleton("WEB-INF/web.xml"));
+		assertEquals(1, subTasks.size());
+
+		for (Entry entry : archive.getEntries()) {
+			if (entry.getName().endsWith(".jar")) {
+				InputStream in = entry.getInputStream();
+				assertEquals(100 * 1024, in.read(new byte[100 * 1024]));
+				// Only reported once per interval
+				assertEquals(1, subTasks.size());
+
+				time += 1000;
+				assertEquals(100 * 1024, in.read(new byte[100 * 1024]));
+				in.close();
+			}
+		}
+		assertEquals(200 * 1024, progress.getUploadedBytes());
+		assertEquals(2, subTasks.size());
+		assertEquals("Uploading application app - 200 of 200 KB (200 KB/s)", subTasks.get(1));
+	}
+
+	public void testRestartedAttemptCountsFromZero() throws Exception {
+		ApplicationArchive archive = progress.wrap(ApplicationUtil.asV1ApplicationArchive(new TestArchive()));
+		progress.start(entries, null);
+		for (Entry entry : archive.getEntries()) {
+			if (!entry.isDirectory()) {
+				readFully(entry.getInputStream());
+			}
+		}
+		assertEquals(210 * 1024, progress.getUploadedBytes());
+
+		progress.start(entries, null);
+		assertEquals(0, progress.getUploadedBytes());
+	}
+
+	private static void readFully(InputStream in) throws IOException {
+		byte[] buffer = new byte[8192];
+		try {
+			while (in.read(buffer) != -1) {
+				// Only count
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private class TestArchive implements CFApplicationArchive {
+
+		public String getName() {
+			return "app.war";
+		}
+
+		public Iterable<ArchiveEntry> getEntries() {
+			return entries;
+		}
+
+		public void close() {
+		}
+	}
+
+	private static class TestEntry implements ArchiveEntry {
+
+		private final String name;
+
+		private final byte[] content;
+
+		TestEntry(String name, byte[] content) {
+			this.name = name;
+			this.content = content;
+		}
+
+		public boolean isDirectory() {
+			return content == null;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getSize() {
+			return content != null ? content.length : -1;
+		}
+
+		public byte[] getSha1Digest() {
+			return null;
+		}
+
+		public InputStream getInputStream() throws IOException {
+			return content != null ? new ByteArrayInputStream(content) : null;
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.client.lib.RestLogEntry;
+import org.eclipse.cft.server.core.internal.log.AsyncTraceSink;
+import org.eclipse.cft.server.core.internal.log.ICloudTracer;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+
+import junit.framework.TestCase;
+
+public class AsyncTraceSinkTest extends TestCase {
+
+	/**
+	 * Records traced entries, and optionally blocks until released so that
+	 * the queue fills up.
+	 */
+	private static class RecordingTracer implements ICloudTracer {
+
+		final List<RestLogEntry> entries = new ArrayList<RestLogEntry>();
+
+		final CountDownLatch release;
+
+		RecordingTracer(CountDownLatch release) {
+			this.release = release;
+		}
+
+		public void traceNewLogEntry(RestLogEntry restLogEntry) {
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				// Ignore
+			}
+			synchronized (entries) {
+				entries.add(restLogEntry);
+			}
+		}
+
+		int size() {
+			synchronized (entries) {
+				return entries.size();
+			}
+		}
+	}
+
+	private File traceFolder;
+
+	@Override
+	protected void setUp() throws Exception {
+		traceFolder = File.createTempFile("traces", null);
+		traceFolder.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		File[] files = traceFolder.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		traceFolder.delete();
+	}
+
+	private static RestLogEntry entry(String uri, HttpStatus status) {
+		return new RestLogEntry(HttpMethod.GET, URI.create(uri), status.value() >= 400 ? "ERROR" : "OK", status,
+				"message");
+	}
+
+	public void testSampling() throws Exception {
+		RecordingTracer tracer = new RecordingTracer(new CountDownLatch(0));
+		AsyncTraceSink sink = new AsyncTraceSink(tracer, 100, 10, null, 1024, 1);
+		for (int i = 0; i < 50; i++) {
+			sink.offer(entry("https://api.example.com/v2/apps/" + i, HttpStatus.OK));
+		}
+		// Failed requests are always traced
+		sink.offer(entry("https://api.example.com/v2/apps/failed", HttpStatus.NOT_FOUND));
+		assertTrue(sink.flush(10000));
+
+		assertEquals(6, tracer.size());
+		assertEquals(45, sink.getSampledOut());
+		assertEquals(URI.create("https://api.example.com/v2/apps/failed"), tracer.entries.get(5).getUri());
+		sink.close();
+	}
+
+	public void testDropsWhenQueueIsFull() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		RecordingTracer tracer = new RecordingTracer(release);
+		AsyncTraceSink sink = new AsyncTraceSink(tracer, 5, 1, null, 1024, 1);
+
+		assertTrue(sink.offer(entry("https://api.example.com/first", HttpStatus.OK)));
+		// Wait for the first entry to block in the tracer
+		long end = System.currentTimeMillis() + 10000;
+		while (sink.offer(entry("https://api.example.com/probe", HttpStatus.OK))
+				&& System.currentTimeMillis() < end) {
+			// Fill the queue
+		}
+		assertTrue(sink.getDropped() > 0);
+		release.countDown();
+		assertTrue(sink.flush(10000));
+		assertEquals(sink.getProcessed(), tracer.size());
+		assertTrue(sink.getProcessed() <= 7);
+		sink.close();
+	}
+
+	public void testRedaction() throws Exception {
+		RestLogEntry entry = new RestLogEntry(HttpMethod.POST,
+				URI.create("https://uaa.example.com/oauth/token?grant_type=password&password=secret&username=me"),
+				"OK", HttpStatus.OK,
+				"Authorization: Bearer abc.def.ghi {\"refresh_token\":\"xyz\",\"name\":\"app\"}");
+		RestLogEntry redacted = AsyncTraceSink.redact(entry);
+
+		String uri = redacted.getUri().toString();
+		assertFalse(uri.contains("secret"));
+		assertTrue(uri.contains("grant_type=password"));
+		assertTrue(uri.contains("username=me"));
+		assertFalse(redacted.getMessage().contains("abc.def.ghi"));
+		assertFalse(redacted.getMessage().contains("xyz"));
+		assertTrue(redacted.getMessage().contains("\"name\":\"app\""));
+
+		RestLogEntry clean = entry("https://api.example.com/v2/apps?q=name:app", HttpStatus.OK);
+		assertSame(clean, AsyncTraceSink.redact(clean));
+	}
+
+	public void testRollingJsonFile() throws Exception {
+		File traceFile = new File(traceFolder, "trace.jsonl");
+		AsyncTraceSink sink = new AsyncTraceSink(null, 1000, 1, traceFile, 2048, 2);
+		for (int i = 0; i < 100; i++) {
+			sink.offer(entry("https://api.example.com/v2/apps/" + i + "?access_token=secret", HttpStatus.OK));
+		}
+		assertTrue(sink.flush(10000));
+		sink.close();
+
+		assertTrue(new File(traceFolder, "trace.jsonl.1").exists());
+		assertTrue(new File(traceFolder, "trace.jsonl.2").exists());
+		assertFalse(new File(traceFolder, "trace.jsonl.3").exists());
+
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(new File(traceFolder, "trace.jsonl.1")), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		}
+		finally {
+			reader.close();
+		}
+		assertFalse(lines.isEmpty());
+		for (String line : lines) {
+			assertTrue(line, line.startsWith("{\"time\":\""));
+			assertTrue(line, line.contains("\"method\":\"GET\""));
+			assertTrue(line, line.contains("\"httpStatus\":200"));
+			assertTrue(line, line.endsWith("}"));
+			assertFalse(line, line.contains("secret"));
+		}
+	}
+}
@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.cft.server.core.internal.ApplicationAction;
+import org.eclipse.cft.server.core.internal.CloudFoundryPlugin;
+import org.eclipse.cft.server.core.internal.client.BatchApplicationOperation;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.wst.server.core.IModule;
+
+import junit.framework.TestCase;
+
+public class BatchApplicationOperationTest extends TestCase {
+
+	public void testRunsConcurrentlyUpToParallelism() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		TestBatchOperation operation = new TestBatchOperation(createModules(12), 3) {
+			@Override
+			protected IStatus runOperation(IModule module, IProgressMonitor monitor) {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(20);
+				}
+				catch (InterruptedException e) {
+					return Status.CANCEL_STATUS;
+				}
+				finally {
+					running.decrementAndGet();
+				}
+				return Status.OK_STATUS;
+			}
+		};
+
+		operation.run(new NullProgressMonitor());
+
+		assertTrue(maxRunning.get() <= 3);
+		assertTrue(maxRunning.get() > 1);
+		assertEquals(1, operation.authenticated.get());
+	}
+
+	public void testResultsPerApplication() throws Exception {
+		IModule[] modules = createModules(5);
+		TestBatchOperation operation = new TestBatchOperation(modules, 2);
+
+		operation.run(new NullProgressMonitor());
+
+		Map<IModule, IStatus> results = operation.getResults();
+		assertEquals(5, results.size());
+		for (IModule module : modules) {
+			assertTrue(results.get(module).isOK());
+		}
+	}
+
+	public void testPartialFailure() throws Exception {
+		final IModule[] modules = createModules(4);
+		TestBatchOperation operation = new TestBatchOperation(modules, 4) {
+			@Override
+			protected IStatus runOperation(IModule module, IProgressMonitor monitor) {
+				if (module == modules[1] || module == modules[3]) {
+					return new Status(IStatus.ERROR, CloudFoundryPlugin.PLUGIN_ID, "Failed " + module.getName());
+				}
+				return Status.OK_STATUS;
+			}
+		};
+
+		try {
+			operation.run(new NullProgressMonitor());
+			fail("Expected partial failure");
+		}
+		catch (CoreException e) {
+			IStatus status = e.getStatus();
+			assertTrue(status.isMultiStatus());
+			assertEquals(IStatus.ERROR, status.getSeverity());
+			assertEquals(2, status.getChildren().length);
+		}
+
+		// Other applications still ran
+		Map<IModule, IStatus> results = operation.getResults();
+		assertEquals(4, results.size());
+		assertTrue(results.get(modules[0]).isOK());
+		assertFalse(results.get(modules[1]).isOK());
+		assertTrue(results.get(modules[2]).isOK());
+		assertFalse(results.get(modules[3]).isOK());
+	}
+
+	public void testCancel() throws Exception {
+		final NullProgressMonitor monitor = new NullProgressMonitor();
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicInteger cancelledOperations = new AtomicInteger();
+		TestBatchOperation operation = new TestBatchOperation(createModules(10), 2) {
+			@Override
+			protected IStatus runOperation(IModule module, IProgressMonitor operationMonitor) {
+				started.countDown();
+				long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+				// Operations see the cancellation of the batch
+				while (!operationMonitor.isCanceled() && System.currentTimeMillis() < end) {
+					try {
+						Thread.sleep(10);
+					}
+					catch (InterruptedException e) {
+						break;
+					}
+				}
+				cancelledOperations.incrementAndGet();
+				return Status.CANCEL_STATUS;
+			}
+		};
+
+		new Thread(() -> {
+			try {
+				started.await();
+			}
+			catch (InterruptedException e) {
+				// Ignore
+			}
+			monitor.setCanceled(true);
+		}).start();
+
+		long start = System.currentTimeMillis();
+		try {
+			operation.run(monitor);
+			fail("Expected batch to be cancelled");
+		}
+		catch (OperationCanceledException e) {
+			// Expected
+		}
+		assertTrue(System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(5));
+		assertTrue(operation.getResults().size() < 10);
+	}
+
+	private static IModule[] createModules(int count) {
+		IModule[] modules = new IModule[count];
+		for (int i = 0; i < count; i++) {
+			modules[i] = createModule("app" + i);
+		}
+		return modules;
+	}
+
+	private static IModule createModule(final String name) {
+		return (IModule) Proxy.newProxyInstance(BatchApplicationOperationTest.class.getClassLoader(),
+				new Class<?>[] { IModule.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("getName".equals(method.getName()) || "getId".equals(method.getName())) {
+							return name;
+						}
+						if ("hashCode".equals(method.getName())) {
+							return System.identityHashCode(proxy);
+						}
+						if ("equals".equals(method.getName())) {
+							return proxy == args[0];
+						}
+						if (method.getReturnType() == boolean.class) {
+							return false;
+						}
+						return null;
+					}
+				});
+	}
+
+	/**
+	 * Batch that does not connect to a server, and whose application
+	 * operations succeed unless overridden.
+	 */
+	private static class TestBatchOperation extends BatchApplicationOperation {
+
+		final AtomicInteger authenticated = new AtomicInteger();
+
+		TestBatchOperation(IModule[] modules, int parallelism) {
+			super(null, modules, ApplicationAction.RESTART, false, parallelism);
+		}
+
+		@Override
+		protected void authenticate(IProgressMonitor monitor) throws CoreException {
+			authenticated.incrementAndGet();
+		}
+
+		@Override
+		protected String getExecutorName() {
+			return "test";
+		}
+
+		@Override
+		protected IStatus runOperation(IModule module, IProgressMonitor monitor) {
+			return Status.OK_STATUS;
+		}
+	}
+}
@@ -0,0 +1,277 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.cft.server.core.ArchiveEntry;
+import org.eclipse.cft.server.core.internal.ModuleResourceDeltaWrapper;
+import org.eclipse.cft.server.core.internal.application.CachingApplicationArchive;
+import org.eclipse.cft.server.core.internal.application.CachingApplicationArchive.ModuleResourceResolver;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.wst.server.core.IModule;
+import org.eclipse.wst.server.core.model.IModuleResource;
+import org.eclipse.wst.server.core.model.IModuleResourceDelta;
+import org.eclipse.wst.server.core.util.ModuleFile;
+import org.eclipse.wst.server.core.util.ModuleFolder;
+
+import junit.framework.TestCase;
+
+public class CachingApplicationArchiveTest extends TestCase {
+
+	private File root;
+
+	private List<IModuleResource> resources;
+
+	@Override
+	protected void setUp() throws Exception {
+		root = File.createTempFile("cachingApplicationArchive", null);
+		root.delete();
+		root.mkdirs();
+
+		ModuleFolder webInf = new ModuleFolder(null, "WEB-INF", Path.EMPTY);
+		IPath webInfPath = new Path("WEB-INF");
+		ModuleFolder classes = new ModuleFolder(null, "classes", webInfPath);
+		ModuleFolder lib = new ModuleFolder(null, "lib", webInfPath);
+		webInf.setMembers(new IModuleResource[] { classes, lib });
+		classes.setMembers(new IModuleResource[] { createFile("A.class", webInfPath.append("classes")),
+				createFile("B.class", webInfPath.append("classes")) });
+		lib.setMembers(new IModuleResource[] { createFile("c.jar", webInfPath.append("lib")) });
+
+		resources = new ArrayList<IModuleResource>();
+		resources.add(webInf);
+		resources.add(createFile("index.html", Path.EMPTY));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		delete(root);
+	}
+
+	public void testPartialWarContainsChangedEntriesAndFolders() throws Exception {
+		// Force a partial war to be built rather than streaming the entries
+		// from the local files
+		CachingApplicationArchive archive = new CachingApplicationArchive(resources,
+				Collections.<IModuleResource> emptyList(), createModule("partialWarTest"), "partialWarTest") {
+			@Override
+			protected boolean canStream(Collection<ArchiveEntry> entriesToUpload) {
+				return false;
+			}
+		};
+		try {
+			archive.generatePartialWarFile(
+					new HashSet<String>(Arrays.asList("WEB-INF/classes/B.class", "WEB-INF/lib/c.jar")));
+
+			assertEquals(new HashSet<String>(Arrays.asList("WEB-INF/", "WEB-INF/classes/", "WEB-INF/lib/",
+					"WEB-INF/classes/A.class", "index.html")), getEntryNames(archive));
+			assertEquals("partialWarTest.war", archive.getName());
+		}
+		finally {
+			archive.close();
+		}
+	}
+
+	public void testStreamedEntriesMatchPartialWar() throws Exception {
+		CachingApplicationArchive archive = new CachingApplicationArchive(resources,
+				Collections.<IModuleResource> emptyList(), createModule("streamedTest"), "streamedTest");
+		try {
+			archive.generatePartialWarFile(new HashSet<String>(
+					Arrays.asList("WEB-INF/classes/B.class", "WEB-INF/lib/c.jar", "index.html")));
+
+			assertEquals(new HashSet<String>(
+					Arrays.asList("WEB-INF/", "WEB-INF/classes/", "WEB-INF/lib/", "WEB-INF/classes/A.class")),
+					getEntryNames(archive));
+		}
+		finally {
+			archive.close();
+		}
+	}
+
+	public void testEntriesDerivedFromDeltasAfterFirstPublish() throws Exception {
+		String appName = "deltaTest" + System.currentTimeMillis();
+		CountingResolver resolver = new CountingResolver();
+
+		// No manifest yet, so all module resources are walked
+		CachingApplicationArchive archive = new CachingApplicationArchive(resolver,
+				Collections.<IModuleResource> emptyList(), createModule(appName), "server", appName);
+		Set<String> allNames = publish(archive);
+		assertEquals(1, resolver.count);
+		assertEquals(new HashSet<String>(Arrays.asList("WEB-INF/", "WEB-INF/classes/", "WEB-INF/lib/",
+				"WEB-INF/classes/A.class", "WEB-INF/classes/B.class", "WEB-INF/lib/c.jar", "index.html")), allNames);
+
+		// A changed file is resolved from its delta, without walking the
+		// module
+		ModuleFile changed = (ModuleFile) resources.get(1);
+		resolver.count = 0;
+		archive = new CachingApplicationArchive(resolver,
+				Arrays.<IModuleResource> asList(
+						new ModuleResourceDeltaWrapper(new TestDelta(changed, IModuleResourceDelta.CHANGED))),
+				createModule(appName), "server", appName);
+		assertEquals(allNames, publish(archive));
+		assertEquals(0, resolver.count);
+	}
+
+	public void testEntriesFallBackToModuleWhenNotInDeltas() throws Exception {
+		String appName = "deltaFallbackTest" + System.currentTimeMillis();
+		CountingResolver resolver = new CountingResolver();
+		publish(new CachingApplicationArchive(resolver, Collections.<IModuleResource> emptyList(),
+				createModule(appName), "server", appName));
+
+		// A file added in a new folder requires the folder to be resolved
+		// from the module
+		ModuleFolder webInf = (ModuleFolder) resources.get(0);
+		ModuleFolder newFolder = new ModuleFolder(null, "views", new Path("WEB-INF"));
+		ModuleFile added = createFile("page.jsp", new Path("WEB-INF/views"));
+		newFolder.setMembers(new IModuleResource[] { added });
+		List<IModuleResource> members = new ArrayList<IModuleResource>(Arrays.asList(webInf.members()));
+		members.add(newFolder);
+		webInf.setMembers(members.toArray(new IModuleResource[0]));
+
+		resolver.count = 0;
+		Set<String> names = publish(new CachingApplicationArchive(resolver,
+				Arrays.<IModuleResource> asList(
+						new ModuleResourceDeltaWrapper(new TestDelta(added, IModuleResourceDelta.ADDED))),
+				createModule(appName), "server", appName));
+		assertEquals(1, resolver.count);
+		assertTrue(names.contains("WEB-INF/views/"));
+		assertTrue(names.contains("WEB-INF/views/page.jsp"));
+		assertEquals(9, names.size());
+	}
+
+	/**
+	 * Collects the entries of the archive, and computes their sha1 codes, as
+	 * done when the application is published.
+	 */
+	private Set<String> publish(CachingApplicationArchive archive) throws Exception {
+		try {
+			for (ArchiveEntry entry : archive.getEntries()) {
+				entry.getSha1Digest();
+			}
+			return getEntryNames(archive);
+		}
+		finally {
+			archive.close();
+		}
+	}
+
+	private Set<String> getEntryNames(CachingApplicationArchive archive) {
+		Set<String> names = new HashSet<String>();
+		for (ArchiveEntry entry : archive.getEntries()) {
+			assertTrue("Duplicate entry " + entry.getName(), names.add(entry.getName()));
+		}
+		return names;
+	}
+
+	private ModuleFile createFile(String name, IPath path) throws Exception {
+		File folder = new File(root, path.toOSString());
+		folder.mkdirs();
+		File file = new File(folder, name);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(name.getBytes("UTF-8"));
+		}
+		finally {
+			out.close();
+		}
+		return new ModuleFile(file, name, path);
+	}
+
+	private static IModule createModule(final String name) {
+		return (IModule) Proxy.newProxyInstance(CachingApplicationArchiveTest.class.getClassLoader(),
+				new Class<?>[] { IModule.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("getName".equals(method.getName()) || "getId".equals(method.getName())) {
+							return name;
+						}
+						if ("hashCode".equals(method.getName())) {
+							return name.hashCode();
+						}
+						if ("equals".equals(method.getName())) {
+							return proxy == args[0];
+						}
+						if (method.getReturnType() == boolean.class) {
+							return false;
+						}
+						return null;
+					}
+				});
+	}
+
+	class CountingResolver implements ModuleResourceResolver {
+
+		int count;
+
+		public List<IModuleResource> getResources() {
+			count++;
+			return resources;
+		}
+	}
+
+	static class TestDelta implements IModuleResourceDelta {
+
+		private final IModuleResource resource;
+
+		private final int kind;
+
+		TestDelta(IModuleResource resource, int kind) {
+			this.resource = resource;
+			this.kind = kind;
+		}
+
+		public IModuleResource getModuleResource() {
+			return resource;
+		}
+
+		public int getKind() {
+			return kind;
+		}
+
+		public IModuleResourceDelta[] getAffectedChildren() {
+			return new IModuleResourceDelta[0];
+		}
+
+		public IPath getModuleRelativePath() {
+			return resource.getModuleRelativePath();
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.cft.server.core.internal.client.CancellableRequestExecutor;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+
+import junit.framework.TestCase;
+
+public class CancellableRequestExecutorTest extends TestCase {
+
+	private CancellableRequestExecutor executor;
+
+	@Override
+	protected void setUp() throws Exception {
+		executor = new CancellableRequestExecutor(Executors.newCachedThreadPool());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		executor.shutdown();
+	}
+
+	public void testReturnsResult() throws Exception {
+		assertEquals("result", executor.run(() -> "result", new NullProgressMonitor()));
+		assertEquals("result", executor.run(() -> "result", null));
+		assertEquals(0, executor.getPendingCount());
+	}
+
+	public void testRethrowsRuntimeException() throws Exception {
+		try {
+			executor.run(() -> {
+				throw new IllegalStateException("failed");
+			}, new NullProgressMonitor());
+			fail("Expected exception");
+		}
+		catch (IllegalStateException e) {
+			assertEquals("failed", e.getMessage());
+		}
+	}
+
+	public void testWrapsCheckedException() throws Exception {
+		final CoreException error = new CoreException(Status.CANCEL_STATUS);
+		try {
+			executor.run(() -> {
+				throw error;
+			}, new NullProgressMonitor());
+			fail("Expected exception");
+		}
+		catch (RuntimeException e) {
+			assertSame(error, e.getCause());
+		}
+	}
+
+	public void testCancelledMonitorReturnsBeforeRequestCompletes() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final NullProgressMonitor monitor = new NullProgressMonitor();
+		new Thread(() -> {
+			try {
+				Thread.sleep(100);
+			}
+			catch (InterruptedException e) {
+				// Ignore
+			}
+			monitor.setCanceled(true);
+		}).start();
+
+		long start = System.nanoTime();
+		try {
+			executor.run(() -> release.await(30, TimeUnit.SECONDS), monitor);
+			fail("Expected cancellation");
+		}
+		catch (OperationCanceledException e) {
+			// expected
+		}
+		finally {
+			release.countDown();
+		}
+		assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+		assertEquals(0, executor.getPendingCount());
+	}
+
+	public void testAlreadyCancelledMonitor() throws Exception {
+		NullProgressMonitor monitor = new NullProgressMonitor();
+		monitor.setCanceled(true);
+		try {
+			executor.run(() -> "result", monitor);
+			fail("Expected cancellation");
+		}
+		catch (OperationCanceledException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.eclipse.cft.server.core.ArchiveEntry;
+import org.eclipse.cft.server.core.internal.application.ChannelZipArchive;
+
+import junit.framework.TestCase;
+
+public class ChannelZipArchiveTest extends TestCase {
+
+	private File zip;
+
+	@Override
+	protected void setUp() throws Exception {
+		zip = File.createTempFile("channelZipArchiveTest", ".jar");
+
+		Random random = new Random(42);
+		byte[] nestedJar = new byte[300 * 1024];
+		random.nextBytes(nestedJar);
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			text.append("line ").append(i).append('\n');
+		}
+
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+		try {
+			out.putNextEntry(new ZipEntry("BOOT-INF/"));
+			out.closeEntry();
+			out.putNextEntry(new ZipEntry("BOOT-INF/classes/application.properties"));
+			out.write(text.toString().getBytes("UTF-8"));
+			out.closeEntry();
+
+			// Nested jars are stored without compression in fat jars
+			ZipEntry stored = new ZipEntry("BOOT-INF/lib/nested.jar");
+			stored.setMethod(ZipEntry.STORED);
+			stored.setSize(nestedJar.length);
+			CRC32 crc = new CRC32();
+			crc.update(nestedJar);
+			stored.setCrc(crc.getValue());
+			out.putNextEntry(stored);
+			out.write(nestedJar);
+			out.closeEntry();
+
+			out.putNextEntry(new ZipEntry("BOOT-INF/classes/empty.txt"));
+			out.closeEntry();
+			out.setComment("archive comment");
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		zip.delete();
+	}
+
+	public void testEntriesMatchZipFile() throws Exception {
+		Map<String, byte[]> expected = new HashMap<String, byte[]>();
+		ZipFile zipFile = new ZipFile(zip);
+		try {
+			Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+			while (zipEntries.hasMoreElements()) {
+				ZipEntry entry = zipEntries.nextElement();
+				expected.put(entry.getName(), entry.isDirectory() ? null : read(zipFile.getInputStream(entry)));
+			}
+		}
+		finally {
+			zipFile.close();
+		}
+
+		ChannelZipArchive archive = new ChannelZipArchive(zip);
+		try {
+			archive.computeDigestsAsync();
+			int count = 0;
+			for (ArchiveEntry entry : archive.getEntries()) {
+				count++;
+				assertTrue(entry.getName(), expected.containsKey(entry.getName()));
+				byte[] content = expected.get(entry.getName());
+				if (content == null) {
+					assertTrue(entry.isDirectory());
+					assertNull(entry.getInputStream());
+					continue;
+				}
+				assertEquals(entry.getName(), content.length, entry.getSize());
+				assertTrue(entry.getName(), Arrays.equals(content, read(entry.getInputStream())));
+				assertTrue(entry.getName(),
+						Arrays.equals(MessageDigest.getInstance("SHA").digest(content), entry.getSha1Digest()));
+			}
+			assertEquals(expected.size(), count);
+		}
+		finally {
+			archive.close();
+		}
+	}
+
+	public void testCloseReleasesFile() throws Exception {
+		ChannelZipArchive archive = new ChannelZipArchive(zip);
+		ArchiveEntry entry = null;
+		for (ArchiveEntry candidate : archive.getEntries()) {
+			if (!candidate.isDirectory()) {
+				entry = candidate;
+			}
+		}
+		InputStream in = entry.getInputStream();
+		archive.close();
+
+		try {
+			read(in);
+			fail("Expected reading a closed archive to fail");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+		// The file must no longer be held open, on any platform
+		assertTrue(zip.delete());
+	}
+
+	public void testInvalidArchive() throws Exception {
+		FileOutputStream out = new FileOutputStream(zip);
+		try {
+			out.write("not a zip file".getBytes("UTF-8"));
+		}
+		finally {
+			out.close();
+		}
+		try {
+			new ChannelZipArchive(zip);
+			fail("Expected invalid archive to be rejected");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		}
+		finally {
+			in.close();
+		}
+		return out.toByteArray();
+	}
+}
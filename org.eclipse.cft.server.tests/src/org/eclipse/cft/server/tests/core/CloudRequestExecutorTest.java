@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.cft.server.core.internal.client.CloudRequestExecutor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+
+import junit.framework.TestCase;
+
+public class CloudRequestExecutorTest extends TestCase {
+
+	private CloudRequestExecutor executor;
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	public void testRunsAllRequests() throws Exception {
+		executor = new CloudRequestExecutor("test", 4, 2);
+		final Set<Integer> processed = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+		List<Integer> items = createItems(50);
+
+		assertTrue(executor.forEach(items, (item) -> processed.add(item), new NullProgressMonitor()));
+
+		assertEquals(50, processed.size());
+		assertEquals(50, executor.getStatistics().getSubmitted());
+		assertEquals(50, executor.getStatistics().getCompleted());
+	}
+
+	public void testConcurrencyIsBounded() throws Exception {
+		executor = new CloudRequestExecutor("test", 3, 100);
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+
+		executor.forEach(createItems(30), (item) -> {
+			int current = running.incrementAndGet();
+			maxRunning.accumulateAndGet(current, Math::max);
+			try {
+				Thread.sleep(5);
+			}
+			catch (InterruptedException e) {
+				// Ignore
+			}
+			running.decrementAndGet();
+		}, null);
+
+		assertTrue(maxRunning.get() <= 3);
+		assertTrue(maxRunning.get() > 1);
+	}
+
+	public void testFailedRequestDoesNotStopOthers() throws Exception {
+		executor = new CloudRequestExecutor("test", 2, 10);
+		final AtomicInteger processed = new AtomicInteger();
+
+		assertTrue(executor.forEach(createItems(10), (item) -> {
+			if (item == 5) {
+				throw new IllegalStateException("Expected failure");
+			}
+			processed.incrementAndGet();
+		}, null));
+
+		assertEquals(9, processed.get());
+		assertEquals(1, executor.getStatistics().getFailed());
+	}
+
+	public void testCancel() throws Exception {
+		executor = new CloudRequestExecutor("test", 2, 100);
+		final NullProgressMonitor monitor = new NullProgressMonitor();
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		new Thread(() -> {
+			try {
+				blocked.await();
+			}
+			catch (InterruptedException e) {
+				// Ignore
+			}
+			monitor.setCanceled(true);
+		}).start();
+
+		boolean completed = executor.forEach(createItems(20), (item) -> {
+			blocked.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				// Cancelled
+			}
+		}, monitor);
+
+		assertFalse(completed);
+		assertTrue(executor.getStatistics().getCancelled() > 0);
+		release.countDown();
+	}
+
+	public void testRequestsCancelledAfterShutdown() throws Exception {
+		executor = new CloudRequestExecutor("test", 2, 10);
+		final AtomicInteger processed = new AtomicInteger();
+		executor.shutdown();
+
+		assertFalse(executor.forEach(createItems(5), (item) -> processed.incrementAndGet(), null));
+
+		assertEquals(0, processed.get());
+		assertTrue(executor.getStatistics().getCancelled() > 0);
+	}
+
+	private static List<Integer> createItems(int count) {
+		List<Integer> items = new ArrayList<Integer>();
+		for (int i = 0; i < count; i++) {
+			items.add(i);
+		}
+		return items;
+	}
+}
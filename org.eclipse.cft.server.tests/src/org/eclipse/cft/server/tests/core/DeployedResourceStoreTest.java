@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import org.eclipse.cft.server.core.internal.DeployedResourceCache;
+import org.eclipse.cft.server.core.internal.DeployedResourceCache.CachedDeployedApplication;
+import org.eclipse.cft.server.core.internal.DeployedResourceCache.DeployedResourceEntry;
+import org.eclipse.cft.server.core.internal.DeployedResourceStore;
+
+import junit.framework.TestCase;
+
+public class DeployedResourceStoreTest extends TestCase {
+
+	private File storeFolder;
+
+	@Override
+	protected void setUp() throws Exception {
+		storeFolder = File.createTempFile("deployedResourceStore", null);
+		storeFolder.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		File[] files = storeFolder.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		storeFolder.delete();
+	}
+
+	public void testSaveAndLoad() throws Exception {
+		DeployedResourceStore store = new DeployedResourceStore(storeFolder);
+		CachedDeployedApplication app = new CachedDeployedApplication("app/with:chars");
+		byte[] sha1 = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20 };
+
+		store.save(app, Arrays.asList(new DeployedResourceEntry(sha1, 100, 12345, "WEB-INF/lib/a.jar"),
+				new DeployedResourceEntry(sha1, 200, "WEB-INF/lib/no-timestamp.jar")));
+
+		Map<String, DeployedResourceEntry> loaded = new DeployedResourceStore(storeFolder).load(app);
+		assertEquals(1, loaded.size());
+		DeployedResourceEntry entry = loaded.get("WEB-INF/lib/a.jar");
+		assertNotNull(entry);
+		assertEquals(100, entry.getFileSize());
+		assertEquals(12345, entry.getLastModified());
+		assertTrue(Arrays.equals(sha1, entry.getSha1()));
+		assertTrue(entry.isUpToDate(100, 12345));
+		assertFalse(entry.isUpToDate(100, 12346));
+		assertFalse(entry.isUpToDate(101, 12345));
+
+		assertTrue(store.load(new CachedDeployedApplication("otherApp")).isEmpty());
+	}
+
+	public void testCacheLoadsLazilyAndFlushes() throws Exception {
+		CachedDeployedApplication app = new CachedDeployedApplication("app");
+		byte[] sha1 = new byte[20];
+
+		DeployedResourceCache cache = new DeployedResourceCache(new DeployedResourceStore(storeFolder));
+		cache.add(app, new DeployedResourceEntry(sha1, 10, 1000, "index.html"));
+		cache.flush();
+
+		DeployedResourceCache restartedCache = new DeployedResourceCache(new DeployedResourceStore(storeFolder));
+		DeployedResourceEntry entry = restartedCache.getEntry(app, "index.html");
+		assertNotNull(entry);
+		assertEquals(10, entry.getFileSize());
+		assertNull(restartedCache.getEntry(app, "missing.html"));
+	}
+
+	public void testCorruptIndexDiscarded() throws Exception {
+		DeployedResourceStore store = new DeployedResourceStore(storeFolder);
+		CachedDeployedApplication app = new CachedDeployedApplication("app");
+		store.save(app, Arrays.asList(new DeployedResourceEntry(new byte[20], 10, 1000, "index.html")));
+
+		File[] indexFiles = storeFolder.listFiles();
+		assertEquals(1, indexFiles.length);
+		// Truncate the index
+		RandomAccessFile file = new RandomAccessFile(indexFiles[0], "rw");
+		file.setLength(indexFiles[0].length() - 5);
+		file.close();
+
+		assertTrue(store.load(app).isEmpty());
+		assertFalse(indexFiles[0].exists());
+	}
+
+	public void testEntriesScopedByServer() throws Exception {
+		DeployedResourceStore store = new DeployedResourceStore(storeFolder);
+		CachedDeployedApplication appInServer1 = new CachedDeployedApplication("server1", "app");
+		CachedDeployedApplication appInServer2 = new CachedDeployedApplication("server2", "app");
+		assertFalse(appInServer1.equals(appInServer2));
+
+		store.save(appInServer1, Arrays.asList(new DeployedResourceEntry(new byte[20], 10, 1000, "index.html")));
+		store.save(appInServer2, Arrays.asList(new DeployedResourceEntry(new byte[20], 20, 2000, "index.html")));
+
+		assertEquals(2, storeFolder.listFiles().length);
+		assertEquals(10, store.load(appInServer1).get("index.html").getFileSize());
+		assertEquals(20, store.load(appInServer2).get("index.html").getFileSize());
+		assertTrue(store.load(new CachedDeployedApplication("app")).isEmpty());
+	}
+
+	public void testFailedFlushRetried() throws Exception {
+		CachedDeployedApplication app = new CachedDeployedApplication("app");
+		final int[] failures = new int[] { 1 };
+		DeployedResourceCache cache = new DeployedResourceCache(new DeployedResourceStore(storeFolder) {
+			@Override
+			public void save(CachedDeployedApplication appID, Collection<DeployedResourceEntry> entries)
+					throws IOException {
+				if (failures[0]-- > 0) {
+					throw new IOException();
+				}
+				super.save(appID, entries);
+			}
+		});
+		cache.add(app, new DeployedResourceEntry(new byte[20], 10, 1000, "index.html"));
+		cache.flush();
+		assertNull(new DeployedResourceCache(new DeployedResourceStore(storeFolder)).getEntry(app, "index.html"));
+
+		cache.flush();
+		assertNotNull(new DeployedResourceCache(new DeployedResourceStore(storeFolder)).getEntry(app, "index.html"));
+	}
+
+	public void testRemoveDeletesPersistedEntries() throws Exception {
+		CachedDeployedApplication app = new CachedDeployedApplication("server1", "app");
+		DeployedResourceCache cache = new DeployedResourceCache(new DeployedResourceStore(storeFolder));
+		cache.add(app, new DeployedResourceEntry(new byte[20], 10, 1000, "index.html"));
+		cache.flush();
+		assertEquals(1, storeFolder.listFiles().length);
+
+		cache.remove(app);
+		assertNull(cache.getEntry(app, "index.html"));
+		assertEquals(0, storeFolder.listFiles().length);
+
+		DeployedResourceCache restartedCache = new DeployedResourceCache(new DeployedResourceStore(storeFolder));
+		assertNull(restartedCache.getEntry(app, "index.html"));
+	}
+}
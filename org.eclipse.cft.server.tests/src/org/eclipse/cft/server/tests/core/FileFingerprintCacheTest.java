@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import org.eclipse.cft.server.core.internal.FileFingerprintCache;
+import org.eclipse.cft.server.core.internal.FileFingerprintCache.Fingerprint;
+
+import junit.framework.TestCase;
+
+public class FileFingerprintCacheTest extends TestCase {
+
+	private File folder;
+
+	@Override
+	protected void setUp() throws Exception {
+		folder = File.createTempFile("fileFingerprintCache", null);
+		folder.delete();
+		folder.mkdirs();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		File[] files = folder.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		folder.delete();
+	}
+
+	public void testIdenticalContentStoredOnce() throws Exception {
+		FileFingerprintCache cache = new FileFingerprintCache(100, 1000);
+		File first = createFile("first.jar", 100);
+		File second = createFile("second.jar", 100);
+
+		cache.put(first, first.lastModified(), sha1(1), 100);
+		cache.put(second, second.lastModified(), sha1(1), 100);
+
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getContentCount());
+		assertEquals(100, cache.getBytes());
+		assertTrue(Arrays.equals(sha1(1), cache.get(first).getSha1()));
+		assertTrue(Arrays.equals(sha1(1), cache.get(second).getSha1()));
+	}
+
+	public void testChangedFileInvalidated() throws Exception {
+		FileFingerprintCache cache = new FileFingerprintCache(100, 1000);
+		File file = createFile("app.jar", 100);
+		cache.put(file, file.lastModified(), sha1(1), 100);
+
+		file.setLastModified(file.lastModified() - 10000);
+		assertNull(cache.get(file));
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getContentCount());
+		assertEquals(0, cache.getBytes());
+	}
+
+	public void testLeastRecentlyUsedContentEvictedBySize() throws Exception {
+		FileFingerprintCache cache = new FileFingerprintCache(100, 250);
+		File a = createFile("a.jar", 100);
+		File aCopy = createFile("a-copy.jar", 100);
+		File b = createFile("b.jar", 100);
+		File c = createFile("c.jar", 100);
+
+		cache.put(a, a.lastModified(), sha1(1), 100);
+		cache.put(aCopy, aCopy.lastModified(), sha1(1), 100);
+		cache.put(b, b.lastModified(), sha1(2), 100);
+		// Content of a is now more recently used than b
+		assertNotNull(cache.get(a));
+
+		cache.put(c, c.lastModified(), sha1(3), 100);
+		assertEquals(200, cache.getBytes());
+		assertNull(cache.get(b));
+		Fingerprint fingerprint = cache.get(aCopy);
+		assertNotNull(fingerprint);
+		assertEquals(100, fingerprint.getSize());
+		assertNotNull(cache.get(c));
+	}
+
+	public void testEvictionRemovesAllLocationsOfContent() throws Exception {
+		FileFingerprintCache cache = new FileFingerprintCache(3, 1000);
+		File a = createFile("a.jar", 10);
+		File aCopy = createFile("a-copy.jar", 10);
+		File b = createFile("b.jar", 10);
+		File c = createFile("c.jar", 10);
+
+		cache.put(a, a.lastModified(), sha1(1), 10);
+		cache.put(aCopy, aCopy.lastModified(), sha1(1), 10);
+		cache.put(b, b.lastModified(), sha1(2), 10);
+		cache.put(c, c.lastModified(), sha1(3), 10);
+
+		assertNull(cache.get(a));
+		assertNull(cache.get(aCopy));
+		assertEquals(2, cache.size());
+		assertEquals(20, cache.getBytes());
+	}
+
+	public void testContentLargerThanCacheNotKept() throws Exception {
+		FileFingerprintCache cache = new FileFingerprintCache(100, 50);
+		File file = createFile("large.jar", 100);
+		cache.put(file, file.lastModified(), sha1(1), 100);
+		assertNull(cache.get(file));
+		assertEquals(0, cache.getBytes());
+	}
+
+	private File createFile(String name, int size) throws Exception {
+		File file = new File(folder, name);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[size]);
+		}
+		finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static byte[] sha1(int value) {
+		byte[] sha1 = new byte[20];
+		sha1[0] = (byte) value;
+		return sha1;
+	}
+}
@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.cft.server.core.internal.log.CloudLog;
+import org.eclipse.cft.server.core.internal.log.LogContentType;
+import org.eclipse.cft.server.core.internal.log.LogIngestionPipeline;
+import org.eclipse.cft.server.core.internal.log.LogIngestionPipeline.LogBatchListener;
+import org.eclipse.cft.server.core.internal.log.LogIngestionPipeline.OverloadPolicy;
+import org.eclipse.cft.server.core.internal.log.LogRecord;
+
+import junit.framework.TestCase;
+
+public class LogIngestionPipelineTest extends TestCase {
+
+	/**
+	 * Collects the messages of batches, as records are reused, and optionally
+	 * blocks until released so that the pipeline fills up.
+	 */
+	private static class CollectingListener implements LogBatchListener {
+
+		final List<List<String>> batches = new ArrayList<List<String>>();
+
+		final AtomicLong dropped = new AtomicLong();
+
+		final CountDownLatch release;
+
+		final CountDownLatch ended = new CountDownLatch(1);
+
+		/**
+		 * Number of messages delivered before the stream ended
+		 */
+		volatile int messagesAtEnd = -1;
+
+		volatile Throwable error;
+
+		CollectingListener(CountDownLatch release) {
+			this.release = release;
+		}
+
+		public void onBatch(List<LogRecord> records, long droppedLogs) {
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				// Ignore
+			}
+			List<String> messages = new ArrayList<String>();
+			for (LogRecord record : records) {
+				messages.add(record.getMessage().trim());
+			}
+			synchronized (batches) {
+				batches.add(messages);
+			}
+			dropped.addAndGet(droppedLogs);
+		}
+
+		public void onComplete() {
+			messagesAtEnd = getMessages().size();
+			ended.countDown();
+		}
+
+		public void onError(Throwable exception) {
+			error = exception;
+			messagesAtEnd = getMessages().size();
+			ended.countDown();
+		}
+
+		List<String> getMessages() {
+			List<String> messages = new ArrayList<String>();
+			synchronized (batches) {
+				for (List<String> batch : batches) {
+					messages.addAll(batch);
+				}
+			}
+			return messages;
+		}
+	}
+
+	public void testBatchesInOrder() throws Exception {
+		CollectingListener listener = new CollectingListener(new CountDownLatch(0));
+		LogIngestionPipeline pipeline = new LogIngestionPipeline(listener, 1000, 10, 20, OverloadPolicy.DROP_NEWEST,
+				1);
+		for (int i = 0; i < 95; i++) {
+			pipeline.onMessage(log(i));
+		}
+		waitForRendered(pipeline, 95);
+
+		List<String> messages = listener.getMessages();
+		assertEquals(95, messages.size());
+		for (int i = 0; i < 95; i++) {
+			assertEquals("line " + i, messages.get(i));
+		}
+		for (List<String> batch : listener.batches) {
+			assertTrue(batch.size() <= 10);
+		}
+		assertTrue(listener.batches.size() < 95);
+		assertEquals(95, pipeline.getReceived());
+		assertEquals(0, pipeline.getDropped());
+	}
+
+	public void testDropNewest() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		CollectingListener listener = new CollectingListener(release);
+		LogIngestionPipeline pipeline = new LogIngestionPipeline(listener, 10, 1, 0, OverloadPolicy.DROP_NEWEST, 1);
+
+		pipeline.onMessage(log(0));
+		// Wait for the first batch to block in the listener
+		waitForBuffered(pipeline, 0);
+		for (int i = 1; i <= 20; i++) {
+			pipeline.onMessage(log(i));
+		}
+		release.countDown();
+		waitForRendered(pipeline, 11);
+
+		assertEquals(10, pipeline.getDropped());
+		List<String> messages = listener.getMessages();
+		assertEquals("line 10", messages.get(messages.size() - 1));
+		assertEquals(10, listener.dropped.get());
+	}
+
+	public void testDropOldest() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		CollectingListener listener = new CollectingListener(release);
+		LogIngestionPipeline pipeline = new LogIngestionPipeline(listener, 10, 1, 0, OverloadPolicy.DROP_OLDEST, 1);
+
+		pipeline.onMessage(log(0));
+		waitForBuffered(pipeline, 0);
+		for (int i = 1; i <= 20; i++) {
+			pipeline.onMessage(log(i));
+		}
+		release.countDown();
+		waitForRendered(pipeline, 11);
+
+		assertEquals(10, pipeline.getDropped());
+		List<String> messages = listener.getMessages();
+		assertEquals("line 11", messages.get(1));
+		assertEquals("line 20", messages.get(messages.size() - 1));
+	}
+
+	public void testSample() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		CollectingListener listener = new CollectingListener(release);
+		LogIngestionPipeline pipeline = new LogIngestionPipeline(listener, 100, 1, 0, OverloadPolicy.SAMPLE, 10);
+
+		pipeline.onMessage(log(0));
+		waitForBuffered(pipeline, 0);
+		// 75 buffered before sampling starts, then 1 in 10 of the next 100
+		for (int i = 1; i <= 175; i++) {
+			pipeline.onMessage(log(i));
+		}
+		assertEquals(85, pipeline.getBuffered());
+		assertEquals(90, pipeline.getDropped());
+		release.countDown();
+		waitForRendered(pipeline, 86);
+	}
+
+	public void testRecordsAreCopied() throws Exception {
+		CollectingListener listener = new CollectingListener(new CountDownLatch(0));
+		LogIngestionPipeline pipeline = new LogIngestionPipeline(listener, 100, 100, 20, OverloadPolicy.DROP_NEWEST,
+				1);
+		// The caller reuses the same record for every log
+		LogRecord record = new LogRecord();
+		for (int i = 0; i < 50; i++) {
+			record.set("guid", i, LogContentType.APPLICATION_LOG_STD_OUT, "APP", "0").setMessage("line " + i);
+			pipeline.onRecord(record);
+		}
+		pipeline.onMessage(log(50));
+		waitForRendered(pipeline, 51);
+
+		List<String> messages = listener.getMessages();
+		for (int i = 0; i <= 50; i++) {
+			assertEquals("line " + i, messages.get(i));
+		}
+	}
+
+	public void testClose() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		CollectingListener listener = new CollectingListener(release);
+		LogIngestionPipeline pipeline = new LogIngestionPipeline(listener, 100, 1, 0, OverloadPolicy.DROP_NEWEST, 1);
+		pipeline.onMessage(log(0));
+		waitForBuffered(pipeline, 0);
+		pipeline.onMessage(log(1));
+		pipeline.close();
+		pipeline.onMessage(log(2));
+		release.countDown();
+
+		assertEquals(0, pipeline.getBuffered());
+		assertEquals(2, pipeline.getReceived());
+	}
+
+	public void testCompleteAfterBufferedLogs() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		CollectingListener listener = new CollectingListener(release);
+		LogIngestionPipeline pipeline = new LogIngestionPipeline(listener, 1000, 10, 1000,
+				OverloadPolicy.DROP_NEWEST, 1);
+		for (int i = 0; i < 25; i++) {
+			pipeline.onMessage(log(i));
+		}
+		pipeline.onComplete();
+		// Ignored once the stream ended
+		pipeline.onMessage(log(25));
+		pipeline.onComplete();
+		release.countDown();
+
+		// Delivered without waiting for the batch delay
+		assertTrue(listener.ended.await(500, TimeUnit.MILLISECONDS));
+		assertEquals(25, listener.messagesAtEnd);
+		assertNull(listener.error);
+		assertEquals(25, pipeline.getRendered());
+		assertEquals(25, pipeline.getReceived());
+	}
+
+	public void testErrorAfterBufferedLogs() throws Exception {
+		CollectingListener listener = new CollectingListener(new CountDownLatch(0));
+		LogIngestionPipeline pipeline = new LogIngestionPipeline(listener, 1000, 10, 20, OverloadPolicy.DROP_NEWEST,
+				1);
+		for (int i = 0; i < 5; i++) {
+			pipeline.onMessage(log(i));
+		}
+		IllegalStateException error = new IllegalStateException();
+		pipeline.onError(error);
+
+		assertTrue(listener.ended.await(10, TimeUnit.SECONDS));
+		assertEquals(5, listener.messagesAtEnd);
+		assertSame(error, listener.error);
+	}
+
+	public void testCompleteWithoutLogs() throws Exception {
+		CollectingListener listener = new CollectingListener(new CountDownLatch(0));
+		LogIngestionPipeline pipeline = new LogIngestionPipeline(listener, 1000, 10, 20, OverloadPolicy.DROP_NEWEST,
+				1);
+		pipeline.onComplete();
+
+		assertTrue(listener.ended.await(10, TimeUnit.SECONDS));
+		assertEquals(0, listener.messagesAtEnd);
+	}
+
+	private static CloudLog log(int i) {
+		return new CloudLog("line " + i, LogContentType.APPLICATION_LOG_STD_OUT);
+	}
+
+	private static void waitForRendered(LogIngestionPipeline pipeline, long rendered) throws InterruptedException {
+		long end = System.currentTimeMillis() + 10000;
+		while (pipeline.getRendered() < rendered && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertEquals(rendered, pipeline.getRendered());
+	}
+
+	private static void waitForBuffered(LogIngestionPipeline pipeline, int buffered) throws InterruptedException {
+		long end = System.currentTimeMillis() + 10000;
+		while (pipeline.getBuffered() != buffered && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertEquals(buffered, pipeline.getBuffered());
+	}
+}
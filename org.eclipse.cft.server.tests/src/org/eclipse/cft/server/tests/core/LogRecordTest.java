@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.eclipse.cft.server.core.internal.log.CloudLog;
+import org.eclipse.cft.server.core.internal.log.LogContentType;
+import org.eclipse.cft.server.core.internal.log.LogRecord;
+
+import junit.framework.TestCase;
+
+public class LogRecordTest extends TestCase {
+
+	public void testUtf8Payload() throws Exception {
+		String message = "ascii \u00e9\u20ac \ud83d\ude00";
+		LogRecord record = new LogRecord().setMessage(message);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		record.writeTo(out);
+		assertTrue(Arrays.equals((message + "\n").getBytes(StandardCharsets.UTF_8), out.toByteArray()));
+		assertEquals(message + "\n", record.getMessage());
+
+		// Line breaks are only added if the message has none
+		assertEquals("line\r\n", record.setMessage("line\r\n").getMessage());
+		byte[] bytes = "bytes".getBytes(StandardCharsets.UTF_8);
+		assertEquals("bytes\n", record.setMessage(bytes, 0, bytes.length).getMessage());
+	}
+
+	public void testReuse() throws Exception {
+		LogRecord record = new LogRecord();
+		StringBuilder longMessage = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			longMessage.append('x');
+		}
+		record.setMessage(longMessage);
+		byte[] payload = record.getPayload();
+		record.setMessage("short");
+		assertSame(payload, record.getPayload());
+		assertEquals("short\n", record.getMessage());
+
+		LogRecord copy = new LogRecord().copyFrom(record);
+		record.setMessage("changed");
+		assertEquals("short\n", copy.getMessage());
+	}
+
+	public void testCloudLogConversion() throws Exception {
+		CloudLog log = new CloudLog(new String("guid"), "message\n", new Date(1234),
+				LogContentType.APPLICATION_LOG_STS_ERROR, new String("APP"), new String("0"));
+		LogRecord record = new LogRecord().set(log);
+		assertEquals(1234000000L, record.getTimestampNanos());
+		assertSame(LogRecord.intern("APP"), record.getSourceName());
+		assertSame(record.getSourceId(), new LogRecord().set(log).getSourceId());
+
+		CloudLog converted = record.toCloudLog();
+		assertEquals("guid", converted.getAppId());
+		assertEquals("message\n", converted.getMessage());
+		assertEquals(1234, converted.getTimestamp().getTime());
+		assertEquals(LogContentType.APPLICATION_LOG_STS_ERROR, converted.getLogType());
+		assertEquals("0", converted.getSourceId());
+	}
+}
@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.client.lib.domain.CloudApplication;
+import org.cloudfoundry.client.lib.domain.CloudEntity.Meta;
+import org.eclipse.cft.server.core.internal.CloudFoundryServer;
+import org.eclipse.cft.server.core.internal.ModuleCache;
+import org.eclipse.cft.server.core.internal.ModuleCache.ServerData;
+import org.eclipse.cft.server.core.internal.client.CloudFoundryApplicationModule;
+import org.eclipse.wst.server.core.IServer;
+
+import junit.framework.TestCase;
+
+public class ModuleCacheTest extends TestCase {
+
+	private ModuleCache cache;
+
+	private ServerData data;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		cache = new ModuleCache();
+		final TestCloudFoundryServer cloudServer = new TestCloudFoundryServer();
+		IServer server = (IServer) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { IServer.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("loadAdapter".equals(method.getName()) || "getAdapter".equals(method.getName())) { //$NON-NLS-1$ //$NON-NLS-2$
+							return CloudFoundryServer.class.equals(args[0]) ? cloudServer : null;
+						}
+						if ("hashCode".equals(method.getName())) { //$NON-NLS-1$
+							return System.identityHashCode(proxy);
+						}
+						if ("equals".equals(method.getName())) { //$NON-NLS-1$
+							return proxy == args[0];
+						}
+						if ("toString".equals(method.getName())) { //$NON-NLS-1$
+							return "server"; //$NON-NLS-1$
+						}
+						return null;
+					}
+				});
+		data = cache.getData(server);
+		cloudServer.data = data;
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		cache.dispose();
+		super.tearDown();
+	}
+
+	public void testLookupByNameAndGuid() throws Exception {
+		UUID guid = UUID.randomUUID();
+		CloudFoundryApplicationModule module = data.createModule(createApp(guid, "app")); //$NON-NLS-1$
+
+		assertSame(module, data.getExistingCloudModule("app")); //$NON-NLS-1$
+		assertSame(module, data.getExistingCloudModuleByGuid(guid));
+		assertNull(data.getExistingCloudModule("other")); //$NON-NLS-1$
+		assertNull(data.getExistingCloudModuleByGuid(UUID.randomUUID()));
+	}
+
+	public void testFirstMatchWins() throws Exception {
+		CloudFoundryApplicationModule first = data.createModule(createApp(UUID.randomUUID(), "app")); //$NON-NLS-1$
+		CloudFoundryApplicationModule second = data.createModule(createApp(UUID.randomUUID(), "app")); //$NON-NLS-1$
+
+		assertSame(first, data.getExistingCloudModule("app")); //$NON-NLS-1$
+
+		// Re-indexing a later module must not take over the entry
+		data.index(second);
+		assertSame(first, data.getExistingCloudModule("app")); //$NON-NLS-1$
+
+		data.remove(first);
+		assertSame(second, data.getExistingCloudModule("app")); //$NON-NLS-1$
+	}
+
+	public void testRenamedModuleNotFoundByOldName() throws Exception {
+		UUID guid = UUID.randomUUID();
+		CloudFoundryApplicationModule module = data.createModule(createApp(guid, "app")); //$NON-NLS-1$
+		assertSame(module, data.getExistingCloudModule("app")); //$NON-NLS-1$
+
+		module.setCloudApplication(createApp(guid, "renamed")); //$NON-NLS-1$
+
+		assertNull(data.getExistingCloudModule("app")); //$NON-NLS-1$
+		assertSame(module, data.getExistingCloudModule("renamed")); //$NON-NLS-1$
+		assertSame(module, data.getExistingCloudModuleByGuid(guid));
+	}
+
+	public void testRenamedModuleKeepsListOrder() throws Exception {
+		UUID firstGuid = UUID.randomUUID();
+		UUID secondGuid = UUID.randomUUID();
+		CloudFoundryApplicationModule first = data.createModule(createApp(firstGuid, "first")); //$NON-NLS-1$
+		CloudFoundryApplicationModule second = data.createModule(createApp(secondGuid, "second")); //$NON-NLS-1$
+
+		// A later module renamed to the name of an earlier one does not take
+		// over the name
+		second.setCloudApplication(createApp(secondGuid, "first")); //$NON-NLS-1$
+		assertSame(first, data.getExistingCloudModule("first")); //$NON-NLS-1$
+		assertNull(data.getExistingCloudModule("second")); //$NON-NLS-1$
+
+		first.setCloudApplication(createApp(firstGuid, "renamed")); //$NON-NLS-1$
+		assertSame(second, data.getExistingCloudModule("first")); //$NON-NLS-1$
+		assertSame(first, data.getExistingCloudModule("renamed")); //$NON-NLS-1$
+
+		first.setCloudApplication(createApp(firstGuid, "first")); //$NON-NLS-1$
+		assertSame(first, data.getExistingCloudModule("first")); //$NON-NLS-1$
+		assertNull(data.getExistingCloudModule("renamed")); //$NON-NLS-1$
+	}
+
+	public void testRemovedModuleNotFound() throws Exception {
+		UUID guid = UUID.randomUUID();
+		CloudFoundryApplicationModule module = data.createModule(createApp(guid, "app")); //$NON-NLS-1$
+
+		data.remove(module);
+		data.index(module);
+
+		assertNull(data.getExistingCloudModule("app")); //$NON-NLS-1$
+		assertNull(data.getExistingCloudModuleByGuid(guid));
+		assertTrue(data.getExistingCloudModules().isEmpty());
+	}
+
+	public void testConcurrentIndexAndRemove() throws Exception {
+		final int count = 50;
+		final List<CloudFoundryApplicationModule> modules = new ArrayList<CloudFoundryApplicationModule>();
+		final List<UUID> guids = new ArrayList<UUID>();
+		for (int i = 0; i < count; i++) {
+			UUID guid = UUID.randomUUID();
+			guids.add(guid);
+			modules.add(data.createModule(createApp(guid, "app" + i))); //$NON-NLS-1$
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		final CountDownLatch start = new CountDownLatch(1);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			// Indexing and lookups race with removal of every other module
+			for (int t = 0; t < 3; t++) {
+				futures.add(executor.submit(new Runnable() {
+					public void run() {
+						await(start);
+						for (int round = 0; round < 20; round++) {
+							for (int i = 0; i < count; i++) {
+								data.index(modules.get(i));
+								data.getExistingCloudModule("app" + i); //$NON-NLS-1$
+								data.getExistingCloudModuleByGuid(guids.get(i));
+							}
+						}
+					}
+				}));
+			}
+			futures.add(executor.submit(new Runnable() {
+				public void run() {
+					await(start);
+					for (int i = 0; i < count; i += 2) {
+						data.remove(modules.get(i));
+					}
+				}
+			}));
+			start.countDown();
+			for (Future<?> future : futures) {
+				future.get(30, TimeUnit.SECONDS);
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		for (int i = 0; i < count; i++) {
+			if (i % 2 == 0) {
+				assertNull(data.getExistingCloudModule("app" + i)); //$NON-NLS-1$
+				assertNull(data.getExistingCloudModuleByGuid(guids.get(i)));
+			}
+			else {
+				assertSame(modules.get(i), data.getExistingCloudModule("app" + i)); //$NON-NLS-1$
+				assertSame(modules.get(i), data.getExistingCloudModuleByGuid(guids.get(i)));
+			}
+		}
+		assertEquals(count / 2, data.getExistingCloudModules().size());
+	}
+
+	public void testConcurrentCreateKeepsFirstMatch() throws Exception {
+		final CloudFoundryApplicationModule first = data.createModule(createApp(UUID.randomUUID(), "app")); //$NON-NLS-1$
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		final CountDownLatch start = new CountDownLatch(1);
+		try {
+			List<Future<CloudFoundryApplicationModule>> futures = new ArrayList<Future<CloudFoundryApplicationModule>>();
+			for (int t = 0; t < 4; t++) {
+				futures.add(executor.submit(new Callable<CloudFoundryApplicationModule>() {
+					public CloudFoundryApplicationModule call() throws Exception {
+						await(start);
+						CloudFoundryApplicationModule found = null;
+						for (int i = 0; i < 10; i++) {
+							CloudFoundryApplicationModule module = data
+									.createModule(createApp(UUID.randomUUID(), "app")); //$NON-NLS-1$
+							data.index(module);
+							found = data.getExistingCloudModule("app"); //$NON-NLS-1$
+							if (found != first) {
+								return found;
+							}
+						}
+						return found;
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<CloudFoundryApplicationModule> future : futures) {
+				assertSame(first, future.get(30, TimeUnit.SECONDS));
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		assertEquals(41, data.getExistingCloudModules().size());
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static CloudApplication createApp(UUID guid, String name) {
+		return new CloudApplication(new Meta(guid, new Date(0), new Date(0)), name);
+	}
+
+	/**
+	 * Routes module index updates to the server data under test, without
+	 * persisting the local module mapping
+	 */
+	static class TestCloudFoundryServer extends CloudFoundryServer {
+
+		volatile ServerData data;
+
+		@Override
+		public void updateApplicationModule(CloudFoundryApplicationModule module) {
+			updateApplicationModuleIndex(module);
+		}
+
+		@Override
+		public void updateApplicationModuleIndex(CloudFoundryApplicationModule module) {
+			if (data != null) {
+				data.index(module);
+			}
+		}
+	}
+}
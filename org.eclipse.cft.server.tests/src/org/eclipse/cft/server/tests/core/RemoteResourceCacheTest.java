@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.cft.server.core.ArchiveEntry;
+import org.eclipse.cft.server.core.internal.RemoteResourceCache;
+
+import junit.framework.TestCase;
+
+public class RemoteResourceCacheTest extends TestCase {
+
+	private static final String TARGET = "https://api.run.example.com";
+
+	private static final long TTL = 60000;
+
+	private long now;
+
+	private RemoteResourceCache cache;
+
+	private ArchiveEntry jar;
+
+	private ArchiveEntry otherJar;
+
+	private ArchiveEntry smallFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		now = 1000;
+		cache = new RemoteResourceCache(TTL) {
+			@Override
+			protected long now() {
+				return now;
+			}
+		};
+		jar = new TestEntry("WEB-INF/lib/a.jar", new byte[] { 1, 2, 3 }, 200000);
+		otherJar = new TestEntry("WEB-INF/lib/b.jar", new byte[] { 4, 5, 6 }, 300000);
+		smallFile = new TestEntry("index.html", new byte[] { 7, 8, 9 }, 100);
+	}
+
+	public void testConfirmMatchedEntries() throws Exception {
+		List<ArchiveEntry> entries = Arrays.asList(jar, otherJar, smallFile);
+		cache.confirm(TARGET, entries, Collections.singleton(jar.getName()));
+
+		assertTrue(cache.isConfirmed(TARGET, jar));
+		assertFalse(cache.isConfirmed(TARGET, otherJar));
+		assertFalse(cache.isConfirmed("https://api.other.example.com", jar));
+
+		// Same content under a different name is also known to the target
+		assertTrue(cache.isConfirmed(TARGET, new TestEntry("lib/copy.jar", new byte[] { 1, 2, 3 }, 200000)));
+	}
+
+	public void testSmallFilesNotConfirmed() throws Exception {
+		cache.confirm(TARGET, Arrays.asList(smallFile), null);
+		assertFalse(cache.isConfirmed(TARGET, smallFile));
+	}
+
+	public void testConfirmationExpires() throws Exception {
+		cache.confirm(TARGET, Arrays.asList(jar), null);
+		now += TTL;
+		assertTrue(cache.isConfirmed(TARGET, jar));
+		now += 1;
+		assertFalse(cache.isConfirmed(TARGET, jar));
+	}
+
+	public void testInvalidate() throws Exception {
+		cache.confirm(TARGET, Arrays.asList(jar, otherJar), null);
+		cache.invalidate(TARGET);
+		assertFalse(cache.isConfirmed(TARGET, jar));
+		assertFalse(cache.isConfirmed(TARGET, otherJar));
+	}
+
+	public void testConfirmedNames() throws Exception {
+		List<ArchiveEntry> entries = Arrays.asList(jar, otherJar, smallFile);
+		// Nothing is known about the target, so nothing can be predicted
+		assertNull(cache.getConfirmedNames(TARGET, entries));
+
+		cache.confirm(TARGET, entries, Collections.singleton(jar.getName()));
+		assertEquals(Collections.singleton(jar.getName()), cache.getConfirmedNames(TARGET, entries));
+
+		now += TTL + 1;
+		assertTrue(cache.getConfirmedNames(TARGET, entries).isEmpty());
+	}
+
+	public void testLeastRecentlyUsedTargetDiscarded() throws Exception {
+		cache.confirm(TARGET, Arrays.asList(jar), null);
+		for (int i = 1; i < 20; i++) {
+			cache.confirm("https://api" + i + ".example.com", Arrays.asList(jar), null);
+			// Keep the first target in use
+			assertTrue(cache.isConfirmed(TARGET, jar));
+		}
+		assertTrue(cache.isConfirmed(TARGET, jar));
+		assertFalse(cache.isConfirmed("https://api1.example.com", jar));
+		assertTrue(cache.isConfirmed("https://api19.example.com", jar));
+	}
+
+	public void testExpiredConfirmationsPurged() throws Exception {
+		cache.confirm(TARGET, Arrays.asList(jar), null);
+		now += TTL + 1;
+		cache.confirm(TARGET, Arrays.asList(otherJar), null);
+		assertEquals(Collections.singleton(otherJar.getName()),
+				cache.getConfirmedNames(TARGET, Arrays.asList(jar, otherJar)));
+	}
+
+	public void testOldestConfirmationsEvicted() throws Exception {
+		cache = new RemoteResourceCache(TTL, 2) {
+			@Override
+			protected long now() {
+				return now;
+			}
+		};
+		ArchiveEntry thirdJar = new TestEntry("WEB-INF/lib/c.jar", new byte[] { 10, 11, 12 }, 400000);
+		cache.confirm(TARGET, Arrays.asList(jar), null);
+		now += 10;
+		cache.confirm(TARGET, Arrays.asList(otherJar), null);
+		now += 10;
+		// Confirming again makes it the most recent confirmation
+		cache.confirm(TARGET, Arrays.asList(jar), null);
+		now += 10;
+		cache.confirm(TARGET, Arrays.asList(thirdJar), null);
+
+		assertTrue(cache.isConfirmed(TARGET, jar));
+		assertFalse(cache.isConfirmed(TARGET, otherJar));
+		assertTrue(cache.isConfirmed(TARGET, thirdJar));
+	}
+
+	public void testDigestNotComputedWhileLocked() throws Exception {
+		cache.confirm(TARGET, Arrays.asList(jar), null);
+
+		final CountDownLatch hashing = new CountDownLatch(1);
+		final CountDownLatch hashed = new CountDownLatch(1);
+		final ArchiveEntry slowJar = new TestEntry("WEB-INF/lib/slow.jar", new byte[] { 13, 14, 15 }, 500000) {
+			@Override
+			public byte[] getSha1Digest() {
+				hashing.countDown();
+				try {
+					hashed.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.getSha1Digest();
+			}
+		};
+		Thread push = new Thread() {
+			@Override
+			public void run() {
+				cache.confirm(TARGET, Arrays.asList(slowJar), null);
+			}
+		};
+		push.start();
+		try {
+			assertTrue(hashing.await(5, TimeUnit.SECONDS));
+
+			final boolean[] confirmed = new boolean[1];
+			Thread otherPush = new Thread() {
+				@Override
+				public void run() {
+					confirmed[0] = cache.isConfirmed(TARGET, jar);
+				}
+			};
+			otherPush.start();
+			otherPush.join(5000);
+			assertFalse("Cache locked while computing a sha1 code", otherPush.isAlive());
+			assertTrue(confirmed[0]);
+		}
+		finally {
+			hashed.countDown();
+			push.join(5000);
+		}
+		assertTrue(cache.isConfirmed(TARGET, slowJar));
+	}
+
+	private static class TestEntry implements ArchiveEntry {
+
+		private final String name;
+
+		private final byte[] sha1;
+
+		private final long size;
+
+		TestEntry(String name, byte[] sha1, long size) {
+			this.name = name;
+			this.sha1 = sha1;
+			this.size = size;
+		}
+
+		public boolean isDirectory() {
+			return false;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public byte[] getSha1Digest() {
+			return sha1;
+		}
+
+		public InputStream getInputStream() throws IOException {
+			return null;
+		}
+	}
+}
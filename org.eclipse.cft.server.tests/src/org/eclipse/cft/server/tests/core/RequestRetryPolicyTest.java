@@ -0,0 +1,268 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.cft.server.core.internal.CloudErrorUtil;
+import org.eclipse.cft.server.core.internal.client.RequestRetryPolicy;
+import org.eclipse.cft.server.core.internal.client.RequestRetryPolicy.RetryableRequest;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+import junit.framework.TestCase;
+
+public class RequestRetryPolicyTest extends TestCase {
+
+	private static final String TARGET = "https://api.example.com";
+
+	/**
+	 * Records waits instead of sleeping, and advances its clock by the waited
+	 * time.
+	 */
+	private static class TestPolicy extends RequestRetryPolicy {
+
+		final List<Long> waits = new ArrayList<Long>();
+
+		long now = 1000000;
+
+		TestPolicy(int budget, int threshold) {
+			super(8000, budget, threshold, 30000);
+		}
+
+		@Override
+		protected long waitBeforeRetry(long interval, IProgressMonitor monitor) {
+			waits.add(interval);
+			now += interval;
+			return interval;
+		}
+
+		@Override
+		protected long currentTimeMillis() {
+			return now;
+		}
+	}
+
+	/**
+	 * Fails a given number of times with the given error before succeeding.
+	 */
+	private static class FailingRequest implements RetryableRequest<String> {
+
+		final RuntimeException error;
+
+		final long interval;
+
+		int failures;
+
+		int attempts;
+
+		FailingRequest(RuntimeException error, int failures, long interval) {
+			this.error = error;
+			this.failures = failures;
+			this.interval = interval;
+		}
+
+		public String attempt() throws CoreException {
+			attempts++;
+			if (failures-- > 0) {
+				throw error;
+			}
+			return "done";
+		}
+
+		public long getRetryInterval(Throwable error) {
+			return interval;
+		}
+
+		public long getRetryTimeout() {
+			return 60000;
+		}
+
+		public CoreException getErrorOnLastFailedAttempt(Throwable error) {
+			return CloudErrorUtil.toCoreException(error);
+		}
+
+		public String getRequestLabel() {
+			return "test";
+		}
+	}
+
+	public void testBacksOffExponentially() throws Exception {
+		TestPolicy policy = new TestPolicy(100, 100);
+		FailingRequest request = new FailingRequest(new HttpServerErrorException(HttpStatus.BAD_GATEWAY), 5, 1000);
+
+		assertEquals("done", policy.run(TARGET, request, new NullProgressMonitor()));
+
+		assertEquals(6, request.attempts);
+		assertEquals(5, policy.waits.size());
+		long[] expected = { 1000, 2000, 4000, 8000, 8000 };
+		for (int i = 0; i < expected.length; i++) {
+			long wait = policy.waits.get(i);
+			assertTrue("Unexpected wait " + wait, wait >= expected[i] * 0.8 && wait <= expected[i] * 1.2);
+		}
+		assertEquals(6, policy.getStatistics().getAttempts());
+		assertEquals(5, policy.getStatistics().getRetries());
+	}
+
+	public void testPollingKeepsInterval() throws Exception {
+		TestPolicy policy = new TestPolicy(100, 100);
+		// Target responds, but the request is still waiting, for example for
+		// staging to finish
+		FailingRequest request = new FailingRequest(new IllegalStateException(), 5, 2000);
+
+		assertEquals("done", policy.run(TARGET, request, new NullProgressMonitor()));
+
+		assertEquals(6, request.attempts);
+		assertEquals(5, policy.waits.size());
+		for (long wait : policy.waits) {
+			assertEquals(2000, wait);
+		}
+	}
+
+	public void testNoReattemptWithoutInterval() throws Exception {
+		TestPolicy policy = new TestPolicy(100, 100);
+		FailingRequest request = new FailingRequest(new IllegalStateException(), 1, -1);
+		try {
+			policy.run(TARGET, request, new NullProgressMonitor());
+			fail("Expected error");
+		}
+		catch (CoreException e) {
+			// expected
+		}
+		assertEquals(1, request.attempts);
+		assertTrue(policy.waits.isEmpty());
+	}
+
+	public void testHonoursRetryAfter() throws Exception {
+		HttpHeaders headers = new HttpHeaders();
+		headers.set("Retry-After", "3");
+		HttpServerErrorException unavailable = new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE,
+				"unavailable", headers, null, null);
+		assertEquals(3000, RequestRetryPolicy.getRetryAfter(unavailable));
+
+		TestPolicy policy = new TestPolicy(100, 100);
+		FailingRequest request = new FailingRequest(unavailable, 1, 1000);
+		assertEquals("done", policy.run(TARGET, request, new NullProgressMonitor()));
+		assertEquals(3000, (long) policy.waits.get(0));
+
+		// Requests that must not be attempted again, for example because
+		// they are not idempotent, are not attempted again
+		policy = new TestPolicy(100, 100);
+		request = new FailingRequest(unavailable, 1, -1);
+		try {
+			policy.run(TARGET, request, new NullProgressMonitor());
+			fail("Expected error");
+		}
+		catch (CoreException e) {
+			// expected
+		}
+		assertEquals(1, request.attempts);
+		assertTrue(policy.waits.isEmpty());
+
+		HttpClientErrorException notFound = new HttpClientErrorException(HttpStatus.NOT_FOUND, "missing", headers,
+				null, null);
+		assertEquals(-1, RequestRetryPolicy.getRetryAfter(notFound));
+	}
+
+	public void testCircuitBreakerRefusesReattempts() throws Exception {
+		TestPolicy policy = new TestPolicy(100, 3);
+		HttpServerErrorException serverError = new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+
+		FailingRequest request = new FailingRequest(serverError, 100, 1000);
+		try {
+			policy.run(TARGET, request, new NullProgressMonitor());
+			fail("Expected error");
+		}
+		catch (CoreException e) {
+			// expected
+		}
+		assertEquals(3, request.attempts);
+		assertTrue(policy.isCircuitOpen(TARGET));
+		assertFalse(policy.isCircuitOpen("https://api.other.com"));
+		assertEquals(1, policy.getStatistics().getBreakerOpened());
+
+		// First attempts still go through, and close the breaker on success
+		request = new FailingRequest(serverError, 0, 1000);
+		assertEquals("done", policy.run(TARGET, request, new NullProgressMonitor()));
+		assertFalse(policy.isCircuitOpen(TARGET));
+	}
+
+	public void testRetryBudget() throws Exception {
+		TestPolicy policy = new TestPolicy(3, 100);
+		FailingRequest request = new FailingRequest(new HttpServerErrorException(HttpStatus.BAD_GATEWAY), 100, 1);
+		try {
+			policy.run(TARGET, request, new NullProgressMonitor());
+			fail("Expected error");
+		}
+		catch (CoreException e) {
+			// expected
+		}
+		assertEquals(4, request.attempts);
+		assertEquals(1, policy.getStatistics().getRefusedByBudget());
+	}
+
+	public void testPollingNotLimitedByBudget() throws Exception {
+		TestPolicy policy = new TestPolicy(3, 1);
+		// Target responds, but the request is still waiting, for example for
+		// staging to finish
+		FailingRequest request = new FailingRequest(new IllegalStateException(), 10, 1);
+
+		assertEquals("done", policy.run(TARGET, request, new NullProgressMonitor()));
+
+		assertEquals(11, request.attempts);
+		assertEquals(0, policy.getStatistics().getRefusedByBudget());
+		assertEquals(0, policy.getStatistics().getRefusedByBreaker());
+	}
+
+	public void testUnknownTargetNotShared() throws Exception {
+		TestPolicy policy = new TestPolicy(3, 100);
+		HttpServerErrorException serverError = new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+		for (int i = 0; i < 2; i++) {
+			FailingRequest request = new FailingRequest(serverError, 3, 1);
+			assertEquals("done", policy.run(null, request, new NullProgressMonitor()));
+			assertEquals(4, request.attempts);
+		}
+		assertEquals(0, policy.getStatistics().getRefusedByBudget());
+		assertFalse(policy.isCircuitOpen(null));
+	}
+
+	public void testCancelled() throws Exception {
+		TestPolicy policy = new TestPolicy(100, 100);
+		NullProgressMonitor monitor = new NullProgressMonitor();
+		monitor.setCanceled(true);
+		FailingRequest request = new FailingRequest(new IllegalStateException(), 5, 1000);
+		try {
+			policy.run(TARGET, request, monitor);
+			fail("Expected cancellation");
+		}
+		catch (OperationCanceledException e) {
+			// expected
+		}
+		assertEquals(1, request.attempts);
+	}
+}
@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.cft.server.core.internal.CloudFoundryServer;
+import org.eclipse.cft.server.core.internal.CloudServerEvent;
+import org.eclipse.cft.server.core.internal.CloudServerListener;
+import org.eclipse.cft.server.core.internal.ServerEventHandler;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.wst.server.core.IModule;
+
+import junit.framework.TestCase;
+
+public class ServerEventHandlerTest extends TestCase {
+
+	private static final String PLUGIN_ID = "org.eclipse.cft.server.tests"; //$NON-NLS-1$
+
+	private ServerEventHandler handler;
+
+	private CloudFoundryServer server;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		handler = new ServerEventHandler() {
+		};
+		server = new CloudFoundryServer();
+	}
+
+	public void testEventsDeliveredInOrderPerListener() throws Exception {
+		RecordingListener first = new RecordingListener(100);
+		RecordingListener second = new RecordingListener(100);
+		handler.addServerListener(first);
+		handler.addServerListener(second);
+
+		for (int i = 0; i < 100; i++) {
+			handler.fireServerEvent(createEvent(i));
+		}
+
+		assertTrue(first.await());
+		assertTrue(second.await());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(String.valueOf(i), first.events.get(i).getStatus().getMessage());
+			assertEquals(String.valueOf(i), second.events.get(i).getStatus().getMessage());
+		}
+	}
+
+	public void testSlowListenerDoesNotDelayOthers() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		RecordingListener slow = new RecordingListener(1) {
+			@Override
+			public void serverChanged(CloudServerEvent event) {
+				awaitQuietly(release);
+				super.serverChanged(event);
+			}
+		};
+		RecordingListener fast = new RecordingListener(1);
+		handler.addServerListener(slow);
+		handler.addServerListener(fast);
+
+		handler.fireUpdateCompleted(server);
+
+		assertTrue(fast.await());
+		assertEquals(1, slow.latch.getCount());
+		release.countDown();
+		assertTrue(slow.await());
+	}
+
+	public void testFailingListenerIsIsolated() throws Exception {
+		RecordingListener failing = new RecordingListener(3) {
+			@Override
+			public void serverChanged(CloudServerEvent event) {
+				super.serverChanged(event);
+				throw new RuntimeException("Expected failure in test listener"); //$NON-NLS-1$
+			}
+		};
+		RecordingListener other = new RecordingListener(3);
+		handler.addServerListener(failing);
+		handler.addServerListener(other);
+
+		for (int i = 0; i < 3; i++) {
+			handler.fireServerEvent(createEvent(i));
+		}
+
+		// The failing listener still receives the events that follow a
+		// failure
+		assertTrue(failing.await());
+		assertTrue(other.await());
+		assertEquals(3, failing.events.size());
+		assertEquals(3, other.events.size());
+	}
+
+	public void testModuleUpdatesCoalesced() throws Exception {
+		IModule module = createModule();
+		IModule otherModule = createModule();
+		RecordingListener listener = new RecordingListener(3);
+		handler.addServerListener(listener);
+
+		for (int i = 0; i < 10; i++) {
+			handler.fireModuleUpdated(server, module);
+		}
+		handler.fireModuleUpdated(server, otherModule);
+		// Never coalesced
+		handler.fireUpdateCompleted(server);
+
+		assertTrue(listener.await());
+		Thread.sleep(ServerEventHandler.COALESCE_WINDOW * 4);
+		assertEquals(3, listener.events.size());
+	}
+
+	public void testRemovedListenerNotNotified() throws Exception {
+		RecordingListener listener = new RecordingListener(1);
+		handler.addServerListener(listener);
+		handler.removeServerListener(listener);
+
+		handler.fireUpdateCompleted(server);
+
+		assertFalse(listener.latch.await(ServerEventHandler.COALESCE_WINDOW * 4, TimeUnit.MILLISECONDS));
+		assertTrue(listener.events.isEmpty());
+	}
+
+	public void testRemoveWaitsForDelivery() throws Exception {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final AtomicBoolean handled = new AtomicBoolean();
+		CloudServerListener listener = new CloudServerListener() {
+			public void serverChanged(CloudServerEvent event) {
+				entered.countDown();
+				try {
+					Thread.sleep(200);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				handled.set(true);
+			}
+		};
+		handler.addServerListener(listener);
+		handler.fireUpdateCompleted(server);
+		handler.fireUpdateCompleted(server);
+
+		assertTrue(entered.await(5, TimeUnit.SECONDS));
+		handler.removeServerListener(listener);
+
+		// The event being delivered was handled before removal returned, and
+		// the queued event is dropped
+		assertTrue(handled.get());
+	}
+
+	public void testListenerMayRemoveItself() throws Exception {
+		final CountDownLatch removed = new CountDownLatch(1);
+		CloudServerListener listener = new CloudServerListener() {
+			public void serverChanged(CloudServerEvent event) {
+				handler.removeServerListener(this);
+				removed.countDown();
+			}
+		};
+		handler.addServerListener(listener);
+
+		handler.fireUpdateCompleted(server);
+
+		assertTrue(removed.await(ServerEventHandler.REMOVE_TIMEOUT / 2, TimeUnit.MILLISECONDS));
+	}
+
+	private CloudServerEvent createEvent(int index) {
+		return new CloudServerEvent(server, CloudServerEvent.EVENT_UPDATE_COMPLETED,
+				new Status(IStatus.OK, PLUGIN_ID, String.valueOf(index)));
+	}
+
+	private static IModule createModule() {
+		return (IModule) Proxy.newProxyInstance(IModule.class.getClassLoader(), new Class<?>[] { IModule.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("hashCode".equals(method.getName())) { //$NON-NLS-1$
+							return System.identityHashCode(proxy);
+						}
+						if ("equals".equals(method.getName())) { //$NON-NLS-1$
+							return proxy == args[0];
+						}
+						if ("toString".equals(method.getName())) { //$NON-NLS-1$
+							return "module"; //$NON-NLS-1$
+						}
+						return null;
+					}
+				});
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static class RecordingListener implements CloudServerListener {
+
+		final List<CloudServerEvent> events = Collections.synchronizedList(new ArrayList<CloudServerEvent>());
+
+		final CountDownLatch latch;
+
+		RecordingListener(int expected) {
+			this.latch = new CountDownLatch(expected);
+		}
+
+		public void serverChanged(CloudServerEvent event) {
+			events.add(event);
+			latch.countDown();
+		}
+
+		boolean await() throws InterruptedException {
+			return latch.await(5, TimeUnit.SECONDS);
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.cloudfoundry.client.lib.domain.ApplicationStats;
+import org.cloudfoundry.client.lib.domain.CloudApplication;
+import org.cloudfoundry.client.lib.domain.CloudApplication.AppState;
+import org.cloudfoundry.client.lib.domain.CloudEntity.Meta;
+import org.cloudfoundry.client.lib.domain.InstanceStats;
+import org.eclipse.cft.server.core.internal.client.CFV1Application;
+import org.eclipse.cft.server.core.internal.client.SpaceSnapshot;
+
+import junit.framework.TestCase;
+
+public class SpaceSnapshotTest extends TestCase {
+
+	private static final long MAX_AGE = 60000;
+
+	private long now;
+
+	private SpaceSnapshot snapshot;
+
+	@Override
+	protected void setUp() throws Exception {
+		now = 1000;
+		snapshot = new SpaceSnapshot(MAX_AGE) {
+			@Override
+			protected long now() {
+				return now;
+			}
+		};
+	}
+
+	public void testUnchangedRunningApp() throws Exception {
+		UUID guid = UUID.randomUUID();
+		CloudApplication app = createApp(guid, 100, AppState.STARTED, 2);
+		assertFalse(snapshot.isUpToDate(app));
+
+		snapshot.record(app, complete(app, "RUNNING", "RUNNING"));
+		assertTrue(snapshot.isUpToDate(createApp(guid, 100, AppState.STARTED, 2)));
+	}
+
+	public void testChangedApp() throws Exception {
+		UUID guid = UUID.randomUUID();
+		CloudApplication app = createApp(guid, 100, AppState.STARTED, 2);
+		snapshot.record(app, complete(app, "RUNNING", "RUNNING"));
+
+		assertFalse(snapshot.isUpToDate(createApp(guid, 200, AppState.STARTED, 2)));
+		assertFalse(snapshot.isUpToDate(createApp(guid, 100, AppState.STOPPED, 2)));
+		assertFalse(snapshot.isUpToDate(createApp(guid, 100, AppState.STARTED, 3)));
+		assertFalse(snapshot.isUpToDate(createApp(UUID.randomUUID(), 100, AppState.STARTED, 2)));
+	}
+
+	public void testTransitionalAppAlwaysRefreshed() throws Exception {
+		UUID guid = UUID.randomUUID();
+		CloudApplication app = createApp(guid, 100, AppState.STARTED, 2);
+		snapshot.record(app, complete(app, "RUNNING", "STARTING"));
+		assertFalse(snapshot.isUpToDate(app));
+
+		snapshot.record(app, complete(app, "RUNNING", "RUNNING"));
+		assertTrue(snapshot.isUpToDate(app));
+	}
+
+	public void testStoppedAppIsStable() throws Exception {
+		CloudApplication app = createApp(UUID.randomUUID(), 100, AppState.STOPPED, 1);
+		snapshot.record(app, complete(app));
+		assertTrue(snapshot.isUpToDate(app));
+	}
+
+	public void testMaxAge() throws Exception {
+		CloudApplication app = createApp(UUID.randomUUID(), 100, AppState.STOPPED, 1);
+		snapshot.record(app, complete(app));
+
+		now += MAX_AGE;
+		assertTrue(snapshot.isUpToDate(app));
+		now++;
+		assertFalse(snapshot.isUpToDate(app));
+	}
+
+	public void testRetainAndInvalidate() throws Exception {
+		UUID guid = UUID.randomUUID();
+		CloudApplication app = createApp(guid, 100, AppState.STOPPED, 1);
+		CloudApplication other = createApp(UUID.randomUUID(), 100, AppState.STOPPED, 1);
+		snapshot.record(app, complete(app));
+		snapshot.record(other, complete(other));
+
+		snapshot.retainAll(Arrays.asList(app));
+		assertTrue(snapshot.isUpToDate(app));
+		assertFalse(snapshot.isUpToDate(other));
+
+		snapshot.invalidate(guid);
+		assertFalse(snapshot.isUpToDate(app));
+	}
+
+	public void testDisabled() throws Exception {
+		snapshot = new SpaceSnapshot(0);
+		CloudApplication app = createApp(UUID.randomUUID(), 100, AppState.STOPPED, 1);
+		snapshot.record(app, complete(app));
+		assertFalse(snapshot.isUpToDate(app));
+	}
+
+	private static CloudApplication createApp(UUID guid, long updated, AppState state, int instances) {
+		CloudApplication app = new CloudApplication(new Meta(guid, new Date(0), new Date(updated)), "app");
+		app.setState(state);
+		app.setInstances(instances);
+		return app;
+	}
+
+	private static CFV1Application complete(CloudApplication app, String... instanceStates) {
+		List<InstanceStats> records = new ArrayList<InstanceStats>();
+		for (int i = 0; i < instanceStates.length; i++) {
+			Map<String, Object> attributes = new HashMap<String, Object>();
+			attributes.put("state", instanceStates[i]);
+			attributes.put("stats", Collections.emptyMap());
+			records.add(new InstanceStats(String.valueOf(i), attributes));
+		}
+		return new CFV1Application(new ApplicationStats(records), app);
+	}
+}
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import org.eclipse.cft.server.core.internal.UpdateRequestQueue;
+import org.eclipse.cft.server.core.internal.UpdateRequestQueue.Batch;
+import org.eclipse.cft.server.core.internal.UpdateRequestQueue.PendingUpdate;
+import org.eclipse.wst.server.core.IModule;
+
+import junit.framework.TestCase;
+
+public class UpdateRequestQueueTest extends TestCase {
+
+	private UpdateRequestQueue queue;
+
+	@Override
+	protected void setUp() throws Exception {
+		queue = new UpdateRequestQueue(0);
+	}
+
+	public void testEmpty() throws Exception {
+		Batch batch = queue.takeBatch();
+		assertTrue(batch.isEmpty());
+		assertEquals(0, queue.getQueueDepth());
+	}
+
+	public void testRepeatedRequestsCoalesced() throws Exception {
+		IModule module = createModule("app1");
+		queue.addModuleUpdate(module, UpdateRequestQueue.UPDATE_DEPLOYED);
+		queue.addModuleUpdate(module, UpdateRequestQueue.UPDATE_DEPLOYED);
+		queue.addModuleUpdate(module, UpdateRequestQueue.UPDATE_MODULE);
+		queue.addUpdateAll();
+		queue.addUpdateAll();
+
+		assertEquals(2, queue.getQueueDepth());
+		assertEquals(5, queue.getStatistics().getRequests());
+		assertEquals(3, queue.getStatistics().getCoalesced());
+
+		Batch batch = queue.takeBatch();
+		assertTrue(batch.isUpdateAll());
+		assertEquals(1, batch.getAbsorbedModules().size());
+		assertTrue(batch.getModules().isEmpty());
+		assertEquals(0, queue.getQueueDepth());
+		assertEquals(2, queue.getStatistics().getHandled());
+		assertTrue(queue.takeBatch().isEmpty());
+	}
+
+	public void testMergedKinds() throws Exception {
+		IModule module = createModule("app1");
+		queue.addModuleUpdate(module, UpdateRequestQueue.UPDATE_DEPLOYED);
+		queue.addModuleUpdate(module, UpdateRequestQueue.UPDATE_MODULE);
+
+		List<PendingUpdate> modules = queue.takeBatch().getModules();
+		assertEquals(1, modules.size());
+		assertSame(module, modules.get(0).getModule());
+		assertTrue(modules.get(0).isUpdateModule());
+		assertFalse(modules.get(0).isAfterPublish());
+	}
+
+	public void testUpdateAllAbsorbsModuleUpdates() throws Exception {
+		IModule module1 = createModule("app1");
+		IModule module2 = createModule("app2");
+		queue.addModuleUpdate(module1, UpdateRequestQueue.UPDATE_DEPLOYED);
+		queue.addUpdateAll();
+		queue.addModuleUpdate(module2, UpdateRequestQueue.UPDATE_MODULE);
+
+		Batch batch = queue.takeBatch();
+		assertTrue(batch.isUpdateAll());
+		assertTrue(batch.getModules().isEmpty());
+		assertEquals(2, batch.getAbsorbedModules().size());
+		assertTrue(batch.getAbsorbedModules().contains(module1));
+		assertTrue(batch.getAbsorbedModules().contains(module2));
+	}
+
+	public void testUpdateAfterPublishNotAbsorbed() throws Exception {
+		IModule published = createModule("app1");
+		IModule other = createModule("app2");
+		queue.addModuleUpdate(published, UpdateRequestQueue.UPDATE_DEPLOYED);
+		queue.addModuleUpdate(published, UpdateRequestQueue.UPDATE_AFTER_PUBLISH);
+		queue.addModuleUpdate(other, UpdateRequestQueue.UPDATE_DEPLOYED);
+		queue.addUpdateAll();
+
+		Batch batch = queue.takeBatch();
+		assertTrue(batch.isUpdateAll());
+		assertEquals(1, batch.getAbsorbedModules().size());
+		assertSame(other, batch.getAbsorbedModules().get(0));
+		assertEquals(1, batch.getModules().size());
+		assertSame(published, batch.getModules().get(0).getModule());
+		assertTrue(batch.getModules().get(0).isAfterPublish());
+	}
+
+	public void testModuleUpdatesBatchedAboveThreshold() throws Exception {
+		queue = new UpdateRequestQueue(3);
+		IModule published = createModule("published");
+		queue.addModuleUpdate(createModule("app1"), UpdateRequestQueue.UPDATE_DEPLOYED);
+		queue.addModuleUpdate(createModule("app2"), UpdateRequestQueue.UPDATE_MODULE);
+		queue.addModuleUpdate(published, UpdateRequestQueue.UPDATE_AFTER_PUBLISH);
+
+		// Updates after publish do not count towards the threshold
+		Batch batch = queue.takeBatch();
+		assertFalse(batch.isUpdateAll());
+		assertEquals(3, batch.getModules().size());
+
+		queue.addModuleUpdate(createModule("app1"), UpdateRequestQueue.UPDATE_DEPLOYED);
+		queue.addModuleUpdate(createModule("app2"), UpdateRequestQueue.UPDATE_MODULE);
+		queue.addModuleUpdate(createModule("app3"), UpdateRequestQueue.UPDATE_DEPLOYED);
+		queue.addModuleUpdate(published, UpdateRequestQueue.UPDATE_AFTER_PUBLISH);
+
+		batch = queue.takeBatch();
+		assertTrue(batch.isUpdateAll());
+		assertEquals(3, batch.getAbsorbedModules().size());
+		assertEquals(1, batch.getModules().size());
+		assertSame(published, batch.getModules().get(0).getModule());
+	}
+
+	public void testRequestsAfterTakeRunInNextBatch() throws Exception {
+		IModule module = createModule("app1");
+		queue.addModuleUpdate(module, UpdateRequestQueue.UPDATE_DEPLOYED);
+		assertEquals(1, queue.takeBatch().getModules().size());
+
+		queue.addModuleUpdate(module, UpdateRequestQueue.UPDATE_DEPLOYED);
+		assertEquals(1, queue.getQueueDepth());
+		assertEquals(0, queue.getStatistics().getCoalesced());
+		assertEquals(1, queue.takeBatch().getModules().size());
+	}
+
+	private static IModule createModule(final String name) {
+		return (IModule) Proxy.newProxyInstance(UpdateRequestQueueTest.class.getClassLoader(),
+				new Class<?>[] { IModule.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("getName".equals(method.getName()) || "getId".equals(method.getName())) {
+							return name;
+						}
+						if ("hashCode".equals(method.getName())) {
+							return System.identityHashCode(proxy);
+						}
+						if ("equals".equals(method.getName())) {
+							return proxy == args[0];
+						}
+						if (method.getReturnType() == boolean.class) {
+							return false;
+						}
+						return null;
+					}
+				});
+	}
+}
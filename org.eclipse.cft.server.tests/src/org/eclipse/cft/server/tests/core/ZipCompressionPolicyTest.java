@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ * The Eclipse Public License is available at
+ *
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * and the Apache License v2.0 is available at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ *
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.tests.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+
+import org.eclipse.cft.server.core.internal.ZipCompressionPolicy;
+
+import junit.framework.TestCase;
+
+public class ZipCompressionPolicyTest extends TestCase {
+
+	private ZipCompressionPolicy policy;
+
+	@Override
+	protected void setUp() throws Exception {
+		policy = new ZipCompressionPolicy(Deflater.BEST_COMPRESSION);
+	}
+
+	public void testCompressedExtensions() throws Exception {
+		assertEquals(Deflater.NO_COMPRESSION, policy.getLevel("WEB-INF/lib/spring-core.jar", null));
+		assertEquals(Deflater.NO_COMPRESSION, policy.getLevel("images/LOGO.PNG", null));
+	}
+
+	public void testTextExtensions() throws Exception {
+		assertEquals(Deflater.BEST_SPEED, policy.getLevel("index.html", null));
+		assertEquals(Deflater.BEST_SPEED, policy.getLevel("WEB-INF/web.xml", null));
+	}
+
+	public void testUnknownExtensionUsesPolicyLevel() throws Exception {
+		assertEquals(Deflater.BEST_COMPRESSION, policy.getLevel("WEB-INF/classes/Foo.class", null));
+		assertEquals(Deflater.BEST_COMPRESSION, policy.getLevel(".jar/noextension", null));
+	}
+
+	public void testMagicBytesDetected() throws Exception {
+		InputStream content = new ByteArrayInputStream(new byte[] { 'P', 'K', 3, 4, 10, 0 });
+		assertEquals(Deflater.NO_COMPRESSION, policy.getLevel("data/archive.bin", content));
+		// Stream is reset so the full content is still written
+		assertEquals('P', content.read());
+
+		content = new ByteArrayInputStream(new byte[] { 'P', 'K' });
+		assertEquals(Deflater.BEST_COMPRESSION, policy.getLevel("data/short.bin", content));
+	}
+}
@@ -62,15 +62,15 @@ import org.eclipse.core.runtime.IProgressMonitor;
  */
 public class ModulesRefreshListener implements CloudServerListener {
 
-	protected boolean refreshed = false;
+	protected volatile boolean refreshed = false;
 
 	protected final CloudFoundryServer cloudServer;
 
-	protected String error;
+	protected volatile String error;
 
 	protected final int eventToExpect;
 
-	protected CloudServerEvent matchedEvent = null;
+	protected volatile CloudServerEvent matchedEvent = null;
 
 	public CloudServerEvent getMatchedEvent() {
 		return matchedEvent;
@@ -294,6 +294,8 @@ public class Messages extends NLS {
 
 	public static String ERROR_APPLICATION_LOG;
 
+	public static String ApplicationLogConsoleStream_LOGS_DROPPED;
+
 	public static String ERROR_INVALID_MEMORY;
 
 	public static String ERROR_FAILED_INITIALISE_APPLICATION_LOG_STREAM;
@@ -388,6 +390,12 @@ public class Messages extends NLS {
 
 	public static String ROUTES_SHOW_REMOVED;
 
+	public static String BatchApplicationCommand_ERROR_TITLE;
+
+	public static String BatchApplicationCommand_ERROR_DIFFERENT_SERVERS;
+
+	public static String BatchApplicationCommand_ERROR_NO_SERVER;
+
 	public static String UpdatePasswordCommand_ERROR_PW_UPDATE_BODY;
 
 	public static String UpdatePasswordCommand_TEXT_PW_UPDATE;
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Pivotal Software, Inc. and others
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution. 
+ * 
+ * The Eclipse Public License is available at 
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * and the Apache License v2.0 is available at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * You may elect to redistribute this code under either of these licenses.
+ *  
+ *  Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+ ********************************************************************************/
+package org.eclipse.cft.server.ui.internal.actions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.cft.server.core.internal.ApplicationAction;
+import org.eclipse.cft.server.core.internal.CloudFoundryPlugin;
+import org.eclipse.cft.server.core.internal.CloudFoundryServer;
+import org.eclipse.cft.server.core.internal.client.BatchApplicationOperation;
+import org.eclipse.cft.server.ui.internal.Messages;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.ui.handlers.HandlerUtil;
+import org.eclipse.wst.server.core.IModule;
+import org.eclipse.wst.server.core.IServer;
+import org.eclipse.wst.server.ui.IServerModule;
+
+/**
+ * Starts, stops or restarts all applications selected in the Servers view at
+ * once, rather than one after the other. The action is determined by the id
+ * of the executed command. Starting applications skips those that are
+ * already running.
+ */
+public class BatchApplicationCommand extends BaseCommandHandler {
+
+	public static final String START_COMMAND_ID = "org.eclipse.cft.server.ui.internal.actions.startapplicationscommand"; //$NON-NLS-1$
+
+	public static final String STOP_COMMAND_ID = "org.eclipse.cft.server.ui.internal.actions.stopapplicationscommand"; //$NON-NLS-1$
+
+	public static final String RESTART_COMMAND_ID = "org.eclipse.cft.server.ui.internal.actions.restartapplicationscommand"; //$NON-NLS-1$
+
+	public Object execute(ExecutionEvent event) throws ExecutionException {
+		ApplicationAction action = getAction(event.getCommand() != null ? event.getCommand().getId() : null);
+		if (action == null) {
+			CloudFoundryPlugin.logError("Unknown command to run on the selected applications."); //$NON-NLS-1$
+			return null;
+		}
+
+		IServer server = null;
+		List<IModule> modules = new ArrayList<IModule>();
+		ISelection selection = HandlerUtil.getCurrentSelection(event);
+		if (selection instanceof IStructuredSelection) {
+			for (Object obj : ((IStructuredSelection) selection).toList()) {
+				if (obj instanceof IServerModule) {
+					IServerModule serverModule = (IServerModule) obj;
+					IModule[] module = serverModule.getModule();
+					if (server == null) {
+						server = serverModule.getServer();
+					}
+					else if (!server.equals(serverModule.getServer())) {
+						MessageDialog.openError(HandlerUtil.getActiveShell(event),
+								Messages.BatchApplicationCommand_ERROR_TITLE,
+								Messages.BatchApplicationCommand_ERROR_DIFFERENT_SERVERS);
+						return null;
+					}
+					if (action == ApplicationAction.START && module != null
+							&& server.getModuleState(module) == IServer.STATE_STARTED) {
+						continue;
+					}
+					if (module != null && module.length > 0 && !modules.contains(module[module.length - 1])) {
+						modules.add(module[module.length - 1]);
+					}
+				}
+			}
+		}
+
+		CloudFoundryServer cloudServer = server != null
+				? (CloudFoundryServer) server.loadAdapter(CloudFoundryServer.class, null) : null;
+		if (cloudServer == null) {
+			MessageDialog.openError(HandlerUtil.getActiveShell(event), Messages.BatchApplicationCommand_ERROR_TITLE,
+					Messages.BatchApplicationCommand_ERROR_NO_SERVER);
+			return null;
+		}
+		if (modules.isEmpty()) {
+			// Nothing to run, for example all selected applications are
+			// already running
+			return null;
+		}
+
+		try {
+			doRun(cloudServer.getBehaviour().operations().batchApplicationDeployment(
+					modules.toArray(new IModule[0]), action, true));
+		}
+		catch (CoreException e) {
+			CloudFoundryPlugin.log(e);
+		}
+		return null;
+	}
+
+	protected void doRun(final BatchApplicationOperation operation) {
+		Job job = new Job(operation.getOperationName()) {
+
+			protected IStatus run(IProgressMonitor monitor) {
+				try {
+					operation.run(monitor);
+				}
+				catch (OperationCanceledException e) {
+					return Status.CANCEL_STATUS;
+				}
+				catch (CoreException e) {
+					// Reports which of the applications failed
+					CloudFoundryPlugin.log(e.getStatus());
+					return e.getStatus();
+				}
+				return Status.OK_STATUS;
+			}
+		};
+
+		job.schedule();
+	}
+
+	protected static ApplicationAction getAction(String commandId) {
+		if (START_COMMAND_ID.equals(commandId)) {
+			return ApplicationAction.START;
+		}
+		else if (RESTART_COMMAND_ID.equals(commandId)) {
+			return ApplicationAction.RESTART;
+		}
+		else if (STOP_COMMAND_ID.equals(commandId)) {
+			return ApplicationAction.STOP;
+		}
+		return null;
+	}
+}
@@ -24,18 +24,26 @@ import static org.eclipse.cft.server.core.internal.log.LogContentType.APPLICATIO
 import static org.eclipse.cft.server.core.internal.log.LogContentType.APPLICATION_LOG_STS_ERROR;
 import static org.eclipse.cft.server.core.internal.log.LogContentType.APPLICATION_LOG_UNKNOWN;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
 import org.eclipse.cft.server.core.internal.CloudErrorUtil;
 import org.eclipse.cft.server.core.internal.CloudFoundryPlugin;
 import org.eclipse.cft.server.core.internal.client.CloudFoundryServerBehaviour;
-import org.eclipse.cft.server.core.internal.log.CFApplicationLogListener;
+import org.eclipse.cft.server.core.internal.log.ApplicationLogArchive;
 import org.eclipse.cft.server.core.internal.log.CFStreamingLogToken;
 import org.eclipse.cft.server.core.internal.log.CloudLog;
 import org.eclipse.cft.server.core.internal.log.LogContentType;
+import org.eclipse.cft.server.core.internal.log.LogIngestionPipeline;
+import org.eclipse.cft.server.core.internal.log.LogIngestionPipeline.LogBatchListener;
+import org.eclipse.cft.server.core.internal.log.LogRecord;
 import org.eclipse.cft.server.ui.internal.Messages;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.NullProgressMonitor;
@@ -55,6 +63,16 @@ import org.eclipse.ui.console.IOConsoleOutputStream;
  * 
  * 
  * <p/>
+ * Streamed logs go through a {@link LogIngestionPipeline}, so that the thread
+ * receiving them is never blocked by the console, and are written to the
+ * console in batches, with one write per consecutive run of logs of the same
+ * type. Logs are written from their UTF-8 encoded {@link LogRecord} payload,
+ * without creating intermediate strings.
+ * <p/>
+ * Streamed logs are also appended to the {@link ApplicationLogArchive} of the
+ * application, if archiving is enabled, and the most recently archived logs
+ * are written to the console when the stream is initialised.
+ * <p/>
  * Closing the manager closes all active streams, as well as cancels any further
  * loggregator callbacks.
  * 
@@ -64,10 +82,19 @@ public class ApplicationLogConsoleStream extends ConsoleStream {
 
 	private CFStreamingLogToken streamingToken;
 
+	private LogIngestionPipeline pipeline;
+
+	private volatile ApplicationLogArchive archive;
+
 	private Map<LogContentType, ConsoleStream> logStreams = new HashMap<LogContentType, ConsoleStream>();
 
 	private ConsoleConfig consoleDescriptor;
 
+	/**
+	 * Reused to collect the payloads of a run of logs of the same type
+	 */
+	private final ByteArrayOutputStream run = new ByteArrayOutputStream();
+
 	public ApplicationLogConsoleStream() {
 
 	}
@@ -83,6 +110,13 @@ public class ApplicationLogConsoleStream extends ConsoleStream {
 			streamingToken.cancel();
 			streamingToken = null;
 		}
+		if (pipeline != null) {
+			pipeline.close();
+			CloudFoundryPlugin.trace("Application log stream closed. Received " + pipeline.getReceived() //$NON-NLS-1$
+					+ ", dropped " + pipeline.getDropped() + ", rendered " + pipeline.getRendered()); //$NON-NLS-1$ //$NON-NLS-2$
+			pipeline = null;
+		}
+		archive = null;
 	}
 
 	public synchronized void initialiseStream(ConsoleConfig descriptor) throws CoreException {
@@ -95,11 +129,40 @@ public class ApplicationLogConsoleStream extends ConsoleStream {
 		if (streamingToken == null) {
 
 			CloudFoundryServerBehaviour behaviour = consoleDescriptor.getCloudServer().getBehaviour();
+			String appName = consoleDescriptor.getCloudApplicationModule().getDeployedApplicationName();
+
+			archive = CloudFoundryPlugin.getDefault().getApplicationLogArchive(consoleDescriptor.getCloudServer(),
+					appName);
+			replayArchive();
+
+			pipeline = LogIngestionPipeline.fromPreferences(new ApplicationLogConsoleListener());
+			streamingToken = behaviour.startAppLogStreaming(appName, pipeline, new NullProgressMonitor());
 
-			streamingToken = behaviour.startAppLogStreaming(
-					consoleDescriptor.getCloudApplicationModule().getDeployedApplicationName(),
-					new ApplicationLogConsoleListener(), new NullProgressMonitor());
+		}
+	}
 
+	/**
+	 * Writes the most recently archived logs of the application to the
+	 * console, so that logs received in an earlier session remain visible.
+	 */
+	protected void replayArchive() {
+		int replayCount = ApplicationLogArchive.getReplayCount();
+		if (archive == null || replayCount <= 0) {
+			return;
+		}
+		try {
+			List<LogRecord> records = new ArrayList<LogRecord>();
+			for (CloudLog log : archive.tail(replayCount)) {
+				records.add(new LogRecord().set(log));
+			}
+			write(records, 0);
+		}
+		catch (IOException e) {
+			CloudFoundryPlugin.logError("Failed to read archived logs of " //$NON-NLS-1$
+					+ consoleDescriptor.getCloudApplicationModule().getDeployedApplicationName(), e);
+		}
+		catch (CoreException e) {
+			CloudFoundryPlugin.logError(e);
 		}
 	}
 
@@ -161,16 +224,25 @@ public class ApplicationLogConsoleStream extends ConsoleStream {
 	}
 
 	/**
-	 * Listener that receives loggregator content and sends it to the
-	 * appropriate stream.
+	 * Listener that receives batches of loggregator content and sends it to
+	 * the appropriate stream.
 	 *
 	 */
-	public class ApplicationLogConsoleListener implements CFApplicationLogListener {
+	public class ApplicationLogConsoleListener implements LogBatchListener {
 
-		public void onMessage(CloudLog appLog) {
+		public void onBatch(List<LogRecord> records, long dropped) {
+			ApplicationLogArchive logArchive = archive;
+			if (logArchive != null) {
+				try {
+					logArchive.append(records);
+				}
+				catch (IOException e) {
+					onError(e);
+				}
+			}
 			if (isActive()) {
 				try {
-					write(appLog);
+					write(records, dropped);
 				}
 				catch (CoreException e) {
 					onError(e);
@@ -218,4 +290,53 @@ public class ApplicationLogConsoleStream extends ConsoleStream {
 		}
 	}
 
+	/**
+	 * Writes a batch of CF application logs to the console. The payloads of
+	 * consecutive logs of the same content type are written to the
+	 * corresponding stream in a single write.
+	 * @param records
+	 * @param dropped number of logs that were discarded before this batch,
+	 * which is indicated in the console
+	 */
+	public synchronized void write(List<LogRecord> records, long dropped) throws CoreException {
+		if (dropped > 0) {
+			write(new CloudLog(NLS.bind(Messages.ApplicationLogConsoleStream_LOGS_DROPPED, dropped),
+					APPLICATION_LOG_UNKNOWN));
+		}
+		LogContentType contentType = null;
+		for (LogRecord record : records) {
+			if (record == null || record.getLength() == 0) {
+				continue;
+			}
+			if (contentType != null && !contentType.equals(record.getLogType())) {
+				writeRun(contentType);
+			}
+			contentType = record.getLogType();
+			run.write(record.getPayload(), 0, record.getLength());
+		}
+		writeRun(contentType);
+	}
+
+	private void writeRun(LogContentType type) throws CoreException {
+		if (type != null && run.size() > 0) {
+			IOConsoleOutputStream activeOutStream = getOutputStream(type);
+			if (activeOutStream != null) {
+				try {
+					String encoding = activeOutStream.getEncoding();
+					Charset charset = encoding != null ? Charset.forName(encoding) : Charset.defaultCharset();
+					if (StandardCharsets.UTF_8.equals(charset)) {
+						run.writeTo(activeOutStream);
+					}
+					else {
+						activeOutStream.write(new String(run.toByteArray(), StandardCharsets.UTF_8));
+					}
+				}
+				catch (IOException e) {
+					throw CloudErrorUtil.toCoreException(e);
+				}
+			}
+		}
+		run.reset();
+	}
+
 }